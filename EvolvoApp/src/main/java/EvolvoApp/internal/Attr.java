@@ -91,6 +91,11 @@ import org.cytoscape.model.CyColumn;
  *   {@code Attr(network, node, "isColorRed?").shared().set(true)}
  * </blockquote>
  * </p>
+ *
+ * <p>
+ * Each call builds a new {@code Attr} and looks the column up again.
+ * For attributes read or written in a loop, bind a {@link TypedColumn} once instead.
+ * </p>
  */
 public class Attr {
     CyNetwork net          = null;
@@ -322,6 +327,14 @@ public class Attr {
         row().set(column, value);
     }
 
+    /**
+     * Assign the attribute as a double.
+     */
+    public void set(Double value) {
+        ensureColumn(Double.class);
+        row().set(column, value);
+    }
+
     // -------------------------------------------
 
     public String toString() {
@@ -4,6 +4,7 @@ import java.net.URL;
 import java.net.URLConnection;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
+import java.io.File;
 import java.io.InputStream;
 import java.io.IOException;
 import java.io.BufferedReader;
@@ -24,10 +25,12 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Set;
 import java.util.Properties;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.osgi.framework.BundleContext;
 
@@ -35,17 +38,16 @@ import org.cytoscape.model.CyNetworkFactory;
 import org.cytoscape.model.CyNetworkManager;
 import org.cytoscape.model.CyNetwork;
 import org.cytoscape.model.CyNode;
-import org.cytoscape.model.CyEdge;
 import org.cytoscape.model.CyTable;
 import org.cytoscape.model.CyColumn;
 import org.cytoscape.model.CyRow;
+import org.cytoscape.model.CyTableUtil;
 
-import org.cytoscape.model.subnetwork.CyRootNetwork;
-import org.cytoscape.model.subnetwork.CySubNetwork;
+import org.cytoscape.model.events.ColumnDeletedEvent;
+import org.cytoscape.model.events.ColumnDeletedListener;
 
 import org.cytoscape.event.CyEventHelper;
 
-import org.cytoscape.group.CyGroup;
 import org.cytoscape.group.CyGroupFactory;
 import org.cytoscape.group.CyGroupManager;
 
@@ -54,7 +56,9 @@ import org.cytoscape.view.model.View;
 import org.cytoscape.view.model.CyNetworkView;
 import org.cytoscape.view.model.CyNetworkViewFactory;
 import org.cytoscape.view.model.CyNetworkViewManager;
+import org.cytoscape.view.model.events.ViewChangedListener;
 import org.cytoscape.view.presentation.property.BasicVisualLexicon;
+import org.cytoscape.view.vizmap.VisualMappingFunction;
 import org.cytoscape.view.vizmap.VisualMappingManager;
 
 import org.cytoscape.view.layout.CyLayoutAlgorithm;
@@ -64,13 +68,19 @@ import org.cytoscape.work.Task;
 import org.cytoscape.work.TaskIterator;
 import org.cytoscape.work.TaskFactory;
 import org.cytoscape.work.TaskMonitor;
+import org.cytoscape.work.SynchronousTaskManager;
 import org.cytoscape.work.Tunable;
 import static org.cytoscape.work.ServiceProperties.*;
 
 import org.cytoscape.task.NodeViewTaskFactory;
+import org.cytoscape.task.NetworkViewTaskFactory;
+
+import org.cytoscape.session.events.SessionAboutToBeSavedEvent;
+import org.cytoscape.session.events.SessionAboutToBeSavedListener;
 
 import org.codehaus.jackson.JsonFactory;
 import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
 import org.codehaus.jackson.JsonGenerator;
 import org.codehaus.jackson.JsonGenerationException;
 import org.codehaus.jackson.JsonParseException;
@@ -92,6 +102,8 @@ public class CyActivator extends AbstractCyActivator {
     public static CyLayoutAlgorithmManager layoutMgr = null;
     public static CyEventHelper eventHelper = null;
     public static VisualMappingManager vizMapMgr = null;
+    public static Engine engine = null;
+    public static LevelOfDetail levelOfDetail = null;
 
     public CyActivator() {
         super();
@@ -104,18 +116,6 @@ public class CyActivator extends AbstractCyActivator {
         return props;
     }
 
-    private static enum EvolvoAction {
-        REPLACE,
-        AUGMENT;
-
-        public static EvolvoAction get(final CyNetwork net) {
-            final String actionName = Attr(net, "Evolvo-action").Str();
-            for (final EvolvoAction action : EvolvoAction.values())
-                if (actionName.equalsIgnoreCase(action.name()))
-                    return action;
-            return null;
-        }
-    }
 
     public void start(BundleContext bc) {
         netFct = getService(bc, CyNetworkFactory.class);
@@ -127,6 +127,9 @@ public class CyActivator extends AbstractCyActivator {
         layoutMgr = getService(bc, CyLayoutAlgorithmManager.class);
         eventHelper = getService(bc, CyEventHelper.class);
         vizMapMgr = getService(bc, VisualMappingManager.class);
+        engine = new ModelEngine(netFct, eventHelper);
+        levelOfDetail = new LevelOfDetail(engine, getService(bc, SynchronousTaskManager.class));
+        registerService(bc, levelOfDetail, ViewChangedListener.class, new Properties());
 
         registerService(bc, new TaskFactory() {
             public TaskIterator createTaskIterator() {
@@ -143,20 +146,28 @@ public class CyActivator extends AbstractCyActivator {
             PREFERRED_MENU, "Apps"
         ));
 
+        registerService(bc, new TaskFactory() {
+            public TaskIterator createTaskIterator() {
+                TaskIterator taskIterator = new TaskIterator();
+                taskIterator.append(new RestoreSnapshotTask(taskIterator));
+                return taskIterator;
+            }
+
+            public boolean isReady() {
+                return true;
+            }
+        }, TaskFactory.class, ezProps(
+            TITLE, "Evolvo: Restore snapshot",
+            PREFERRED_MENU, "Apps"
+        ));
+
         registerService(bc, new NodeViewTaskFactory() {
             public TaskIterator createTaskIterator(View<CyNode> nodeView, CyNetworkView netView) {
-                final TaskIterator taskIterator = new TaskIterator();
-                if (EvolvoAction.get(netView.getModel()).equals(EvolvoAction.REPLACE)) {
-                    taskIterator.append(new ReplaceExpandTask(nodeView, netView));
-                } else {
-                    taskIterator.append(new AugmentExpandTask(nodeView, netView));
-                }
-                taskIterator.append(new LayoutTask(netView, taskIterator));
-                return taskIterator;
+                return expandTasks(nodeView, netView);
             }
 
             public boolean isReady(View<CyNode> nodeView, CyNetworkView netView) {
-                return isExpandable(netView.getModel(), nodeView.getModel());
+                return engine.isExpandable(netView.getModel(), nodeView.getModel());
             }
 
         }, NodeViewTaskFactory.class, ezProps(
@@ -166,18 +177,11 @@ public class CyActivator extends AbstractCyActivator {
 
         registerService(bc, new NodeViewTaskFactory() {
             public TaskIterator createTaskIterator(View<CyNode> nodeView, CyNetworkView netView) {
-                final TaskIterator taskIterator = new TaskIterator();
-                if (EvolvoAction.get(netView.getModel()).equals(EvolvoAction.REPLACE)) {
-                    taskIterator.append(new ReplaceCollapseTask(nodeView, netView, true));
-                } else {
-                    taskIterator.append(new AugmentCollapseTask(nodeView, netView, true));
-                }
-                taskIterator.append(new LayoutTask(netView, taskIterator));
-                return taskIterator;
+                return collapseTasks(nodeView, netView, true);
             }
 
             public boolean isReady(View<CyNode> nodeView, CyNetworkView netView) {
-                return isCollapsable(netView.getModel(), nodeView.getModel());
+                return engine.isCollapsable(netView.getModel(), nodeView.getModel());
             }
 
         }, NodeViewTaskFactory.class, ezProps(
@@ -187,27 +191,93 @@ public class CyActivator extends AbstractCyActivator {
 
         registerService(bc, new NodeViewTaskFactory() {
             public TaskIterator createTaskIterator(View<CyNode> nodeView, CyNetworkView netView) {
-                final TaskIterator taskIterator = new TaskIterator();
-                if (EvolvoAction.get(netView.getModel()).equals(EvolvoAction.REPLACE)) {
-                    taskIterator.append(new ReplaceCollapseTask(nodeView, netView, false));
-                } else {
-                    taskIterator.append(new AugmentCollapseTask(nodeView, netView, false));
-                }
-                taskIterator.append(new LayoutTask(netView, taskIterator));
-                return taskIterator;
+                return collapseTasks(nodeView, netView, false);
             }
 
             public boolean isReady(View<CyNode> nodeView, CyNetworkView netView) {
-                return isCollapsable(netView.getModel(), nodeView.getModel());
+                return engine.isCollapsable(netView.getModel(), nodeView.getModel());
             }
 
         }, NodeViewTaskFactory.class, ezProps(
             TITLE, "Evolvo: Collapse",
             PREFERRED_MENU, "Apps"
         ));
+
+        registerService(bc, new NetworkViewTaskFactory() {
+            public TaskIterator createTaskIterator(CyNetworkView netView) {
+                final TaskIterator taskIterator = new TaskIterator();
+                taskIterator.append(new FindAndRevealTask(netView));
+                taskIterator.append(new LayoutTask(netView, taskIterator));
+                return taskIterator;
+            }
+
+            public boolean isReady(CyNetworkView netView) {
+                return Attr(netView.getModel(), "Evolvo-url").Str() != null;
+            }
+
+        }, NetworkViewTaskFactory.class, ezProps(
+            TITLE, "Evolvo: Find and reveal",
+            PREFERRED_MENU, "Apps"
+        ));
+
+        registerService(bc, new NetworkViewTaskFactory() {
+            public TaskIterator createTaskIterator(CyNetworkView netView) {
+                return new TaskIterator(new LevelOfDetailTask(netView));
+            }
+
+            public boolean isReady(CyNetworkView netView) {
+                return Attr(netView.getModel(), "Evolvo-url").Str() != null;
+            }
+
+        }, NetworkViewTaskFactory.class, ezProps(
+            TITLE, "Evolvo: Level of detail",
+            PREFERRED_MENU, "Apps"
+        ));
+
+        registerService(bc, new NetworkViewTaskFactory() {
+            public TaskIterator createTaskIterator(CyNetworkView netView) {
+                return new TaskIterator(new LoadAttributesTask(netView));
+            }
+
+            public boolean isReady(CyNetworkView netView) {
+                return Attr(netView.getModel(), "Evolvo-columns").Str() != null;
+            }
+
+        }, NetworkViewTaskFactory.class, ezProps(
+            TITLE, "Evolvo: Load all attributes of selected nodes",
+            PREFERRED_MENU, "Apps"
+        ));
+
+        registerService(bc, new NetworkViewTaskFactory() {
+            public TaskIterator createTaskIterator(CyNetworkView netView) {
+                return new TaskIterator(new RefreshTask(netView));
+            }
+
+            public boolean isReady(CyNetworkView netView) {
+                return Attr(netView.getModel(), "Evolvo-version").Str() != null;
+            }
+
+        }, NetworkViewTaskFactory.class, ezProps(
+            TITLE, "Evolvo: Refresh",
+            PREFERRED_MENU, "Apps"
+        ));
+
+        registerService(bc, new SessionAboutToBeSavedListener() {
+            public void handleEvent(SessionAboutToBeSavedEvent e) {
+                for (final CyNetwork net : netMgr.getNetworkSet()) {
+                    HiddenParents.save(net);
+                    ExpansionOrder.save(net);
+                }
+            }
+        }, SessionAboutToBeSavedListener.class, new Properties());
+
+        registerService(bc, new ColumnDeletedListener() {
+            public void handleEvent(ColumnDeletedEvent e) {
+                EvolvoColumns.columnDeleted(e.getSource(), e.getColumnName());
+            }
+        }, ColumnDeletedListener.class, new Properties());
     }
 
-    private static final JsonFactory jsonFactory = new JsonFactory();
 
     public static class OpenNetworkTask implements Task {
         final TaskIterator taskIterator;
@@ -216,59 +286,140 @@ public class CyActivator extends AbstractCyActivator {
             this.taskIterator = taskIterator;
         }
 
-        @Tunable(description="URL")
+        @Tunable(description="URL or local file")
         public String url = "http://localhost:8000/augment";
 
-        public void run(final TaskMonitor monitor) throws Exception {
-            final URLConnection urlconn = (new URL(url)).openConnection();
+        @Tunable(description="Maximum visible nodes before auto-collapse (0 for no limit)")
+        public int maxNodes = 0;
+
+        @Tunable(description="Maximum visible edges before auto-collapse (0 for no limit)")
+        public int maxEdges = 0;
+
+        @Tunable(description="Summarize edges to collapsed nodes as meta-edges")
+        public boolean aggregateEdges = false;
+
+        @Tunable(description="Edge column to summarize in meta-edges")
+        public String aggregateColumn = "";
 
+        @Tunable(description="Snapshot log file (blank for none)")
+        public String snapshot = "";
+
+        @Tunable(description="Shards: 'hash url ...' or 'prefix key=url ...' (blank for one server)")
+        public String shards = "";
+
+        @Tunable(description="Hedge to another replica after this percentile of its response times (0 for never)")
+        public double hedgePercentile = 0.0;
+
+        @Tunable(description="Columns to fetch besides the node column (blank for all)")
+        public String columns = styleColumns();
+
+        public void run(final TaskMonitor monitor) throws Exception {
             monitor.setTitle("Evolvo: Opening network");
             monitor.setStatusMessage(url);
 
-            final CyNetwork net = Utils.newNetwork(String.format("Evolvo: %s", url));
+            final Engine.OpenSettings settings = new Engine.OpenSettings();
+            settings.location = url;
+            settings.maxNodes = maxNodes;
+            settings.maxEdges = maxEdges;
+            settings.aggregateEdges = aggregateEdges;
+            settings.aggregateColumn = aggregateColumn;
+            settings.snapshot = snapshot;
+            settings.shards = shards;
+            settings.hedgePercentile = hedgePercentile;
+            settings.columns = columns;
+            final CyNetwork net = engine.open(settings);
+
+            final Trace trace = Trace.start("view", net, url);
+            try {
+                netMgr.addNetwork(net);
+                trace.phase("register");
+                final CyNetworkView netView = Utils.newNetworkView(net);
+                trace.phase("view");
+                taskIterator.append(new LayoutTask(netView, taskIterator));
+            } finally {
+                trace.end();
+            }
+            ModelEngine.logger.debug(String.format("Evolvo: opened %s with %d nodes", url, net.getNodeCount()));
+        }
+
+        public void cancel() {}
+    }
+
+    /**
+     * Return the columns the current visual style maps, with the ones Evolvo
+     * itself needs: "x", "y" and "expandable". This is what <i>Evolvo: Open
+     * network</i> fetches unless told otherwise.
+     */
+    static String styleColumns() {
+        final Set<String> columns = new LinkedHashSet<String>(Arrays.asList("x", "y", "expandable"));
+        if (vizMapMgr != null)
+            for (final VisualMappingFunction<?,?> mapping : vizMapMgr.getCurrentVisualStyle().getAllVisualMappingFunctions())
+                columns.add(mapping.getMappingColumnName());
+        final StringBuilder builder = new StringBuilder();
+        for (final String column : columns) {
+            if (builder.length() > 0)
+                builder.append(' ');
+            builder.append(column);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Rebuilds a network from its snapshot log without contacting the server.
+     */
+    public static class RestoreSnapshotTask implements Task {
+        final TaskIterator taskIterator;
+
+        public RestoreSnapshotTask(final TaskIterator taskIterator) {
+            this.taskIterator = taskIterator;
+        }
+
+        @Tunable(description="Snapshot log file")
+        public String snapshot = "";
 
-            Attr(net, "Evolvo-url").set(url);
-            Attr(net, "Evolvo-action").set(urlconn.getHeaderField("Evolvo-action"));
-            Attr(net, "Evolvo-node-column").set(urlconn.getHeaderField("Evolvo-node-column"));
-            net.getDefaultNetworkTable().createListColumn("Evolvo-hidden-parents", Long.class, false, new ArrayList<Long>());
+        public void run(final TaskMonitor monitor) throws Exception {
+            monitor.setTitle("Evolvo: Restoring snapshot");
+            monitor.setStatusMessage(snapshot);
 
-            final InputStream input = urlconn.getInputStream();
-            final JsonParser jsonParser = jsonFactory.createJsonParser(input);
-            JsonNetworkReader.read(jsonParser, net);
-            input.close();
+            final CyNetwork net = engine.restore(new File(snapshot));
 
-            eventHelper.flushPayloadEvents();
+            netMgr.addNetwork(net);
             final CyNetworkView netView = Utils.newNetworkView(net);
             taskIterator.append(new LayoutTask(netView, taskIterator));
-
-            System.out.println();
-            System.out.println("OpenNetworkTask");
-            dumpNet(net);
         }
 
         public void cancel() {}
     }
 
-    private static boolean isExpandable(final CyNetwork net, final CyNode node) {
-        boolean expandable = true;
-        if (net.getDefaultNodeTable().getColumn("expandable") != null) {
-            expandable = Attr(net, node, "expandable").Bool(false);
-        }
-        final boolean expanded = Attr(net, node, "Evolvo-expanded").Bool(false);
-        return (expandable && !expanded);
+
+    /**
+     * The tasks of <i>Evolvo: Expand</i>.
+     */
+    static TaskIterator expandTasks(final View<CyNode> nodeView, final CyNetworkView netView) {
+        final TaskIterator taskIterator = new TaskIterator();
+        final LayoutTask layoutTask = new LayoutTask(netView, taskIterator);
+        taskIterator.append(new ExpandTask(nodeView, netView, layoutTask));
+        taskIterator.append(new AutoCollapseTask(nodeView, netView));
+        taskIterator.append(layoutTask);
+        return taskIterator;
     }
 
-    private static boolean isCollapsable(final CyNetwork net, final CyNode node) {
-        if (EvolvoAction.get(net).equals(EvolvoAction.REPLACE)) {
-            return Attr(net, node, "Evolvo-parent").Long() != null;
-        } else {
-            return Attr(net, node, "Evolvo-expanded").Bool(false);
-        }
+    /**
+     * The tasks of <i>Evolvo: Collapse</i>, or of <i>Evolvo: Collapse &amp; Clear</i> if {@code clear}.
+     */
+    static TaskIterator collapseTasks(final View<CyNode> nodeView, final CyNetworkView netView, final boolean clear) {
+        final TaskIterator taskIterator = new TaskIterator();
+        taskIterator.append(new CollapseTask(nodeView, netView, clear));
+        taskIterator.append(new LayoutTask(netView, taskIterator));
+        return taskIterator;
     }
 
     private static class LayoutTask implements Task {
         final CyNetworkView netView;
         final TaskIterator taskIterator;
+        /** Set when every node already has its position, so only the style is applied */
+        boolean skip = false;
+
         public LayoutTask(final CyNetworkView netView, final TaskIterator taskIterator) {
             this.netView = netView;
             this.taskIterator = taskIterator;
@@ -277,350 +428,267 @@ public class CyActivator extends AbstractCyActivator {
         public void run(TaskMonitor monitor) {
             final CyNetwork net = netView.getModel();
             final CyTable nodeTable = net.getDefaultNodeTable();
-            if (nodeTable.getColumn("x") == null || nodeTable.getColumn("y") == null) {
-                Utils.applyLayout(netView, "hierarchical", taskIterator);
-            } else {
-                for (final CyNode node : net.getNodeList()) {
-                    final View<CyNode> nodeView = netView.getNodeView(node);
-                    final CyRow row = nodeTable.getRow(node.getSUID());
-                    final Number x = row.get("x", Number.class);
-                    final Number y = row.get("y", Number.class);
-                    if (x != null && y != null) {
-                        nodeView.setVisualProperty(BasicVisualLexicon.NODE_X_LOCATION, x.doubleValue());
-                        nodeView.setVisualProperty(BasicVisualLexicon.NODE_Y_LOCATION, y.doubleValue());
+            final Trace trace = Trace.start("layout", net, (String) null);
+            try {
+                if (skip) {
+                    // nothing to lay out
+                } else if (nodeTable.getColumn("x") == null || nodeTable.getColumn("y") == null) {
+                    Utils.applyLayout(netView, "hierarchical", taskIterator);
+                    trace.phase("hierarchical");
+                } else {
+                    for (final CyNode node : net.getNodeList()) {
+                        final View<CyNode> nodeView = netView.getNodeView(node);
+                        final CyRow row = nodeTable.getRow(node.getSUID());
+                        final Number x = row.get("x", Number.class);
+                        final Number y = row.get("y", Number.class);
+                        if (x != null && y != null) {
+                            nodeView.setVisualProperty(BasicVisualLexicon.NODE_X_LOCATION, x.doubleValue());
+                            nodeView.setVisualProperty(BasicVisualLexicon.NODE_Y_LOCATION, y.doubleValue());
+                        }
                     }
+                    trace.phase("positions");
                 }
+                vizMapMgr.getCurrentVisualStyle().apply(netView);
+                trace.phase("style");
+            } finally {
+                trace.end();
             }
-            vizMapMgr.getCurrentVisualStyle().apply(netView);
         }
 
         public void cancel() {}
     }
 
-    private static void writeRequest(
-            final Writer writer,
-            final CyNode nodeToExpand,
-            final CyNetwork net,
-            final CyTable nodeTable,
-            final boolean includeExtantNodes
-            ) throws IOException, JsonGenerationException {
-
-        final String column = Attr(net, "Evolvo-node-column").Str();
-        final JsonGenerator output = jsonFactory.createJsonGenerator(writer);
-        output.writeStartObject();
-        output.writeStringField("target", net.getRow(nodeToExpand).getRaw(column).toString());
-        if (includeExtantNodes) {
-            output.writeFieldName("extant-nodes");
-            output.writeStartArray();
-            for (final CyNode node : net.getNodeList()) {
-                if (node.equals(nodeToExpand))
-                    continue;
-                output.writeString(nodeTable.getRow(node.getSUID()).getRaw(column).toString());
-            }
-            for (final Long hiddenParentSUID : net.getRow(net).getList("Evolvo-hidden-parents", Long.class)) {
-                output.writeString(nodeTable.getRow(hiddenParentSUID).getRaw(column).toString());
-            }
-            output.writeEndArray();
-        }
-        output.writeEndObject();
-        output.close();
-    }
-
-    private static void expandFromRootNetwork(final CyNetwork net, final CyNode node) {
-        final CySubNetwork subnet = (CySubNetwork) net;
-        final CyRootNetwork rootnet = subnet.getRootNetwork();
-        final Set<CyNode> children = Utils.getNodesWithValue(rootnet, net.getDefaultNodeTable(), "Evolvo-parent", node.getSUID());
-        
-        for (final CyNode child : children)
-            subnet.addNode(child);
-
-        for (final CyNode child : children)
-            for (final CyEdge edge : rootnet.getAdjacentEdgeIterable(child, CyEdge.Type.ANY))
-                if (subnet.containsNode(edge.getSource()) && subnet.containsNode(edge.getTarget()))
-                    subnet.addEdge(edge);
-    }
-
-    private static void expandFromURL(final CyNetwork net, final CyNode node) throws MalformedURLException, IOException, JsonParseException, JsonGenerationException, InvalidJsonException {
-        final CySubNetwork  subnet  = (CySubNetwork) net;
-        final CyRootNetwork rootnet = subnet.getRootNetwork();
-
-        final String url = Attr(net, "Evolvo-url").Str();
-        final HttpURLConnection urlconn = (HttpURLConnection) (new URL(url)).openConnection();
-        urlconn.setRequestProperty("Content-Type", "application/json; charset=utf-8");
-        urlconn.setDoOutput(true);
-        urlconn.setDoInput(true);
-        urlconn.connect();
-
-        final BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(urlconn.getOutputStream()));
-        writeRequest(writer, node, net, net.getDefaultNodeTable(), true);
-        writer.close();
-
-        final Reader reader = new InputStreamReader(urlconn.getInputStream());
-        final JsonParser jsonParser = jsonFactory.createJsonParser(reader);
-        JsonNetworkReader.read(jsonParser, net,
-                new JsonNetworkReader.NonDuplicatingNodeFactory(
-                    new JsonNetworkReader.BasicNodeFactory(net) {
-                        public CyNode create(Object[] row, Class[] types) {
-                            final CyNode childNode = super.create(row, types);
-                            Attr(net, childNode, "Evolvo-parent").set(node.getSUID());
-                            return childNode;
-                        }
-                    },
-                    rootnet,
-                    net.getDefaultNodeTable(),
-                    Attr(net, "Evolvo-node-column").Str()),
-                new JsonNetworkReader.NodeAttrHandler(net),
-                new JsonNetworkReader.BasicEdgeFactory(rootnet, false, false) {
-                    public CyEdge create(Object[] row, Class[] types) throws InvalidJsonException {
-                        final CyEdge edge = super.create(row, types);
-                        if (subnet.containsNode(edge.getSource()) && subnet.containsNode(edge.getTarget()))
-                            subnet.addEdge(edge);
-                        return edge;
-                    }
-                },
-                new JsonNetworkReader.EdgeAttrHandler(net),
-                new JsonNetworkReader.NetworkAttrHandler(net));
-        reader.close();
-    }
-
-    private static void addToHiddenParents(final CyNetwork net, final CyNode parentNode) {
-        final CyRow netRow = net.getRow(net);
-        final List<Long> hiddenParents = netRow.getList("Evolvo-hidden-parents", Long.class);
-        hiddenParents.add(parentNode.getSUID());
-        System.out.println("removeFromHiddenParents: " + netRow.getList("Evolvo-hidden-parents", Long.class));
-    }
-
-    private static void removeFromHiddenParents(final CyNetwork net, final CyNode parentNode) {
-        final CyRow netRow = net.getDefaultNetworkTable().getRow(net.getSUID());
-        final List<Long> hiddenParents = netRow.getList("Evolvo-hidden-parents", Long.class);
-        hiddenParents.remove(parentNode.getSUID());
-        System.out.println("addToHiddenParents: " + netRow.getList("Evolvo-hidden-parents", Long.class));
-    }
-
-    private static class ReplaceExpandTask implements Task {
+    /**
+     * Expands a node. If the node's children were collapsed without being
+     * cleared, they are put back where they were drawn, relative to where the
+     * node is now, and the layout that follows is skipped (see {@link PositionMemory}).
+     */
+    private static class ExpandTask implements Task {
         final View<CyNode> nodeView;
         final CyNetworkView netView;
+        final LayoutTask layoutTask;
 
-        public ReplaceExpandTask(View<CyNode> nodeView, CyNetworkView netView) {
+        public ExpandTask(View<CyNode> nodeView, CyNetworkView netView, LayoutTask layoutTask) {
             this.nodeView = nodeView;
             this.netView = netView;
+            this.layoutTask = layoutTask;
         }
 
         public void run(final TaskMonitor monitor) throws Exception {
-            final CyNetwork     net     = netView.getModel();
-            final CySubNetwork  subnet  = (CySubNetwork) net;
-            final CyRootNetwork rootnet = subnet.getRootNetwork();
-            final CyNode        node    = nodeView.getModel();
-
-            final Set<CyNode> children = Utils.getNodesWithValue(rootnet, net.getDefaultNodeTable(), "Evolvo-parent", node.getSUID());
-            if (children.size() == 0)
-                expandFromURL(net, node);
-            else
-                expandFromRootNetwork(net, node);
-
-            Attr(net, node, "Evolvo-expanded").set(true);
-
-            net.removeEdges(net.getAdjacentEdgeList(node, CyEdge.Type.ANY));
-            net.removeNodes(Collections.singleton(node));
-            addToHiddenParents(net, node);
-
-            eventHelper.flushPayloadEvents();
-
-            System.out.println();
-            System.out.println("ReplaceExpandTask: " + children.size());
-            dumpNet(net);
+            final CyNetwork net = netView.getModel();
+            final CyNode node = nodeView.getModel();
+            final int children;
+            final ReentrantLock lock = NetworkLocks.of(net);
+            lock.lock();
+            try {
+                // an expand queued behind another one may find the node already expanded or gone
+                if (!net.containsNode(node) || !engine.isExpandable(net, node)) {
+                    layoutTask.skip = true;
+                    return;
+                }
+                final double x = nodeView.getVisualProperty(BasicVisualLexicon.NODE_X_LOCATION);
+                final double y = nodeView.getVisualProperty(BasicVisualLexicon.NODE_Y_LOCATION);
+                children = engine.expand(net, node);
+                layoutTask.skip = PositionMemory.restore(netView, node, x, y);
+            } finally {
+                lock.unlock();
+            }
+            ModelEngine.logger.debug(String.format("Evolvo: expanded %d children that were already in the root network", children));
         }
 
         public void cancel() {}
     }
 
-    private static class AugmentExpandTask implements Task {
+    private static class CollapseTask implements Task {
         final View<CyNode> nodeView;
         final CyNetworkView netView;
+        final boolean clear;
 
-        public AugmentExpandTask(View<CyNode> nodeView, CyNetworkView netView) {
+        public CollapseTask(View<CyNode> nodeView, CyNetworkView netView, boolean clear) {
             this.nodeView = nodeView;
             this.netView = netView;
+            this.clear = clear;
         }
 
         public void run(final TaskMonitor monitor) throws Exception {
-            final CyNetwork     net     = netView.getModel();
-            final CySubNetwork  subnet  = (CySubNetwork) net;
-            final CyRootNetwork rootnet = subnet.getRootNetwork();
-            final CyNode        node    = nodeView.getModel();
-
-            final Set<CyNode> children = Utils.getNodesWithValue(rootnet, net.getDefaultNodeTable(), "Evolvo-parent", node.getSUID());
-            if (children.size() == 0)
-                expandFromURL(net, node);
-            else
-                expandFromRootNetwork(net, node);
-
-            Attr(net, node, "Evolvo-expanded").set(true);
-
-            eventHelper.flushPayloadEvents();
-
-            System.out.println();
-            System.out.println("ReplaceExpandTask: " + children.size());
-            dumpNet(net);
+            final CyNetwork net = netView.getModel();
+            final CyNode node = nodeView.getModel();
+            final ReentrantLock lock = NetworkLocks.of(net);
+            lock.lock();
+            try {
+                if (!net.containsNode(node) || !engine.isCollapsable(net, node))
+                    return;
+                final PositionMemory.Snapshot before = PositionMemory.snapshot(netView);
+                before.add(engine.expansionOf(net, node));
+                engine.collapse(net, node, clear);
+                PositionMemory.remember(before);
+            } finally {
+                lock.unlock();
+            }
         }
 
         public void cancel() {}
     }
 
-    private static class ReplaceCollapseTask implements Task {
+    /**
+     * Collapses the least recently used expansions until the network is back
+     * under its node and edge budgets. The node that was just expanded is never
+     * collapsed. Collapsed children are kept in the root network so that
+     * expanding them again does not go back to the server, and their positions
+     * are remembered so that it needs no layout either.
+     */
+    private static class AutoCollapseTask implements Task {
         final View<CyNode> nodeView;
         final CyNetworkView netView;
-        final boolean clear;
 
-        public ReplaceCollapseTask(View<CyNode> nodeView, CyNetworkView netView, boolean clear) {
+        public AutoCollapseTask(View<CyNode> nodeView, CyNetworkView netView) {
             this.nodeView = nodeView;
             this.netView = netView;
-            this.clear = clear;
         }
 
         public void run(final TaskMonitor monitor) throws Exception {
-            final CyNetwork     net     = netView.getModel();
-            final CySubNetwork  subnet  = (CySubNetwork) net;
-            final CyRootNetwork rootnet = subnet.getRootNetwork();
-            final CyTable       nodetbl = net.getDefaultNodeTable();
-
-            final Long parentSUID = Attr(net, nodeView.getModel(), "Evolvo-parent").Long();
-            final Set<CyNode> siblings = Utils.getNodesWithValue(net, nodetbl, "Evolvo-parent", parentSUID);
-            final Set<Long> siblingSUIDs = Utils.toSUIDs(siblings);
-
-            // delete the nodes from subnetwork
-            subnet.removeNodes(siblings);
-
-            if (clear) {
-                // delete all table info
-                nodetbl.deleteRows(siblingSUIDs);
-                rootnet.removeNodes(siblings);
+            final CyNetwork net = netView.getModel();
+            final ReentrantLock lock = NetworkLocks.of(net);
+            lock.lock();
+            try {
+                final PositionMemory.Snapshot before = PositionMemory.snapshot(netView);
+                if (engine.autoCollapse(net, nodeView.getModel(), before) > 0)
+                    PositionMemory.remember(before);
+            } finally {
+                lock.unlock();
             }
+        }
 
-            final CyNode parentNode = rootnet.getNode(parentSUID);
+        public void cancel() {}
+    }
 
-            // add the parent from the root network back into the subnetwork
-            subnet.addNode(parentNode);
+    /**
+     * Asks the server for the path down to a node and expands every node along
+     * the way. See {@link Engine#find}.
+     */
+    private static class FindAndRevealTask implements Task {
+        final CyNetworkView netView;
 
-            // add parent node's edges back into subnetwork
-            for (final CyEdge edge : rootnet.getAdjacentEdgeIterable(parentNode, CyEdge.Type.ANY))
-                if (subnet.containsNode(edge.getSource()) && subnet.containsNode(edge.getTarget()))
-                    subnet.addEdge(edge);
+        public FindAndRevealTask(final CyNetworkView netView) {
+            this.netView = netView;
+        }
 
-            removeFromHiddenParents(net, parentNode);
+        @Tunable(description="Node to find")
+        public String key = "";
 
-            Attr(net, parentNode, "Evolvo-expanded").set(false);
+        public void run(final TaskMonitor monitor) throws Exception {
+            final CyNetwork net = netView.getModel();
 
-            eventHelper.flushPayloadEvents();
+            monitor.setTitle("Evolvo: Finding node");
+            monitor.setStatusMessage(key);
 
-            System.out.println();
-            System.out.println("ReplaceCollapseTask");
-            dumpNet(net);
+            final int tiers = engine.find(net, key);
+            ModelEngine.logger.debug(String.format("Evolvo: revealed '%s' through %d tiers", key, tiers));
         }
 
         public void cancel() {}
     }
 
-    private static class AugmentCollapseTask implements Task {
-        final View<CyNode> nodeView;
+    /**
+     * Fills in the columns that "Evolvo-columns" left out for the selected
+     * nodes. See {@link Engine#loadAttributes}.
+     */
+    private static class LoadAttributesTask implements Task {
         final CyNetworkView netView;
-        final boolean clear;
 
-        public AugmentCollapseTask(View<CyNode> nodeView, CyNetworkView netView, boolean clear) {
-            this.nodeView = nodeView;
+        public LoadAttributesTask(final CyNetworkView netView) {
             this.netView = netView;
-            this.clear = clear;
         }
 
         public void run(final TaskMonitor monitor) throws Exception {
-            final CyNetwork     net     = netView.getModel();
-            final CySubNetwork  subnet  = (CySubNetwork) net;
-            final CyRootNetwork rootnet = subnet.getRootNetwork();
-            final CyTable       nodetbl = net.getDefaultNodeTable();
-
-            final CyNode parentNode = nodeView.getModel();
-            final Long parentSUID = parentNode.getSUID();
-            final Set<CyNode> children = Utils.getNodesWithValue(net, nodetbl, "Evolvo-parent", parentSUID);
-
-            // delete the nodes from subnetwork
-            subnet.removeNodes(children);
-
-            if (clear) {
-                // delete all table info
-                nodetbl.deleteRows(Utils.toSUIDs(children));
-                rootnet.removeNodes(children);
-            }
-
-            Attr(net, parentNode, "Evolvo-expanded").set(false);
+            final CyNetwork net = netView.getModel();
+            final List<CyNode> selected = CyTableUtil.getNodesInState(net, CyNetwork.SELECTED, true);
 
-            eventHelper.flushPayloadEvents();
+            monitor.setTitle("Evolvo: Loading attributes");
+            monitor.setStatusMessage(String.format("%d selected nodes", selected.size()));
 
-            System.out.println();
-            System.out.println("AugmentCollapseTask");
-            dumpNet(net);
+            final int loaded = engine.loadAttributes(net, selected);
+            vizMapMgr.getCurrentVisualStyle().apply(netView);
+            ModelEngine.logger.debug(String.format("Evolvo: loaded attributes of %d nodes", loaded));
         }
 
         public void cancel() {}
     }
 
-    private static void dumpNet(final CyNetwork subnet) {
-        final CyRootNetwork net = ((CySubNetwork) subnet).getRootNetwork();
-        final CyTable table = subnet.getDefaultNodeTable();
-        System.out.println("Nodes:");
-        for (final CyNode node : net.getNodeList()) {
-            System.out.println(String.format(
-                        "\t%s%c (%d)",
-                        table.getRow(node.getSUID()).get("shared name", String.class),
-                        subnet.containsNode(node) ? '*' : ' ',
-                        node.getSUID()));
-        }
+    /**
+     * Applies what has changed on the server since the network was opened or
+     * last refreshed. Nodes that were already drawn stay where they are, and
+     * no layout is run. See {@link Engine#refresh}.
+     */
+    private static class RefreshTask implements Task {
+        final CyNetworkView netView;
 
-        System.out.println("Edges:");
-        for (final CyEdge edge : net.getEdgeList()) {
-            final CyNode src = edge.getSource();
-            final CyNode trg = edge.getTarget();
-            System.out.println(String.format(
-                        "\t%d:\t%s (%d) ->\t%s (%d)%c",
-                        edge.getSUID(),
-                        table.getRow(src.getSUID()).get("shared name", String.class),
-                        src.getSUID(),
-                        table.getRow(trg.getSUID()).get("shared name", String.class),
-                        trg.getSUID(),
-                        subnet.containsEdge(edge) ? '*' : ' '));
+        public RefreshTask(final CyNetworkView netView) {
+            this.netView = netView;
         }
-    }
 
-    /*
-    private static void printNodes(final String prefix, final CyNetwork net, Iterable<CyNode> nodes) {
-        System.out.print(prefix);
-        System.out.print(' ');
-        for (final CyNode node : nodes) {
-            System.out.print(Attr(net, node, "name").Str());
-            System.out.print(" ");
+        public void run(final TaskMonitor monitor) throws Exception {
+            final CyNetwork net = netView.getModel();
+
+            monitor.setTitle("Evolvo: Refreshing");
+            monitor.setStatusMessage(String.format("Changes since version %s", Attr(net, "Evolvo-version").Str()));
+
+            final int changed;
+            final ReentrantLock lock = NetworkLocks.of(net);
+            lock.lock();
+            try {
+                changed = engine.refresh(net, new Engine.AddListener() {
+                    public void nodesAdded(final CyNetwork net, final Collection<CyNode> nodes) {
+                        PositionMemory.placeNew(netView, nodes);
+                    }
+                });
+            } finally {
+                lock.unlock();
+            }
+            vizMapMgr.getCurrentVisualStyle().apply(netView);
+            ModelEngine.logger.debug(String.format("Evolvo: refresh changed %d nodes", changed));
         }
-        System.out.println();
+
+        public void cancel() {}
     }
 
-    private static void dumpGroup(final CyNetwork net, final CyGroup grp) {
-        System.out.println("All Nodes:");
-        for (final CyNode node : net.getNodeList()) {
-            System.out.println(String.format("  %d - %s", node.getSUID(), Attr(net, node, "name")));
-        }
+    /**
+     * Turns automatic expansion and collapse by zoom on or off for a view. See {@link LevelOfDetail}.
+     */
+    private static class LevelOfDetailTask implements Task {
+        final CyNetworkView netView;
 
-        System.out.println("Nodes:");
-        for (final CyNode node : grp.getNodeList()) {
-            System.out.println(String.format("  %d - %s", node.getSUID(), Attr(net, node, "name")));
+        public LevelOfDetailTask(final CyNetworkView netView) {
+            this.netView = netView;
+            this.enabled = !levelOfDetail.isEnabled(netView);
         }
 
-        System.out.println("Int edges:");
-        for (final CyEdge edge : grp.getInternalEdgeList()) {
-            System.out.println(String.format(" %d - %s <-> %s", edge.getSUID(), Attr(net, edge.getSource(), "name"), Attr(net, edge.getTarget(), "name")));
-        }
+        @Tunable(description="Expand and collapse nodes as the view is zoomed and panned")
+        public boolean enabled;
+
+        @Tunable(description="Expand nodes that are at least this many pixels wide")
+        public double expandPixels = 80.0;
 
-        System.out.println("Ext edges:");
-        for (final CyEdge edge : grp.getExternalEdgeList()) {
-            System.out.println(String.format("  %d - %s <-> %s", edge.getSUID(), Attr(net, edge.getSource(), "name"), Attr(net, edge.getTarget(), "name")));
+        @Tunable(description="Collapse expansions that are smaller than this many pixels")
+        public double collapsePixels = 20.0;
+
+        @Tunable(description="Most expand requests per second")
+        public double requestsPerSecond = 2.0;
+
+        public void run(final TaskMonitor monitor) {
+            if (!enabled) {
+                levelOfDetail.disable(netView);
+                return;
+            }
+            if (collapsePixels >= expandPixels)
+                throw new IllegalArgumentException("Evolvo: nodes must be collapsed at a smaller size than they are expanded");
+            final LevelOfDetail.Settings settings = new LevelOfDetail.Settings();
+            settings.expandPixels = expandPixels;
+            settings.collapsePixels = collapsePixels;
+            settings.requestsPerSecond = requestsPerSecond;
+            levelOfDetail.enable(netView, settings);
         }
+
+        public void cancel() {}
     }
-    */
 }
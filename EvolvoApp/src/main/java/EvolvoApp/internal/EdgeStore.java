@@ -0,0 +1,206 @@
+package EvolvoApp.internal;
+
+import java.util.Arrays;
+
+import EvolvoApp.internal.prim.LongIntHashMap;
+
+/**
+ * Edges that are kept out of the Cytoscape model because
+ * at least one of their endpoints is hidden.
+ *
+ * <p>
+ * Endpoints are node SUIDs in the root network.
+ * Each edge also keeps the attribute row it was read with,
+ * so that it can become a {@code CyEdge} with the same attributes later.
+ * </p>
+ *
+ * <p>
+ * Edges are numbered by the order they were added in.
+ * Adjacency is kept as a linked list per node threaded
+ * through a flat array: edge {@code e} has slot {@code 2e} in the
+ * list of its source and slot {@code 2e + 1} in the list of its target.
+ * Removed edges are only marked dead; their slots are reclaimed
+ * by {@link #add} once dead edges outnumber live ones,
+ * which renumbers the remaining edges. Don't hold on to
+ * edge numbers across calls to {@code add}.
+ * </p>
+ */
+public class EdgeStore {
+    static final int NONE = -1;
+    static final int MIN_CAPACITY = 64;
+
+    long[]     sources  = new long[MIN_CAPACITY];
+    long[]     targets  = new long[MIN_CAPACITY];
+    Object[][] rows     = new Object[MIN_CAPACITY][];
+    String[][] headers  = new String[MIN_CAPACITY][];
+    boolean[]  live     = new boolean[MIN_CAPACITY];
+    int[]      next     = new int[2 * MIN_CAPACITY];
+    final LongIntHashMap heads = new LongIntHashMap();
+
+    int count = 0;     // edges added since the last compaction, live or dead
+    int liveCount = 0;
+
+    /**
+     * Number of live edges.
+     */
+    public int size() {
+        return liveCount;
+    }
+
+    /**
+     * Add an edge.
+     * @param row The edge's attribute values; the store keeps this array, so don't reuse it
+     * @param header The column name of each element in {@code row}
+     * @return The new edge's number
+     */
+    public int add(final long source, final long target, final Object[] row, final String[] header) {
+        if (count == sources.length) {
+            if (count - liveCount > liveCount)
+                compact();
+            else
+                grow(sources.length << 1);
+        }
+        final int e = count++;
+        sources[e] = source;
+        targets[e] = target;
+        rows[e] = row;
+        headers[e] = header;
+        live[e] = true;
+        link(source, 2 * e);
+        link(target, 2 * e + 1);
+        liveCount++;
+        return e;
+    }
+
+    private void link(final long node, final int slot) {
+        next[slot] = heads.get(node, NONE);
+        heads.put(node, slot);
+    }
+
+    public long source(final int e) {
+        return sources[e];
+    }
+
+    public long target(final int e) {
+        return targets[e];
+    }
+
+    public Object[] row(final int e) {
+        return rows[e];
+    }
+
+    public String[] header(final int e) {
+        return headers[e];
+    }
+
+    /**
+     * Return the edge's value for {@code column}, or null if it doesn't have one.
+     */
+    public Object value(final int e, final String column) {
+        final String[] header = headers[e];
+        for (int i = 0; i < header.length; i++)
+            if (header[i].equals(column))
+                return rows[e][i];
+        return null;
+    }
+
+    /**
+     * Return the live edges adjacent to {@code node}.
+     */
+    public int[] adjacent(final long node) {
+        int[] result = new int[8];
+        int n = 0;
+        for (int slot = heads.get(node, NONE); slot != NONE; slot = next[slot]) {
+            final int e = slot >> 1;
+            if (!live[e])
+                continue;
+            if ((slot & 1) == 1 && sources[e] == targets[e])
+                continue; // self loops are in the list twice
+            if (n == result.length)
+                result = Arrays.copyOf(result, n << 1);
+            result[n++] = e;
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /**
+     * Return true if there is a live edge between {@code a} and {@code b} in either direction.
+     */
+    public boolean contains(final long a, final long b) {
+        return find(a, b) >= 0;
+    }
+
+    /**
+     * Return the number of a live edge between {@code a} and {@code b} in either direction, or -1 if there isn't one.
+     */
+    public int find(final long a, final long b) {
+        for (int slot = heads.get(a, NONE); slot != NONE; slot = next[slot]) {
+            final int e = slot >> 1;
+            if (live[e] && (sources[e] == b || targets[e] == b) && (sources[e] == a || targets[e] == a))
+                return e;
+        }
+        return -1;
+    }
+
+    /**
+     * Return the numbers of all live edges.
+     */
+    public int[] edges() {
+        final int[] result = new int[liveCount];
+        int i = 0;
+        for (int e = 0; e < count; e++)
+            if (live[e])
+                result[i++] = e;
+        return result;
+    }
+
+    public void remove(final int e) {
+        if (!live[e])
+            return;
+        live[e] = false;
+        rows[e] = null;
+        headers[e] = null;
+        liveCount--;
+    }
+
+    /**
+     * Remove all the edges adjacent to {@code node}.
+     */
+    public void removeNode(final long node) {
+        for (int slot = heads.remove(node, NONE); slot != NONE; slot = next[slot])
+            remove(slot >> 1);
+    }
+
+    private void grow(final int capacity) {
+        sources = Arrays.copyOf(sources, capacity);
+        targets = Arrays.copyOf(targets, capacity);
+        rows    = Arrays.copyOf(rows, capacity);
+        headers = Arrays.copyOf(headers, capacity);
+        live    = Arrays.copyOf(live, capacity);
+        next    = Arrays.copyOf(next, 2 * capacity);
+    }
+
+    private void compact() {
+        int e = 0;
+        for (int old = 0; old < count; old++) {
+            if (!live[old])
+                continue;
+            sources[e] = sources[old];
+            targets[e] = targets[old];
+            rows[e]    = rows[old];
+            headers[e] = headers[old];
+            live[e]    = true;
+            e++;
+        }
+        Arrays.fill(live, e, count, false);
+        Arrays.fill(rows, e, count, null);
+        Arrays.fill(headers, e, count, null);
+        count = e;
+
+        heads.clear();
+        for (e = 0; e < count; e++) {
+            link(sources[e], 2 * e);
+            link(targets[e], 2 * e + 1);
+        }
+    }
+}
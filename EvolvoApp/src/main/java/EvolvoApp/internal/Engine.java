@@ -0,0 +1,155 @@
+package EvolvoApp.internal;
+
+import java.io.File;
+import java.util.Collection;
+
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyNode;
+
+/**
+ * Opens, expands and collapses Evolvo networks.
+ *
+ * <p>
+ * An engine only works on the model. It doesn't create views, run layouts
+ * or register networks with a network manager, so the same engine runs
+ * inside Cytoscape, where {@link CyActivator}'s tasks wrap it, and outside of
+ * it, with the network factory and event helper of Cytoscape's test support.
+ * Each operation is applied in one {@link ModelTransaction}, and its payload
+ * events are flushed before it returns.
+ * </p>
+ */
+public interface Engine {
+    /**
+     * Where to open a network from and how to keep it. These are the
+     * tunables of the <i>Evolvo: Open network</i> task.
+     */
+    public static class OpenSettings {
+        /** A server URL, a {@code file:} URL or a path */
+        public String location = "http://localhost:8000/augment";
+        public int maxNodes = 0;
+        public int maxEdges = 0;
+        public boolean aggregateEdges = false;
+        public String aggregateColumn = "";
+        /** Snapshot log file, or blank for none */
+        public String snapshot = "";
+        /** "Evolvo-shards" value, or blank for one server */
+        public String shards = "";
+        public double hedgePercentile = 0.0;
+        /**
+         * Node and edge columns to ask servers for, separated by spaces or
+         * commas, or blank for all of them. The node column is always included.
+         */
+        public String columns = "";
+    }
+
+    /**
+     * Hears about each expansion an operation is about to collapse, while its
+     * children are still in the network and the network's lock is held.
+     */
+    public static interface CollapseListener {
+        public void aboutToCollapse(CyNetwork net, CyNode parent);
+    }
+
+    /**
+     * Hears about the nodes an operation added to the network, once its
+     * events have been flushed and while the network's lock is still held.
+     */
+    public static interface AddListener {
+        public void nodesAdded(CyNetwork net, Collection<CyNode> nodes);
+    }
+
+    /**
+     * Read the top tier into a new network.
+     */
+    public CyNetwork open(OpenSettings settings) throws Exception;
+
+    /**
+     * Build a new network from a snapshot log (see {@link SnapshotLog}).
+     */
+    public CyNetwork restore(File snapshot) throws Exception;
+
+    public boolean isExpandable(CyNetwork net, CyNode node);
+
+    public boolean isCollapsable(CyNetwork net, CyNode node);
+
+    /**
+     * Return the SUID of the node whose expansion {@link #collapse} would
+     * collapse for {@code node}: its parent in a REPLACE network, or the node
+     * itself in an AUGMENT network. Return null if {@code node} isn't collapsable.
+     */
+    public Long expansionOf(CyNetwork net, CyNode node);
+
+    /**
+     * Expand {@code node}, replacing it with its children or adding them
+     * next to it, depending on the network's "Evolvo-action".
+     * @return The number of children that were already in the root network
+     */
+    public int expand(CyNetwork net, CyNode node) throws Exception;
+
+    /**
+     * Collapse the least recently used expansions besides {@code exempt}
+     * until {@code net} is within its node and edge budgets.
+     * @param listener Told about each expansion before it's collapsed, or null
+     * @return The number of expansions that were collapsed
+     */
+    public int autoCollapse(CyNetwork net, CyNode exempt, CollapseListener listener) throws Exception;
+
+    /**
+     * Collapse the expansion that {@code node} belongs to. In a REPLACE network,
+     * that's the expansion of {@code node}'s parent; in an AUGMENT network, it's
+     * the expansion of {@code node} itself.
+     * @param clear Whether to take the collapsed children out of the root network too
+     */
+    public void collapse(CyNetwork net, CyNode node, boolean clear) throws Exception;
+
+    /**
+     * Expand every tier on the path to the node with the given key and select it.
+     * @return The number of tiers on the path
+     */
+    public int find(CyNetwork net, String key) throws Exception;
+
+    /**
+     * Fill in the node columns that were left out of {@code nodes} by the
+     * network's "Evolvo-columns", by asking again for the tiers they came from
+     * without leaving any out. Values that are already set are kept.
+     * @return The number of nodes that were filled in
+     */
+    public int loadAttributes(CyNetwork net, Collection<CyNode> nodes) throws Exception;
+
+    /**
+     * Bring {@code net} up to date with the server's data, without reading
+     * again what hasn't changed.
+     *
+     * <p>
+     * The server names the version of its data with an "Evolvo-version"
+     * header, which the network keeps from when it was opened. A refresh posts
+     * that version and the keys of every node whose children are in the root
+     * network:
+     * <blockquote><pre>
+     * {"version": "2014-03-01", "expanded": ["a", "a1"]}
+     * </pre></blockquote>
+     * The response carries the new "Evolvo-version" and is an array of tiers
+     * that have changed since the version that was sent. Each tier is an
+     * object; "parent" is the key of the expanded node, or null or left out
+     * for the top tier, and has to come before the other fields:
+     * <blockquote><pre>
+     * [{"parent": null, "network": [...], "deleted-nodes": ["b"]},
+     *  {"parent": "a", "network": [...], "deleted-edges": [["a1", "a2"]]}]
+     * </pre></blockquote>
+     * "network" is in the usual network format and holds the nodes that were
+     * added or changed, the edges that were added or changed, and the nodes
+     * those edges need. Nodes already in the root network get the values in
+     * their rows, and new nodes are only shown if their parent is expanded.
+     * "deleted-nodes" are deleted from the root network together with every
+     * node expanded from them, and "deleted-edges" are [source, target] pairs of keys.
+     * </p>
+     * @param listener Told about the nodes that were added to {@code net}, or null
+     * @return The number of nodes that were added, changed or deleted
+     */
+    public int refresh(CyNetwork net, AddListener listener) throws Exception;
+
+    /**
+     * Return the node in the root network whose "Evolvo-node-column" value is {@code key}, or null.
+     */
+    public CyNode nodeWithKey(CyNetwork net, String key);
+}
@@ -0,0 +1,106 @@
+package EvolvoApp.internal;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyTable;
+
+/**
+ * Handles on the columns that are read for every node or edge, like whether a
+ * node is expanded or an edge is a meta-edge, bound once for each network.
+ *
+ * <p>
+ * {@link TypedColumn#lookup} checks the table every time it is called, which is
+ * fine once per operation but not once per node. Get the handles for a network
+ * here instead, preferably once before a loop. A handle is null while its column
+ * doesn't exist, and is looked up again on the next call until the column shows up.
+ * Handles are dropped when their column is deleted; see {@link #columnDeleted}.
+ * </p>
+ */
+class EvolvoColumns {
+    private static final Map<CyNetwork,EvolvoColumns> columns = Collections.synchronizedMap(new WeakHashMap<CyNetwork,EvolvoColumns>());
+
+    public static EvolvoColumns of(final CyNetwork net) {
+        synchronized (columns) {
+            EvolvoColumns netColumns = columns.get(net);
+            if (netColumns == null) {
+                netColumns = new EvolvoColumns(net.getDefaultNodeTable(), net.getDefaultEdgeTable());
+                columns.put(net, netColumns);
+            }
+            return netColumns;
+        }
+    }
+
+    /**
+     * Drop the handle on {@code name} in {@code table} from every network that uses the table.
+     */
+    public static void columnDeleted(final CyTable table, final String name) {
+        synchronized (columns) {
+            for (final EvolvoColumns netColumns : columns.values())
+                netColumns.forget(table, name);
+        }
+    }
+
+    final CyTable nodetbl;
+    final CyTable edgetbl;
+
+    private volatile TypedColumn<Boolean> expandable = null;
+    private volatile TypedColumn<Boolean> expanded   = null;
+    private volatile TypedColumn<Long>    parent     = null;
+    private volatile TypedColumn<Boolean> meta       = null;
+
+    private EvolvoColumns(final CyTable nodetbl, final CyTable edgetbl) {
+        this.nodetbl = nodetbl;
+        this.edgetbl = edgetbl;
+    }
+
+    /**
+     * The server's "expandable" node column.
+     */
+    public TypedColumn<Boolean> expandable() {
+        TypedColumn<Boolean> column = expandable;
+        if (column == null)
+            expandable = column = TypedColumn.lookup(nodetbl, "expandable", Boolean.class);
+        return column;
+    }
+
+    public TypedColumn<Boolean> expanded() {
+        TypedColumn<Boolean> column = expanded;
+        if (column == null)
+            expanded = column = TypedColumn.lookup(nodetbl, "Evolvo-expanded", Boolean.class);
+        return column;
+    }
+
+    public TypedColumn<Long> parent() {
+        TypedColumn<Long> column = parent;
+        if (column == null)
+            parent = column = TypedColumn.lookup(nodetbl, "Evolvo-parent", Long.class);
+        return column;
+    }
+
+    /**
+     * The "Evolvo-meta" edge column.
+     */
+    public TypedColumn<Boolean> meta() {
+        TypedColumn<Boolean> column = meta;
+        if (column == null)
+            meta = column = TypedColumn.lookup(edgetbl, "Evolvo-meta", Boolean.class);
+        return column;
+    }
+
+    private void forget(final CyTable table, final String name) {
+        if (table.equals(nodetbl)) {
+            if (name.equalsIgnoreCase("expandable"))
+                expandable = null;
+            else if (name.equalsIgnoreCase("Evolvo-expanded"))
+                expanded = null;
+            else if (name.equalsIgnoreCase("Evolvo-parent"))
+                parent = null;
+        } else if (table.equals(edgetbl)) {
+            if (name.equalsIgnoreCase("Evolvo-meta"))
+                meta = null;
+        }
+    }
+}
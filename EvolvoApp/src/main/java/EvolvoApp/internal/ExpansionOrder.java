@@ -0,0 +1,87 @@
+package EvolvoApp.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyTable;
+
+/**
+ * Keeps the expanded nodes of each network from least to most recently used,
+ * which is the order auto-collapse picks them in.
+ *
+ * <p>
+ * The order is kept in memory in a linked set of SUIDs, so using an expansion
+ * moves it to the end in constant time. Like {@link HiddenParents}, the
+ * "Evolvo-expansion-order" column is only written by {@link #save}, right
+ * before the session is saved, and is read back the first time the network
+ * is used after the session is opened.
+ * </p>
+ */
+class ExpansionOrder {
+    private ExpansionOrder() {}
+
+    private static final Map<CyNetwork,LinkedHashSet<Long>> orders = Collections.synchronizedMap(new WeakHashMap<CyNetwork,LinkedHashSet<Long>>());
+
+    private static LinkedHashSet<Long> of(final CyNetwork net) {
+        synchronized (orders) {
+            LinkedHashSet<Long> order = orders.get(net);
+            if (order == null) {
+                order = new LinkedHashSet<Long>();
+                if (net.getDefaultNetworkTable().getColumn("Evolvo-expansion-order") != null) {
+                    final List<Long> saved = net.getRow(net).getList("Evolvo-expansion-order", Long.class);
+                    if (saved != null)
+                        order.addAll(saved);
+                }
+                orders.put(net, order);
+            }
+            return order;
+        }
+    }
+
+    /**
+     * Make {@code suid} the most recently used expansion.
+     */
+    public static void touch(final CyNetwork net, final long suid) {
+        final LinkedHashSet<Long> order = of(net);
+        order.remove(suid);
+        order.add(suid);
+    }
+
+    public static void remove(final CyNetwork net, final long suid) {
+        of(net).remove(suid);
+    }
+
+    /**
+     * Return the expansions from least to most recently used, without copying
+     * them. Don't change the order while going through them.
+     */
+    public static Iterable<Long> leastRecentFirst(final CyNetwork net) {
+        return Collections.unmodifiableSet(of(net));
+    }
+
+    /**
+     * Return a copy of the expansions from least to most recently used.
+     */
+    public static List<Long> suids(final CyNetwork net) {
+        return new ArrayList<Long>(of(net));
+    }
+
+    /**
+     * Write the order of {@code net} to its "Evolvo-expansion-order" column.
+     * Networks that haven't been used since they were loaded are left alone.
+     */
+    public static void save(final CyNetwork net) {
+        final LinkedHashSet<Long> order = orders.get(net);
+        if (order == null)
+            return;
+        final CyTable nettbl = net.getDefaultNetworkTable();
+        if (nettbl.getColumn("Evolvo-expansion-order") == null)
+            nettbl.createListColumn("Evolvo-expansion-order", Long.class, false, new ArrayList<Long>());
+        net.getRow(net).set("Evolvo-expansion-order", new ArrayList<Long>(order));
+    }
+}
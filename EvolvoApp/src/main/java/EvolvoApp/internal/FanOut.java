@@ -0,0 +1,412 @@
+package EvolvoApp.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.net.HttpURLConnection;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends the same request to several servers at once.
+ *
+ * <p>
+ * With more than one server, each response is read in full on its own thread,
+ * so the slowest server sets the time rather than the sum of all of them.
+ * The caller then reads the responses one after the other, in the order of
+ * the endpoints, which lets it merge them into the network in one transaction.
+ * With one server, the response is handed back without being read ahead.
+ * </p>
+ *
+ * <p>
+ * An endpoint may be a group of replicas (see {@link Shards#replicas}).
+ * The request goes to the replica with the lowest average time to first byte
+ * (see {@link Latency}). If hedging is on and that replica hasn't answered
+ * within the given percentile of its recent times, the request is also sent
+ * to the next fastest replica. Whichever answers first is used and the
+ * other is disconnected.
+ * </p>
+ *
+ * <p>
+ * Connections are kept alive between requests by {@code HttpURLConnection}.
+ * It reuses a connection once its response has been read to the end. Closing
+ * a body reads what's left of it, up to {@link #DRAIN_LIMIT} bytes, so that
+ * the next request can have the connection right away instead of after the
+ * JDK's own cleaner thread gets to it. The JDK keeps only a few idle
+ * connections to each server, so {@link #send} raises that to the number of
+ * servers it sends to, which matters when several shards share a server.
+ * Each response keeps its own time to first byte, total time and size read,
+ * which are logged at debug level when it's closed.
+ * </p>
+ */
+class FanOut {
+    private FanOut() {}
+
+    /**
+     * Opens the connection for one server and sends the request on it.
+     * Attempts run on other threads and may be repeated, so the request has
+     * to be ready before it's sent; {@code open} shouldn't read the network.
+     */
+    public static interface Request {
+        public URLConnection open(String url) throws IOException;
+    }
+
+    public static class Response {
+        final String url;
+        final URLConnection connection;
+        final InputStream body;
+        final CountingInputStream stream;
+
+        Response(final String url, final URLConnection connection, final InputStream body, final CountingInputStream stream) {
+            this.url = url;
+            this.connection = connection;
+            this.body = body;
+            this.stream = stream;
+        }
+
+        public String url() {
+            return url;
+        }
+
+        public String header(final String name) {
+            return connection.getHeaderField(name);
+        }
+
+        public InputStream body() {
+            return body;
+        }
+
+        /**
+         * Return the nanoseconds from sending the request to the first byte of the response.
+         */
+        public long firstByteNanos() {
+            return stream.firstByteNanos;
+        }
+
+        /**
+         * Return the nanoseconds from sending the request to the end of the response,
+         * or -1 if the response hasn't been closed yet.
+         */
+        public long totalNanos() {
+            return stream.totalNanos;
+        }
+
+        /**
+         * Return the number of bytes read from the server so far.
+         */
+        public long bytes() {
+            return stream.bytes;
+        }
+    }
+
+    private static final AtomicLong received = new AtomicLong();
+
+    /** The most bytes of an unread body that closing it reads */
+    static final int DRAIN_LIMIT = 8 * 1024;
+
+    /** Idle connections the JDK keeps to each server when http.maxConnections isn't set */
+    static final int DEFAULT_MAX_CONNECTIONS = 5;
+
+    /**
+     * Return the number of response bytes read from all servers so far.
+     */
+    static long bytesReceived() {
+        return received.get();
+    }
+
+    private static final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, "Evolvo-fan-out");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * Send {@code request} to every one of {@code endpoints} and return the responses in the same order.
+     * @param hedgePercentile The percentile (0 to 100) of a replica's recent times to first byte
+     * after which the request is hedged to another replica, or 0 to never hedge
+     * @throws IOException if any server fails; the other responses are dropped
+     */
+    public static List<Response> send(final List<String> endpoints, final double hedgePercentile, final Request request) throws IOException {
+        if (endpoints.isEmpty())
+            throw new IOException("Evolvo: this network has no server to send requests to");
+        keepAlive(endpoints.size());
+        if (endpoints.size() == 1)
+            return Collections.singletonList(open(Shards.replicas(endpoints.get(0)), hedgePercentile, request));
+
+        final List<Future<Response>> futures = new ArrayList<Future<Response>>(endpoints.size());
+        for (final String endpoint : endpoints) {
+            futures.add(executor.submit(new Callable<Response>() {
+                public Response call() throws IOException {
+                    final Response response = open(Shards.replicas(endpoint), hedgePercentile, request);
+                    try {
+                        return new Response(response.url, response.connection, new ByteArrayInputStream(readAll(response.body)), response.stream);
+                    } finally {
+                        response.body.close();
+                    }
+                }
+            }));
+        }
+
+        final List<Response> responses = new ArrayList<Response>(endpoints.size());
+        try {
+            for (final Future<Response> future : futures)
+                responses.add(future.get());
+        } catch (InterruptedException e) {
+            cancel(futures);
+            Thread.currentThread().interrupt();
+            throw new IOException("Evolvo: interrupted while waiting for servers", e);
+        } catch (ExecutionException e) {
+            cancel(futures);
+            throw unwrap(e);
+        }
+        return responses;
+    }
+
+    /**
+     * Raise http.maxConnections to at least {@code connections}. The JDK reads it
+     * once, when it first keeps a connection alive, so it's the first request,
+     * which opens the network on every shard, that sets it.
+     */
+    static synchronized void keepAlive(final int connections) {
+        if (connections > Integer.getInteger("http.maxConnections", DEFAULT_MAX_CONNECTIONS))
+            System.setProperty("http.maxConnections", Integer.toString(connections));
+    }
+
+    /**
+     * Send {@code request} to one of {@code replicas}, hedging it to a second replica if it's slow.
+     */
+    static Response open(final List<String> replicas, final double hedgePercentile, final Request request) throws IOException {
+        final List<String> ordered = Latency.fastestFirst(replicas);
+        final long delay = (hedgePercentile > 0 && ordered.size() > 1) ? Latency.percentile(ordered.get(0), hedgePercentile) : -1;
+        if (delay < 0)
+            return new Attempt(ordered.get(0), request).call();
+
+        final CompletionService<Response> completed = new ExecutorCompletionService<Response>(executor);
+        final Map<Future<Response>,Attempt> attempts = new HashMap<Future<Response>,Attempt>();
+        final Attempt first = new Attempt(ordered.get(0), request);
+        final Attempt second = new Attempt(ordered.get(1), request);
+        attempts.put(completed.submit(first), first);
+        boolean hedged = false;
+        try {
+            Future<Response> next = completed.poll(delay, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                attempts.put(completed.submit(second), second);
+                hedged = true;
+            }
+            int pending = attempts.size();
+            while (true) {
+                if (next == null)
+                    next = completed.take();
+                pending--;
+                try {
+                    final Response response = next.get();
+                    for (final Attempt attempt : attempts.values())
+                        if (attempt != attempts.get(next))
+                            attempt.cancel();
+                    return response;
+                } catch (ExecutionException e) {
+                    if (!hedged) {
+                        // the first replica failed before the delay was up, so don't wait any longer for the second
+                        attempts.put(completed.submit(second), second);
+                        hedged = true;
+                        pending++;
+                    } else if (pending == 0) {
+                        throw unwrap(e);
+                    }
+                }
+                next = null;
+            }
+        } catch (InterruptedException e) {
+            for (final Attempt attempt : attempts.values())
+                attempt.cancel();
+            Thread.currentThread().interrupt();
+            throw new IOException("Evolvo: interrupted while waiting for servers", e);
+        }
+    }
+
+    /**
+     * One request to one replica. It times the request up to the first byte of the response.
+     */
+    private static class Attempt implements Callable<Response> {
+        final String url;
+        final Request request;
+        URLConnection connection = null;
+        Response response = null;
+        boolean cancelled = false;
+
+        Attempt(final String url, final Request request) {
+            this.url = url;
+            this.request = request;
+        }
+
+        public Response call() throws IOException {
+            final long start = System.nanoTime();
+            try {
+                final URLConnection connection = request.open(url);
+                synchronized (this) {
+                    this.connection = connection;
+                }
+                final CountingInputStream stream = new CountingInputStream(url, start, connection.getInputStream());
+                final PushbackInputStream body = new PushbackInputStream(stream);
+                final int first = body.read();
+                if (first != -1)
+                    body.unread(first);
+                stream.firstByteNanos = System.nanoTime() - start;
+                Latency.record(url, stream.firstByteNanos);
+
+                synchronized (this) {
+                    if (cancelled) {
+                        stream.abort();
+                        throw new IOException(String.format("Evolvo: request to %s was cancelled", url));
+                    }
+                    response = new Response(url, connection, body, stream);
+                    return response;
+                }
+            } catch (IOException e) {
+                synchronized (this) {
+                    if (!cancelled)
+                        Latency.failed(url);
+                }
+                throw e;
+            }
+        }
+
+        /**
+         * Drop this attempt, whether it is still waiting for the server or has already answered.
+         */
+        public synchronized void cancel() {
+            cancelled = true;
+            if (response != null)
+                response.stream.abort();
+            if (connection instanceof HttpURLConnection)
+                ((HttpURLConnection) connection).disconnect();
+        }
+    }
+
+    /**
+     * The body of one response as it comes from the server. It counts what's
+     * read, both for this response and for {@link #bytesReceived}.
+     */
+    static class CountingInputStream extends FilterInputStream {
+        final String url;
+        final long start;
+        volatile long firstByteNanos = -1L;
+        volatile long totalNanos = -1L;
+        volatile long bytes = 0L;
+        private boolean closed = false;
+
+        CountingInputStream(final String url, final long start, final InputStream input) {
+            super(input);
+            this.url = url;
+            this.start = start;
+        }
+
+        private void count(final long n) {
+            bytes += n;
+            received.addAndGet(n);
+        }
+
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b != -1)
+                count(1);
+            return b;
+        }
+
+        public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+            final int n = super.read(buffer, offset, length);
+            if (n > 0)
+                count(n);
+            return n;
+        }
+
+        public long skip(final long n) throws IOException {
+            final long skipped = super.skip(n);
+            count(skipped);
+            return skipped;
+        }
+
+        public synchronized void close() throws IOException {
+            if (closed)
+                return;
+            try {
+                drain();
+            } finally {
+                finish();
+            }
+        }
+
+        /**
+         * Read what's left of the body, unless it's more than {@link #DRAIN_LIMIT} bytes.
+         */
+        private void drain() throws IOException {
+            final byte[] buffer = new byte[4096];
+            for (long drained = 0L; drained < DRAIN_LIMIT; ) {
+                final int n = read(buffer, 0, (int) Math.min(buffer.length, DRAIN_LIMIT - drained));
+                if (n < 0)
+                    return;
+                drained += n;
+            }
+        }
+
+        /**
+         * Close a response that lost a hedge, ignoring errors. Its connection is disconnected after.
+         */
+        synchronized void abort() {
+            if (closed)
+                return;
+            try {
+                finish();
+            } catch (IOException e) {}
+        }
+
+        private void finish() throws IOException {
+            closed = true;
+            totalNanos = System.nanoTime() - start;
+            if (ModelEngine.logger.isDebugEnabled())
+                ModelEngine.logger.debug(String.format("Evolvo: %s: first byte %.1f ms, done %.1f ms, %d bytes",
+                        url, firstByteNanos / 1e6, totalNanos / 1e6, bytes));
+            super.close();
+        }
+    }
+
+    private static IOException unwrap(final ExecutionException e) {
+        final Throwable cause = e.getCause();
+        if (cause instanceof IOException)
+            return (IOException) cause;
+        return new IOException(String.format("Evolvo: request failed: %s", cause), cause);
+    }
+
+    private static void cancel(final List<Future<Response>> futures) {
+        for (final Future<Response> future : futures)
+            future.cancel(true);
+    }
+
+    private static byte[] readAll(final InputStream input) throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        int n;
+        while ((n = input.read(buffer)) != -1)
+            output.write(buffer, 0, n);
+        return output.toByteArray();
+    }
+}
@@ -0,0 +1,246 @@
+package EvolvoApp.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyNode;
+import org.cytoscape.model.CyEdge;
+import org.cytoscape.model.CyTable;
+import org.cytoscape.model.CyColumn;
+import org.cytoscape.model.CyRow;
+
+import org.cytoscape.model.subnetwork.CyRootNetwork;
+import org.cytoscape.model.subnetwork.CySubNetwork;
+
+import EvolvoApp.internal.json.JsonNetworkReader;
+import EvolvoApp.internal.json.InvalidJsonException;
+
+/**
+ * Keeps edges with a hidden endpoint out of the Cytoscape model.
+ *
+ * <p>
+ * Only edges whose endpoints are both in the subnetwork are {@code CyEdge}s;
+ * meta-edges (see {@link MetaEdges}) are the one exception. All other edges
+ * are kept in the root network's {@link EdgeStore}. Nodes should be hidden and
+ * shown with {@link #hide} and {@link #show} so that their edges are moved
+ * in and out of the store. Changes to the subnetwork go through a
+ * {@link ModelTransaction}.
+ * </p>
+ */
+class HiddenEdges {
+    private HiddenEdges() {}
+
+    private static final Map<CyRootNetwork,EdgeStore> stores = Collections.synchronizedMap(new WeakHashMap<CyRootNetwork,EdgeStore>());
+
+    /**
+     * Return the store of hidden edges for the root network of {@code net}.
+     */
+    public static EdgeStore store(final CyNetwork net) {
+        final CyRootNetwork rootnet = ((CySubNetwork) net).getRootNetwork();
+        synchronized (stores) {
+            EdgeStore store = stores.get(rootnet);
+            if (store == null) {
+                store = new EdgeStore();
+                stores.put(rootnet, store);
+            }
+            return store;
+        }
+    }
+
+    /**
+     * Remove {@code nodes} from the subnetwork and move their edges into the store.
+     */
+    public static void hide(final ModelTransaction tx, final Collection<CyNode> nodes) {
+        final CyNetwork     net     = tx.network();
+        final CyRootNetwork rootnet = ((CySubNetwork) net).getRootNetwork();
+        final CyTable       edgetbl = net.getDefaultEdgeTable();
+        final EdgeStore     store   = store(net);
+
+        final TypedColumn<Boolean> metaColumn = EvolvoColumns.of(net).meta();
+        final Set<CyEdge> edges = new LinkedHashSet<CyEdge>();
+        for (final CyNode node : nodes)
+            for (final CyEdge edge : rootnet.getAdjacentEdgeIterable(node, CyEdge.Type.ANY))
+                if (!MetaEdges.isMeta(metaColumn, edge))
+                    edges.add(edge);
+
+        if (!edges.isEmpty()) {
+            final List<String> columns = new ArrayList<String>();
+            for (final CyColumn column : edgetbl.getColumns())
+                if (!column.isPrimaryKey() && !column.getName().equals(CyNetwork.SELECTED))
+                    columns.add(column.getName());
+            final String[] header = columns.toArray(new String[columns.size()]);
+
+            for (final CyEdge edge : edges) {
+                final CyRow row = edgetbl.getRow(edge.getSUID());
+                final Object[] values = new Object[header.length];
+                for (int i = 0; i < header.length; i++)
+                    values[i] = row.getRaw(header[i]);
+                store.add(edge.getSource().getSUID(), edge.getTarget().getSUID(), values, header);
+            }
+            tx.removeEdges(edges);
+        }
+
+        tx.removeNodes(nodes);
+    }
+
+    /**
+     * Add {@code nodes} from the root network to the subnetwork and turn
+     * stored edges that now have both endpoints in the subnetwork into {@code CyEdge}s.
+     */
+    public static void show(final ModelTransaction tx, final Collection<CyNode> nodes) {
+        final CyNetwork     net     = tx.network();
+        final CyRootNetwork rootnet = ((CySubNetwork) net).getRootNetwork();
+        final EdgeStore     store   = store(net);
+
+        tx.addNodes(nodes);
+
+        for (final CyNode node : nodes) {
+            for (final int e : store.adjacent(node.getSUID())) {
+                final CyNode src = rootnet.getNode(store.source(e));
+                final CyNode trg = rootnet.getNode(store.target(e));
+                if (src == null || trg == null) {
+                    store.remove(e);
+                    continue;
+                }
+                if (!(net.containsNode(src) && net.containsNode(trg)))
+                    continue;
+                final CyEdge edge = tx.addEdge(src, trg, false);
+                setAttributes(tx, edge, store.header(e), store.row(e));
+                store.remove(e);
+            }
+        }
+    }
+
+    /**
+     * Drop all stored edges of {@code nodes}. Call this when
+     * {@code nodes} are removed from the root network.
+     */
+    public static void forget(final CyNetwork net, final Collection<CyNode> nodes) {
+        final EdgeStore store = store(net);
+        for (final CyNode node : nodes)
+            store.removeNode(node.getSUID());
+    }
+
+    /**
+     * Remove the edges between {@code src} and {@code trg}, whether they are
+     * {@code CyEdge}s or in the store. Meta-edges are left alone.
+     */
+    public static void remove(final ModelTransaction tx, final CyNode src, final CyNode trg) {
+        final CyNetwork     net     = tx.network();
+        final CyRootNetwork rootnet = ((CySubNetwork) net).getRootNetwork();
+        final EdgeStore     store   = store(net);
+
+        final TypedColumn<Boolean> metaColumn = EvolvoColumns.of(net).meta();
+        final List<CyEdge> edges = new ArrayList<CyEdge>();
+        for (final CyEdge edge : rootnet.getConnectingEdgeList(src, trg, CyEdge.Type.ANY))
+            if (!MetaEdges.isMeta(metaColumn, edge))
+                edges.add(edge);
+        if (!edges.isEmpty())
+            tx.removeEdges(edges);
+
+        for (int e; (e = store.find(src.getSUID(), trg.getSUID())) >= 0; )
+            store.remove(e);
+        tx.edgesDeleted(src, trg);
+    }
+
+    /**
+     * Set the stored {@code values} of {@code edge}. They were read before the
+     * edge table's columns may have been created, so whole numbers are
+     * converted to whatever type their column has by now.
+     */
+    private static void setAttributes(final ModelTransaction tx, final CyEdge edge, final String[] header, final Object[] values) {
+        final CyTable table = tx.network().getDefaultEdgeTable();
+        for (int i = 0; i < header.length; i++) {
+            final Object value = values[i];
+            if (value == null)
+                continue;
+            tx.set(edge, header[i], JsonNetworkReader.fit(table, header[i], value));
+        }
+    }
+
+    /**
+     * Creates {@code CyEdge}s only for edges whose endpoints are both in
+     * the subnetwork. Everything else goes into the store. An edge that
+     * is already in the subnetwork or the store, say because another shard
+     * sent it too, isn't added again. With {@code update}, an edge that is
+     * already in the store gets the new row in place of the one it has.
+     * Only the given columns are kept, as the attribute handler for
+     * {@code CyEdge}s does, so a stored edge is shown with the same columns.
+     */
+    public static class EdgeFactory extends JsonNetworkReader.BasicEdgeFactory {
+        final ModelTransaction tx;
+        final CyNetwork subnet;
+        final EdgeStore store;
+        final boolean update;
+        final Set<String> columns;
+        String[] header = null;
+        /** Index in each row of each column of {@code header} */
+        int[] kept = null;
+
+        /**
+         * @param columns The columns to keep, or null for all of them
+         */
+        public EdgeFactory(final ModelTransaction tx, final Set<String> columns) {
+            this(tx, false, columns);
+        }
+
+        public EdgeFactory(final ModelTransaction tx, final boolean update, final Set<String> columns) {
+            super(((CySubNetwork) tx.network()).getRootNetwork(), false, false);
+            this.tx = tx;
+            this.subnet = tx.network();
+            this.store = store(subnet);
+            this.update = update;
+            this.columns = columns;
+        }
+
+        public void header(String[] cols) throws InvalidJsonException {
+            super.header(cols);
+            final List<String> names = new ArrayList<String>();
+            final int[] indices = new int[cols.length - 2];
+            for (int col = 2; col < cols.length; col++) {
+                if (columns != null && !columns.contains(cols[col]))
+                    continue;
+                indices[names.size()] = col;
+                names.add(cols[col]);
+            }
+            header = names.toArray(new String[names.size()]);
+            kept = Arrays.copyOf(indices, names.size());
+        }
+
+        private Object[] values(final Object[] row) {
+            final Object[] values = new Object[kept.length];
+            for (int i = 0; i < kept.length; i++)
+                values[i] = row[kept[i]];
+            return values;
+        }
+
+        public CyEdge create(Object[] row, Class[] types) throws InvalidJsonException {
+            final CyNode src = endpoint(row, types, 0);
+            final CyNode trg = endpoint(row, types, 1);
+            if (subnet.containsNode(src) && subnet.containsNode(trg)) {
+                if (!subnet.containsEdge(src, trg))
+                    tx.edgeFetched(src, trg, header, values(row));
+                final CyEdge edge = super.create(row, types);
+                tx.addEdge(edge);
+                return edge;
+            }
+            final int stored = store.find(src.getSUID(), trg.getSUID());
+            if (stored >= 0 && update)
+                store.remove(stored);
+            if (stored < 0 || update) {
+                final Object[] values = values(row);
+                tx.edgeFetched(src, trg, header, values);
+                store.add(src.getSUID(), trg.getSUID(), values, header);
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package EvolvoApp.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyNode;
+import org.cytoscape.model.CyTable;
+import org.cytoscape.model.CyRow;
+
+import EvolvoApp.internal.prim.LongObjectHashMap;
+
+import static EvolvoApp.internal.Attr.*;
+
+/**
+ * Keeps track of the nodes that REPLACE expansions took out of the subnetwork.
+ * The server still has to hear about them as extant nodes.
+ *
+ * <p>
+ * Each network's hidden parents are kept in memory as a map from the
+ * parent's SUID to its "Evolvo-node-column" value, so building a request
+ * doesn't have to go to the node table. The "Evolvo-hidden-parents" column
+ * is only written by {@link #save}, right before the session is saved, and is
+ * read back the first time the network is used after the session is opened.
+ * </p>
+ */
+class HiddenParents {
+    private HiddenParents() {}
+
+    private static final Map<CyNetwork,LongObjectHashMap<String>> parents = Collections.synchronizedMap(new WeakHashMap<CyNetwork,LongObjectHashMap<String>>());
+
+    private static LongObjectHashMap<String> of(final CyNetwork net) {
+        synchronized (parents) {
+            LongObjectHashMap<String> keys = parents.get(net);
+            if (keys == null) {
+                keys = new LongObjectHashMap<String>();
+                final List<Long> saved = net.getRow(net).getList("Evolvo-hidden-parents", Long.class);
+                if (saved != null) {
+                    final CyTable nodetbl = net.getDefaultNodeTable();
+                    final String column = Attr(net, "Evolvo-node-column").Str();
+                    for (final Long suid : saved)
+                        keys.put(suid, keyOf(nodetbl.getRow(suid), column));
+                }
+                parents.put(net, keys);
+            }
+            return keys;
+        }
+    }
+
+    private static String keyOf(final CyRow row, final String column) {
+        return row.getRaw(column).toString();
+    }
+
+    public static void add(final CyNetwork net, final CyNode node) {
+        final String column = Attr(net, "Evolvo-node-column").Str();
+        of(net).put(node.getSUID(), keyOf(net.getDefaultNodeTable().getRow(node.getSUID()), column));
+    }
+
+    public static void remove(final CyNetwork net, final CyNode node) {
+        of(net).remove(node.getSUID());
+    }
+
+    public static boolean contains(final CyNetwork net, final CyNode node) {
+        return of(net).containsKey(node.getSUID());
+    }
+
+    public static int size(final CyNetwork net) {
+        return of(net).size();
+    }
+
+    /**
+     * Return the SUIDs of the hidden parents.
+     */
+    public static long[] suids(final CyNetwork net) {
+        return of(net).keys();
+    }
+
+    /**
+     * Return the "Evolvo-node-column" values of the hidden parents.
+     */
+    public static Collection<String> keys(final CyNetwork net) {
+        return of(net).values();
+    }
+
+    /**
+     * Write the hidden parents of {@code net} to its "Evolvo-hidden-parents" column.
+     * Networks that haven't been used since they were loaded are left alone.
+     */
+    public static void save(final CyNetwork net) {
+        final LongObjectHashMap<String> keys = parents.get(net);
+        if (keys == null)
+            return;
+        final List<Long> suids = new ArrayList<Long>(keys.size());
+        for (final long suid : keys.keys())
+            suids.add(suid);
+        final CyTable nettbl = net.getDefaultNetworkTable();
+        if (nettbl.getColumn("Evolvo-hidden-parents") == null)
+            nettbl.createListColumn("Evolvo-hidden-parents", Long.class, false, new ArrayList<Long>());
+        net.getRow(net).set("Evolvo-hidden-parents", suids);
+    }
+}
@@ -0,0 +1,118 @@
+package EvolvoApp.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the time to first byte of each server url.
+ *
+ * <p>
+ * Each url has an exponentially weighted moving average, which
+ * {@link #fastestFirst} uses to pick among replicas, and its most recent
+ * samples, which {@link #percentile} uses to decide how long to wait before
+ * hedging a request. A url that hasn't been heard from has an average of
+ * zero, so it's tried before the others and gets measured.
+ * </p>
+ */
+class Latency {
+    static final double ALPHA = 0.2;
+    static final int SAMPLES = 128;
+    static final int MIN_SAMPLES = 8;
+
+    /**
+     * A failed request counts as at least this long in the average.
+     */
+    static final long FAILURE_NANOS = 1000L * 1000L * 1000L;
+
+    private static final Map<String,Latency> latencies = new HashMap<String,Latency>();
+
+    double ewma = 0.0;
+    final long[] samples = new long[SAMPLES];
+    int count = 0;
+
+    private static Latency of(final String url) {
+        synchronized (latencies) {
+            Latency latency = latencies.get(url);
+            if (latency == null) {
+                latency = new Latency();
+                latencies.put(url, latency);
+            }
+            return latency;
+        }
+    }
+
+    /**
+     * Add a time to first byte of {@code url}.
+     */
+    public static void record(final String url, final long nanos) {
+        final Latency latency = of(url);
+        synchronized (latency) {
+            latency.ewma = (latency.count == 0) ? nanos : (ALPHA * nanos + (1.0 - ALPHA) * latency.ewma);
+            latency.samples[latency.count % SAMPLES] = nanos;
+            latency.count++;
+        }
+    }
+
+    /**
+     * Count a failed request to {@code url} against its average.
+     */
+    public static void failed(final String url) {
+        final Latency latency = of(url);
+        synchronized (latency) {
+            latency.ewma = ALPHA * Math.max(FAILURE_NANOS, 2.0 * latency.ewma) + (1.0 - ALPHA) * latency.ewma;
+        }
+    }
+
+    public static double ewma(final String url) {
+        final Latency latency = of(url);
+        synchronized (latency) {
+            return latency.ewma;
+        }
+    }
+
+    /**
+     * Return the {@code p}th percentile (0 to 100) of the recent times to first
+     * byte of {@code url} in nanoseconds, or -1 if there are too few to tell.
+     */
+    public static long percentile(final String url, final double p) {
+        final Latency latency = of(url);
+        final long[] sorted;
+        synchronized (latency) {
+            if (latency.count < MIN_SAMPLES)
+                return -1;
+            sorted = Arrays.copyOf(latency.samples, Math.min(latency.count, SAMPLES));
+        }
+        Arrays.sort(sorted);
+        final int index = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    /**
+     * Return {@code urls} ordered from the lowest average to the highest.
+     */
+    public static List<String> fastestFirst(final List<String> urls) {
+        if (urls.size() < 2)
+            return urls;
+        final Map<String,Double> averages = new HashMap<String,Double>();
+        for (final String url : urls)
+            averages.put(url, ewma(url));
+        final List<String> sorted = new ArrayList<String>(urls);
+        Collections.sort(sorted, new Comparator<String>() {
+            public int compare(final String a, final String b) {
+                return Double.compare(averages.get(a), averages.get(b));
+            }
+        });
+        return sorted;
+    }
+
+    static void reset() {
+        synchronized (latencies) {
+            latencies.clear();
+        }
+    }
+}
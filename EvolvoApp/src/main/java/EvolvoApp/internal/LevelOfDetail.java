@@ -0,0 +1,383 @@
+package EvolvoApp.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.swing.SwingUtilities;
+
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyNode;
+import org.cytoscape.view.model.CyNetworkView;
+import org.cytoscape.view.model.View;
+import org.cytoscape.view.model.VisualProperty;
+import org.cytoscape.view.model.events.ViewChangeRecord;
+import org.cytoscape.view.model.events.ViewChangedEvent;
+import org.cytoscape.view.model.events.ViewChangedListener;
+import org.cytoscape.view.presentation.property.BasicVisualLexicon;
+import org.cytoscape.work.TaskManager;
+
+import EvolvoApp.internal.prim.LongIntHashMap;
+import EvolvoApp.internal.prim.LongObjectHashMap;
+
+/**
+ * Expands nodes as the user zooms in on them and collapses them as they
+ * leave the screen or shrink, for the views it is turned on for.
+ *
+ * <p>
+ * When a view is zoomed, panned or resized, a pass is scheduled once the
+ * view has been still for a moment. A pass first collapses every expansion
+ * that is entirely off screen, or whose nodes together are smaller than
+ * {@link Settings#collapsePixels} on screen, one at a time and deepest first,
+ * looking at the view again after each one. Then it expands the largest
+ * expandable node on screen that is at least {@link Settings#expandPixels}
+ * wide, if the view hasn't made a request too recently, and schedules
+ * another pass for the next one. Both run the tasks of the <i>Evolvo:
+ * Expand</i> and <i>Evolvo: Collapse</i> menu items, so budgets, position
+ * memory and layout apply as usual.
+ * </p>
+ *
+ * <p>
+ * Passes run on a small pool of threads and hold the network's lock (see
+ * {@link NetworkLocks}), so views of different networks are looked after at
+ * the same time, and a pass never sees a network halfway through an expand.
+ * The view itself is only read on the EDT, before the lock is taken.
+ * </p>
+ */
+class LevelOfDetail implements ViewChangedListener {
+    public static class Settings {
+        /** Screen size in pixels above which an expandable node is expanded */
+        public double expandPixels = 80.0;
+        /** Screen size in pixels below which an expansion is collapsed */
+        public double collapsePixels = 20.0;
+        /** How long the view has to be still before a pass */
+        public long debounceMillis = 300;
+        /** Most expand requests per second */
+        public double requestsPerSecond = 2.0;
+
+        /** Written by passes, which may run on different threads one after the other */
+        volatile long nextRequestNanos = 0L;
+    }
+
+    final Engine engine;
+    final TaskManager<?,?> taskManager;
+    final Map<CyNetworkView,Settings> views = Collections.synchronizedMap(new WeakHashMap<CyNetworkView,Settings>());
+    final Map<CyNetworkView,ScheduledFuture<?>> pending = new WeakHashMap<CyNetworkView,ScheduledFuture<?>>();
+    /** Most passes that run at the same time, each on a different network */
+    static final int THREADS = 4;
+
+    final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(THREADS, new ThreadFactory() {
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, "Evolvo-level-of-detail");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    public LevelOfDetail(final Engine engine, final TaskManager<?,?> taskManager) {
+        this.engine = engine;
+        this.taskManager = taskManager;
+    }
+
+    public void enable(final CyNetworkView netView, final Settings settings) {
+        views.put(netView, settings);
+        schedule(netView, 0L);
+    }
+
+    public void disable(final CyNetworkView netView) {
+        views.remove(netView);
+        synchronized (pending) {
+            final ScheduledFuture<?> future = pending.remove(netView);
+            if (future != null)
+                future.cancel(false);
+        }
+    }
+
+    public boolean isEnabled(final CyNetworkView netView) {
+        return views.containsKey(netView);
+    }
+
+    private static boolean isViewport(final VisualProperty<?> property) {
+        return property == BasicVisualLexicon.NETWORK_SCALE_FACTOR
+            || property == BasicVisualLexicon.NETWORK_CENTER_X_LOCATION
+            || property == BasicVisualLexicon.NETWORK_CENTER_Y_LOCATION
+            || property == BasicVisualLexicon.NETWORK_WIDTH
+            || property == BasicVisualLexicon.NETWORK_HEIGHT;
+    }
+
+    public void handleEvent(final ViewChangedEvent<?> e) {
+        final CyNetworkView netView = e.getSource();
+        final Settings settings = views.get(netView);
+        if (settings == null)
+            return;
+        for (final ViewChangeRecord<?> record : e.getPayloadCollection()) {
+            if (record.getView() == netView && isViewport(record.getVisualProperty())) {
+                schedule(netView, settings.debounceMillis);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Run a pass on {@code netView} after {@code delayMillis}, in place of any pass that's already waiting.
+     */
+    private void schedule(final CyNetworkView netView, final long delayMillis) {
+        synchronized (pending) {
+            final ScheduledFuture<?> previous = pending.get(netView);
+            if (previous != null)
+                previous.cancel(false);
+            pending.put(netView, scheduler.schedule(new Runnable() {
+                public void run() {
+                    try {
+                        pass(netView);
+                    } catch (Exception e) {
+                        ModelEngine.logger.warn("Evolvo: level of detail failed", e);
+                    }
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    /**
+     * The part of the network on screen, in network coordinates.
+     */
+    static class Viewport {
+        final double scale;
+        final double minX, minY, maxX, maxY;
+
+        Viewport(final CyNetworkView netView) {
+            this(netView.getVisualProperty(BasicVisualLexicon.NETWORK_SCALE_FACTOR),
+                 netView.getVisualProperty(BasicVisualLexicon.NETWORK_CENTER_X_LOCATION),
+                 netView.getVisualProperty(BasicVisualLexicon.NETWORK_CENTER_Y_LOCATION),
+                 netView.getVisualProperty(BasicVisualLexicon.NETWORK_WIDTH),
+                 netView.getVisualProperty(BasicVisualLexicon.NETWORK_HEIGHT));
+        }
+
+        /**
+         * @param width The width of the view on screen, in pixels
+         * @param height The height of the view on screen, in pixels
+         */
+        Viewport(final double scale, final double centerX, final double centerY, final double width, final double height) {
+            this.scale = scale;
+            final double halfWidth = width / (2.0 * scale);
+            final double halfHeight = height / (2.0 * scale);
+            minX = centerX - halfWidth;
+            maxX = centerX + halfWidth;
+            minY = centerY - halfHeight;
+            maxY = centerY + halfHeight;
+        }
+
+        boolean contains(final double x, final double y) {
+            return x >= minX && x <= maxX && y >= minY && y <= maxY;
+        }
+
+        boolean overlaps(final double[] box) {
+            return box[0] <= maxX && box[2] >= minX && box[1] <= maxY && box[3] >= minY;
+        }
+
+        double pixels(final double size) {
+            return size * scale;
+        }
+    }
+
+    private static double size(final View<CyNode> nodeView) {
+        return Math.max(nodeView.getVisualProperty(BasicVisualLexicon.NODE_WIDTH), nodeView.getVisualProperty(BasicVisualLexicon.NODE_HEIGHT));
+    }
+
+    /**
+     * Where a view's nodes are drawn and what part of the network is on
+     * screen. It's read on the EDT, which is the only thread that may read
+     * a view while it's being drawn.
+     */
+    static class Drawing {
+        Viewport viewport = null;
+        final List<View<CyNode>> nodeViews = new ArrayList<View<CyNode>>();
+        /** x, y and half the size of each node view */
+        double[] xyh = null;
+
+        static Drawing read(final CyNetworkView netView) throws Exception {
+            final Drawing drawing = new Drawing();
+            final Runnable reader = new Runnable() {
+                public void run() {
+                    drawing.viewport = new Viewport(netView);
+                    drawing.nodeViews.addAll(netView.getNodeViews());
+                    drawing.xyh = new double[drawing.nodeViews.size() * 3];
+                    for (int i = 0; i < drawing.nodeViews.size(); i++) {
+                        final View<CyNode> nodeView = drawing.nodeViews.get(i);
+                        drawing.xyh[i * 3] = nodeView.getVisualProperty(BasicVisualLexicon.NODE_X_LOCATION);
+                        drawing.xyh[i * 3 + 1] = nodeView.getVisualProperty(BasicVisualLexicon.NODE_Y_LOCATION);
+                        drawing.xyh[i * 3 + 2] = size(nodeView) / 2.0;
+                    }
+                }
+            };
+            if (SwingUtilities.isEventDispatchThread())
+                reader.run();
+            else
+                SwingUtilities.invokeAndWait(reader);
+            return drawing;
+        }
+    }
+
+    /**
+     * What a pass knows about one visible node.
+     */
+    static class NodeState {
+        final View<CyNode> nodeView;
+        final double x, y, half;
+        /** SUID of the expansion the node belongs to, or null */
+        final Long expansion;
+        /** How many expansions the node's expansion is inside of */
+        final int depth;
+        final boolean expandable;
+
+        NodeState(final View<CyNode> nodeView, final double x, final double y, final double half, final Long expansion, final int depth, final boolean expandable) {
+            this.nodeView = nodeView;
+            this.x = x;
+            this.y = y;
+            this.half = half;
+            this.expansion = expansion;
+            this.depth = depth;
+            this.expandable = expandable;
+        }
+    }
+
+    /**
+     * Return a member of the deepest expansion that is entirely off screen or
+     * smaller than {@code collapsePixels}, or null if there is none. Expansions
+     * that are equally deep are taken smallest on screen first.
+     */
+    static NodeState toCollapse(final List<NodeState> nodes, final Viewport viewport, final double collapsePixels) {
+        // the bounds of each expansion's visible nodes: min x, min y, max x, max y
+        final LongObjectHashMap<double[]> bounds = new LongObjectHashMap<double[]>();
+        final LongObjectHashMap<NodeState> members = new LongObjectHashMap<NodeState>();
+        for (final NodeState node : nodes) {
+            if (node.expansion == null)
+                continue;
+            double[] box = bounds.get(node.expansion);
+            if (box == null) {
+                box = new double[] {node.x - node.half, node.y - node.half, node.x + node.half, node.y + node.half};
+                bounds.put(node.expansion, box);
+                members.put(node.expansion, node);
+            } else {
+                box[0] = Math.min(box[0], node.x - node.half);
+                box[1] = Math.min(box[1], node.y - node.half);
+                box[2] = Math.max(box[2], node.x + node.half);
+                box[3] = Math.max(box[3], node.y + node.half);
+            }
+        }
+
+        NodeState deepest = null;
+        double deepestPixels = 0.0;
+        for (final long expansion : bounds.keys()) {
+            final double[] box = bounds.get(expansion);
+            final double pixels = viewport.pixels(Math.max(box[2] - box[0], box[3] - box[1]));
+            if (viewport.overlaps(box) && pixels >= collapsePixels)
+                continue;
+            final NodeState member = members.get(expansion);
+            if (deepest == null || member.depth > deepest.depth || (member.depth == deepest.depth && pixels < deepestPixels)) {
+                deepest = member;
+                deepestPixels = pixels;
+            }
+        }
+        return deepest;
+    }
+
+    /**
+     * Return the largest expandable node on screen that is at least {@code expandPixels} wide, or null.
+     */
+    static NodeState toExpand(final List<NodeState> nodes, final Viewport viewport, final double expandPixels) {
+        NodeState largest = null;
+        for (final NodeState node : nodes) {
+            if (!node.expandable || !viewport.contains(node.x, node.y) || viewport.pixels(2.0 * node.half) < expandPixels)
+                continue;
+            if (largest == null || node.half > largest.half)
+                largest = node;
+        }
+        return largest;
+    }
+
+    /**
+     * Look up what the engine knows about the nodes in {@code drawing} that are still in {@code net}.
+     */
+    private List<NodeState> states(final CyNetwork net, final Drawing drawing) {
+        final TypedColumn<Long> parentColumn = EvolvoColumns.of(net).parent();
+        final LongIntHashMap depths = new LongIntHashMap();
+        final List<NodeState> nodes = new ArrayList<NodeState>(drawing.nodeViews.size());
+        for (int i = 0; i < drawing.nodeViews.size(); i++) {
+            final View<CyNode> nodeView = drawing.nodeViews.get(i);
+            final CyNode node = nodeView.getModel();
+            if (!net.containsNode(node))
+                continue;
+            final Long expansion = engine.expansionOf(net, node);
+            final int depth = (expansion == null) ? 0 : depth(parentColumn, expansion, depths);
+            nodes.add(new NodeState(nodeView, drawing.xyh[i * 3], drawing.xyh[i * 3 + 1], drawing.xyh[i * 3 + 2], expansion, depth, engine.isExpandable(net, node)));
+        }
+        return nodes;
+    }
+
+    /**
+     * Return the number of ancestors of the node with {@code suid}.
+     */
+    private static int depth(final TypedColumn<Long> parentColumn, final long suid, final LongIntHashMap depths) {
+        int depth = depths.get(suid, -1);
+        if (depth < 0) {
+            final Long parent = (parentColumn == null) ? null : parentColumn.get(suid);
+            depth = (parent == null) ? 0 : depth(parentColumn, parent, depths) + 1;
+            depths.put(suid, depth);
+        }
+        return depth;
+    }
+
+    /**
+     * Collapse one expansion at a time, deepest first, reading the view again
+     * after each one, since a collapse changes which nodes belong to which
+     * expansion on screen. Then expand one node if it's time for a request.
+     */
+    void pass(final CyNetworkView netView) throws Exception {
+        final CyNetwork net = netView.getModel();
+        final ReentrantLock lock = NetworkLocks.of(net);
+        while (true) {
+            final Settings settings = views.get(netView);
+            if (settings == null)
+                return;
+            // read before locking, since the EDT may be waiting for the lock
+            final Drawing drawing = Drawing.read(netView);
+            lock.lock();
+            try {
+                final List<NodeState> nodes = states(net, drawing);
+                final NodeState member = toCollapse(nodes, drawing.viewport, settings.collapsePixels);
+                if (member != null) {
+                    final CyNode node = member.nodeView.getModel();
+                    taskManager.execute(CyActivator.collapseTasks(member.nodeView, netView, false));
+                    // stop rather than try the same expansion again if it's still there
+                    if (net.containsNode(node) && member.expansion.equals(engine.expansionOf(net, node)))
+                        return;
+                    continue;
+                }
+
+                final NodeState largest = toExpand(nodes, drawing.viewport, settings.expandPixels);
+                if (largest == null)
+                    return;
+                final long now = System.nanoTime();
+                if (now < settings.nextRequestNanos) {
+                    schedule(netView, TimeUnit.NANOSECONDS.toMillis(settings.nextRequestNanos - now) + 1);
+                    return;
+                }
+                settings.nextRequestNanos = now + (long) (1e9 / Math.max(settings.requestsPerSecond, 0.01));
+                taskManager.execute(CyActivator.expandTasks(largest.nodeView, netView));
+                schedule(netView, TimeUnit.NANOSECONDS.toMillis(settings.nextRequestNanos - now) + 1);
+                return;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
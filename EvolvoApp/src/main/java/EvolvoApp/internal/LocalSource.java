@@ -0,0 +1,81 @@
+package EvolvoApp.internal;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Properties;
+
+/**
+ * Opens a top tier saved on the local disk instead of served over HTTP.
+ *
+ * <p>
+ * A local network is named by a {@code file:} URL or a plain path. Next to
+ * the network file there must be a descriptor with the same name plus
+ * ".evolvo". The descriptor is a properties file that holds what the server
+ * would have sent as headers:
+ * <blockquote><pre>
+ * Evolvo-action=REPLACE
+ * Evolvo-node-column=name
+ * Evolvo-url=http://localhost:8000/replace
+ * </pre></blockquote>
+ * "Evolvo-url" is the server that expand requests go to. Without it, the
+ * network can only be expanded from nodes already in the root network.
+ * </p>
+ */
+class LocalSource {
+    private LocalSource() {}
+
+    public static final String DESCRIPTOR_SUFFIX = ".evolvo";
+
+    /**
+     * Return true if {@code location} is a {@code file:} URL or a path rather than a URL.
+     */
+    public static boolean isLocal(final String location) {
+        return location.startsWith("file:") || !location.matches("^[A-Za-z][A-Za-z0-9+.-]*://.*");
+    }
+
+    public static File file(final String location) throws IOException {
+        if (!location.startsWith("file:"))
+            return new File(location);
+        try {
+            return new File(new URI(location));
+        } catch (URISyntaxException e) {
+            throw new IOException(String.format("Evolvo: '%s' is not a valid file URL", location), e);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(String.format("Evolvo: '%s' is not a valid file URL", location), e);
+        }
+    }
+
+    /**
+     * Read the descriptor of {@code file}.
+     * @throws IOException if there is no descriptor or it lacks "Evolvo-action" or "Evolvo-node-column"
+     */
+    public static Properties descriptor(final File file) throws IOException {
+        final File descriptorFile = new File(file.getPath() + DESCRIPTOR_SUFFIX);
+        if (!descriptorFile.isFile())
+            throw new IOException(String.format("Evolvo: %s needs a descriptor at %s", file, descriptorFile));
+
+        final Properties descriptor = new Properties();
+        final InputStream input = new FileInputStream(descriptorFile);
+        try {
+            descriptor.load(input);
+        } finally {
+            input.close();
+        }
+
+        for (final String key : new String[] {"Evolvo-action", "Evolvo-node-column"})
+            if (descriptor.getProperty(key) == null)
+                throw new IOException(String.format("Evolvo: descriptor %s is missing '%s'", descriptorFile, key));
+        return descriptor;
+    }
+
+    /**
+     * Open {@code file} for reading through memory-mapped windows.
+     */
+    public static InputStream open(final File file) throws IOException {
+        return new MappedFileInputStream(file);
+    }
+}
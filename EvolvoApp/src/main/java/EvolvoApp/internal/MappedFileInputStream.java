@@ -0,0 +1,92 @@
+package EvolvoApp.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a file through memory-mapped windows instead of {@code read} calls.
+ *
+ * <p>
+ * Pages come straight from the operating system's page cache, so opening a
+ * large file that was read recently costs no disk I/O and no extra copy into
+ * a stream buffer. A single mapping can't be larger than 2 GB, so the file is
+ * mapped one window at a time as the stream moves through it.
+ * </p>
+ */
+public class MappedFileInputStream extends InputStream {
+    static final long DEFAULT_WINDOW = 1L << 30;
+
+    final RandomAccessFile file;
+    final FileChannel channel;
+    final long size;
+    final long window;
+    long position = 0;
+    MappedByteBuffer buffer = null;
+
+    public MappedFileInputStream(final File file) throws IOException {
+        this(file, DEFAULT_WINDOW);
+    }
+
+    MappedFileInputStream(final File file, final long window) throws IOException {
+        this.file = new RandomAccessFile(file, "r");
+        this.channel = this.file.getChannel();
+        this.size = channel.size();
+        this.window = window;
+    }
+
+    /**
+     * Map the next window if the current one is used up.
+     * @return false at the end of the file
+     */
+    private boolean fill() throws IOException {
+        if (buffer != null && buffer.hasRemaining())
+            return true;
+        if (position >= size)
+            return false;
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(window, size - position));
+        return true;
+    }
+
+    public int read() throws IOException {
+        if (!fill())
+            return -1;
+        position++;
+        return buffer.get() & 0xff;
+    }
+
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (len == 0)
+            return 0;
+        if (!fill())
+            return -1;
+        final int n = Math.min(len, buffer.remaining());
+        buffer.get(b, off, n);
+        position += n;
+        return n;
+    }
+
+    public long skip(final long n) throws IOException {
+        final long skipped = Math.max(0L, Math.min(n, size - position));
+        position += skipped;
+        if (buffer != null) {
+            if (skipped <= buffer.remaining())
+                buffer.position(buffer.position() + (int) skipped);
+            else
+                buffer = null;
+        }
+        return skipped;
+    }
+
+    public int available() {
+        return (int) Math.min(size - position, Integer.MAX_VALUE);
+    }
+
+    public void close() throws IOException {
+        buffer = null;
+        file.close();
+    }
+}
@@ -0,0 +1,203 @@
+package EvolvoApp.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyNode;
+import org.cytoscape.model.CyEdge;
+import org.cytoscape.model.CyTable;
+
+import org.cytoscape.model.subnetwork.CyRootNetwork;
+import org.cytoscape.model.subnetwork.CySubNetwork;
+
+import static EvolvoApp.internal.Attr.*;
+
+/**
+ * Summarizes edges that cannot be shown because an endpoint is hidden.
+ * These are the edges kept in the {@link EdgeStore} by {@link HiddenEdges}.
+ *
+ * <p>
+ * Every node in the root network is represented in the subnetwork by its
+ * nearest visible ancestor: the node itself if it's visible, otherwise its
+ * "Evolvo-parent", and so on up the tiers. An edge whose endpoints are both
+ * visible is shown as is. All other edges between the same pair of
+ * representatives are shown as a single meta-edge. Meta-edges have the
+ * "Evolvo-meta" attribute set to true and carry the number of edges they stand for in
+ * "Evolvo-meta-count". If the network's "Evolvo-aggregate-column" names a numeric
+ * edge column, the meta-edge also gets the min, max and mean of that column in
+ * "Evolvo-meta-min", "Evolvo-meta-max" and "Evolvo-meta-mean".
+ * </p>
+ *
+ * <p>
+ * Meta-edges are only maintained if the network's "Evolvo-aggregate-edges" attribute is true.
+ * </p>
+ */
+class MetaEdges {
+    private MetaEdges() {}
+
+    private static class Aggregate {
+        final CyNode a;
+        final CyNode b;
+        int count = 0;
+        int valueCount = 0;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        double sum = 0.0;
+
+        Aggregate(final CyNode a, final CyNode b) {
+            this.a = a;
+            this.b = b;
+        }
+
+        void add(final Object value) {
+            count++;
+            if (value instanceof Number) {
+                final double d = ((Number) value).doubleValue();
+                min = Math.min(min, d);
+                max = Math.max(max, d);
+                sum += d;
+                valueCount++;
+            }
+        }
+    }
+
+    public static boolean isEnabled(final CyNetwork net) {
+        return Attr(net, "Evolvo-aggregate-edges").Bool(false);
+    }
+
+    public static boolean isMeta(final CyNetwork net, final CyEdge edge) {
+        return isMeta(EvolvoColumns.of(net).meta(), edge);
+    }
+
+    /**
+     * Tell whether {@code edge} is a meta-edge, given the "Evolvo-meta" handle from
+     * {@link EvolvoColumns#meta}, which may be null. Use this one in loops.
+     */
+    public static boolean isMeta(final TypedColumn<Boolean> metaColumn, final CyEdge edge) {
+        return metaColumn != null && metaColumn.get(edge.getSUID(), false);
+    }
+
+    /**
+     * Bring meta-edges up to date after {@code parentNode} was expanded or collapsed.
+     * Only meta-edges that touch {@code parentNode} or one of its children are rebuilt.
+     */
+    public static void update(final ModelTransaction tx, final CyNode parentNode) {
+        final CyNetwork net = tx.network();
+        if (!isEnabled(net))
+            return;
+
+        final CyRootNetwork rootnet = ((CySubNetwork) net).getRootNetwork();
+        final CyTable       nodetbl = net.getDefaultNodeTable();
+
+        final Set<CyNode> changed = new HashSet<CyNode>();
+        changed.add(parentNode);
+        changed.addAll(Utils.getNodesWithValue(rootnet, nodetbl, "Evolvo-parent", parentNode.getSUID()));
+
+        // any meta-edge touching a changed node may now be wrong, so throw them out
+        final List<CyEdge> staleEdges = new ArrayList<CyEdge>();
+        final TypedColumn<Boolean> metaColumn = EvolvoColumns.of(net).meta();
+        for (final CyNode node : changed)
+            for (final CyEdge edge : rootnet.getAdjacentEdgeIterable(node, CyEdge.Type.ANY))
+                if (isMeta(metaColumn, edge))
+                    staleEdges.add(edge);
+        tx.removeEdges(staleEdges);
+
+        // every edge whose representatives involve a changed node is adjacent to a changed node's subtree
+        final EdgeStore store = HiddenEdges.store(net);
+        final Set<Integer> hiddenEdges = new HashSet<Integer>();
+        for (final CyNode node : subtrees(rootnet, nodetbl, changed))
+            for (final int e : store.adjacent(node.getSUID()))
+                hiddenEdges.add(e);
+
+        final String valueColumn = Attr(net, "Evolvo-aggregate-column").Str();
+        final boolean hasValueColumn = valueColumn != null && valueColumn.length() > 0;
+        final Map<CyNode,CyNode> reps = new HashMap<CyNode,CyNode>();
+        final Map<Long,Map<Long,Aggregate>> aggregates = new HashMap<Long,Map<Long,Aggregate>>();
+        for (final int e : hiddenEdges) {
+            final CyNode srcRep = representative(net, reps, rootnet.getNode(store.source(e)));
+            final CyNode trgRep = representative(net, reps, rootnet.getNode(store.target(e)));
+            if (srcRep == null || trgRep == null || srcRep.equals(trgRep))
+                continue;
+            if (!(changed.contains(srcRep) || changed.contains(trgRep)))
+                continue;
+
+            final boolean srcFirst = srcRep.getSUID() < trgRep.getSUID();
+            final CyNode a = srcFirst ? srcRep : trgRep;
+            final CyNode b = srcFirst ? trgRep : srcRep;
+            Map<Long,Aggregate> aggregatesForA = aggregates.get(a.getSUID());
+            if (aggregatesForA == null) {
+                aggregatesForA = new HashMap<Long,Aggregate>();
+                aggregates.put(a.getSUID(), aggregatesForA);
+            }
+            Aggregate aggregate = aggregatesForA.get(b.getSUID());
+            if (aggregate == null) {
+                aggregate = new Aggregate(a, b);
+                aggregatesForA.put(b.getSUID(), aggregate);
+            }
+            aggregate.add(hasValueColumn ? store.value(e, valueColumn) : null);
+        }
+
+        final List<Aggregate> pairs = new ArrayList<Aggregate>();
+        for (final Map<Long,Aggregate> aggregatesForA : aggregates.values())
+            pairs.addAll(aggregatesForA.values());
+        if (pairs.isEmpty())
+            return;
+
+        final CyTable edgetbl = net.getDefaultEdgeTable();
+        final TypedColumn<Integer> countColumn = TypedColumn.bind(edgetbl, "Evolvo-meta-count", Integer.class);
+        final long[] metaEdgeSUIDs = new long[pairs.size()];
+        for (int i = 0; i < metaEdgeSUIDs.length; i++) {
+            final Aggregate aggregate = pairs.get(i);
+            final CyEdge metaEdge = tx.addEdge(aggregate.a, aggregate.b, false);
+            metaEdgeSUIDs[i] = metaEdge.getSUID();
+            tx.set(countColumn, metaEdge.getSUID(), aggregate.count);
+            if (aggregate.valueCount > 0) {
+                tx.set(metaEdge, "Evolvo-meta-min", aggregate.min);
+                tx.set(metaEdge, "Evolvo-meta-max", aggregate.max);
+                tx.set(metaEdge, "Evolvo-meta-mean", aggregate.sum / aggregate.valueCount);
+            }
+        }
+        tx.setAll(TypedColumn.bind(edgetbl, "Evolvo-meta", Boolean.class), metaEdgeSUIDs, true);
+    }
+
+    /**
+     * Return the nearest visible ancestor of {@code node}, including {@code node} itself,
+     * or null if none of them are visible.
+     */
+    private static CyNode representative(final CyNetwork net, final Map<CyNode,CyNode> reps, final CyNode node) {
+        if (node == null)
+            return null;
+        if (reps.containsKey(node))
+            return reps.get(node);
+        final CyRootNetwork rootnet = ((CySubNetwork) net).getRootNetwork();
+        CyNode rep = node;
+        while (rep != null && !net.containsNode(rep)) {
+            final Long parentSUID = Attr(net, rep, "Evolvo-parent").Long();
+            rep = (parentSUID == null) ? null : rootnet.getNode(parentSUID);
+        }
+        reps.put(node, rep);
+        return rep;
+    }
+
+    /**
+     * Return the given nodes together with all of their descendants in the root network.
+     */
+    private static Set<CyNode> subtrees(final CyRootNetwork rootnet, final CyTable nodetbl, final Collection<CyNode> nodes) {
+        final Set<CyNode> visited = new HashSet<CyNode>(nodes);
+        final LinkedList<CyNode> queue = new LinkedList<CyNode>(nodes);
+        while (!queue.isEmpty()) {
+            final CyNode node = queue.removeFirst();
+            for (final CyNode child : Utils.getNodesWithValue(rootnet, nodetbl, "Evolvo-parent", node.getSUID()))
+                if (visited.add(child))
+                    queue.addLast(child);
+        }
+        return visited;
+    }
+}
@@ -0,0 +1,1341 @@
+package EvolvoApp.internal;
+
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URLEncoder;
+import java.io.File;
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+
+import org.slf4j.LoggerFactory;
+import org.slf4j.Logger;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Properties;
+import java.util.WeakHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.cytoscape.model.CyNetworkFactory;
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyNode;
+import org.cytoscape.model.CyEdge;
+import org.cytoscape.model.CyTable;
+import org.cytoscape.model.CyColumn;
+import org.cytoscape.model.CyIdentifiable;
+import org.cytoscape.model.CyRow;
+
+import org.cytoscape.model.subnetwork.CyRootNetwork;
+import org.cytoscape.model.subnetwork.CySubNetwork;
+
+import org.cytoscape.event.CyEventHelper;
+
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonGenerationException;
+import org.codehaus.jackson.JsonParseException;
+
+import static EvolvoApp.internal.Attr.*;
+
+import EvolvoApp.internal.json.ColumnDictionaries;
+import EvolvoApp.internal.json.JsonNetworkReader;
+import EvolvoApp.internal.json.InvalidJsonException;
+import EvolvoApp.internal.prim.LongObjectHashMap;
+
+/**
+ * The {@link Engine} that talks to Evolvo servers over HTTP and keeps its
+ * state in the network's tables, the {@link EdgeStore} and {@link HiddenParents}.
+ */
+public class ModelEngine implements Engine {
+    static final Logger logger = LoggerFactory.getLogger("CyUserMessages");
+
+    final CyNetworkFactory netFactory;
+    final CyEventHelper eventHelper;
+
+    public ModelEngine(final CyNetworkFactory netFactory, final CyEventHelper eventHelper) {
+        this.netFactory = netFactory;
+        this.eventHelper = eventHelper;
+    }
+
+    private static enum EvolvoAction {
+        REPLACE,
+        AUGMENT;
+
+        public static EvolvoAction get(final CyNetwork net) {
+            final String actionName = Attr(net, "Evolvo-action").Str();
+            for (final EvolvoAction action : EvolvoAction.values())
+                if (actionName.equalsIgnoreCase(action.name()))
+                    return action;
+            return null;
+        }
+    }
+
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
+    /** Size of each chunk of a request body sent to a server */
+    static final int REQUEST_CHUNK_SIZE = 64 * 1024;
+
+    private static final Map<CyNetwork,ColumnDictionaries> networkDictionaries = Collections.synchronizedMap(new WeakHashMap<CyNetwork,ColumnDictionaries>());
+
+    /**
+     * Return the string dictionaries that every response read into {@code net} shares.
+     */
+    static ColumnDictionaries dictionaries(final CyNetwork net) {
+        synchronized (networkDictionaries) {
+            ColumnDictionaries columns = networkDictionaries.get(net);
+            if (columns == null) {
+                columns = new ColumnDictionaries();
+                networkDictionaries.put(net, columns);
+            }
+            return columns;
+        }
+    }
+
+    public CyNetwork open(final OpenSettings settings) throws Exception {
+        final Trace trace = Trace.start("open", settings.location);
+        try {
+            final String location = settings.location;
+            String serverUrl;
+            final String shardSpec;
+            final String action;
+            final String nodeColumn;
+            final String version;
+            final Set<String> requested = parseColumns(settings.columns);
+            final List<InputStream> inputs = new ArrayList<InputStream>();
+            final List<FanOut.Response> fetched = new ArrayList<FanOut.Response>();
+            final boolean local = LocalSource.isLocal(location);
+            if (local) {
+                final File file = LocalSource.file(location);
+                final Properties descriptor = LocalSource.descriptor(file);
+                serverUrl = descriptor.getProperty("Evolvo-url");
+                shardSpec = descriptor.getProperty("Evolvo-shards", settings.shards).trim();
+                action = descriptor.getProperty("Evolvo-action");
+                nodeColumn = descriptor.getProperty("Evolvo-node-column");
+                version = descriptor.getProperty("Evolvo-version");
+                inputs.add(LocalSource.open(file));
+            } else {
+                // with shards, the top tier is the union of every shard's top tier
+                shardSpec = settings.shards.trim();
+                final List<String> urls = (shardSpec.length() > 0) ? Shards.parse(shardSpec).endpoints() : Collections.singletonList(location);
+                final List<FanOut.Response> responses = FanOut.send(urls, settings.hedgePercentile, new FanOut.Request() {
+                    public URLConnection open(final String url) throws IOException {
+                        return (new URL(withColumns(url, requested))).openConnection();
+                    }
+                });
+                Trace.current().phase("request");
+                fetched.addAll(responses);
+                serverUrl = Shards.replicas(urls.get(0)).get(0);
+                action = responses.get(0).header("Evolvo-action");
+                nodeColumn = responses.get(0).header("Evolvo-node-column");
+                version = responses.get(0).header("Evolvo-version");
+                for (final FanOut.Response response : responses) {
+                    inputs.add(response.body());
+                    if (!same(action, response.header("Evolvo-action")) || !same(nodeColumn, response.header("Evolvo-node-column")))
+                        throw new IOException(String.format("Evolvo: %s and %s disagree on Evolvo-action or Evolvo-node-column", urls.get(0), response.url()));
+                }
+            }
+            if (serverUrl == null && shardSpec.length() > 0)
+                serverUrl = Shards.replicas(Shards.parse(shardSpec).endpoints().get(0)).get(0);
+
+            final CyNetwork net = netFactory.createNetwork();
+            Attr(net, CyNetwork.NAME).set(String.format("Evolvo: %s", location));
+            Trace.current().network(net);
+
+            Attr(net, "Evolvo-url").set(serverUrl);
+            if (shardSpec.length() > 0)
+                Attr(net, "Evolvo-shards").set(shardSpec);
+            Attr(net, "Evolvo-action").set(action);
+            Attr(net, "Evolvo-node-column").set(nodeColumn);
+            Attr(net, "Evolvo-max-nodes").set(settings.maxNodes);
+            Attr(net, "Evolvo-max-edges").set(settings.maxEdges);
+            Attr(net, "Evolvo-aggregate-edges").set(settings.aggregateEdges);
+            Attr(net, "Evolvo-aggregate-column").set(settings.aggregateColumn);
+            Attr(net, "Evolvo-hedge-percentile").set(settings.hedgePercentile);
+            if (requested != null)
+                Attr(net, "Evolvo-columns").set(join(requested));
+            if (version != null)
+                Attr(net, "Evolvo-version").set(version);
+            net.getDefaultNetworkTable().createListColumn("Evolvo-hidden-parents", Long.class, false, new ArrayList<Long>());
+            net.getDefaultNetworkTable().createListColumn("Evolvo-expansion-order", Long.class, false, new ArrayList<Long>());
+
+            // a local top tier is read whole; the projection is for what comes over the network
+            final Set<String> columns = local ? null : projection(net);
+            final JsonNetworkReader.NodeFactory nodeFactory = (inputs.size() == 1)
+                ? new JsonNetworkReader.BasicNodeFactory(net)
+                : new JsonNetworkReader.NonDuplicatingNodeFactory(new JsonNetworkReader.BasicNodeFactory(net), net, net.getDefaultNodeTable(), nodeColumn);
+            try {
+                for (final InputStream input : inputs)
+                    JsonNetworkReader.read(jsonFactory.createJsonParser(input), net,
+                            Trace.current().nodes(nodeFactory),
+                            new JsonNetworkReader.NodeAttrHandler(net, columns),
+                            Trace.current().edges(new JsonNetworkReader.BasicEdgeFactory(net, false, false)),
+                            new JsonNetworkReader.EdgeAttrHandler(net, columns),
+                            new JsonNetworkReader.NetworkAttrHandler(net),
+                            dictionaries(net));
+            } finally {
+                for (final InputStream input : inputs)
+                    input.close();
+            }
+            for (final FanOut.Response response : fetched)
+                Trace.current().bytes(response.bytes());
+            Trace.current().phase("parse");
+
+            if (settings.snapshot.length() > 0)
+                SnapshotLog.start(net, new File(settings.snapshot));
+
+            eventHelper.flushPayloadEvents();
+            Trace.current().phase("events");
+            return net;
+        } finally {
+            trace.end();
+        }
+    }
+
+    private static boolean same(final String a, final String b) {
+        return (a == null) ? (b == null) : a.equals(b);
+    }
+
+    /**
+     * Parse a list of columns separated by spaces or commas.
+     * @return The columns in the order given, or null if there are none
+     */
+    static Set<String> parseColumns(final String spec) {
+        if (spec == null)
+            return null;
+        final Set<String> columns = new LinkedHashSet<String>();
+        for (final String column : spec.split("[\\s,]+"))
+            if (column.length() > 0)
+                columns.add(column);
+        return columns.isEmpty() ? null : columns;
+    }
+
+    private static String join(final Set<String> columns) {
+        final StringBuilder builder = new StringBuilder();
+        for (final String column : columns) {
+            if (builder.length() > 0)
+                builder.append(',');
+            builder.append(column);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Return the columns to keep of what servers send for {@code net}: its
+     * "Evolvo-columns", its node column and its aggregate column. Return null
+     * if "Evolvo-columns" isn't set, in which case every column is kept.
+     */
+    static Set<String> projection(final CyNetwork net) {
+        final Set<String> columns = parseColumns(Attr(net, "Evolvo-columns").Str());
+        if (columns == null)
+            return null;
+        columns.add(Attr(net, "Evolvo-node-column").Str());
+        final String aggregateColumn = Attr(net, "Evolvo-aggregate-column").Str("");
+        if (aggregateColumn.length() > 0)
+            columns.add(aggregateColumn);
+        return columns;
+    }
+
+    /**
+     * Return {@code url} with a "columns" query parameter, or {@code url} itself if {@code columns} is null.
+     */
+    private static String withColumns(final String url, final Set<String> columns) throws IOException {
+        if (columns == null)
+            return url;
+        return url + ((url.indexOf('?') < 0) ? '?' : '&') + "columns=" + URLEncoder.encode(join(columns), "UTF-8");
+    }
+
+    public CyNetwork restore(final File snapshot) throws Exception {
+        return SnapshotLog.restore(snapshot, netFactory, eventHelper);
+    }
+
+    public boolean isExpandable(final CyNetwork net, final CyNode node) {
+        final EvolvoColumns columns = EvolvoColumns.of(net);
+        boolean expandable = true;
+        final TypedColumn<Boolean> expandableColumn = columns.expandable();
+        if (expandableColumn != null) {
+            expandable = expandableColumn.get(node.getSUID(), false);
+        }
+        final TypedColumn<Boolean> expandedColumn = columns.expanded();
+        final boolean expanded = expandedColumn != null && expandedColumn.get(node.getSUID(), false);
+        return (expandable && !expanded);
+    }
+
+    public boolean isCollapsable(final CyNetwork net, final CyNode node) {
+        return expansionOf(net, node) != null;
+    }
+
+    public Long expansionOf(final CyNetwork net, final CyNode node) {
+        final EvolvoColumns columns = EvolvoColumns.of(net);
+        if (EvolvoAction.get(net).equals(EvolvoAction.REPLACE)) {
+            final TypedColumn<Long> parentColumn = columns.parent();
+            return (parentColumn == null) ? null : parentColumn.get(node.getSUID());
+        } else {
+            final TypedColumn<Boolean> expandedColumn = columns.expanded();
+            return (expandedColumn != null && expandedColumn.get(node.getSUID(), false)) ? node.getSUID() : null;
+        }
+    }
+
+    public int expand(final CyNetwork net, final CyNode node) throws Exception {
+        final Trace trace = Trace.start("expand", net, node);
+        final ReentrantLock lock = NetworkLocks.of(net);
+        lock.lock();
+        try {
+            final ModelTransaction tx = new ModelTransaction(net, eventHelper);
+            final int children;
+            try {
+                if (EvolvoAction.get(net).equals(EvolvoAction.REPLACE))
+                    children = expandReplace(tx, node, null);
+                else
+                    children = expandAugment(tx, node, null);
+            } finally {
+                tx.commit();
+            }
+            trace.phase("commit");
+            eventHelper.flushPayloadEvents();
+            trace.phase("events");
+            return children;
+        } finally {
+            lock.unlock();
+            trace.end();
+        }
+    }
+
+    public int autoCollapse(final CyNetwork net, final CyNode exempt, final CollapseListener listener) throws Exception {
+        final ReentrantLock lock = NetworkLocks.of(net);
+        lock.lock();
+        try {
+            if (!isOverBudget(net))
+                return 0;
+            final Trace trace = Trace.start("auto-collapse", net, exempt);
+            try {
+                final ModelTransaction tx = new ModelTransaction(net, eventHelper);
+                final int collapsed;
+                try {
+                    collapsed = autoCollapse(tx, exempt, listener);
+                } finally {
+                    tx.commit();
+                }
+                trace.phase("commit");
+                eventHelper.flushPayloadEvents();
+                trace.phase("events");
+                return collapsed;
+            } finally {
+                trace.end();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void collapse(final CyNetwork net, final CyNode node, final boolean clear) throws Exception {
+        final Trace trace = Trace.start(clear ? "clear" : "collapse", net, node);
+        final ReentrantLock lock = NetworkLocks.of(net);
+        lock.lock();
+        try {
+            final CyRootNetwork rootnet = ((CySubNetwork) net).getRootNetwork();
+            final ModelTransaction tx = new ModelTransaction(net, eventHelper);
+            try {
+                if (EvolvoAction.get(net).equals(EvolvoAction.REPLACE))
+                    collapseReplace(tx, rootnet.getNode(Attr(net, node, "Evolvo-parent").Long()), clear);
+                else
+                    collapseAugment(tx, node, clear);
+            } finally {
+                tx.commit();
+            }
+            trace.phase("commit");
+            eventHelper.flushPayloadEvents();
+            trace.phase("events");
+        } finally {
+            lock.unlock();
+            trace.end();
+        }
+    }
+
+    /**
+     * Asks the server for the path from the network's visible nodes down to a node
+     * and expands every node along the way.
+     *
+     * <p>
+     * The request is posted to the network's URL with "/path" appended and looks just
+     * like an expand request, where the target is the node to find.
+     * The response is an array of tiers, ordered from the top down. Each tier is an array
+     * of the key of the node to expand and its child network:
+     * <blockquote>
+     *   {@code [["n1", [[...], [...], []]], ["n12", [[...], [...], []]]]}
+     * </blockquote>
+     * </p>
+     */
+    public int find(final CyNetwork net, final String key) throws Exception {
+        final Trace trace = Trace.start("find", net, key);
+        final ReentrantLock lock = NetworkLocks.of(net);
+        lock.lock();
+        try {
+            // the path only comes from the shard that owns the key
+            final List<String> endpoints = Shards.of(net).endpointsFor(key);
+            final List<String> owner = endpoints.isEmpty() ? endpoints : Collections.singletonList(Shards.withPath(endpoints.get(0), "/path"));
+            final double hedgePercentile = Attr(net, "Evolvo-hedge-percentile").Double(0.0);
+            final List<FanOut.Response> responses = FanOut.send(owner, hedgePercentile, post(requestBody(key, null, net, true, projection(net))));
+            trace.phase("request");
+            final Reader reader = new InputStreamReader(responses.get(0).body());
+            final JsonParser jsonParser = jsonFactory.createJsonParser(reader);
+
+            final JsonToken t = jsonParser.nextToken();
+            if (t == null || !t.equals(JsonToken.START_ARRAY))
+                throw new InvalidJsonException("path must be an array of tiers");
+
+            final int tiers;
+            final ModelTransaction tx = new ModelTransaction(net, eventHelper);
+            try {
+                tiers = revealPath(tx, jsonParser, key);
+            } finally {
+                tx.commit();
+            }
+            reader.close();
+            trace.bytes(responses.get(0).bytes());
+            trace.phase("parse");
+
+            eventHelper.flushPayloadEvents();
+            trace.phase("events");
+            return tiers;
+        } finally {
+            lock.unlock();
+            trace.end();
+        }
+    }
+
+    /**
+     * The request is posted to every shard with "/refresh" appended. Each
+     * shard's changes are applied in turn, and the network takes the
+     * "Evolvo-version" of the first shard's response.
+     */
+    public int refresh(final CyNetwork net, final AddListener listener) throws Exception {
+        final Trace trace = Trace.start("refresh", net, (String) null);
+        final ReentrantLock lock = NetworkLocks.of(net);
+        lock.lock();
+        try {
+            final String version = Attr(net, "Evolvo-version").Str();
+            if (version == null)
+                throw new IOException("Evolvo: the server sent no Evolvo-version when this network was opened, so it can't be refreshed");
+            final Set<String> expanded = expandedKeys(net);
+            final List<String> urls = new ArrayList<String>();
+            for (final String endpoint : Shards.of(net).endpoints())
+                urls.add(Shards.withPath(endpoint, "/refresh"));
+            final double hedgePercentile = Attr(net, "Evolvo-hedge-percentile").Double(0.0);
+            final Set<String> columns = projection(net);
+            final List<FanOut.Response> responses = FanOut.send(urls, hedgePercentile, post(new Body() {
+                public void write(final OutputStream stream) throws IOException {
+                    writeRefreshRequest(stream, version, expanded, columns);
+                }
+            }));
+            trace.phase("request");
+
+            int changed = 0;
+            final ModelTransaction tx = new ModelTransaction(net, eventHelper);
+            try {
+                for (final FanOut.Response response : responses) {
+                    final Reader reader = new InputStreamReader(response.body());
+                    try {
+                        changed += applyChanges(tx, jsonFactory.createJsonParser(reader));
+                    } finally {
+                        reader.close();
+                    }
+                    trace.bytes(response.bytes());
+                }
+                final String newVersion = responses.get(0).header("Evolvo-version");
+                if (newVersion != null)
+                    tx.set(net, "Evolvo-version", newVersion);
+            } finally {
+                tx.commit();
+            }
+            trace.phase("parse");
+
+            eventHelper.flushPayloadEvents();
+            trace.phase("events");
+            if (listener != null && !tx.addedNodes.isEmpty())
+                listener.nodesAdded(net, Collections.unmodifiableSet(tx.addedNodes));
+            return changed;
+        } finally {
+            lock.unlock();
+            trace.end();
+        }
+    }
+
+    public CyNode nodeWithKey(final CyNetwork net, final String key) {
+        return getNodeWithKey(net, key);
+    }
+
+    /**
+     * The nodes are grouped by the tier they came from. The top tier is asked
+     * for again with a GET from every shard, and any other tier is asked for
+     * with a request for its parent, without "extant-nodes" or "columns". Only
+     * the rows of the given nodes are read, and the edges are skipped.
+     */
+    public int loadAttributes(final CyNetwork net, final Collection<CyNode> nodes) throws Exception {
+        final Trace trace = Trace.start("load-attributes", net, (String) null);
+        final ReentrantLock lock = NetworkLocks.of(net);
+        lock.lock();
+        try {
+            final CyRootNetwork rootnet = ((CySubNetwork) net).getRootNetwork();
+            final String column = Attr(net, "Evolvo-node-column").Str();
+            final TypedColumn<Long> parentColumn = TypedColumn.lookup(net.getDefaultNodeTable(), "Evolvo-parent", Long.class);
+            final double hedgePercentile = Attr(net, "Evolvo-hedge-percentile").Double(0.0);
+
+            // the nodes of each tier by key; 0 stands for the top tier
+            final LongObjectHashMap<Map<String,CyNode>> tiers = new LongObjectHashMap<Map<String,CyNode>>();
+            for (final CyNode node : nodes) {
+                final Long parent = (parentColumn == null) ? null : parentColumn.get(node.getSUID());
+                final long tier = (parent == null) ? 0L : parent.longValue();
+                Map<String,CyNode> keys = tiers.get(tier);
+                if (keys == null) {
+                    keys = new HashMap<String,CyNode>();
+                    tiers.put(tier, keys);
+                }
+                keys.put(net.getRow(node).getRaw(column).toString(), node);
+            }
+
+            int loaded = 0;
+            final ModelTransaction tx = new ModelTransaction(net, eventHelper);
+            try {
+                for (final long tier : tiers.keys()) {
+                    final Map<String,CyNode> keys = tiers.get(tier);
+                    final List<String> urls;
+                    final String target;
+                    if (tier == 0L) {
+                        urls = Shards.of(net).endpoints();
+                        target = null;
+                    } else {
+                        target = rootnet.getRow(rootnet.getNode(tier)).getRaw(column).toString();
+                        urls = Shards.of(net).endpointsFor(target);
+                    }
+                    if (urls.isEmpty())
+                        continue; // a top tier from a file without a server was read whole
+                    final FanOut.Request request;
+                    if (target == null) {
+                        request = new FanOut.Request() {
+                            public URLConnection open(final String url) throws IOException {
+                                return (new URL(url)).openConnection();
+                            }
+                        };
+                    } else {
+                        request = post(requestBody(target, null, net, false, null));
+                    }
+                    final List<FanOut.Response> responses = FanOut.send(urls, hedgePercentile, request);
+                    final int before = keys.size();
+                    for (final FanOut.Response response : responses) {
+                        final Reader reader = new InputStreamReader(response.body());
+                        try {
+                            fillFromJson(tx, keys, jsonFactory.createJsonParser(reader));
+                        } finally {
+                            reader.close();
+                        }
+                        trace.bytes(response.bytes());
+                    }
+                    loaded += before - keys.size();
+                    if (!keys.isEmpty())
+                        logger.warn(String.format("Evolvo: %d nodes were not in the tier they came from", keys.size()));
+                }
+            } finally {
+                tx.commit();
+            }
+            trace.phase("fetch");
+
+            eventHelper.flushPayloadEvents();
+            trace.phase("events");
+            return loaded;
+        } finally {
+            lock.unlock();
+            trace.end();
+        }
+    }
+
+    /**
+     * Read a network from {@code jsonParser}, setting the node columns of the
+     * nodes in {@code keys} that aren't already set. Nodes are taken out of
+     * {@code keys} as they are found.
+     */
+    private static void fillFromJson(final ModelTransaction tx, final Map<String,CyNode> keys, final JsonParser jsonParser) throws IOException, JsonParseException, InvalidJsonException {
+        final CyNetwork net = tx.network();
+        final String column = Attr(net, "Evolvo-node-column").Str();
+        JsonNetworkReader.read(jsonParser, net,
+                new JsonNetworkReader.NodeFactory() {
+                    int keyIndex = -1;
+
+                    public void header(String[] cols) throws InvalidJsonException {
+                        keyIndex = Arrays.asList(cols).indexOf(column);
+                        if (keyIndex < 0)
+                            throw new InvalidJsonException("No such column '%s' in given header", column);
+                    }
+
+                    public CyNode create(Object[] row, Class[] types) {
+                        return (row[keyIndex] == null) ? null : keys.remove(row[keyIndex].toString());
+                    }
+                },
+                new JsonNetworkReader.BasicAttrHandler<CyNode>(net.getDefaultNodeTable(), 0) {
+                    public void row(CyNode node, Object[] row, Class[] types) throws InvalidJsonException {
+                        if (node != null)
+                            super.row(node, row, types);
+                    }
+
+                    protected void set(final CyRow row, final String name, final Object value) {
+                        if (row.getRaw(name) == null)
+                            tx.set(row, name, value);
+                    }
+                },
+                new JsonNetworkReader.EdgeFactory() {
+                    public void nodes(List<CyNode> nodes) {}
+                    public void header(String[] cols) {}
+                    public CyEdge create(Object[] row, Class[] types) {
+                        return null;
+                    }
+                },
+                ModelEngine.<CyEdge>ignoreAttrs(),
+                ModelEngine.<CyNetwork>ignoreAttrs(),
+                dictionaries(net));
+    }
+
+    private static <T extends CyIdentifiable> JsonNetworkReader.AttrHandler<T> ignoreAttrs() {
+        return new JsonNetworkReader.AttrHandler<T>() {
+            public void header(String[] cols) {}
+            public void row(T netObj, Object[] row, Class[] types) {}
+        };
+    }
+
+    private static void writeRequest(
+            final OutputStream stream,
+            final CyNode nodeToExpand,
+            final CyNetwork net,
+            final CyTable nodeTable,
+            final boolean includeExtantNodes
+            ) throws IOException, JsonGenerationException {
+        final String column = Attr(net, "Evolvo-node-column").Str();
+        final String[] extantNodes = includeExtantNodes ? extantKeys(net, nodeTable, nodeToExpand) : null;
+        writeRequest(stream, net.getRow(nodeToExpand).getRaw(column).toString(), extantNodes, projection(net));
+    }
+
+    /**
+     * Return the keys of the nodes in {@code net} besides {@code excludedNode},
+     * followed by the keys of its hidden parents.
+     * @param excludedNode A node to leave out, or null
+     */
+    private static String[] extantKeys(final CyNetwork net, final CyTable nodeTable, final CyNode excludedNode) {
+        final String column = Attr(net, "Evolvo-node-column").Str();
+        final Collection<String> hiddenParentKeys = HiddenParents.keys(net);
+        final List<String> keys = new ArrayList<String>(net.getNodeCount() + hiddenParentKeys.size());
+        for (final CyNode node : net.getNodeList()) {
+            if (node.equals(excludedNode))
+                continue;
+            keys.add(nodeTable.getRow(node.getSUID()).getRaw(column).toString());
+        }
+        keys.addAll(hiddenParentKeys);
+        return keys.toArray(new String[keys.size()]);
+    }
+
+    /**
+     * Write a request for {@code target} in UTF-8.
+     * @param extantNodes The "extant-nodes" to send, or null to leave them out
+     * @param columns The "columns" to ask for, or null for all of them
+     */
+    private static void writeRequest(
+            final OutputStream stream,
+            final String target,
+            final String[] extantNodes,
+            final Set<String> columns
+            ) throws IOException, JsonGenerationException {
+        final JsonGenerator output = jsonFactory.createJsonGenerator(stream, JsonEncoding.UTF8);
+        output.writeStartObject();
+        output.writeStringField("target", target);
+        if (extantNodes != null) {
+            output.writeFieldName("extant-nodes");
+            output.writeStartArray();
+            for (final String key : extantNodes)
+                output.writeString(key);
+            output.writeEndArray();
+        }
+        if (columns != null) {
+            output.writeFieldName("columns");
+            output.writeStartArray();
+            for (final String wanted : columns)
+                output.writeString(wanted);
+            output.writeEndArray();
+        }
+        output.writeEndObject();
+        output.close();
+    }
+
+    /**
+     * Write a refresh request in UTF-8.
+     * @param columns The "columns" to ask for, or null for all of them
+     */
+    private static void writeRefreshRequest(
+            final OutputStream stream,
+            final String version,
+            final Set<String> expanded,
+            final Set<String> columns
+            ) throws IOException, JsonGenerationException {
+        final JsonGenerator output = jsonFactory.createJsonGenerator(stream, JsonEncoding.UTF8);
+        output.writeStartObject();
+        output.writeStringField("version", version);
+        output.writeFieldName("expanded");
+        output.writeStartArray();
+        for (final String key : expanded)
+            output.writeString(key);
+        output.writeEndArray();
+        if (columns != null) {
+            output.writeFieldName("columns");
+            output.writeStartArray();
+            for (final String wanted : columns)
+                output.writeString(wanted);
+            output.writeEndArray();
+        }
+        output.writeEndObject();
+        output.close();
+    }
+
+    /**
+     * Return the keys of the nodes whose children are in the root network,
+     * whether the children are showing or were collapsed without being cleared.
+     */
+    private static Set<String> expandedKeys(final CyNetwork net) {
+        final CyRootNetwork rootnet = ((CySubNetwork) net).getRootNetwork();
+        final CyTable nodetbl = net.getDefaultNodeTable();
+        final String column = Attr(net, "Evolvo-node-column").Str();
+        final TypedColumn<Long> parentColumn = TypedColumn.lookup(nodetbl, "Evolvo-parent", Long.class);
+        final Set<String> keys = new LinkedHashSet<String>();
+        if (parentColumn == null)
+            return keys;
+        final Set<Long> parents = new HashSet<Long>();
+        for (final CyNode node : rootnet.getNodeList()) {
+            final Long parent = parentColumn.get(node.getSUID());
+            if (parent != null && parents.add(parent) && rootnet.getNode(parent) != null)
+                keys.add(nodetbl.getRow(parent).getRaw(column).toString());
+        }
+        return keys;
+    }
+
+    private static void expandFromRootNetwork(final ModelTransaction tx, final CyNode node) {
+        final CyNetwork net = tx.network();
+        final CyRootNetwork rootnet = ((CySubNetwork) net).getRootNetwork();
+        final Set<CyNode> children = Utils.getNodesWithValue(rootnet, net.getDefaultNodeTable(), "Evolvo-parent", node.getSUID());
+        HiddenEdges.show(tx, children);
+    }
+
+    /**
+     * A request body that is written out again for each attempt, from keys
+     * that were read from the network while it was locked.
+     */
+    private static interface Body {
+        public void write(OutputStream stream) throws IOException;
+    }
+
+    /**
+     * Take the keys of a request for {@code target} from {@code net} as it is now.
+     *
+     * <p>
+     * Call this while holding the network's lock, before the request is sent.
+     * The attempts {@link FanOut} makes run on other threads, and a hedged
+     * request is sent more than once, so every attempt writes the same keys
+     * instead of reading the network again. Only the references to the keys
+     * are copied; the JSON is written by each attempt as it's sent.
+     * </p>
+     * @param excludedNode A node to leave out of "extant-nodes", or null
+     * @param columns The "columns" to ask for, or null for all of them
+     */
+    private static Body requestBody(final String target, final CyNode excludedNode, final CyNetwork net, final boolean includeExtantNodes, final Set<String> columns) {
+        final String[] extantNodes = includeExtantNodes ? extantKeys(net, net.getDefaultNodeTable(), excludedNode) : null;
+        return new Body() {
+            public void write(final OutputStream stream) throws IOException {
+                writeRequest(stream, target, extantNodes, columns);
+            }
+        };
+    }
+
+    /**
+     * Return a request that posts {@code body} to each url it's opened for.
+     *
+     * <p>
+     * The body is sent with chunked transfer encoding and written straight
+     * into the connection, so it's never held in full: each chunk goes out
+     * as soon as it's full, while the rest of the body is still being written.
+     * </p>
+     */
+    private static FanOut.Request post(final Body body) {
+        return new FanOut.Request() {
+            public URLConnection open(final String url) throws IOException {
+                final HttpURLConnection urlconn = openPost(url);
+                final OutputStream stream = urlconn.getOutputStream();
+                try {
+                    body.write(stream);
+                } finally {
+                    stream.close();
+                }
+                return urlconn;
+            }
+        };
+    }
+
+    private static HttpURLConnection openPost(final String url) throws MalformedURLException, IOException {
+        final HttpURLConnection urlconn = (HttpURLConnection) (new URL(url)).openConnection();
+        urlconn.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+        urlconn.setDoOutput(true);
+        urlconn.setDoInput(true);
+        urlconn.setChunkedStreamingMode(REQUEST_CHUNK_SIZE);
+        urlconn.connect();
+        return urlconn;
+    }
+
+    /**
+     * Request the children of {@code node} from every shard that holds it.
+     * The responses are read one after the other into {@code tx}; children and
+     * edges sent by more than one shard are only added once.
+     */
+    private static void expandFromURL(final ModelTransaction tx, final CyNode node) throws MalformedURLException, IOException, JsonParseException, JsonGenerationException, InvalidJsonException {
+        final CyNetwork net = tx.network();
+        final String target = net.getRow(node).getRaw(Attr(net, "Evolvo-node-column").Str()).toString();
+        final double hedgePercentile = Attr(net, "Evolvo-hedge-percentile").Double(0.0);
+        final List<FanOut.Response> responses = FanOut.send(Shards.of(net).endpointsFor(target), hedgePercentile, post(requestBody(target, node, net, true, projection(net))));
+        Trace.current().phase("request");
+
+        for (final FanOut.Response response : responses) {
+            final Reader reader = new InputStreamReader(response.body());
+            try {
+                final JsonParser jsonParser = jsonFactory.createJsonParser(reader);
+                expandFromJson(tx, node, jsonParser);
+            } finally {
+                reader.close();
+            }
+            Trace.current().bytes(response.bytes());
+        }
+        Trace.current().phase("parse");
+    }
+
+    /**
+     * Read the children of {@code node} from {@code jsonParser}.
+     */
+    private static void expandFromJson(final ModelTransaction tx, final CyNode node, final JsonParser jsonParser) throws IOException, JsonParseException, InvalidJsonException {
+        final CyNetwork     net     = tx.network();
+        final CyRootNetwork rootnet = ((CySubNetwork) net).getRootNetwork();
+        final TypedColumn<Long> parentColumn = TypedColumn.bind(net.getDefaultNodeTable(), "Evolvo-parent", Long.class);
+        final Long parentSUID = node.getSUID();
+        final Set<String> columns = projection(net);
+
+        final Trace trace = Trace.current();
+        JsonNetworkReader.read(jsonParser, net,
+                trace.nodes(new JsonNetworkReader.NonDuplicatingNodeFactory(
+                    new JsonNetworkReader.BasicNodeFactory(net) {
+                        public CyNode create(Object[] row, Class[] types) {
+                            final CyNode childNode = tx.addNode();
+                            tx.set(parentColumn, childNode.getSUID(), parentSUID);
+                            return childNode;
+                        }
+                    },
+                    rootnet,
+                    net.getDefaultNodeTable(),
+                    Attr(net, "Evolvo-node-column").Str())),
+                tx.<CyNode>attrHandler(net.getDefaultNodeTable(), 0, columns),
+                trace.edges(new HiddenEdges.EdgeFactory(tx, columns)),
+                tx.<CyEdge>attrHandler(net.getDefaultEdgeTable(), 2, columns),
+                tx.<CyNetwork>attrHandler(net.getDefaultNetworkTable(), 0),
+                dictionaries(net));
+    }
+
+    /**
+     * Mark {@code node} and all of its ancestors as the most recently used expansions.
+     */
+    private static void touchExpansion(final ModelTransaction tx, final CyNode node) {
+        final CyNetwork     net     = tx.network();
+        final CyRootNetwork rootnet = ((CySubNetwork) net).getRootNetwork();
+        final TypedColumn<Long> parentColumn = EvolvoColumns.of(net).parent();
+        for (Long suid = node.getSUID(); suid != null; ) {
+            ExpansionOrder.touch(net, suid);
+            tx.stateChanged(SnapshotLog.EXPANSION_USED, suid);
+            suid = (parentColumn == null || rootnet.getNode(suid) == null) ? null : parentColumn.get(suid);
+        }
+    }
+
+    private static void forgetExpansion(final ModelTransaction tx, final CyNode node) {
+        ExpansionOrder.remove(tx.network(), node.getSUID());
+        tx.stateChanged(SnapshotLog.EXPANSION_REMOVED, node.getSUID());
+    }
+
+    private static void addHiddenParent(final ModelTransaction tx, final CyNode node) {
+        HiddenParents.add(tx.network(), node);
+        tx.stateChanged(SnapshotLog.PARENT_HIDDEN, node.getSUID());
+    }
+
+    private static void removeHiddenParent(final ModelTransaction tx, final CyNode node) {
+        HiddenParents.remove(tx.network(), node);
+        tx.stateChanged(SnapshotLog.PARENT_SHOWN, node.getSUID());
+    }
+
+    private static boolean isOverBudget(final CyNetwork net) {
+        final int maxNodes = Attr(net, "Evolvo-max-nodes").Int(0);
+        final int maxEdges = Attr(net, "Evolvo-max-edges").Int(0);
+        return (maxNodes > 0 && net.getNodeCount() > maxNodes)
+            || (maxEdges > 0 && net.getEdgeCount() > maxEdges);
+    }
+
+    /**
+     * Find the least recently used expansion that can be collapsed without
+     * stranding any other expansion, or null if there isn't one.
+     * An expansion qualifies only if none of its children are themselves expanded.
+     * The children are looked up in the root network, since a REPLACE
+     * expansion takes an expanded child out of the subnetwork.
+     */
+    private static CyNode leastRecentlyUsedExpansion(final CyNetwork net, final CyNode exempt) {
+        final CyRootNetwork rootnet = ((CySubNetwork) net).getRootNetwork();
+        final CyTable nodetbl = net.getDefaultNodeTable();
+        final boolean replace = EvolvoAction.get(net).equals(EvolvoAction.REPLACE);
+        candidates:
+        for (final Long suid : ExpansionOrder.leastRecentFirst(net)) {
+            if (suid.equals(exempt.getSUID()))
+                continue;
+            final CyNode parent = rootnet.getNode(suid);
+            if (parent == null)
+                continue;
+            if (!replace && !net.containsNode(parent))
+                continue;
+            final Set<CyNode> children = Utils.getNodesWithValue(rootnet, nodetbl, "Evolvo-parent", suid);
+            if (children.size() == 0)
+                continue;
+            for (final CyNode child : children)
+                if (Attr(net, child, "Evolvo-expanded").Bool(false))
+                    continue candidates;
+            return parent;
+        }
+        return null;
+    }
+
+    /**
+     * Replace {@code node} with its children.
+     * If the children are already in the root network, they're taken from there.
+     * Otherwise they're read from {@code jsonParser}, or requested
+     * from the server if {@code jsonParser} is null.
+     * @return The number of children that were already in the root network
+     */
+    private static int expandReplace(final ModelTransaction tx, final CyNode node, final JsonParser jsonParser) throws Exception {
+        final CyNetwork     net     = tx.network();
+        final CyRootNetwork rootnet = ((CySubNetwork) net).getRootNetwork();
+
+        final Set<CyNode> children = Utils.getNodesWithValue(rootnet, net.getDefaultNodeTable(), "Evolvo-parent", node.getSUID());
+
+        // hide the node first so that its children's edges to it go straight into the store
+        HiddenEdges.hide(tx, Collections.singleton(node));
+        try {
+            expandChildren(tx, node, children, jsonParser);
+        } catch (Exception e) {
+            HiddenEdges.show(tx, Collections.singleton(node));
+            throw e;
+        }
+
+        tx.set(node, "Evolvo-expanded", true);
+        touchExpansion(tx, node);
+
+        addHiddenParent(tx, node);
+        MetaEdges.update(tx, node);
+        return children.size();
+    }
+
+    /**
+     * Add the children of {@code node} next to it.
+     * The children come from the same places as they do in {@link #expandReplace}.
+     * @return The number of children that were already in the root network
+     */
+    private static int expandAugment(final ModelTransaction tx, final CyNode node, final JsonParser jsonParser) throws Exception {
+        final CyNetwork     net     = tx.network();
+        final CyRootNetwork rootnet = ((CySubNetwork) net).getRootNetwork();
+
+        final Set<CyNode> children = Utils.getNodesWithValue(rootnet, net.getDefaultNodeTable(), "Evolvo-parent", node.getSUID());
+        expandChildren(tx, node, children, jsonParser);
+
+        tx.set(node, "Evolvo-expanded", true);
+        touchExpansion(tx, node);
+        MetaEdges.update(tx, node);
+        return children.size();
+    }
+
+    private static void expandChildren(final ModelTransaction tx, final CyNode node, final Set<CyNode> children, final JsonParser jsonParser) throws Exception {
+        if (children.size() != 0) {
+            expandFromRootNetwork(tx, node);
+            if (jsonParser != null) {
+                // we already have the children, so skip over the network
+                jsonParser.nextToken();
+                jsonParser.skipChildren();
+            }
+        } else if (jsonParser != null) {
+            expandFromJson(tx, node, jsonParser);
+        } else {
+            expandFromURL(tx, node);
+        }
+    }
+
+    /**
+     * Remove the children of {@code parentNode} from the subnetwork
+     * and put {@code parentNode} back in their place.
+     */
+    private static void collapseReplace(final ModelTransaction tx, final CyNode parentNode, final boolean clear) {
+        final CyNetwork     net     = tx.network();
+        final CyRootNetwork rootnet = ((CySubNetwork) net).getRootNetwork();
+        final CyTable       nodetbl = net.getDefaultNodeTable();
+
+        final Long parentSUID = parentNode.getSUID();
+        final Set<CyNode> siblings = Utils.getNodesWithValue(net, nodetbl, "Evolvo-parent", parentSUID);
+
+        // delete the nodes from subnetwork
+        HiddenEdges.hide(tx, siblings);
+
+        if (clear) {
+            // delete all table info
+            HiddenEdges.forget(net, siblings);
+            tx.discardNodes(siblings);
+        }
+
+        // add the parent and its edges from the root network back into the subnetwork
+        HiddenEdges.show(tx, Collections.singleton(parentNode));
+
+        removeHiddenParent(tx, parentNode);
+        forgetExpansion(tx, parentNode);
+
+        tx.set(parentNode, "Evolvo-expanded", false);
+        MetaEdges.update(tx, parentNode);
+    }
+
+    /**
+     * Remove the children of {@code parentNode} from the subnetwork.
+     */
+    private static void collapseAugment(final ModelTransaction tx, final CyNode parentNode, final boolean clear) {
+        final CyNetwork     net     = tx.network();
+        final CyRootNetwork rootnet = ((CySubNetwork) net).getRootNetwork();
+        final CyTable       nodetbl = net.getDefaultNodeTable();
+
+        final Long parentSUID = parentNode.getSUID();
+        final Set<CyNode> children = Utils.getNodesWithValue(net, nodetbl, "Evolvo-parent", parentSUID);
+
+        // delete the nodes from subnetwork
+        HiddenEdges.hide(tx, children);
+
+        if (clear) {
+            // delete all table info
+            HiddenEdges.forget(net, children);
+            tx.discardNodes(children);
+        }
+
+        forgetExpansion(tx, parentNode);
+
+        tx.set(parentNode, "Evolvo-expanded", false);
+        MetaEdges.update(tx, parentNode);
+    }
+
+    /**
+     * Collapse the least recently used expansions besides {@code exempt}
+     * until {@code net} is no longer over its budget.
+     * @param listener Told about each expansion before it's collapsed, or null
+     * @return The number of expansions that were collapsed
+     */
+    private static int autoCollapse(final ModelTransaction tx, final CyNode exempt, final CollapseListener listener) {
+        final CyNetwork net = tx.network();
+        final boolean replace = EvolvoAction.get(net).equals(EvolvoAction.REPLACE);
+        int collapsed = 0;
+        while (isOverBudget(net)) {
+            final CyNode parentNode = leastRecentlyUsedExpansion(net, exempt);
+            if (parentNode == null) {
+                logger.warn(String.format("Evolvo: network has %d nodes and %d edges, but there are no more expansions to collapse", net.getNodeCount(), net.getEdgeCount()));
+                break;
+            }
+            if (listener != null)
+                listener.aboutToCollapse(net, parentNode);
+            if (replace)
+                collapseReplace(tx, parentNode, false);
+            else
+                collapseAugment(tx, parentNode, false);
+            collapsed++;
+        }
+        return collapsed;
+    }
+
+    /**
+     * Return the node in the root network whose "Evolvo-node-column" value is {@code key}, or null.
+     */
+    private static CyNode getNodeWithKey(final CyNetwork net, final String key) {
+        final CyRootNetwork rootnet = ((CySubNetwork) net).getRootNetwork();
+        final CyTable nodetbl = net.getDefaultNodeTable();
+        final String column = Attr(net, "Evolvo-node-column").Str();
+        final CyColumn cyColumn = nodetbl.getColumn(column);
+        if (cyColumn == null)
+            return null;
+
+        final Class<?> type = cyColumn.getType();
+        Object value = key;
+        try {
+            if (Long.class.equals(type))
+                value = Long.valueOf(key);
+            else if (Integer.class.equals(type))
+                value = Integer.valueOf(key);
+            else if (Double.class.equals(type))
+                value = Double.valueOf(key);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return Utils.getNodeWithValue(rootnet, nodetbl, column, value);
+    }
+
+    /**
+     * Expand every tier of the path in {@code jsonParser}, then select the node with {@code key}.
+     * @return The number of tiers in the path
+     */
+    private static int revealPath(final ModelTransaction tx, final JsonParser jsonParser, final String key) throws Exception {
+        final CyNetwork net = tx.network();
+        final boolean replace = EvolvoAction.get(net).equals(EvolvoAction.REPLACE);
+
+        JsonToken t;
+        CyNode lastParent = null;
+        int tiers = 0;
+        while (true) {
+            t = jsonParser.nextToken(); // start of tier or end of path
+            if (t == null)
+                throw new InvalidJsonException("unexpected end of output");
+            else if (t.equals(JsonToken.END_ARRAY))
+                break;
+            else if (!t.equals(JsonToken.START_ARRAY))
+                throw new InvalidJsonException("tier must be an array");
+
+            t = jsonParser.nextToken(); // parent key
+            if (t == null || !t.equals(JsonToken.VALUE_STRING))
+                throw new InvalidJsonException("tier must start with the key of the node to expand");
+            final String parentKey = jsonParser.getText();
+            final CyNode parentNode = getNodeWithKey(net, parentKey);
+            if (parentNode == null)
+                throw new InvalidJsonException("tier expands '%s', which is not in the network", parentKey);
+
+            if (Attr(net, parentNode, "Evolvo-expanded").Bool(false)) {
+                jsonParser.nextToken();
+                jsonParser.skipChildren();
+            } else if (replace) {
+                expandReplace(tx, parentNode, jsonParser);
+            } else {
+                expandAugment(tx, parentNode, jsonParser);
+            }
+            lastParent = parentNode;
+            tiers++;
+
+            t = jsonParser.nextToken(); // end of tier
+            if (t == null || !t.equals(JsonToken.END_ARRAY))
+                throw new InvalidJsonException("only two elements allowed in tier array");
+        }
+
+        if (lastParent != null)
+            autoCollapse(tx, lastParent, null);
+
+        final CyNode target = getNodeWithKey(net, key);
+        if (target != null && net.containsNode(target))
+            tx.set(target, CyNetwork.SELECTED, true);
+        else
+            logger.warn(String.format("Evolvo: could not find '%s'", key));
+        return tiers;
+    }
+
+    /**
+     * Apply the tiers of changes in {@code jsonParser} (see {@link Engine#refresh}).
+     * @return The number of nodes that were added, changed or deleted
+     */
+    private static int applyChanges(final ModelTransaction tx, final JsonParser jsonParser) throws Exception {
+        JsonToken t = jsonParser.nextToken();
+        if (t == null || !t.equals(JsonToken.START_ARRAY))
+            throw new InvalidJsonException("changes must be an array of tiers");
+
+        int changed = 0;
+        while (true) {
+            t = jsonParser.nextToken(); // start of tier or end of changes
+            if (t == null)
+                throw new InvalidJsonException("unexpected end of output");
+            else if (t.equals(JsonToken.END_ARRAY))
+                break;
+            else if (!t.equals(JsonToken.START_OBJECT))
+                throw new InvalidJsonException("tier of changes must be an object");
+            changed += applyTierChanges(tx, jsonParser);
+        }
+        return changed;
+    }
+
+    private static int applyTierChanges(final ModelTransaction tx, final JsonParser jsonParser) throws Exception {
+        final CyNetwork net = tx.network();
+        CyNode parentNode = null;
+        boolean skip = false;
+        boolean started = false;
+        int changed = 0;
+        JsonToken t;
+        while ((t = jsonParser.nextToken()) != JsonToken.END_OBJECT) {
+            if (t == null)
+                throw new InvalidJsonException("unexpected end of output");
+            final String field = jsonParser.getCurrentName();
+            if (field.equals("network")) {
+                if (skip) {
+                    jsonParser.nextToken();
+                    jsonParser.skipChildren();
+                } else {
+                    changed += upsertTier(tx, parentNode, jsonParser);
+                }
+                started = true;
+                continue;
+            }
+
+            t = jsonParser.nextToken();
+            if (t == null)
+                throw new InvalidJsonException("unexpected end of output");
+            if (field.equals("parent")) {
+                if (started)
+                    throw new InvalidJsonException("\"parent\" must come first in a tier of changes");
+                if (t.equals(JsonToken.VALUE_NULL))
+                    continue;
+                final String parentKey = jsonParser.getText();
+                parentNode = getNodeWithKey(net, parentKey);
+                if (parentNode == null) {
+                    logger.warn(String.format("Evolvo: changes to the children of '%s', which is no longer in the network, are skipped", parentKey));
+                    skip = true;
+                }
+            } else if (skip) {
+                jsonParser.skipChildren();
+            } else if (field.equals("deleted-nodes")) {
+                changed += deleteNodes(tx, readKeys(jsonParser));
+            } else if (field.equals("deleted-edges")) {
+                if (!t.equals(JsonToken.START_ARRAY))
+                    throw new InvalidJsonException("deleted-edges must be an array of [source, target] pairs");
+                while ((t = jsonParser.nextToken()) != JsonToken.END_ARRAY) {
+                    final List<String> pair = readKeys(jsonParser);
+                    if (pair.size() != 2)
+                        throw new InvalidJsonException("deleted edge must be a [source, target] pair");
+                    final CyNode src = getNodeWithKey(net, pair.get(0));
+                    final CyNode trg = getNodeWithKey(net, pair.get(1));
+                    if (src != null && trg != null)
+                        HiddenEdges.remove(tx, src, trg);
+                }
+            } else {
+                jsonParser.skipChildren();
+            }
+            started = true;
+        }
+
+        if (parentNode != null && !skip)
+            MetaEdges.update(tx, parentNode);
+        return changed;
+    }
+
+    /**
+     * Read an array of keys; {@code jsonParser} is at its start.
+     */
+    private static List<String> readKeys(final JsonParser jsonParser) throws IOException, JsonParseException, InvalidJsonException {
+        if (jsonParser.getCurrentToken() != JsonToken.START_ARRAY)
+            throw new InvalidJsonException("expected an array of keys");
+        final List<String> keys = new ArrayList<String>();
+        JsonToken t;
+        while ((t = jsonParser.nextToken()) != JsonToken.END_ARRAY) {
+            if (t == null || !t.isScalarValue())
+                throw new InvalidJsonException("key must be a string or a number");
+            keys.add(jsonParser.getText());
+        }
+        return keys;
+    }
+
+    /**
+     * Read the added and changed nodes and edges of one tier. A node already in
+     * the root network gets the values in its row; a new node becomes a child
+     * of {@code parentNode}, or a top tier node if it's null, and is hidden
+     * unless its parent is expanded.
+     * @return The number of nodes that were added or changed
+     */
+    private static int upsertTier(final ModelTransaction tx, final CyNode parentNode, final JsonParser jsonParser) throws IOException, JsonParseException, InvalidJsonException {
+        final CyNetwork     net     = tx.network();
+        final CyRootNetwork rootnet = ((CySubNetwork) net).getRootNetwork();
+        final TypedColumn<Long> parentColumn = TypedColumn.bind(net.getDefaultNodeTable(), "Evolvo-parent", Long.class);
+        final Set<String> columns = projection(net);
+        final List<CyNode> added = new ArrayList<CyNode>();
+        final int[] rows = {0};
+        final Trace trace = Trace.current();
+
+        JsonNetworkReader.read(jsonParser, net,
+                trace.nodes(new JsonNetworkReader.NonDuplicatingNodeFactory(
+                    new JsonNetworkReader.BasicNodeFactory(net) {
+                        public CyNode create(Object[] row, Class[] types) {
+                            final CyNode node = tx.addNode();
+                            if (parentNode != null)
+                                tx.set(parentColumn, node.getSUID(), parentNode.getSUID());
+                            added.add(node);
+                            return node;
+                        }
+                    },
+                    rootnet,
+                    net.getDefaultNodeTable(),
+                    Attr(net, "Evolvo-node-column").Str()) {
+                    public CyNode create(Object[] row, Class[] types) throws InvalidJsonException {
+                        rows[0]++;
+                        return super.create(row, types);
+                    }
+                }),
+                tx.<CyNode>attrHandler(net.getDefaultNodeTable(), 0, columns),
+                trace.edges(new HiddenEdges.EdgeFactory(tx, true, columns)),
+                tx.<CyEdge>attrHandler(net.getDefaultEdgeTable(), 2, columns),
+                ModelEngine.<CyNetwork>ignoreAttrs(),
+                dictionaries(net));
+
+        if (parentNode != null && !added.isEmpty() && !Attr(net, parentNode, "Evolvo-expanded").Bool(false))
+            HiddenEdges.hide(tx, added);
+        return rows[0];
+    }
+
+    /**
+     * Delete the nodes with {@code keys}, and every node expanded from them, from the root network.
+     * @return The number of nodes that were deleted
+     */
+    private static int deleteNodes(final ModelTransaction tx, final List<String> keys) {
+        final CyNetwork     net     = tx.network();
+        final CyRootNetwork rootnet = ((CySubNetwork) net).getRootNetwork();
+        final CyTable       nodetbl = net.getDefaultNodeTable();
+
+        final Set<CyNode> nodes = new LinkedHashSet<CyNode>();
+        for (final String key : keys) {
+            final CyNode node = getNodeWithKey(net, key);
+            if (node != null)
+                nodes.add(node);
+        }
+        final List<CyNode> queue = new ArrayList<CyNode>(nodes);
+        for (int i = 0; i < queue.size(); i++)
+            for (final CyNode child : Utils.getNodesWithValue(rootnet, nodetbl, "Evolvo-parent", queue.get(i).getSUID()))
+                if (nodes.add(child))
+                    queue.add(child);
+        if (nodes.isEmpty())
+            return 0;
+
+        final TypedColumn<Boolean> metaColumn = EvolvoColumns.of(net).meta();
+        final Set<CyEdge> metaEdges = new LinkedHashSet<CyEdge>();
+        for (final CyNode node : nodes)
+            for (final CyEdge edge : rootnet.getAdjacentEdgeIterable(node, CyEdge.Type.ANY))
+                if (MetaEdges.isMeta(metaColumn, edge))
+                    metaEdges.add(edge);
+        if (!metaEdges.isEmpty())
+            tx.removeEdges(metaEdges);
+
+        HiddenEdges.hide(tx, nodes);
+        HiddenEdges.forget(net, nodes);
+        for (final CyNode node : nodes) {
+            removeHiddenParent(tx, node);
+            forgetExpansion(tx, node);
+        }
+        tx.discardNodes(nodes);
+        return nodes.size();
+    }
+}
@@ -0,0 +1,402 @@
+package EvolvoApp.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyNode;
+import org.cytoscape.model.CyEdge;
+import org.cytoscape.model.CyIdentifiable;
+import org.cytoscape.model.CyTable;
+import org.cytoscape.model.CyColumn;
+import org.cytoscape.model.CyRow;
+
+import org.cytoscape.model.subnetwork.CyRootNetwork;
+import org.cytoscape.model.subnetwork.CySubNetwork;
+
+import org.cytoscape.model.events.AddedNodesEvent;
+import org.cytoscape.model.events.AddedEdgesEvent;
+import org.cytoscape.model.events.AboutToRemoveNodesEvent;
+import org.cytoscape.model.events.AboutToRemoveEdgesEvent;
+import org.cytoscape.model.events.RemovedNodesEvent;
+import org.cytoscape.model.events.RemovedEdgesEvent;
+import org.cytoscape.model.events.ColumnCreatedEvent;
+import org.cytoscape.model.events.RowSetRecord;
+import org.cytoscape.model.events.RowsSetEvent;
+
+import org.cytoscape.event.CyEvent;
+import org.cytoscape.event.CyEventHelper;
+
+import EvolvoApp.internal.json.JsonNetworkReader;
+
+/**
+ * Groups the changes one Evolvo operation makes to a subnetwork so that
+ * listeners hear about them once, when the operation is done.
+ *
+ * <p>
+ * Creating a transaction silences the subnetwork and its tables. Changes made
+ * through the transaction are applied right away, so the rest of the operation
+ * sees an up to date network, but they are only recorded instead of announced.
+ * {@link #commit} turns the events back on and fires what was recorded:
+ * a {@code RemovedEdgesEvent} and {@code RemovedNodesEvent} if anything was
+ * removed, and the added nodes, added edges and attribute writes as payloads.
+ * Call {@code eventHelper.flushPayloadEvents()} after committing to deliver the
+ * payloads as one event of each kind.
+ * </p>
+ *
+ * <p>
+ * Removals are the exception: listeners have to see what is about to go while
+ * it is still in the network, so each call to {@link #removeNodes} or
+ * {@link #removeEdges} fires its {@code AboutToRemoveEdgesEvent} and
+ * {@code AboutToRemoveNodesEvent} right before it removes anything.
+ * A node or edge that is added and removed again in the same transaction is
+ * never announced, while one that is removed and added back is announced
+ * both times. Changes made to the subnetwork behind the transaction's back
+ * are lost to listeners, so everything up to {@code commit} has to go
+ * through the transaction. Changes to the root network alone can be made
+ * directly.
+ * </p>
+ *
+ * <p>
+ * If the network has a {@link SnapshotLog}, the transaction also
+ * appends its changes to the log when it commits.
+ * </p>
+ *
+ * <pre>
+ * final ModelTransaction tx = new ModelTransaction(net, eventHelper);
+ * try {
+ *     ...
+ * } finally {
+ *     tx.commit();
+ * }
+ * eventHelper.flushPayloadEvents();
+ * </pre>
+ */
+public class ModelTransaction {
+    final CySubNetwork  net;
+    final CyRootNetwork rootnet;
+    final CyEventHelper eventHelper;
+
+    final Set<Object> silenced = new LinkedHashSet<Object>();
+    final Map<CyTable,Set<String>> columnsBefore = new HashMap<CyTable,Set<String>>();
+
+    final Set<CyNode> addedNodes   = new LinkedHashSet<CyNode>();
+    final Set<CyNode> removedNodes = new LinkedHashSet<CyNode>();
+    final Set<CyEdge> addedEdges   = new LinkedHashSet<CyEdge>();
+    final Set<CyEdge> removedEdges = new LinkedHashSet<CyEdge>();
+    final Map<CyTable,List<RowSetRecord>> rowsSet = new LinkedHashMap<CyTable,List<RowSetRecord>>();
+
+    // only kept for the snapshot log
+    final SnapshotLog   log;
+    final List<CyNode>  createdNodes   = new ArrayList<CyNode>();
+    final List<Long>    discardedNodes = new ArrayList<Long>();
+    final List<Object[]> edgeChanges   = new ArrayList<Object[]>(); // SnapshotLog.EDGE or EDGE_DELETED, source, target[, header, values]
+    final List<Object[]> stateChanges  = new ArrayList<Object[]>(); // SnapshotLog record type, suid
+
+    boolean committed = false;
+
+    public ModelTransaction(final CyNetwork net, final CyEventHelper eventHelper) {
+        this.net = (CySubNetwork) net;
+        this.rootnet = this.net.getRootNetwork();
+        this.eventHelper = eventHelper;
+        this.log = SnapshotLog.of(net);
+
+        silenced.add(net);
+        for (final Class<? extends CyIdentifiable> type : Arrays.<Class<? extends CyIdentifiable>>asList(CyNode.class, CyEdge.class, CyNetwork.class)) {
+            final CyTable table = net.getTable(type, CyNetwork.DEFAULT_ATTRS);
+            columnsBefore.put(table, columnNames(table));
+            silenced.add(table);
+            silenced.add(net.getTable(type, CyNetwork.LOCAL_ATTRS));
+            silenced.add(net.getTable(type, CyNetwork.HIDDEN_ATTRS));
+        }
+        silenced.add(rootnet.getSharedNodeTable());
+        silenced.add(rootnet.getSharedEdgeTable());
+        silenced.remove(null);
+
+        for (final Object source : silenced)
+            eventHelper.silenceEventSource(source);
+    }
+
+    public CyNetwork network() {
+        return net;
+    }
+
+    /**
+     * Create a new node in the subnetwork.
+     */
+    public CyNode addNode() {
+        final CyNode node = net.addNode();
+        nodeAdded(node);
+        if (log != null)
+            createdNodes.add(node);
+        return node;
+    }
+
+    /**
+     * Add nodes from the root network to the subnetwork.
+     */
+    public void addNodes(final Collection<CyNode> nodes) {
+        for (final CyNode node : nodes)
+            if (net.addNode(node))
+                nodeAdded(node);
+    }
+
+    /**
+     * Create a new edge in the subnetwork.
+     */
+    public CyEdge addEdge(final CyNode src, final CyNode trg, final boolean directed) {
+        final CyEdge edge = net.addEdge(src, trg, directed);
+        edgeAdded(edge);
+        return edge;
+    }
+
+    /**
+     * Add an edge from the root network to the subnetwork.
+     */
+    public void addEdge(final CyEdge edge) {
+        if (net.addEdge(edge))
+            edgeAdded(edge);
+    }
+
+    /**
+     * Remove nodes and their edges from the subnetwork. They stay in the root network.
+     */
+    public void removeNodes(final Collection<CyNode> nodes) {
+        final Set<CyNode> announcedNodes = new LinkedHashSet<CyNode>();
+        final Set<CyEdge> announcedEdges = new LinkedHashSet<CyEdge>();
+        for (final CyNode node : nodes) {
+            if (!net.containsNode(node))
+                continue;
+            for (final CyEdge edge : net.getAdjacentEdgeIterable(node, CyEdge.Type.ANY))
+                if (edgeRemoved(edge))
+                    announcedEdges.add(edge);
+            if (nodeRemoved(node))
+                announcedNodes.add(node);
+        }
+        if (!announcedEdges.isEmpty())
+            fireNow(new AboutToRemoveEdgesEvent(net, announcedEdges));
+        if (!announcedNodes.isEmpty())
+            fireNow(new AboutToRemoveNodesEvent(net, announcedNodes));
+        net.removeNodes(nodes);
+    }
+
+    /**
+     * Remove edges from the root network, and so from the subnetwork as well.
+     */
+    public void removeEdges(final Collection<CyEdge> edges) {
+        final Set<CyEdge> announced = new LinkedHashSet<CyEdge>();
+        for (final CyEdge edge : edges)
+            if (net.containsEdge(edge) && edgeRemoved(edge))
+                announced.add(edge);
+        if (!announced.isEmpty())
+            fireNow(new AboutToRemoveEdgesEvent(net, announced));
+        rootnet.removeEdges(edges);
+    }
+
+    /**
+     * Delete nodes that are no longer in the subnetwork from the root network, along with their rows.
+     */
+    public void discardNodes(final Collection<CyNode> nodes) {
+        final List<Long> suids = new ArrayList<Long>(nodes.size());
+        for (final CyNode node : nodes)
+            suids.add(node.getSUID());
+        net.getDefaultNodeTable().deleteRows(suids);
+        rootnet.removeNodes(nodes);
+        if (log != null)
+            discardedNodes.addAll(suids);
+    }
+
+    /**
+     * Note an edge read from the server, whether or not it becomes a {@code CyEdge}.
+     * @param header The names of the attribute columns, which are the last elements of {@code row}
+     */
+    public void edgeFetched(final CyNode src, final CyNode trg, final String[] header, final Object[] row) {
+        if (log == null)
+            return;
+        edgeChanges.add(new Object[] {SnapshotLog.EDGE, src.getSUID(), trg.getSUID(), header, Arrays.copyOfRange(row, row.length - header.length, row.length)});
+    }
+
+    /**
+     * Note that the edges between {@code src} and {@code trg} were deleted, whether or not they were {@code CyEdge}s.
+     */
+    public void edgesDeleted(final CyNode src, final CyNode trg) {
+        if (log == null)
+            return;
+        edgeChanges.add(new Object[] {SnapshotLog.EDGE_DELETED, src.getSUID(), trg.getSUID()});
+    }
+
+    /**
+     * Note a change to the hidden parents or the expansion order.
+     * @param type {@code SnapshotLog.PARENT_HIDDEN}, {@code PARENT_SHOWN}, {@code EXPANSION_USED} or {@code EXPANSION_REMOVED}
+     */
+    public void stateChanged(final byte type, final Long suid) {
+        if (log == null)
+            return;
+        stateChanges.add(new Object[] {type, suid});
+    }
+
+    /**
+     * Set an attribute of {@code obj} in its default table,
+     * creating the column from the value's type if it doesn't exist yet.
+     * Setting a missing column to null does nothing, since there's no type to create it with.
+     */
+    public void set(final CyIdentifiable obj, final String column, final Object value) {
+        final CyTable table = net.getTable(typeOf(obj), CyNetwork.DEFAULT_ATTRS);
+        final CyColumn cyColumn = table.getColumn(column);
+        if (cyColumn == null) {
+            if (value == null)
+                return;
+            table.createColumn(column, value.getClass(), false);
+        } else if (value != null && !cyColumn.getType().equals(value.getClass())) {
+            throw new IllegalArgumentException(String.format("Column expects %s, but attempting to insert value of type %s", cyColumn.getType(), value.getClass()));
+        }
+        set(table.getRow(obj.getSUID()), column, value);
+    }
+
+    /**
+     * Set an attribute in a row whose column already exists.
+     */
+    public void set(final CyRow row, final String column, final Object value) {
+        row.set(column, value);
+        final CyTable table = row.getTable();
+        List<RowSetRecord> records = rowsSet.get(table);
+        if (records == null) {
+            records = new ArrayList<RowSetRecord>();
+            rowsSet.put(table, records);
+        }
+        records.add(new RowSetRecord(row, column, value, value));
+    }
+
+    /**
+     * Set an attribute through a column handle.
+     */
+    public <T> void set(final TypedColumn<T> column, final Long suid, final T value) {
+        set(column.table().getRow(suid), column.name(), value);
+    }
+
+    /**
+     * Set the same attribute value for every row in {@code suids}.
+     */
+    public <T> void setAll(final TypedColumn<T> column, final long[] suids, final T value) {
+        for (final long suid : suids)
+            set(column.table().getRow(suid), column.name(), value);
+    }
+
+    /**
+     * Return a JSON attribute handler that writes into {@code table} through this transaction.
+     */
+    public <T extends CyIdentifiable> JsonNetworkReader.AttrHandler<T> attrHandler(final CyTable table, final int startIndex) {
+        return attrHandler(table, startIndex, null);
+    }
+
+    /**
+     * Return a JSON attribute handler that writes the given columns into {@code table} through this transaction.
+     * @param columns The columns to keep, or null for all of them
+     */
+    public <T extends CyIdentifiable> JsonNetworkReader.AttrHandler<T> attrHandler(final CyTable table, final int startIndex, final Set<String> columns) {
+        return new JsonNetworkReader.BasicAttrHandler<T>(table, startIndex, columns) {
+            protected void set(final CyRow row, final String column, final Object value) {
+                ModelTransaction.this.set(row, column, value);
+            }
+        };
+    }
+
+    /**
+     * Turn the subnetwork's events back on and fire everything that was recorded.
+     * Calling this more than once does nothing.
+     */
+    public void commit() {
+        if (committed)
+            return;
+        committed = true;
+
+        for (final Object source : silenced)
+            eventHelper.unsilenceEventSource(source);
+
+        if (!removedEdges.isEmpty())
+            eventHelper.fireEvent(new RemovedEdgesEvent(net));
+        if (!removedNodes.isEmpty())
+            eventHelper.fireEvent(new RemovedNodesEvent(net));
+
+        for (final Map.Entry<CyTable,Set<String>> entry : columnsBefore.entrySet()) {
+            final CyTable table = entry.getKey();
+            for (final String column : columnNames(table))
+                if (!entry.getValue().contains(column))
+                    eventHelper.fireEvent(new ColumnCreatedEvent(table, column));
+        }
+
+        for (final CyNode node : addedNodes)
+            eventHelper.addEventPayload((CyNetwork) net, node, AddedNodesEvent.class);
+        for (final CyEdge edge : addedEdges)
+            eventHelper.addEventPayload((CyNetwork) net, edge, AddedEdgesEvent.class);
+        for (final Map.Entry<CyTable,List<RowSetRecord>> entry : rowsSet.entrySet())
+            for (final RowSetRecord record : entry.getValue())
+                eventHelper.addEventPayload(entry.getKey(), record, RowsSetEvent.class);
+
+        if (log != null)
+            log.append(this);
+    }
+
+    /**
+     * Fire {@code event} from the subnetwork while the transaction is still open.
+     */
+    private void fireNow(final CyEvent<?> event) {
+        eventHelper.unsilenceEventSource(net);
+        try {
+            eventHelper.fireEvent(event);
+        } finally {
+            eventHelper.silenceEventSource(net);
+        }
+    }
+
+    // listeners have already heard a removed node is going, so it is announced again if it comes back
+    private void nodeAdded(final CyNode node) {
+        addedNodes.add(node);
+    }
+
+    /**
+     * @return False if the node's addition hasn't been announced yet, in which
+     * case listeners don't hear about either
+     */
+    private boolean nodeRemoved(final CyNode node) {
+        if (addedNodes.remove(node))
+            return false;
+        removedNodes.add(node);
+        return true;
+    }
+
+    private void edgeAdded(final CyEdge edge) {
+        addedEdges.add(edge);
+    }
+
+    private boolean edgeRemoved(final CyEdge edge) {
+        if (addedEdges.remove(edge))
+            return false;
+        removedEdges.add(edge);
+        return true;
+    }
+
+    private static Class<? extends CyIdentifiable> typeOf(final CyIdentifiable obj) {
+        if (obj instanceof CyNode)
+            return CyNode.class;
+        else if (obj instanceof CyEdge)
+            return CyEdge.class;
+        else
+            return CyNetwork.class;
+    }
+
+    private static Set<String> columnNames(final CyTable table) {
+        final Set<String> names = new HashSet<String>();
+        for (final CyColumn column : table.getColumns())
+            names.add(column.getName());
+        return names;
+    }
+}
@@ -0,0 +1,55 @@
+package EvolvoApp.internal;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.subnetwork.CyRootNetwork;
+import org.cytoscape.model.subnetwork.CySubNetwork;
+
+/**
+ * One lock per Evolvo network, held by everything that changes the network.
+ *
+ * <p>
+ * The state Evolvo keeps for a network (its {@link EdgeStore},
+ * {@link HiddenParents}, {@link PositionMemory}, string dictionaries and
+ * snapshot log) is only ever touched with the network's lock held, so
+ * operations on different networks run at the same time on whichever threads
+ * ask for them, and operations on the same network run one at a time. The
+ * locks are fair: operations on the same network run in the order they were
+ * asked for. A lock is kept for a root network, since the edge store is.
+ * </p>
+ *
+ * <p>
+ * The locks are reentrant, so a task can hold its network's lock around
+ * several engine calls, each of which takes it again:
+ * <blockquote><pre>
+ * final ReentrantLock lock = NetworkLocks.of(net);
+ * lock.lock();
+ * try {
+ *     ...
+ * } finally {
+ *     lock.unlock();
+ * }
+ * </pre></blockquote>
+ * </p>
+ */
+class NetworkLocks {
+    private NetworkLocks() {}
+
+    private static final Map<CyRootNetwork,ReentrantLock> locks = Collections.synchronizedMap(new WeakHashMap<CyRootNetwork,ReentrantLock>());
+
+    public static ReentrantLock of(final CyNetwork net) {
+        final CyRootNetwork rootnet = ((CySubNetwork) net).getRootNetwork();
+        synchronized (locks) {
+            ReentrantLock lock = locks.get(rootnet);
+            if (lock == null) {
+                lock = new ReentrantLock(true);
+                locks.put(rootnet, lock);
+            }
+            return lock;
+        }
+    }
+}
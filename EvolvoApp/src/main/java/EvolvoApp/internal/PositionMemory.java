@@ -0,0 +1,289 @@
+package EvolvoApp.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyNode;
+import org.cytoscape.model.CyRow;
+import org.cytoscape.model.CyTable;
+import org.cytoscape.model.subnetwork.CyRootNetwork;
+import org.cytoscape.model.subnetwork.CySubNetwork;
+import org.cytoscape.view.model.CyNetworkView;
+import org.cytoscape.view.model.View;
+import org.cytoscape.view.presentation.property.BasicVisualLexicon;
+
+import EvolvoApp.internal.prim.LongIntHashMap;
+import EvolvoApp.internal.prim.LongObjectHashMap;
+
+/**
+ * Remembers where the children of a collapsed expansion were drawn, so
+ * expanding it again can put them back without running a layout.
+ *
+ * <p>
+ * Positions are kept per parent as offsets from an anchor: the parent's own
+ * position if it was visible when its children were collapsed (AUGMENT), or
+ * else the middle of its children (REPLACE). Expanding again adds the offsets
+ * to wherever the parent is at the time. When a REPLACE collapse brings a
+ * parent back, the parent is put at its anchor.
+ * </p>
+ *
+ * <p>
+ * A collapse is bracketed by a {@link Snapshot} and {@link #remember}. The
+ * snapshot is given each parent right before its expansion is collapsed and
+ * only reads the positions of that parent's children, so the work is in
+ * proportion to what the collapse hides, not to the size of the network.
+ * </p>
+ */
+class PositionMemory {
+    private PositionMemory() {}
+
+    /**
+     * The children of one parent, sorted by SUID, with their offsets from the anchor.
+     */
+    static class Offsets {
+        final long[] suids;
+        final double[] xy;
+
+        Offsets(final long[] suids, final double[] xy) {
+            this.suids = suids;
+            this.xy = xy;
+        }
+
+        int indexOf(final long suid) {
+            return Arrays.binarySearch(suids, suid);
+        }
+    }
+
+    /**
+     * The visible children of one parent at one moment, with their positions.
+     */
+    static class Family {
+        final long parent;
+        /** The parent's position, or null if it wasn't visible */
+        final double[] parentXY;
+        final long[] suids;
+        final double[] xy;
+
+        Family(final long parent, final double[] parentXY, final long[] suids, final double[] xy) {
+            this.parent = parent;
+            this.parentXY = parentXY;
+            this.suids = suids;
+            this.xy = xy;
+        }
+    }
+
+    /**
+     * The positions of the children of the expansions about to be collapsed.
+     * It can be handed to {@link Engine#autoCollapse} to hear which those are.
+     */
+    static class Snapshot implements Engine.CollapseListener {
+        final CyNetworkView netView;
+        final List<Family> families = new ArrayList<Family>();
+
+        Snapshot(final CyNetworkView netView) {
+            this.netView = netView;
+        }
+
+        /**
+         * Record where the parent with {@code suid} and its visible children are now.
+         */
+        public void add(final long suid) {
+            final CyNetwork net = netView.getModel();
+            final CyRootNetwork rootnet = ((CySubNetwork) net).getRootNetwork();
+            final Set<CyNode> children = Utils.getNodesWithValue(net, net.getDefaultNodeTable(), "Evolvo-parent", suid);
+            final long[] suids = new long[children.size()];
+            final double[] xy = new double[children.size() * 2];
+            int n = 0;
+            for (final CyNode child : children) {
+                final View<CyNode> childView = netView.getNodeView(child);
+                if (childView == null)
+                    continue;
+                suids[n] = child.getSUID();
+                xy[n * 2] = childView.getVisualProperty(BasicVisualLexicon.NODE_X_LOCATION);
+                xy[n * 2 + 1] = childView.getVisualProperty(BasicVisualLexicon.NODE_Y_LOCATION);
+                n++;
+            }
+            if (n == 0)
+                return;
+
+            final CyNode parent = rootnet.getNode(suid);
+            final View<CyNode> parentView = (parent == null || !net.containsNode(parent)) ? null : netView.getNodeView(parent);
+            final double[] parentXY = (parentView == null) ? null : new double[] {
+                parentView.getVisualProperty(BasicVisualLexicon.NODE_X_LOCATION),
+                parentView.getVisualProperty(BasicVisualLexicon.NODE_Y_LOCATION)};
+            families.add(new Family(suid, parentXY, Arrays.copyOf(suids, n), Arrays.copyOf(xy, n * 2)));
+        }
+
+        public void aboutToCollapse(final CyNetwork net, final CyNode parent) {
+            add(parent.getSUID());
+        }
+    }
+
+    private static final Map<CyNetwork,LongObjectHashMap<Offsets>> memories = Collections.synchronizedMap(new WeakHashMap<CyNetwork,LongObjectHashMap<Offsets>>());
+
+    private static LongObjectHashMap<Offsets> of(final CyNetwork net) {
+        synchronized (memories) {
+            LongObjectHashMap<Offsets> offsets = memories.get(net);
+            if (offsets == null) {
+                offsets = new LongObjectHashMap<Offsets>();
+                memories.put(net, offsets);
+            }
+            return offsets;
+        }
+    }
+
+    /**
+     * Return an empty snapshot of {@code netView}; see {@link Snapshot#add}.
+     */
+    public static Snapshot snapshot(final CyNetworkView netView) {
+        return new Snapshot(netView);
+    }
+
+    /**
+     * Remember where the children in {@code before} that are no longer visible
+     * were drawn, grouped by parent, and put parents that have come back at
+     * their anchors. Nodes that were taken out of the root network are forgotten.
+     */
+    public static void remember(final Snapshot before) {
+        final CyNetworkView netView = before.netView;
+        final CyNetwork net = netView.getModel();
+        final CyRootNetwork rootnet = ((CySubNetwork) net).getRootNetwork();
+        final LongObjectHashMap<Offsets> memory = of(net);
+
+        for (final Family family : before.families) {
+            final LongIntHashMap index = new LongIntHashMap(family.suids.length);
+            double sumX = 0.0;
+            double sumY = 0.0;
+            for (int i = 0; i < family.suids.length; i++) {
+                if (!isHidden(net, rootnet, family.suids[i]))
+                    continue;
+                index.put(family.suids[i], i);
+                sumX += family.xy[i * 2];
+                sumY += family.xy[i * 2 + 1];
+            }
+            final int count = index.size();
+            if (count == 0)
+                continue;
+            final long[] suids = index.keys();
+            Arrays.sort(suids);
+
+            final double anchorX = (family.parentXY != null) ? family.parentXY[0] : sumX / count;
+            final double anchorY = (family.parentXY != null) ? family.parentXY[1] : sumY / count;
+            final double[] xy = new double[count * 2];
+            for (int j = 0; j < count; j++) {
+                final int i = index.get(suids[j], -1);
+                xy[j * 2] = family.xy[i * 2] - anchorX;
+                xy[j * 2 + 1] = family.xy[i * 2 + 1] - anchorY;
+            }
+            memory.put(family.parent, new Offsets(suids, xy));
+
+            final CyNode parentNode = rootnet.getNode(family.parent);
+            if (family.parentXY == null && parentNode != null && net.containsNode(parentNode))
+                place(netView, parentNode, anchorX, anchorY);
+        }
+    }
+
+    /**
+     * Return true if the node is still in the root network but not in {@code net}.
+     */
+    private static boolean isHidden(final CyNetwork net, final CyRootNetwork rootnet, final long suid) {
+        final CyNode node = rootnet.getNode(suid);
+        return node != null && !net.containsNode(node);
+    }
+
+    /**
+     * Put the children of {@code parent}, which have just been expanded, at
+     * their remembered offsets from ({@code parentX}, {@code parentY}).
+     * @return True if every child had a remembered position
+     */
+    public static boolean restore(final CyNetworkView netView, final CyNode parent, final double parentX, final double parentY) {
+        final CyNetwork net = netView.getModel();
+        final LongObjectHashMap<Offsets> memory = of(net);
+        final Offsets offsets = memory.get(parent.getSUID());
+        if (offsets == null)
+            return false;
+        memory.remove(parent.getSUID());
+
+        boolean all = true;
+        for (final CyNode child : Utils.getNodesWithValue(net, net.getDefaultNodeTable(), "Evolvo-parent", parent.getSUID())) {
+            final int i = offsets.indexOf(child.getSUID());
+            if (i < 0)
+                all = false;
+            else
+                place(netView, child, parentX + offsets.xy[i * 2], parentY + offsets.xy[i * 2 + 1]);
+        }
+        return all;
+    }
+
+    /**
+     * Put {@code added}, nodes that have just become visible other than by an
+     * expand, where their "x" and "y" columns say, or else in the middle of
+     * their siblings that were already visible. Nodes with neither stay where they are.
+     */
+    public static void placeNew(final CyNetworkView netView, final Collection<CyNode> added) {
+        final CyNetwork net = netView.getModel();
+        final CyTable nodeTable = net.getDefaultNodeTable();
+        final TypedColumn<Long> parentColumn = TypedColumn.lookup(nodeTable, "Evolvo-parent", Long.class);
+        final Set<CyNode> addedSet = new HashSet<CyNode>(added);
+
+        // the middle of the siblings of each parent, or null if none were visible
+        final LongObjectHashMap<double[]> middles = new LongObjectHashMap<double[]>();
+        final boolean hasXY = nodeTable.getColumn("x") != null && nodeTable.getColumn("y") != null;
+        for (final CyNode node : added) {
+            if (hasXY) {
+                final CyRow row = nodeTable.getRow(node.getSUID());
+                final Number x = row.get("x", Number.class);
+                final Number y = row.get("y", Number.class);
+                if (x != null && y != null) {
+                    place(netView, node, x.doubleValue(), y.doubleValue());
+                    continue;
+                }
+            }
+            final Long parent = (parentColumn == null) ? null : parentColumn.get(node.getSUID());
+            if (parent == null)
+                continue;
+            if (!middles.containsKey(parent))
+                middles.put(parent, middle(netView, parent, addedSet));
+            final double[] middle = middles.get(parent);
+            if (middle != null)
+                place(netView, node, middle[0], middle[1]);
+        }
+    }
+
+    /**
+     * Return the middle of the visible children of {@code parent} besides {@code added}, or null if there are none.
+     */
+    private static double[] middle(final CyNetworkView netView, final long parent, final Set<CyNode> added) {
+        final CyNetwork net = netView.getModel();
+        double sumX = 0.0;
+        double sumY = 0.0;
+        int count = 0;
+        for (final CyNode sibling : Utils.getNodesWithValue(net, net.getDefaultNodeTable(), "Evolvo-parent", parent)) {
+            if (added.contains(sibling))
+                continue;
+            final View<CyNode> siblingView = netView.getNodeView(sibling);
+            if (siblingView == null)
+                continue;
+            sumX += siblingView.getVisualProperty(BasicVisualLexicon.NODE_X_LOCATION);
+            sumY += siblingView.getVisualProperty(BasicVisualLexicon.NODE_Y_LOCATION);
+            count++;
+        }
+        return (count == 0) ? null : new double[] {sumX / count, sumY / count};
+    }
+
+    private static void place(final CyNetworkView netView, final CyNode node, final double x, final double y) {
+        final View<CyNode> nodeView = netView.getNodeView(node);
+        if (nodeView == null)
+            return;
+        nodeView.setVisualProperty(BasicVisualLexicon.NODE_X_LOCATION, x);
+        nodeView.setVisualProperty(BasicVisualLexicon.NODE_Y_LOCATION, y);
+    }
+}
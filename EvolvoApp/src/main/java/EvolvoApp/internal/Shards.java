@@ -0,0 +1,143 @@
+package EvolvoApp.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.cytoscape.model.CyNetwork;
+
+import static EvolvoApp.internal.Attr.*;
+
+/**
+ * Maps node keys to the servers that hold them.
+ *
+ * <p>
+ * A network whose tiers are split across several servers has an
+ * "Evolvo-shards" attribute. It's a rule followed by endpoints, separated
+ * by whitespace. With the {@code hash} rule, a key goes to one endpoint picked
+ * by its hash code:
+ * <blockquote><pre>
+ * hash http://a:8000/replace http://b:8000/replace
+ * </pre></blockquote>
+ * With the {@code prefix} rule, each endpoint is preceded by a key prefix.
+ * A key goes to every endpoint whose prefix it starts with, in the order
+ * given. An empty prefix matches every key, which is how a server holding
+ * edges between families takes part in every expand:
+ * <blockquote><pre>
+ * prefix 1.10=http://a:8000/replace 3.40=http://b:8000/replace =http://c:8000/replace
+ * </pre></blockquote>
+ * A network without "Evolvo-shards" has one shard, its "Evolvo-url".
+ * </p>
+ *
+ * <p>
+ * An endpoint may name several replicas of the same shard separated by
+ * '|', as in {@code http://a1:8000/replace|http://a2:8000/replace}.
+ * {@link FanOut} picks among them.
+ * </p>
+ */
+class Shards {
+    public static enum Rule { HASH, PREFIX }
+
+    final Rule rule;
+    final List<String> prefixes;
+    final List<String> endpoints;
+
+    Shards(final Rule rule, final List<String> prefixes, final List<String> endpoints) {
+        this.rule = rule;
+        this.prefixes = prefixes;
+        this.endpoints = endpoints;
+    }
+
+    /**
+     * Return the shards of {@code net}.
+     */
+    public static Shards of(final CyNetwork net) {
+        final String spec = Attr(net, "Evolvo-shards").Str();
+        if (spec != null && spec.trim().length() > 0)
+            return parse(spec);
+        final String url = Attr(net, "Evolvo-url").Str();
+        final List<String> endpoints = (url == null) ? Collections.<String>emptyList() : Collections.singletonList(url);
+        return new Shards(Rule.HASH, null, endpoints);
+    }
+
+    /**
+     * Parse an "Evolvo-shards" value.
+     * @throws IllegalArgumentException if {@code spec} has an unknown rule, no endpoints,
+     * or a prefix rule endpoint without a '='
+     */
+    public static Shards parse(final String spec) {
+        final String[] tokens = spec.trim().split("\\s+");
+        final Rule rule;
+        try {
+            rule = Rule.valueOf(tokens[0].toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(String.format("Evolvo: unknown shard rule '%s', must be 'hash' or 'prefix'", tokens[0]));
+        }
+        if (tokens.length < 2)
+            throw new IllegalArgumentException(String.format("Evolvo: no endpoints in shards '%s'", spec));
+
+        final List<String> endpoints = new ArrayList<String>(tokens.length - 1);
+        final List<String> prefixes = (rule == Rule.PREFIX) ? new ArrayList<String>(tokens.length - 1) : null;
+        for (int i = 1; i < tokens.length; i++) {
+            if (rule == Rule.PREFIX) {
+                final int eq = tokens[i].indexOf('=');
+                if (eq < 0)
+                    throw new IllegalArgumentException(String.format("Evolvo: prefix shard '%s' must be of the form prefix=url", tokens[i]));
+                prefixes.add(tokens[i].substring(0, eq));
+                endpoints.add(tokens[i].substring(eq + 1));
+            } else {
+                endpoints.add(tokens[i]);
+            }
+        }
+        return new Shards(rule, prefixes, endpoints);
+    }
+
+    /**
+     * Return the replicas of {@code endpoint}.
+     */
+    public static List<String> replicas(final String endpoint) {
+        return Arrays.asList(endpoint.split("\\|"));
+    }
+
+    /**
+     * Return {@code endpoint} with {@code path} added to each of its replicas.
+     */
+    public static String withPath(final String endpoint, final String path) {
+        final StringBuilder builder = new StringBuilder();
+        for (final String replica : replicas(endpoint)) {
+            if (builder.length() > 0)
+                builder.append('|');
+            builder.append(replica).append(path);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Return every endpoint, each once, in the order given.
+     */
+    public List<String> endpoints() {
+        final List<String> unique = new ArrayList<String>(endpoints.size());
+        for (final String endpoint : endpoints)
+            if (!unique.contains(endpoint))
+                unique.add(endpoint);
+        return unique;
+    }
+
+    /**
+     * Return the endpoints that hold {@code key}, each once. The first one owns the key.
+     */
+    public List<String> endpointsFor(final String key) {
+        if (endpoints.isEmpty())
+            return Collections.emptyList();
+        if (rule == Rule.HASH) {
+            final int n = endpoints.size();
+            return Collections.singletonList(endpoints.get(((key.hashCode() % n) + n) % n));
+        }
+        final List<String> matching = new ArrayList<String>();
+        for (int i = 0; i < endpoints.size(); i++)
+            if (key.startsWith(prefixes.get(i)) && !matching.contains(endpoints.get(i)))
+                matching.add(endpoints.get(i));
+        return matching;
+    }
+}
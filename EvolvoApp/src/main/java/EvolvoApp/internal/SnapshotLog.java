@@ -0,0 +1,819 @@
+package EvolvoApp.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyNetworkFactory;
+import org.cytoscape.model.CyNode;
+import org.cytoscape.model.CyEdge;
+import org.cytoscape.model.CyTable;
+import org.cytoscape.model.CyColumn;
+import org.cytoscape.model.CyRow;
+
+import org.cytoscape.model.subnetwork.CyRootNetwork;
+import org.cytoscape.model.subnetwork.CySubNetwork;
+
+import org.cytoscape.model.events.RowSetRecord;
+
+import org.cytoscape.event.CyEventHelper;
+
+import EvolvoApp.internal.prim.LongObjectHashMap;
+
+/**
+ * An append-only binary log of everything Evolvo has fetched into a network
+ * and how it's expanded, so that the network can be rebuilt without the server.
+ *
+ * <p>
+ * {@link #start} writes a snapshot of the whole network: its attributes,
+ * every node in the root network, which of them are visible, and every edge,
+ * including the ones kept in the {@link EdgeStore}. After that, each
+ * {@link ModelTransaction} on the network appends what it changed.
+ * {@link #restore} reads the log in one pass, builds the network in bulk,
+ * and starts a fresh log for it with a new snapshot, which also compacts it.
+ * Meta-edges aren't logged; they're rebuilt on restore.
+ * </p>
+ *
+ * <p>
+ * The log starts with the int {@code MAGIC} and the int {@code VERSION}, followed by records.
+ * Each record is a type byte and its fields, written with {@link DataOutputStream}.
+ * SUIDs are the ones the nodes had when the record was written. An edge is known
+ * by its two endpoints, in either order, so a later {@code 'E'} for the same
+ * endpoints replaces the earlier one.
+ * <table>
+ *   <tr><td>{@code 'C'}</td><td>int id, string name</td><td>names a column; later records refer to it by id</td></tr>
+ *   <tr><td>{@code 'G'}</td><td>int column, value</td><td>network attribute</td></tr>
+ *   <tr><td>{@code 'N'}</td><td>long suid, attributes</td><td>node added to the root network</td></tr>
+ *   <tr><td>{@code 'S'}</td><td>long suid, int column, value</td><td>node attribute changed</td></tr>
+ *   <tr><td>{@code 'E'}</td><td>long source, long target, attributes</td><td>edge</td></tr>
+ *   <tr><td>{@code 'F'}</td><td>long source, long target, int column, value</td><td>edge attribute changed</td></tr>
+ *   <tr><td>{@code 'K'}</td><td>long source, long target</td><td>edge deleted</td></tr>
+ *   <tr><td>{@code 'V'}</td><td>int count, long suids...</td><td>nodes shown</td></tr>
+ *   <tr><td>{@code 'H'}</td><td>int count, long suids...</td><td>nodes hidden</td></tr>
+ *   <tr><td>{@code 'D'}</td><td>int count, long suids...</td><td>nodes deleted from the root network</td></tr>
+ *   <tr><td>{@code 'P'}</td><td>int count, long suids...</td><td>nodes added to the hidden parents</td></tr>
+ *   <tr><td>{@code 'Q'}</td><td>int count, long suids...</td><td>nodes taken out of the hidden parents</td></tr>
+ *   <tr><td>{@code 'U'}</td><td>int count, long suids...</td><td>expansions used, each becoming the most recent</td></tr>
+ *   <tr><td>{@code 'X'}</td><td>int count, long suids...</td><td>expansions taken out of the expansion order</td></tr>
+ *   <tr><td>{@code 'T'}</td><td></td><td>end of a transaction</td></tr>
+ * </table>
+ * Attributes are an int count followed by pairs of an int column and a value.
+ * A value is a tag byte followed by its data: null, string, boolean, int, long, double,
+ * or a list, which is the tag of its elements, an int count and the elements.
+ * A string is an int byte count followed by its UTF-8 bytes.
+ * Records after the last {@code 'T'} belong to an operation that didn't finish and are ignored.
+ * </p>
+ *
+ * <p>
+ * The hidden parents and the expansion order are logged as they change, with
+ * {@code 'P'}, {@code 'Q'}, {@code 'U'} and {@code 'X'}, rather than as whole
+ * lists, so that a transaction only adds what it did to the log.
+ * </p>
+ */
+class SnapshotLog {
+    static final int MAGIC   = 0x45564c56; // "EVLV"
+    static final int VERSION = 2;
+
+    static final byte COLUMN            = 'C';
+    static final byte NETWORK_ATTR      = 'G';
+    static final byte NODE              = 'N';
+    static final byte NODE_ATTR         = 'S';
+    static final byte EDGE              = 'E';
+    static final byte EDGE_ATTR         = 'F';
+    static final byte EDGE_DELETED      = 'K';
+    static final byte SHOW              = 'V';
+    static final byte HIDE              = 'H';
+    static final byte DISCARD           = 'D';
+    static final byte PARENT_HIDDEN     = 'P';
+    static final byte PARENT_SHOWN      = 'Q';
+    static final byte EXPANSION_USED    = 'U';
+    static final byte EXPANSION_REMOVED = 'X';
+    static final byte COMMIT            = 'T';
+
+    static final byte NULL    = 0;
+    static final byte STRING  = 1;
+    static final byte BOOLEAN = 2;
+    static final byte INTEGER = 3;
+    static final byte LONG    = 4;
+    static final byte DOUBLE  = 5;
+    static final byte LIST    = 6;
+
+    /**
+     * Columns that hold node SUIDs, which have to be renumbered on restore.
+     */
+    static final String PARENT_COLUMN = "Evolvo-parent";
+    static final String HIDDEN_PARENTS_COLUMN = "Evolvo-hidden-parents";
+    static final String EXPANSION_ORDER_COLUMN = "Evolvo-expansion-order";
+    static final String[] SUID_LIST_COLUMNS = {HIDDEN_PARENTS_COLUMN, EXPANSION_ORDER_COLUMN};
+
+    private static final Map<CyNetwork,SnapshotLog> logs = Collections.synchronizedMap(new WeakHashMap<CyNetwork,SnapshotLog>());
+
+    final File file;
+    DataOutputStream output;
+    final Map<String,Integer> columnIds = new HashMap<String,Integer>();
+
+    private SnapshotLog(final File file) {
+        this.file = file;
+    }
+
+    private static DataOutputStream openOutput(final File file, final boolean append) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, append), 1 << 16));
+    }
+
+    /**
+     * Return the log of {@code net}, or null if it isn't being logged.
+     */
+    public static SnapshotLog of(final CyNetwork net) {
+        return logs.get(net);
+    }
+
+    /**
+     * Start logging {@code net} to {@code file}, replacing whatever is in the file
+     * with a snapshot of the network as it is now.
+     */
+    public static void start(final CyNetwork net, final File file) throws IOException {
+        // the old log stays intact until the new one is complete
+        final File tmp = new File(file.getPath() + ".tmp");
+        final SnapshotLog log = new SnapshotLog(file);
+        log.output = openOutput(tmp, false);
+        try {
+            log.output.writeInt(MAGIC);
+            log.output.writeInt(VERSION);
+            log.writeSnapshot(net);
+        } finally {
+            log.output.close();
+        }
+        if (!tmp.renameTo(file)) {
+            file.delete();
+            if (!tmp.renameTo(file))
+                throw new IOException(String.format("Evolvo: could not move %s to %s", tmp, file));
+        }
+        log.output = openOutput(file, true);
+
+        final SnapshotLog old = logs.put(net, log);
+        if (old != null)
+            old.close();
+    }
+
+    /**
+     * Stop logging {@code net}.
+     */
+    public static void stop(final CyNetwork net) {
+        final SnapshotLog log = logs.remove(net);
+        if (log != null)
+            log.close();
+    }
+
+    private void close() {
+        try {
+            output.close();
+        } catch (IOException e) {
+            ModelEngine.logger.warn(String.format("Evolvo: could not close snapshot log %s", file), e);
+        }
+    }
+
+    // -------------------------------------------
+    // Writing
+
+    private int column(final String name) throws IOException {
+        final Integer id = columnIds.get(name);
+        if (id != null)
+            return id;
+        final int newId = columnIds.size();
+        columnIds.put(name, newId);
+        output.writeByte(COLUMN);
+        output.writeInt(newId);
+        writeString(name);
+        return newId;
+    }
+
+    /**
+     * Write a string of any length; {@code writeUTF} stops at 64K bytes.
+     */
+    private void writeString(final String value) throws IOException {
+        final byte[] bytes = value.getBytes("UTF-8");
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static byte tagOf(final Object value) {
+        if (value == null)                   return NULL;
+        else if (value instanceof String)    return STRING;
+        else if (value instanceof Boolean)   return BOOLEAN;
+        else if (value instanceof Integer)   return INTEGER;
+        else if (value instanceof Long)      return LONG;
+        else if (value instanceof Double)    return DOUBLE;
+        else if (value instanceof List)      return LIST;
+        else throw new IllegalArgumentException("Evolvo: can't log a value of type " + value.getClass());
+    }
+
+    private void writeElement(final byte tag, final Object value) throws IOException {
+        switch (tag) {
+            case STRING:  writeString((String) value); break;
+            case BOOLEAN: output.writeBoolean((Boolean) value); break;
+            case INTEGER: output.writeInt((Integer) value); break;
+            case LONG:    output.writeLong((Long) value); break;
+            case DOUBLE:  output.writeDouble((Double) value); break;
+        }
+    }
+
+    private void writeValue(final Object value) throws IOException {
+        final byte tag = tagOf(value);
+        output.writeByte(tag);
+        if (tag != LIST) {
+            writeElement(tag, value);
+            return;
+        }
+        final List<Object> elements = new ArrayList<Object>();
+        for (final Object element : (List<?>) value)
+            if (element != null)
+                elements.add(element);
+        final byte elementTag = elements.isEmpty() ? NULL : tagOf(elements.get(0));
+        output.writeByte(elementTag);
+        output.writeInt(elements.size());
+        for (final Object element : elements)
+            writeElement(elementTag, element);
+    }
+
+    /**
+     * Return the non-null values of a row, leaving out the primary key and the selection,
+     * as the column names followed by the values.
+     */
+    private static Object[][] rowOf(final CyTable table, final CyRow row) {
+        final List<String> names = new ArrayList<String>();
+        final List<Object> values = new ArrayList<Object>();
+        for (final CyColumn column : table.getColumns()) {
+            if (column.isPrimaryKey() || column.getName().equals(CyNetwork.SELECTED))
+                continue;
+            final Object value = row.getRaw(column.getName());
+            if (value == null)
+                continue;
+            names.add(column.getName());
+            values.add(value);
+        }
+        return new Object[][] {names.toArray(new String[names.size()]), values.toArray()};
+    }
+
+    /**
+     * Name the columns in {@code header}, which has to be done before the record that uses them starts.
+     */
+    private int[] columns(final String[] header) throws IOException {
+        final int[] ids = new int[header.length];
+        for (int i = 0; i < header.length; i++)
+            ids[i] = column(header[i]);
+        return ids;
+    }
+
+    private void writeNode(final long suid, final CyTable table) throws IOException {
+        final Object[][] row = rowOf(table, table.getRow(suid));
+        final int[] ids = columns((String[]) row[0]);
+        output.writeByte(NODE);
+        output.writeLong(suid);
+        writeAttributes(ids, row[1]);
+    }
+
+    private void writeEdge(final long source, final long target, final String[] header, final Object[] values) throws IOException {
+        final int[] ids = columns(header);
+        writeEdge(EDGE, source, target);
+        writeAttributes(ids, values);
+    }
+
+    private void writeAttributes(final int[] ids, final Object[] values) throws IOException {
+        int count = 0;
+        for (int i = 0; i < ids.length; i++)
+            if (values[i] != null)
+                count++;
+        output.writeInt(count);
+        for (int i = 0; i < ids.length; i++) {
+            if (values[i] == null)
+                continue;
+            output.writeInt(ids[i]);
+            writeValue(values[i]);
+        }
+    }
+
+    private void writeSUIDs(final byte type, final Collection<Long> suids) throws IOException {
+        if (suids.isEmpty())
+            return;
+        output.writeByte(type);
+        output.writeInt(suids.size());
+        for (final Long suid : suids)
+            output.writeLong(suid);
+    }
+
+    private void writeNetworkAttr(final String name, final Object value) throws IOException {
+        final int id = column(name);
+        output.writeByte(NETWORK_ATTR);
+        output.writeInt(id);
+        writeValue(value);
+    }
+
+    private void writeEdge(final byte type, final long source, final long target) throws IOException {
+        output.writeByte(type);
+        output.writeLong(source);
+        output.writeLong(target);
+    }
+
+    private void writeSnapshot(final CyNetwork net) throws IOException {
+        final CyRootNetwork rootnet = ((CySubNetwork) net).getRootNetwork();
+        final CyTable nettbl  = net.getDefaultNetworkTable();
+        final CyTable nodetbl = net.getDefaultNodeTable();
+        final CyTable edgetbl = net.getDefaultEdgeTable();
+
+        final CyRow netRow = nettbl.getRow(net.getSUID());
+        for (final CyColumn column : nettbl.getColumns()) {
+            final String name = column.getName();
+            if (column.isPrimaryKey() || name.equals(CyNetwork.SELECTED) || Arrays.asList(SUID_LIST_COLUMNS).contains(name))
+                continue;
+            final Object value = netRow.getRaw(name);
+            if (value != null)
+                writeNetworkAttr(name, value);
+        }
+        final List<Long> hiddenParents = new ArrayList<Long>();
+        for (final long suid : HiddenParents.suids(net))
+            hiddenParents.add(suid);
+        writeSUIDs(PARENT_HIDDEN, hiddenParents);
+        writeSUIDs(EXPANSION_USED, ExpansionOrder.suids(net));
+
+        final List<Long> visible = new ArrayList<Long>();
+        for (final CyNode node : rootnet.getNodeList()) {
+            writeNode(node.getSUID(), nodetbl);
+            if (net.containsNode(node))
+                visible.add(node.getSUID());
+        }
+        writeSUIDs(SHOW, visible);
+
+        final TypedColumn<Boolean> metaColumn = EvolvoColumns.of(net).meta();
+        for (final CyEdge edge : rootnet.getEdgeList()) {
+            if (MetaEdges.isMeta(metaColumn, edge))
+                continue;
+            final Object[][] row = rowOf(edgetbl, edgetbl.getRow(edge.getSUID()));
+            writeEdge(edge.getSource().getSUID(), edge.getTarget().getSUID(), (String[]) row[0], row[1]);
+        }
+
+        final EdgeStore store = HiddenEdges.store(net);
+        for (final int e : store.edges()) {
+            writeEdge(store.source(e), store.target(e), store.header(e), store.row(e));
+        }
+
+        output.writeByte(COMMIT);
+    }
+
+    /**
+     * Append the changes made by {@code tx}. If the log can't be written,
+     * logging stops for the network rather than failing the operation.
+     */
+    void append(final ModelTransaction tx) {
+        final CyNetwork net = tx.network();
+        final CyRootNetwork rootnet = ((CySubNetwork) net).getRootNetwork();
+        final CyTable nodetbl = net.getDefaultNodeTable();
+        final CyTable edgetbl = net.getDefaultEdgeTable();
+        try {
+            final Set<Long> created = new LinkedHashSet<Long>();
+            for (final CyNode node : tx.createdNodes) {
+                if (rootnet.getNode(node.getSUID()) == null)
+                    continue;
+                created.add(node.getSUID());
+                writeNode(node.getSUID(), nodetbl);
+            }
+
+            final List<RowSetRecord> records = tx.rowsSet.get(nodetbl);
+            if (records != null) {
+                final String primaryKey = nodetbl.getPrimaryKey().getName();
+                for (final RowSetRecord record : records) {
+                    final Long suid = record.getRow().get(primaryKey, Long.class);
+                    if (suid == null || created.contains(suid) || record.getColumn().equals(CyNetwork.SELECTED))
+                        continue;
+                    final int id = column(record.getColumn());
+                    output.writeByte(NODE_ATTR);
+                    output.writeLong(suid);
+                    output.writeInt(id);
+                    writeValue(record.getValue());
+                }
+            }
+
+            writeSUIDs(HIDE, Utils.toSUIDs(tx.removedNodes));
+            writeSUIDs(SHOW, Utils.toSUIDs(tx.addedNodes));
+            writeSUIDs(DISCARD, tx.discardedNodes);
+
+            // fetches and deletes in the order they happened, since a refresh can do both to the same edge
+            for (final Object[] change : tx.edgeChanges) {
+                if ((Byte) change[0] == EDGE)
+                    writeEdge((Long) change[1], (Long) change[2], (String[]) change[3], (Object[]) change[4]);
+                else
+                    writeEdge(EDGE_DELETED, (Long) change[1], (Long) change[2]);
+            }
+
+            // edges added by this transaction were fetched or shown from the store, so they're already logged
+            final List<RowSetRecord> edgeRecords = tx.rowsSet.get(edgetbl);
+            if (edgeRecords != null) {
+                final String primaryKey = edgetbl.getPrimaryKey().getName();
+                final TypedColumn<Boolean> metaColumn = EvolvoColumns.of(net).meta();
+                for (final RowSetRecord record : edgeRecords) {
+                    final Long suid = record.getRow().get(primaryKey, Long.class);
+                    final CyEdge edge = (suid == null) ? null : rootnet.getEdge(suid);
+                    if (edge == null || tx.addedEdges.contains(edge) || MetaEdges.isMeta(metaColumn, edge) || record.getColumn().equals(CyNetwork.SELECTED))
+                        continue;
+                    final int id = column(record.getColumn());
+                    writeEdge(EDGE_ATTR, edge.getSource().getSUID(), edge.getTarget().getSUID());
+                    output.writeInt(id);
+                    writeValue(record.getValue());
+                }
+            }
+
+            // runs of the same change go in one record
+            final List<Long> suids = new ArrayList<Long>();
+            for (int i = 0; i < tx.stateChanges.size(); ) {
+                final byte type = (Byte) tx.stateChanges.get(i)[0];
+                suids.clear();
+                for (; i < tx.stateChanges.size() && (Byte) tx.stateChanges.get(i)[0] == type; i++)
+                    suids.add((Long) tx.stateChanges.get(i)[1]);
+                writeSUIDs(type, suids);
+            }
+
+            output.writeByte(COMMIT);
+            output.flush();
+        } catch (IOException e) {
+            ModelEngine.logger.warn(String.format("Evolvo: could not write snapshot log %s; no longer logging this network", file), e);
+            stop(net);
+        }
+    }
+
+    // -------------------------------------------
+    // Reading
+
+    /**
+     * The network as read from a log, before any of it is in the Cytoscape model.
+     */
+    static class Contents {
+        final Map<String,Object> networkAttrs = new LinkedHashMap<String,Object>();
+        final LinkedHashMap<Long,Map<String,Object>> nodes = new LinkedHashMap<Long,Map<String,Object>>();
+        final Set<Long> visible = new LinkedHashSet<Long>();
+        final Map<List<Long>,Object[]> edges = new LinkedHashMap<List<Long>,Object[]>(); // by edgeKey: source, target, header, values
+        final Set<Long> hiddenParents = new LinkedHashSet<Long>();
+        final Set<Long> expansionOrder = new LinkedHashSet<Long>();
+    }
+
+    /**
+     * Return the key of the edge between {@code a} and {@code b}, which is the same either way around.
+     */
+    static List<Long> edgeKey(final long a, final long b) {
+        return Arrays.asList(Math.min(a, b), Math.max(a, b));
+    }
+
+    private static String readString(final DataInputStream input) throws IOException {
+        final byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static Object readElement(final DataInputStream input, final byte tag) throws IOException {
+        switch (tag) {
+            case NULL:    return null;
+            case STRING:  return readString(input);
+            case BOOLEAN: return input.readBoolean();
+            case INTEGER: return input.readInt();
+            case LONG:    return input.readLong();
+            case DOUBLE:  return input.readDouble();
+            default:      throw new IOException("Evolvo: unknown value tag in snapshot log: " + tag);
+        }
+    }
+
+    private static Object readValue(final DataInputStream input) throws IOException {
+        final byte tag = input.readByte();
+        if (tag != LIST)
+            return readElement(input, tag);
+        final byte elementTag = input.readByte();
+        final int count = input.readInt();
+        final List<Object> list = new ArrayList<Object>(count);
+        for (int i = 0; i < count; i++)
+            list.add(readElement(input, elementTag));
+        return list;
+    }
+
+    private static long[] readSUIDs(final DataInputStream input) throws IOException {
+        final long[] suids = new long[input.readInt()];
+        for (int i = 0; i < suids.length; i++)
+            suids[i] = input.readLong();
+        return suids;
+    }
+
+    /**
+     * Read a log into memory. Each transaction is read in full before any of it is applied.
+     */
+    static Contents read(final File file) throws IOException {
+        final DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+        try {
+            if (input.readInt() != MAGIC)
+                throw new IOException(String.format("Evolvo: %s is not a snapshot log", file));
+            if (input.readInt() != VERSION)
+                throw new IOException(String.format("Evolvo: %s was written by a different version of Evolvo", file));
+
+            final Contents contents = new Contents();
+            final List<String> columns = new ArrayList<String>();
+            final List<Object[]> pending = new ArrayList<Object[]>();
+            while (true) {
+                final byte type;
+                try {
+                    type = input.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                try {
+                    switch (type) {
+                        case COLUMN: {
+                            final int id = input.readInt();
+                            final String name = readString(input);
+                            while (columns.size() <= id)
+                                columns.add(null);
+                            columns.set(id, name);
+                            break;
+                        }
+                        case NETWORK_ATTR:
+                            pending.add(new Object[] {type, columns.get(input.readInt()), readValue(input)});
+                            break;
+                        case NODE: {
+                            final long suid = input.readLong();
+                            final Map<String,Object> attrs = new HashMap<String,Object>();
+                            final int count = input.readInt();
+                            for (int i = 0; i < count; i++) {
+                                final String name = columns.get(input.readInt());
+                                attrs.put(name, readValue(input));
+                            }
+                            pending.add(new Object[] {type, suid, attrs});
+                            break;
+                        }
+                        case NODE_ATTR:
+                            pending.add(new Object[] {type, input.readLong(), columns.get(input.readInt()), readValue(input)});
+                            break;
+                        case EDGE: {
+                            final long source = input.readLong();
+                            final long target = input.readLong();
+                            final int count = input.readInt();
+                            final String[] header = new String[count];
+                            final Object[] values = new Object[count];
+                            for (int i = 0; i < count; i++) {
+                                header[i] = columns.get(input.readInt());
+                                values[i] = readValue(input);
+                            }
+                            pending.add(new Object[] {type, source, target, header, values});
+                            break;
+                        }
+                        case EDGE_ATTR:
+                            pending.add(new Object[] {type, input.readLong(), input.readLong(), columns.get(input.readInt()), readValue(input)});
+                            break;
+                        case EDGE_DELETED:
+                            pending.add(new Object[] {type, input.readLong(), input.readLong()});
+                            break;
+                        case SHOW:
+                        case HIDE:
+                        case DISCARD:
+                        case PARENT_HIDDEN:
+                        case PARENT_SHOWN:
+                        case EXPANSION_USED:
+                        case EXPANSION_REMOVED:
+                            pending.add(new Object[] {type, readSUIDs(input)});
+                            break;
+                        case COMMIT:
+                            apply(contents, pending);
+                            pending.clear();
+                            break;
+                        default:
+                            throw new IOException(String.format("Evolvo: unknown record type %d in snapshot log %s", type, file));
+                    }
+                } catch (EOFException e) {
+                    // the last transaction was cut short
+                    break;
+                }
+            }
+            return contents;
+        } finally {
+            input.close();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void apply(final Contents contents, final List<Object[]> records) {
+        for (final Object[] record : records) {
+            switch ((Byte) record[0]) {
+                case NETWORK_ATTR:
+                    contents.networkAttrs.put((String) record[1], record[2]);
+                    break;
+                case NODE:
+                    contents.nodes.put((Long) record[1], (Map<String,Object>) record[2]);
+                    break;
+                case NODE_ATTR: {
+                    final Map<String,Object> attrs = contents.nodes.get((Long) record[1]);
+                    if (attrs != null)
+                        attrs.put((String) record[2], record[3]);
+                    break;
+                }
+                case EDGE:
+                    contents.edges.put(edgeKey((Long) record[1], (Long) record[2]), new Object[] {record[1], record[2], record[3], record[4]});
+                    break;
+                case EDGE_ATTR: {
+                    final Object[] edge = contents.edges.get(edgeKey((Long) record[1], (Long) record[2]));
+                    if (edge == null)
+                        break;
+                    final String[] header = (String[]) edge[2];
+                    final int i = Arrays.asList(header).indexOf(record[3]);
+                    if (i >= 0) {
+                        ((Object[]) edge[3])[i] = record[4];
+                    } else {
+                        final String[] newHeader = Arrays.copyOf(header, header.length + 1);
+                        final Object[] newValues = Arrays.copyOf((Object[]) edge[3], header.length + 1);
+                        newHeader[header.length] = (String) record[3];
+                        newValues[header.length] = record[4];
+                        edge[2] = newHeader;
+                        edge[3] = newValues;
+                    }
+                    break;
+                }
+                case EDGE_DELETED:
+                    contents.edges.remove(edgeKey((Long) record[1], (Long) record[2]));
+                    break;
+                case SHOW:
+                    for (final long suid : (long[]) record[1])
+                        contents.visible.add(suid);
+                    break;
+                case HIDE:
+                    for (final long suid : (long[]) record[1])
+                        contents.visible.remove(suid);
+                    break;
+                case DISCARD:
+                    for (final long suid : (long[]) record[1]) {
+                        contents.nodes.remove(suid);
+                        contents.visible.remove(suid);
+                    }
+                    break;
+                case PARENT_HIDDEN:
+                    for (final long suid : (long[]) record[1])
+                        contents.hiddenParents.add(suid);
+                    break;
+                case PARENT_SHOWN:
+                    for (final long suid : (long[]) record[1])
+                        contents.hiddenParents.remove(suid);
+                    break;
+                case EXPANSION_USED:
+                    for (final long suid : (long[]) record[1]) {
+                        contents.expansionOrder.remove(suid);
+                        contents.expansionOrder.add(suid);
+                    }
+                    break;
+                case EXPANSION_REMOVED:
+                    for (final long suid : (long[]) record[1])
+                        contents.expansionOrder.remove(suid);
+                    break;
+            }
+        }
+    }
+
+    // -------------------------------------------
+    // Restoring
+
+    private static boolean ensureColumn(final CyTable table, final String name, final Object value) {
+        final CyColumn column = table.getColumn(name);
+        if (column != null) {
+            if (value instanceof List)
+                return List.class.equals(column.getType());
+            return column.getType().equals(value.getClass());
+        }
+        if (value instanceof List) {
+            for (final Object element : (List<?>) value) {
+                if (element != null) {
+                    table.createListColumn(name, element.getClass(), false);
+                    return true;
+                }
+            }
+            return false; // can't tell the element type of an empty list
+        }
+        table.createColumn(name, value.getClass(), false);
+        return true;
+    }
+
+    private static void setAll(final CyTable table, final CyRow row, final String[] header, final Object[] values) {
+        for (int i = 0; i < header.length; i++)
+            if (values[i] != null && ensureColumn(table, header[i], values[i]))
+                row.set(header[i], values[i]);
+    }
+
+    /**
+     * Return the new SUIDs of the nodes with {@code oldSUIDs}, leaving out the ones that are gone.
+     */
+    private static List<Long> renumber(final Collection<Long> oldSUIDs, final LongObjectHashMap<CyNode> nodes) {
+        final List<Long> suids = new ArrayList<Long>(oldSUIDs.size());
+        for (final Long oldSUID : oldSUIDs) {
+            final CyNode node = nodes.get(oldSUID);
+            if (node != null)
+                suids.add(node.getSUID());
+        }
+        return suids;
+    }
+
+    /**
+     * Build a new network from the log in {@code file} and keep logging it to the same file.
+     * The network isn't registered with a network manager.
+     */
+    public static CyNetwork restore(final File file, final CyNetworkFactory netFactory, final CyEventHelper eventHelper) throws IOException {
+        final Contents contents = read(file);
+
+        final Object name = contents.networkAttrs.get(CyNetwork.NAME);
+        final CyNetwork net = netFactory.createNetwork();
+        net.getRow(net).set(CyNetwork.NAME, name != null ? name.toString() : String.format("Evolvo: %s", file.getName()));
+        final CySubNetwork subnet = (CySubNetwork) net;
+        final CyTable nettbl  = net.getDefaultNetworkTable();
+        final CyTable nodetbl = net.getDefaultNodeTable();
+        final CyTable edgetbl = net.getDefaultEdgeTable();
+        for (final String column : SUID_LIST_COLUMNS)
+            nettbl.createListColumn(column, Long.class, false, new ArrayList<Long>());
+
+        // every node goes into the subnetwork so that it gets its rows, then the hidden ones are taken out together
+        final LongObjectHashMap<CyNode> nodes = new LongObjectHashMap<CyNode>(contents.nodes.size());
+        for (final Long oldSUID : contents.nodes.keySet())
+            nodes.put(oldSUID, net.addNode());
+
+        final List<CyNode> hidden = new ArrayList<CyNode>();
+        for (final Map.Entry<Long,Map<String,Object>> entry : contents.nodes.entrySet()) {
+            final CyNode node = nodes.get(entry.getKey());
+            final CyRow row = nodetbl.getRow(node.getSUID());
+            for (final Map.Entry<String,Object> attr : entry.getValue().entrySet()) {
+                Object value = attr.getValue();
+                if (value == null)
+                    continue;
+                if (attr.getKey().equals(PARENT_COLUMN)) {
+                    final CyNode parent = nodes.get((Long) value);
+                    if (parent == null)
+                        continue;
+                    value = parent.getSUID();
+                }
+                if (ensureColumn(nodetbl, attr.getKey(), value))
+                    row.set(attr.getKey(), value);
+            }
+            if (!contents.visible.contains(entry.getKey()))
+                hidden.add(node);
+        }
+        subnet.removeNodes(hidden);
+
+        final CyRow netRow = nettbl.getRow(net.getSUID());
+        for (final Map.Entry<String,Object> attr : contents.networkAttrs.entrySet()) {
+            final Object value = attr.getValue();
+            if (value == null || attr.getKey().equals(CyNetwork.NAME) || Arrays.asList(SUID_LIST_COLUMNS).contains(attr.getKey()))
+                continue;
+            if (ensureColumn(nettbl, attr.getKey(), value))
+                netRow.set(attr.getKey(), value);
+        }
+        netRow.set(HIDDEN_PARENTS_COLUMN, renumber(contents.hiddenParents, nodes));
+        netRow.set(EXPANSION_ORDER_COLUMN, renumber(contents.expansionOrder, nodes));
+
+        final EdgeStore store = HiddenEdges.store(net);
+        for (final Object[] edge : contents.edges.values()) {
+            final CyNode src = nodes.get((Long) edge[0]);
+            final CyNode trg = nodes.get((Long) edge[1]);
+            if (src == null || trg == null)
+                continue;
+            final String[] header = (String[]) edge[2];
+            final Object[] values = (Object[]) edge[3];
+            if (net.containsNode(src) && net.containsNode(trg)) {
+                final CyEdge cyEdge = net.addEdge(src, trg, false);
+                setAll(edgetbl, edgetbl.getRow(cyEdge.getSUID()), header, values);
+            } else if (!store.contains(src.getSUID(), trg.getSUID())) {
+                store.add(src.getSUID(), trg.getSUID(), values, header);
+            }
+        }
+
+        if (MetaEdges.isEnabled(net)) {
+            final ModelTransaction tx = new ModelTransaction(net, eventHelper);
+            try {
+                final TypedColumn<Boolean> expanded = TypedColumn.lookup(nodetbl, "Evolvo-expanded", Boolean.class);
+                if (expanded != null)
+                    for (final long oldSUID : nodes.keys())
+                        if (expanded.get(nodes.get(oldSUID).getSUID(), false))
+                            MetaEdges.update(tx, nodes.get(oldSUID));
+            } finally {
+                tx.commit();
+            }
+        }
+
+        start(net, file);
+        eventHelper.flushPayloadEvents();
+        return net;
+    }
+}
@@ -0,0 +1,212 @@
+package EvolvoApp.internal;
+
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.cytoscape.model.CyEdge;
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyNode;
+import org.cytoscape.model.subnetwork.CyRootNetwork;
+import org.cytoscape.model.subnetwork.CySubNetwork;
+
+import EvolvoApp.internal.json.InvalidJsonException;
+import EvolvoApp.internal.json.JsonNetworkReader;
+
+import static EvolvoApp.internal.Attr.*;
+
+/**
+ * Records what one Evolvo operation did and how long each of its phases
+ * took, and logs it as one line to the "EvolvoApp.trace" logger at debug
+ * level when the operation ends:
+ * <blockquote><pre>
+ * expand a (REPLACE): 12 rows, +10 nodes (2 found), 5 edges created, 3 skipped, 2048 bytes;
+ *     request 12.1 ms, parse 3.2 ms, commit 0.4 ms, events 0.1 ms, total 15.9 ms
+ * </pre></blockquote>
+ *
+ * <p>
+ * Nodes are counted by how much the root network grew, so a node row that
+ * didn't add one was found among the nodes already there. An edge is created
+ * if it became a {@code CyEdge}, and skipped if it went into the
+ * {@link EdgeStore} or was dropped.
+ * </p>
+ *
+ * <p>
+ * With that logger's debug level off, {@link #start} hands out a trace that
+ * ignores everything, so tracing costs one check per operation. Each thread
+ * keeps its current trace, so code deep inside an operation adds to it with
+ * {@link #current} rather than having it passed along:
+ * <blockquote><pre>
+ * final Trace trace = Trace.start("expand", net, node);
+ * try {
+ *     ...
+ *     Trace.current().phase("request");
+ *     ...
+ * } finally {
+ *     trace.end();
+ * }
+ * </pre></blockquote>
+ * </p>
+ */
+class Trace {
+    static final Logger logger = LoggerFactory.getLogger("EvolvoApp.trace");
+
+    private static final Trace OFF = new Trace(null, null);
+    private static final ThreadLocal<Trace> traces = new ThreadLocal<Trace>();
+
+    /** Trace even with the logger's debug level off, for tests */
+    static volatile boolean always = false;
+
+    final String operation;
+    final String target;
+    final long start = System.nanoTime();
+    long phaseStart = start;
+    final StringBuilder phases = new StringBuilder();
+    Trace previous = null;
+
+    String action = null;
+    CyRootNetwork rootnet = null;
+    int rootNodesBefore = 0;
+    long nodeRows = 0L;
+    long edgeRows = 0L;
+    long edgesCreated = 0L;
+    long bytes = 0L;
+
+    private Trace(final String operation, final String target) {
+        this.operation = operation;
+        this.target = target;
+    }
+
+    private static boolean enabled() {
+        return always || logger.isDebugEnabled();
+    }
+
+    public static Trace start(final String operation, final String target) {
+        if (!enabled())
+            return OFF;
+        final Trace trace = new Trace(operation, target);
+        trace.previous = traces.get();
+        traces.set(trace);
+        return trace;
+    }
+
+    public static Trace start(final String operation, final CyNetwork net, final String target) {
+        final Trace trace = start(operation, target);
+        trace.network(net);
+        return trace;
+    }
+
+    /**
+     * Start a trace whose target is {@code node}'s key.
+     */
+    public static Trace start(final String operation, final CyNetwork net, final CyNode node) {
+        if (!enabled())
+            return OFF;
+        final Object key = net.getRow(node).getRaw(Attr(net, "Evolvo-node-column").Str());
+        return start(operation, net, (key == null) ? null : key.toString());
+    }
+
+    /**
+     * Return the trace of the operation running on this thread, or one that ignores everything.
+     */
+    public static Trace current() {
+        final Trace trace = traces.get();
+        return (trace == null) ? OFF : trace;
+    }
+
+    /**
+     * Count nodes from here on against {@code net}, which may have just been created.
+     */
+    public void network(final CyNetwork net) {
+        if (this == OFF)
+            return;
+        action = Attr(net, "Evolvo-action").Str();
+        rootnet = ((CySubNetwork) net).getRootNetwork();
+        rootNodesBefore = rootnet.getNodeCount();
+    }
+
+    /**
+     * End the phase called {@code name}, which started when the last one ended.
+     */
+    public void phase(final String name) {
+        if (this == OFF)
+            return;
+        final long now = System.nanoTime();
+        phases.append(String.format("%s %.1f ms, ", name, (now - phaseStart) / 1e6));
+        phaseStart = now;
+    }
+
+    public void bytes(final long n) {
+        if (this == OFF)
+            return;
+        bytes += n;
+    }
+
+    /**
+     * Return {@code factory}, counting the node rows it's given.
+     */
+    public JsonNetworkReader.NodeFactory nodes(final JsonNetworkReader.NodeFactory factory) {
+        if (this == OFF)
+            return factory;
+        return new JsonNetworkReader.NodeFactory() {
+            public void header(String[] cols) throws InvalidJsonException {
+                factory.header(cols);
+            }
+
+            public CyNode create(Object[] row, Class[] types) throws InvalidJsonException {
+                nodeRows++;
+                return factory.create(row, types);
+            }
+        };
+    }
+
+    /**
+     * Return {@code factory}, counting the edge rows it's given and the edges it creates.
+     */
+    public JsonNetworkReader.EdgeFactory edges(final JsonNetworkReader.EdgeFactory factory) {
+        if (this == OFF)
+            return factory;
+        return new JsonNetworkReader.EdgeFactory() {
+            public void nodes(List<CyNode> nodes) {
+                factory.nodes(nodes);
+            }
+
+            public void header(String[] cols) throws InvalidJsonException {
+                factory.header(cols);
+            }
+
+            public CyEdge create(Object[] row, Class[] types) throws InvalidJsonException {
+                edgeRows++;
+                final CyEdge edge = factory.create(row, types);
+                if (edge != null)
+                    edgesCreated++;
+                return edge;
+            }
+        };
+    }
+
+    /**
+     * Log the trace and make the one it interrupted current again.
+     */
+    public void end() {
+        if (this == OFF)
+            return;
+        if (previous == null)
+            traces.remove();
+        else
+            traces.set(previous);
+        logger.debug(summary());
+    }
+
+    String summary() {
+        final int nodes = (rootnet == null) ? 0 : rootnet.getNodeCount() - rootNodesBefore;
+        final long found = Math.max(0L, nodeRows - Math.max(nodes, 0));
+        return String.format("%s%s%s: %d rows, %+d nodes (%d found), %d edges created, %d skipped, %d bytes; %stotal %.1f ms",
+                operation,
+                (target == null) ? "" : " " + target,
+                (action == null) ? "" : " (" + action + ")",
+                nodeRows + edgeRows, nodes, found, edgesCreated, edgeRows - edgesCreated, bytes,
+                phases, (System.nanoTime() - start) / 1e6);
+    }
+}
@@ -0,0 +1,128 @@
+package EvolvoApp.internal;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.cytoscape.model.CyTable;
+import org.cytoscape.model.CyColumn;
+
+/**
+ * A handle on one column of a table with a fixed type.
+ *
+ * <p>
+ * Unlike {@link Attr}, which builds a new object and checks the column on every
+ * call, a {@code TypedColumn} checks the column once when it is bound, and its
+ * getters and setters allocate nothing of their own. Use it where attributes are
+ * read or written in a loop or on every menu refresh.
+ * </p>
+ *
+ * <p>
+ * Get whether a node is expanded, with a default value.
+ * <blockquote>
+ *   {@code TypedColumn.bind(nodeTable, "Evolvo-expanded", Boolean.class).get(node.getSUID(), false)}
+ * </blockquote>
+ * </p>
+ *
+ * <p>
+ * Handles are cached per table and column, but {@code bind} and {@code lookup}
+ * still check the table on every call, so don't call them per node or edge; keep
+ * the handle, or get it from {@link EvolvoColumns}. A handle should not be used
+ * after its column is deleted. SUIDs are taken as {@code Long}, as
+ * {@code getSUID()} returns them, so they go to the table without being boxed again.
+ * </p>
+ */
+public class TypedColumn<T> {
+    private static final Map<CyTable,Map<String,TypedColumn<?>>> cache = Collections.synchronizedMap(new WeakHashMap<CyTable,Map<String,TypedColumn<?>>>());
+
+    final CyTable  table;
+    final String   name;
+    final Class<T> type;
+
+    private TypedColumn(final CyTable table, final String name, final Class<T> type) {
+        this.table = table;
+        this.name = name;
+        this.type = type;
+    }
+
+    /**
+     * Return a handle on {@code name} in {@code table}, creating the column if it doesn't exist.
+     * @throws IllegalArgumentException if the column exists with a different type
+     */
+    public static <T> TypedColumn<T> bind(final CyTable table, final String name, final Class<T> type) {
+        final TypedColumn<T> column = lookup(table, name, type);
+        if (column != null)
+            return column;
+        table.createColumn(name, type, false);
+        return lookup(table, name, type);
+    }
+
+    /**
+     * Return a handle on {@code name} in {@code table}, or null if the column doesn't exist.
+     * @throws IllegalArgumentException if the column exists with a different type
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> TypedColumn<T> lookup(final CyTable table, final String name, final Class<T> type) {
+        synchronized (cache) {
+            Map<String,TypedColumn<?>> columns = cache.get(table);
+            if (columns == null) {
+                columns = new HashMap<String,TypedColumn<?>>();
+                cache.put(table, columns);
+            }
+            TypedColumn<?> column = columns.get(name);
+            if (column == null || table.getColumn(name) == null) {
+                final CyColumn cyColumn = table.getColumn(name);
+                if (cyColumn == null) {
+                    columns.remove(name);
+                    return null;
+                }
+                column = create(table, name, cyColumn.getType());
+                columns.put(name, column);
+            }
+            if (!column.type.equals(type))
+                throw new IllegalArgumentException(String.format("Column '%s' has type %s, not %s", name, column.type, type));
+            return (TypedColumn<T>) column;
+        }
+    }
+
+    private static <U> TypedColumn<U> create(final CyTable table, final String name, final Class<U> type) {
+        return new TypedColumn<U>(table, name, type);
+    }
+
+    public CyTable table() {
+        return table;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public Class<T> type() {
+        return type;
+    }
+
+    public T get(final Long suid) {
+        return table.getRow(suid).get(name, type);
+    }
+
+    /**
+     * Return the value for {@code suid}, or {@code defaultValue} if it isn't set.
+     */
+    public T get(final Long suid, final T defaultValue) {
+        final T value = table.getRow(suid).get(name, type);
+        return value != null ? value : defaultValue;
+    }
+
+    public void set(final Long suid, final T value) {
+        table.getRow(suid).set(name, value);
+    }
+
+    /**
+     * Set the same value for every row in {@code suids}.
+     */
+    public void setAll(final long[] suids, final T value) {
+        for (final long suid : suids)
+            table.getRow(suid).set(name, value);
+    }
+}
@@ -0,0 +1,22 @@
+package EvolvoApp.internal.json;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The {@link StringDictionary} of each column, by name. Keeping one of these
+ * for as long as a network lives makes every response read into the network
+ * share its strings, not just the rows of one response.
+ */
+public class ColumnDictionaries {
+    private final Map<String,StringDictionary> columns = new HashMap<String,StringDictionary>();
+
+    public synchronized StringDictionary column(final String name) {
+        StringDictionary dictionary = columns.get(name);
+        if (dictionary == null) {
+            dictionary = new StringDictionary();
+            columns.put(name, dictionary);
+        }
+        return dictionary;
+    }
+}
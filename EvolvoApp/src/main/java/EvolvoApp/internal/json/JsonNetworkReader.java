@@ -10,6 +10,7 @@ import java.io.IOException;
 
 import org.cytoscape.model.CyTable;
 import org.cytoscape.model.CyColumn;
+import org.cytoscape.model.CyRow;
 import org.cytoscape.model.CyNode;
 import org.cytoscape.model.CyEdge;
 import org.cytoscape.model.CyNetwork;
@@ -22,6 +23,9 @@ import org.codehaus.jackson.JsonParseException;
 import EvolvoApp.internal.Utils;
 
 public class JsonNetworkReader {
+    /** The source and target columns of edges are node indices, which are always read as ints */
+    static final Class[] EDGE_ENDPOINT_TYPES = {Integer.class, Integer.class};
+
     public static interface NodeFactory {
         public void header(String[] cols) throws InvalidJsonException;
         public CyNode create(Object[] row, Class[] types) throws InvalidJsonException;
@@ -60,7 +64,10 @@ public class JsonNetworkReader {
         }
 
         public CyNode create(Object[] row, Class[] types) throws InvalidJsonException {
-            CyNode node = Utils.getNodeWithValue(net, nodeTable, nodeCol, row[attrIndex]);
+            final CyColumn column = nodeTable.getColumn(nodeCol);
+            final Object key = (column == null) ? row[attrIndex] : convert(row[attrIndex], column.getType());
+            // a key too big for the column can't belong to any node in it yet
+            CyNode node = (key instanceof Long && Integer.class.equals(column.getType())) ? null : Utils.getNodeWithValue(net, nodeTable, nodeCol, key);
             if (node == null) {
                 node = nodeFactory.create(row, types);
             }
@@ -68,6 +75,62 @@ public class JsonNetworkReader {
         }
     }
 
+    /**
+     * Return {@code value} as a {@code type}, if it's a whole number and {@code type}
+     * is the other whole number type, or else {@code value} itself. Whether a
+     * column holds Integers or Longs depends on the values it was created with,
+     * so later values are converted to whichever it holds. A Long too big for
+     * an Integer column is returned as it is; see {@link #widen}.
+     */
+    static Object convert(final Object value, final Class type) {
+        if (value instanceof Long && Integer.class.equals(type)) {
+            final long longValue = ((Long) value).longValue();
+            if (longValue < Integer.MIN_VALUE || longValue > Integer.MAX_VALUE)
+                return value;
+            return Integer.valueOf((int) longValue);
+        } else if (value instanceof Integer && Long.class.equals(type)) {
+            return Long.valueOf(((Integer) value).longValue());
+        }
+        return value;
+    }
+
+    /**
+     * Return {@code value} converted to the type of {@code column} in {@code table},
+     * first widening the column to Longs if it holds Integers and {@code value}
+     * doesn't fit in one.
+     */
+    public static Object fit(final CyTable table, final String column, final Object value) {
+        final CyColumn cyColumn = table.getColumn(column);
+        if (cyColumn == null)
+            return value;
+        final Object converted = convert(value, cyColumn.getType());
+        if (converted instanceof Long && Integer.class.equals(cyColumn.getType()))
+            widen(table, column);
+        return converted;
+    }
+
+    /**
+     * Replace the Integer column {@code column} in {@code table} with a Long column
+     * holding the same values.
+     */
+    static void widen(final CyTable table, final String column) {
+        final String key = table.getPrimaryKey().getName();
+        final Class keyType = table.getPrimaryKey().getType();
+        final List<Object> keys = new ArrayList<Object>();
+        final List<Long> values = new ArrayList<Long>();
+        for (final CyRow row : table.getAllRows()) {
+            final Integer value = row.get(column, Integer.class);
+            if (value == null)
+                continue;
+            keys.add(row.get(key, keyType));
+            values.add(Long.valueOf(value.longValue()));
+        }
+        table.deleteColumn(column);
+        table.createColumn(column, Long.class, false);
+        for (int i = 0; i < keys.size(); i++)
+            table.getRow(keys.get(i)).set(column, values.get(i));
+    }
+
     private static <T> int findInArray(final T[] array, final T value) {
         for (int col = 0; col < array.length; col++)
             if (value.equals(array[col]))
@@ -78,6 +141,12 @@ public class JsonNetworkReader {
     public static interface EdgeFactory {
         public void nodes(List<CyNode> nodes);
         public void header(String[] cols) throws InvalidJsonException;
+
+        /**
+         * Return the edge for the given row, or null if the edge
+         * is kept somewhere other than the network. Attributes are only
+         * assigned to edges that are returned.
+         */
         public CyEdge create(Object[] row, Class[] types) throws InvalidJsonException;
     }
 
@@ -104,24 +173,28 @@ public class JsonNetworkReader {
         }
 
         boolean typesChecked = false;
-        public CyEdge create(Object[] row, Class[] types) throws InvalidJsonException {
+
+        /**
+         * Return the source ({@code col} is 0) or target ({@code col} is 1) node of the edge in {@code row}.
+         */
+        protected CyNode endpoint(Object[] row, Class[] types, int col) throws InvalidJsonException {
             if (!typesChecked) {
-                if (!Long.class.equals(types[0]))
-                    throw new InvalidJsonException("First column of edges must be a whole number but is a %s", types[0]);
-                if (!Long.class.equals(types[1]))
-                    throw new InvalidJsonException("Second column of edges must be a whole number but is a %s", types[1]);
+                if (!Integer.class.equals(types[0]))
+                    throw new InvalidJsonException("First column of edges must be a 32-bit whole number but is a %s", types[0]);
+                if (!Integer.class.equals(types[1]))
+                    throw new InvalidJsonException("Second column of edges must be a 32-bit whole number but is a %s", types[1]);
                 typesChecked = true;
             }
 
-            final int srcIndex = ((Number) row[0]).intValue();
-            if (!(0 <= srcIndex && srcIndex < nodes.size()))
-                throw new InvalidJsonException("Invalid node index specified: %d, must be between 0 and %d", srcIndex, nodes.size());
-            final int trgIndex = ((Number) row[1]).intValue();
-            if (!(0 <= trgIndex && trgIndex < nodes.size()))
-                throw new InvalidJsonException("Invalid node index specified: %d, must be between 0 and %d", trgIndex, nodes.size());
+            final int index = ((Integer) row[col]).intValue();
+            if (!(0 <= index && index < nodes.size()))
+                throw new InvalidJsonException("Invalid node index specified: %d, must be between 0 and %d", index, nodes.size());
+            return nodes.get(index);
+        }
 
-            final CyNode src = nodes.get(srcIndex);
-            final CyNode trg = nodes.get(trgIndex);
+        public CyEdge create(Object[] row, Class[] types) throws InvalidJsonException {
+            final CyNode src = endpoint(row, types, 0);
+            final CyNode trg = endpoint(row, types, 1);
 
             if (duplicateEdges || !net.containsEdge(src, trg)) {
                 return net.addEdge(src, trg, directedEdges);
@@ -137,26 +210,46 @@ public class JsonNetworkReader {
         public void row(T netObj, Object[] row, Class[] types) throws InvalidJsonException;
     }
 
+    /**
+     * Writes the columns of each row into a table, creating columns as they first appear.
+     * If {@code columns} is given, columns that aren't in it are skipped.
+     */
     public static class BasicAttrHandler<T extends CyIdentifiable> implements AttrHandler<T> {
         final CyTable table;
         final int startIndex;
+        final Set<String> columns;
 
         public BasicAttrHandler(final CyTable table, final int startIndex) {
+            this(table, startIndex, null);
+        }
+
+        /**
+         * @param columns The columns to keep, or null for all of them
+         */
+        public BasicAttrHandler(final CyTable table, final int startIndex, final Set<String> columns) {
             this.table = table;
             this.startIndex = startIndex;
+            this.columns = columns;
         }
 
         String[] colNames = null;
         boolean[] colChecked = null;
+        boolean[] colSkipped = null;
+        Class[] colTypes = null;
         public void header(String[] cols) {
             this.colNames = cols;
             this.colChecked = new boolean[cols.length];
+            this.colSkipped = new boolean[cols.length];
+            this.colTypes = new Class[cols.length];
+            if (columns != null)
+                for (int col = 0; col < cols.length; col++)
+                    colSkipped[col] = !columns.contains(cols[col]);
         }
 
         public void row(T netObj, Object[] row, Class[] types) throws InvalidJsonException {
             for (int col = startIndex; col < row.length; col++) {
                 final Object elem = row[col];
-                if (elem == null) continue;
+                if (elem == null || colSkipped[col]) continue;
                 final String colName = colNames[col];
                 final Class type = types[col];
 
@@ -164,29 +257,52 @@ public class JsonNetworkReader {
                     final CyColumn cyCol = table.getColumn(colName);
                     if (cyCol == null) {
                         table.createColumn(colName, type, false);
+                        colTypes[col] = type;
                     } else {
                         final Class expectedType = cyCol.getType();
-                        if (!expectedType.equals(type))
+                        if (!expectedType.equals(type) && !(isWholeNumber(expectedType) && isWholeNumber(type)))
                             throw new InvalidJsonException("type mismatch: attempting to insert value '%s' of type '%s' into column '%s' with type '%s'", elem, type, colName, expectedType);
+                        colTypes[col] = expectedType;
                     }
                     colChecked[col] = true;
                 }
 
-                table.getRow(netObj.getSUID()).set(colName, type.cast(elem));
+                final Object value = convert(elem, colTypes[col]);
+                if (value instanceof Long && Integer.class.equals(colTypes[col])) {
+                    widen(table, colName);
+                    colTypes[col] = Long.class;
+                }
+                set(table.getRow(netObj.getSUID()), colName, value);
             }
         }
+
+        protected void set(final CyRow row, final String column, final Object value) {
+            row.set(column, value);
+        }
+    }
+
+    private static boolean isWholeNumber(final Class type) {
+        return Integer.class.equals(type) || Long.class.equals(type);
     }
 
     public static class NodeAttrHandler extends BasicAttrHandler<CyNode> {
         public NodeAttrHandler(final CyNetwork net) {
             super(net.getDefaultNodeTable(), 0);
         }
+
+        public NodeAttrHandler(final CyNetwork net, final Set<String> columns) {
+            super(net.getDefaultNodeTable(), 0, columns);
+        }
     }
 
     public static class EdgeAttrHandler extends BasicAttrHandler<CyEdge> {
         public EdgeAttrHandler(final CyNetwork net) {
             super(net.getDefaultEdgeTable(), 2);
         }
+
+        public EdgeAttrHandler(final CyNetwork net, final Set<String> columns) {
+            super(net.getDefaultEdgeTable(), 2, columns);
+        }
     }
 
     public static class NetworkAttrHandler extends BasicAttrHandler<CyNetwork> {
@@ -239,6 +355,23 @@ public class JsonNetworkReader {
             final AttrHandler<CyNetwork>    netAttrHandler)
         throws InvalidJsonException, JsonParseException, IOException {
 
+        read(p, net, nodeFactory, nodeAttrHandler, edgeFactory, edgeAttrHandler, netAttrHandler, new ColumnDictionaries());
+    }
+
+    /**
+     * @param dictionaries Where to intern string values; see {@link ColumnDictionaries}
+     */
+    public static void read(
+            final JsonParser                p,
+            final CyNetwork                 net,
+            final NodeFactory               nodeFactory,
+            final AttrHandler<CyNode>       nodeAttrHandler,
+            final EdgeFactory               edgeFactory,
+            final AttrHandler<CyEdge>       edgeAttrHandler,
+            final AttrHandler<CyNetwork>    netAttrHandler,
+            final ColumnDictionaries        dictionaries)
+        throws InvalidJsonException, JsonParseException, IOException {
+
         JsonToken t = p.nextToken(); // start of network array
         if (t == null)
             return; // we got an empty json input, so just exit
@@ -259,7 +392,7 @@ public class JsonNetworkReader {
             }
 
             public void done() {}
-        });
+        }, dictionaries);
 
         edgeFactory.nodes(nodes);
         JsonTableReader.read(p, new JsonTableReader.Delegate() {
@@ -270,11 +403,12 @@ public class JsonNetworkReader {
 
             public void row(Object[] elems, Class[] types) throws InvalidJsonException {
                 final CyEdge edge = edgeFactory.create(elems, types);
-                edgeAttrHandler.row(edge, elems, types);
+                if (edge != null)
+                    edgeAttrHandler.row(edge, elems, types);
             }
 
             public void done() {}
-        });
+        }, dictionaries, EDGE_ENDPOINT_TYPES);
         
         JsonTableReader.read(p, new JsonTableReader.Delegate() {
             public void header(String[] cols) throws InvalidJsonException {
@@ -286,7 +420,7 @@ public class JsonNetworkReader {
             }
 
             public void done() {}
-        });
+        }, dictionaries);
 
         t = p.nextToken(); // end of network array
         if (t == null)
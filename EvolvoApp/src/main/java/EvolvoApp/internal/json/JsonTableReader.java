@@ -18,6 +18,21 @@ import org.codehaus.jackson.JsonParseException;
  * Reads a table specified in JSON.
  * This is completely independent of {@code CyTable}s and
  * should not be confused with it.
+ *
+ * <p>
+ * String values are interned through each column's {@link StringDictionary},
+ * so equal values share one instance. A header element can also be an object
+ * that gives the column a dictionary, in which case the column's values are
+ * indices into it, or a type (see README.md).
+ * </p>
+ *
+ * <p>
+ * Whole numbers are read as {@code Long}s, unless the header declares the
+ * column's type as "integer" or the caller gives it as {@code Integer}, in
+ * which case they are read as {@code Integer}s and one that doesn't fit is
+ * an error. Only a declared column is narrowed, since a column whose type
+ * isn't given may hold larger numbers further on or in a later response.
+ * </p>
  */
 class JsonTableReader {
     public static interface Delegate {
@@ -26,7 +41,35 @@ class JsonTableReader {
         public void done() throws InvalidJsonException;
     }
 
+    private static class Column {
+        final String name;
+        /** The column's dictionary if it's dictionary-encoded, or null */
+        final String[] encoding;
+        /** The type given in the header or by the caller, or null */
+        final Class declared;
+        StringDictionary interned = null;
+        /** Whether whole numbers are read as Integers */
+        boolean narrow = false;
+
+        Column(final String name, final String[] encoding, final Class declared) {
+            this.name = name;
+            this.encoding = encoding;
+            this.declared = declared;
+        }
+    }
+
     public static void read(final JsonParser p, final Delegate delegate) throws IOException, JsonParseException, InvalidJsonException {
+        read(p, delegate, new ColumnDictionaries());
+    }
+
+    public static void read(final JsonParser p, final Delegate delegate, final ColumnDictionaries dictionaries) throws IOException, JsonParseException, InvalidJsonException {
+        read(p, delegate, dictionaries, new Class[0]);
+    }
+
+    /**
+     * @param defaultTypes The types of the first few columns, where the header doesn't give one
+     */
+    public static void read(final JsonParser p, final Delegate delegate, final ColumnDictionaries dictionaries, final Class[] defaultTypes) throws IOException, JsonParseException, InvalidJsonException {
         JsonToken t = null;
 
         t = p.nextToken(); // start of table
@@ -44,25 +87,41 @@ class JsonTableReader {
             throw new InvalidJsonException("first element in table must be the header array");
 
         // we're in the header, so loop thru each header element
-        final List<String> columnNamesList = new ArrayList<String>();
+        final List<Column> columnsList = new ArrayList<Column>();
         while (true) {
             t = p.nextToken(); // get an element from the header array
             if (t == null)
                 throw new InvalidJsonException("unexpected end of output");
             else if (t.equals(JsonToken.END_ARRAY))
                 break;
+            final Class defaultType = (columnsList.size() < defaultTypes.length) ? defaultTypes[columnsList.size()] : null;
+            if (t.equals(JsonToken.START_OBJECT))
+                columnsList.add(readColumnObject(p, dictionaries, defaultType));
             else if (!t.equals(JsonToken.VALUE_STRING))
-                throw new InvalidJsonException("header array can only contain strings");
-            columnNamesList.add(p.getText());
+                throw new InvalidJsonException("header array can only contain strings and column objects");
+            else
+                columnsList.add(new Column(p.getText(), null, defaultType));
         }
-        if (columnNamesList.size() == 0) // empty header, so just exit
+        if (columnsList.size() == 0) // empty header, so just exit
             return;
 
-        final String[] cols = columnNamesList.toArray(new String[columnNamesList.size()]);
+        final Column[] columns = columnsList.toArray(new Column[columnsList.size()]);
+        final String[] cols = new String[columns.length];
+        final Class[]  types = new Class[columns.length];
+        for (int col = 0; col < columns.length; col++) {
+            final Column column = columns[col];
+            cols[col] = column.name;
+            column.interned = dictionaries.column(column.name);
+            if (column.encoding != null) {
+                types[col] = String.class;
+            } else if (column.declared != null) {
+                types[col] = column.declared;
+                column.narrow = Integer.class.equals(column.declared);
+            }
+        }
         delegate.header(cols);
 
         final Object[] elems = new Object[cols.length];
-        final Class[]  types = new Class[cols.length];
 
         // loop thru each row
         while (true) {
@@ -86,7 +145,11 @@ class JsonTableReader {
                 if (elemIndex >= elems.length)
                     throw new InvalidJsonException("row has more than %d elements", elems.length);
 
-                extractElem(p, t, elems, types, elemIndex);
+                final Column column = columns[elemIndex];
+                if (column.encoding != null)
+                    extractEncodedElem(p, t, elems, elemIndex, column.encoding);
+                else
+                    extractElem(p, t, elems, types, elemIndex, column);
 
                 elemIndex++;
             }
@@ -95,11 +158,80 @@ class JsonTableReader {
 
             delegate.row(elems, types);
         }
-
         delegate.done();
     }
 
-    private static void extractElem(final JsonParser p, final JsonToken t, final Object[] elems, final Class[] types, final int elemIndex) throws IOException, InvalidJsonException {
+    /**
+     * Read a header object of the form {@code {"name": ..., "dictionary": [...], "type": ...}},
+     * where the dictionary and type are optional. The dictionary's strings are
+     * interned like any other of the column's values.
+     */
+    private static Column readColumnObject(final JsonParser p, final ColumnDictionaries dictionaries, final Class defaultType) throws IOException, InvalidJsonException {
+        String name = null;
+        List<String> values = null;
+        Class declared = null;
+        JsonToken t;
+        while ((t = p.nextToken()) == JsonToken.FIELD_NAME) {
+            final String field = p.getCurrentName();
+            t = p.nextToken();
+            if (field.equals("name") && t == JsonToken.VALUE_STRING) {
+                name = p.getText();
+            } else if (field.equals("dictionary") && t == JsonToken.START_ARRAY) {
+                values = new ArrayList<String>();
+                while ((t = p.nextToken()) == JsonToken.VALUE_STRING)
+                    values.add(p.getText());
+                if (t != JsonToken.END_ARRAY)
+                    throw new InvalidJsonException("a column's dictionary can only contain strings");
+            } else if (field.equals("type") && t == JsonToken.VALUE_STRING) {
+                declared = typeNamed(p.getText());
+            } else {
+                throw new InvalidJsonException("header objects can only have a \"name\" string, a \"dictionary\" array and a \"type\" string, not '%s'", field);
+            }
+        }
+        if (t == null)
+            throw new InvalidJsonException("unexpected end of output");
+        if (name == null)
+            throw new InvalidJsonException("header object has no \"name\"");
+        if (values == null)
+            return new Column(name, null, (declared != null) ? declared : defaultType);
+        if (declared != null && !String.class.equals(declared))
+            throw new InvalidJsonException("column '%s' has a dictionary, so it can only be of type \"string\"", name);
+
+        final StringDictionary dictionary = dictionaries.column(name);
+        final String[] encoding = new String[values.size()];
+        for (int i = 0; i < encoding.length; i++)
+            encoding[i] = dictionary.intern(values.get(i));
+        return new Column(name, encoding, String.class);
+    }
+
+    private static Class typeNamed(final String name) throws InvalidJsonException {
+        if (name.equals("boolean"))
+            return Boolean.class;
+        else if (name.equals("integer"))
+            return Integer.class;
+        else if (name.equals("long"))
+            return Long.class;
+        else if (name.equals("double"))
+            return Double.class;
+        else if (name.equals("string"))
+            return String.class;
+        throw new InvalidJsonException("unknown column type '%s'; must be one of boolean, integer, long, double and string", name);
+    }
+
+    private static void extractEncodedElem(final JsonParser p, final JsonToken t, final Object[] elems, final int elemIndex, final String[] encoding) throws IOException, InvalidJsonException {
+        if (t.equals(JsonToken.VALUE_NULL)) {
+            elems[elemIndex] = null;
+            return;
+        } else if (!t.equals(JsonToken.VALUE_NUMBER_INT)) {
+            throw new InvalidJsonException("values of a dictionary column must be whole numbers");
+        }
+        final long index = p.getLongValue();
+        if (!(0 <= index && index < encoding.length))
+            throw new InvalidJsonException("Invalid dictionary index specified: %d, must be between 0 and %d", index, encoding.length);
+        elems[elemIndex] = encoding[(int) index];
+    }
+
+    private static void extractElem(final JsonParser p, final JsonToken t, final Object[] elems, final Class[] types, final int elemIndex, final Column column) throws IOException, InvalidJsonException {
         Object elem;
         Class type;
         if (t.equals(JsonToken.VALUE_NULL)) {
@@ -112,13 +244,24 @@ class JsonTableReader {
             elem = Boolean.FALSE;
             type = Boolean.class;
         } else if (t.equals(JsonToken.VALUE_STRING)) {
-            elem = p.getText();
+            elem = column.interned.intern(p.getTextCharacters(), p.getTextOffset(), p.getTextLength());
             type = String.class;
+        } else if (t.equals(JsonToken.VALUE_NUMBER_INT) && Double.class.equals(column.declared)) {
+            elem = Double.valueOf(p.getDoubleValue());
+            type = Double.class;
         } else if (t.equals(JsonToken.VALUE_NUMBER_INT)) {
-            elem = new Long(p.getLongValue());
-            type = Long.class;
+            final long value = p.getLongValue();
+            if (column.narrow) {
+                if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+                    throw new InvalidJsonException("whole number %d doesn't fit in column '%s', which is declared to hold 32-bit integers", value, column.name);
+                elem = Integer.valueOf((int) value);
+                type = Integer.class;
+            } else {
+                elem = Long.valueOf(value);
+                type = Long.class;
+            }
         } else if (t.equals(JsonToken.VALUE_NUMBER_FLOAT)) {
-            elem = new Double(p.getDoubleValue());
+            elem = Double.valueOf(p.getDoubleValue());
             type = Double.class;
         } else {
             throw new InvalidJsonException("row elements can only be these primitives: null, booleans, strings, and numbers");
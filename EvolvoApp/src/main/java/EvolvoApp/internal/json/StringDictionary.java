@@ -0,0 +1,90 @@
+package EvolvoApp.internal.json;
+
+/**
+ * Hands out one {@code String} instance for each distinct value of a column,
+ * so a value that repeats across millions of rows is only kept once.
+ *
+ * <p>
+ * Values are looked up by the parser's characters, so a value that is already
+ * in the dictionary costs no allocation at all. A column with more than
+ * {@link #MAX_SIZE} distinct values, like a column of node keys, isn't worth
+ * the table: the dictionary then drops it and makes a new string for each value.
+ * </p>
+ */
+public class StringDictionary {
+    /** Most distinct values a column can have before it stops being interned */
+    public static final int MAX_SIZE = 4096;
+
+    private String[] table = new String[16];
+    private int size = 0;
+
+    /**
+     * Return true if the column had too many distinct values and is no longer interned.
+     */
+    public synchronized boolean overflowed() {
+        return table == null;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public String intern(final String string) {
+        return intern(string.toCharArray(), 0, string.length());
+    }
+
+    /**
+     * Return the string with the given characters that's in the dictionary,
+     * adding it if there isn't one.
+     */
+    public synchronized String intern(final char[] chars, final int offset, final int length) {
+        if (table == null)
+            return new String(chars, offset, length);
+
+        // the same hash as String.hashCode(), which strings cache
+        int hash = 0;
+        for (int i = offset; i < offset + length; i++)
+            hash = 31 * hash + chars[i];
+
+        final int mask = table.length - 1;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        for (String existing; (existing = table[slot]) != null; slot = (slot + 1) & mask)
+            if (existing.hashCode() == hash && matches(existing, chars, offset, length))
+                return existing;
+
+        final String string = new String(chars, offset, length);
+        if (size == MAX_SIZE) {
+            table = null;
+            return string;
+        }
+        table[slot] = string;
+        size++;
+        if (size * 2 > table.length)
+            grow();
+        return string;
+    }
+
+    private static boolean matches(final String string, final char[] chars, final int offset, final int length) {
+        if (string.length() != length)
+            return false;
+        for (int i = 0; i < length; i++)
+            if (string.charAt(i) != chars[offset + i])
+                return false;
+        return true;
+    }
+
+    private void grow() {
+        final String[] old = table;
+        table = new String[old.length * 2];
+        final int mask = table.length - 1;
+        for (final String string : old) {
+            if (string == null)
+                continue;
+            final int hash = string.hashCode();
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            while (table[slot] != null)
+                slot = (slot + 1) & mask;
+            table[slot] = string;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package EvolvoApp.internal.prim;
+
+import java.util.Arrays;
+
+/**
+ * A hash map from {@code long} keys to {@code int} values that
+ * does not box its keys or values.
+ * This uses open addressing with linear probing.
+ */
+public class LongIntHashMap {
+    static final int MIN_CAPACITY = 16;
+
+    long[]    keys;
+    int[]     values;
+    boolean[] used;
+    int       size = 0;
+
+    public LongIntHashMap() {
+        this(MIN_CAPACITY);
+    }
+
+    public LongIntHashMap(final int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    private static int capacityFor(final int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * 3 / 4 < expectedSize)
+            capacity <<= 1;
+        return capacity;
+    }
+
+    private void allocate(final int capacity) {
+        keys   = new long[capacity];
+        values = new int[capacity];
+        used   = new boolean[capacity];
+    }
+
+    static int hash(final long key) {
+        final long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private int slot(final long key) {
+        final int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (used[slot] && keys[slot] != key)
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean containsKey(final long key) {
+        return used[slot(key)];
+    }
+
+    /**
+     * Return the value for {@code key}, or {@code missing} if there is no such key.
+     */
+    public int get(final long key, final int missing) {
+        final int slot = slot(key);
+        return used[slot] ? values[slot] : missing;
+    }
+
+    public void put(final long key, final int value) {
+        int slot = slot(key);
+        if (!used[slot]) {
+            if ((size + 1) > keys.length * 3 / 4) {
+                rehash(keys.length << 1);
+                slot = slot(key);
+            }
+            used[slot] = true;
+            keys[slot] = key;
+            size++;
+        }
+        values[slot] = value;
+    }
+
+    /**
+     * Remove {@code key} and return its value, or {@code missing} if there was no such key.
+     */
+    public int remove(final long key, final int missing) {
+        final int mask = keys.length - 1;
+        int slot = slot(key);
+        if (!used[slot])
+            return missing;
+        final int value = values[slot];
+
+        // shift back any entries that probed past the freed slot
+        int free = slot;
+        slot = (slot + 1) & mask;
+        while (used[slot]) {
+            final int home = hash(keys[slot]) & mask;
+            if (((slot - home) & mask) >= ((slot - free) & mask)) {
+                keys[free] = keys[slot];
+                values[free] = values[slot];
+                free = slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        used[free] = false;
+        size--;
+        return value;
+    }
+
+    public void clear() {
+        Arrays.fill(used, false);
+        size = 0;
+    }
+
+    /**
+     * Return all the keys in no particular order.
+     */
+    public long[] keys() {
+        final long[] result = new long[size];
+        int i = 0;
+        for (int slot = 0; slot < keys.length; slot++)
+            if (used[slot])
+                result[i++] = keys[slot];
+        return result;
+    }
+
+    private void rehash(final int capacity) {
+        final long[]    oldKeys   = keys;
+        final int[]     oldValues = values;
+        final boolean[] oldUsed   = used;
+        allocate(capacity);
+        for (int slot = 0; slot < oldKeys.length; slot++) {
+            if (!oldUsed[slot])
+                continue;
+            final int newSlot = slot(oldKeys[slot]);
+            used[newSlot] = true;
+            keys[newSlot] = oldKeys[slot];
+            values[newSlot] = oldValues[slot];
+        }
+    }
+}
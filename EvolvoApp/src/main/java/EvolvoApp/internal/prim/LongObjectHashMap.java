@@ -0,0 +1,151 @@
+package EvolvoApp.internal.prim;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A hash map from {@code long} keys to object values that
+ * does not box its keys. With no values it doubles as a set of longs.
+ * This uses open addressing with linear probing, like {@link LongIntHashMap}.
+ */
+public class LongObjectHashMap<V> {
+    static final int MIN_CAPACITY = 16;
+
+    long[]    keys;
+    Object[]  values;
+    boolean[] used;
+    int       size = 0;
+
+    public LongObjectHashMap() {
+        this(MIN_CAPACITY);
+    }
+
+    public LongObjectHashMap(final int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    private static int capacityFor(final int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * 3 / 4 < expectedSize)
+            capacity <<= 1;
+        return capacity;
+    }
+
+    private void allocate(final int capacity) {
+        keys   = new long[capacity];
+        values = new Object[capacity];
+        used   = new boolean[capacity];
+    }
+
+    private int slot(final long key) {
+        final int mask = keys.length - 1;
+        int slot = LongIntHashMap.hash(key) & mask;
+        while (used[slot] && keys[slot] != key)
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean containsKey(final long key) {
+        return used[slot(key)];
+    }
+
+    /**
+     * Return the value for {@code key}, or null if there is no such key.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(final long key) {
+        final int slot = slot(key);
+        return used[slot] ? (V) values[slot] : null;
+    }
+
+    public void put(final long key, final V value) {
+        int slot = slot(key);
+        if (!used[slot]) {
+            if ((size + 1) > keys.length * 3 / 4) {
+                rehash(keys.length << 1);
+                slot = slot(key);
+            }
+            used[slot] = true;
+            keys[slot] = key;
+            size++;
+        }
+        values[slot] = value;
+    }
+
+    /**
+     * Remove {@code key} and return whether it was there.
+     */
+    public boolean remove(final long key) {
+        final int mask = keys.length - 1;
+        int slot = slot(key);
+        if (!used[slot])
+            return false;
+
+        // shift back any entries that probed past the freed slot
+        int free = slot;
+        slot = (slot + 1) & mask;
+        while (used[slot]) {
+            final int home = LongIntHashMap.hash(keys[slot]) & mask;
+            if (((slot - home) & mask) >= ((slot - free) & mask)) {
+                keys[free] = keys[slot];
+                values[free] = values[slot];
+                free = slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        used[free] = false;
+        values[free] = null;
+        size--;
+        return true;
+    }
+
+    public void clear() {
+        Arrays.fill(used, false);
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    /**
+     * Return all the keys in no particular order.
+     */
+    public long[] keys() {
+        final long[] result = new long[size];
+        int i = 0;
+        for (int slot = 0; slot < keys.length; slot++)
+            if (used[slot])
+                result[i++] = keys[slot];
+        return result;
+    }
+
+    /**
+     * Return all the values in the same order as {@link #keys}.
+     */
+    @SuppressWarnings("unchecked")
+    public List<V> values() {
+        final List<V> result = new ArrayList<V>(size);
+        for (int slot = 0; slot < keys.length; slot++)
+            if (used[slot])
+                result.add((V) values[slot]);
+        return result;
+    }
+
+    private void rehash(final int capacity) {
+        final long[]    oldKeys   = keys;
+        final Object[]  oldValues = values;
+        final boolean[] oldUsed   = used;
+        allocate(capacity);
+        for (int slot = 0; slot < oldKeys.length; slot++) {
+            if (!oldUsed[slot])
+                continue;
+            final int newSlot = slot(oldKeys[slot]);
+            used[newSlot] = true;
+            keys[newSlot] = oldKeys[slot];
+            values[newSlot] = oldValues[slot];
+        }
+    }
+}
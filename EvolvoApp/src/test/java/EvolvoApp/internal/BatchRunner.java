@@ -0,0 +1,218 @@
+package EvolvoApp.internal;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.cytoscape.model.NetworkTestSupport;
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyNode;
+import org.cytoscape.model.subnetwork.CyRootNetwork;
+import org.cytoscape.model.subnetwork.CySubNetwork;
+
+import org.cytoscape.event.DummyCyEventHelper;
+
+/**
+ * Replays an expansion script against a server without Cytoscape and
+ * reports how long each step took, how much heap is in use afterwards and
+ * how big the network is.
+ *
+ * <p>
+ * The network lives in the model from {@link NetworkTestSupport}, so this
+ * runs on the test classpath:
+ * <blockquote><pre>
+ * mvn -Pbatch test-compile exec:java -Dexec.args="script.txt [report.tsv]"
+ * </pre></blockquote>
+ * The script has one step per line; blank lines and lines starting with
+ * '#' are skipped:
+ * <blockquote><pre>
+ * open http://localhost:8000/replace maxNodes=500 aggregateEdges=true
+ * expand n1
+ * expand-all
+ * find n1234
+ * collapse n12
+ * clear n12
+ * refresh
+ * restore evolvo.log
+ * </pre></blockquote>
+ * The options of {@code open} are the fields of {@link Engine.OpenSettings};
+ * {@code shards} is written with commas in place of spaces.
+ * {@code expand} collapses over-budget expansions afterwards, like the
+ * <i>Evolvo: Expand</i> menu item. {@code expand-all} expands every visible
+ * node that can be expanded, as one step. {@code collapse} and {@code clear}
+ * take a node the way <i>Evolvo: Collapse</i> and <i>Evolvo: Collapse &amp;
+ * Clear</i> do. {@code refresh} applies the server's changes like
+ * <i>Evolvo: Refresh</i>.
+ * </p>
+ *
+ * <p>
+ * The report is tab-separated with a header line. Heap is measured after a
+ * garbage collection, which isn't counted in the step's time.
+ * </p>
+ */
+public class BatchRunner {
+    public static final String HEADER = "step\tcommand\targument\tmillis\theap-kb\tnodes\tedges\troot-nodes\troot-edges\tstored-edges";
+
+    final Engine engine;
+    final PrintStream report;
+    CyNetwork net = null;
+
+    public BatchRunner(final Engine engine, final PrintStream report) {
+        this.engine = engine;
+        this.report = report;
+    }
+
+    public static void main(final String[] args) throws Exception {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("usage: BatchRunner script [report]");
+            System.exit(2);
+        }
+        final NetworkTestSupport nts = new NetworkTestSupport();
+        final PrintStream report = (args.length > 1) ? new PrintStream(new FileOutputStream(args[1])) : System.out;
+        final Reader script = args[0].equals("-") ? new InputStreamReader(System.in) : new FileReader(args[0]);
+        try {
+            new BatchRunner(new ModelEngine(nts.getNetworkFactory(), new DummyCyEventHelper()), report).run(script);
+        } finally {
+            script.close();
+            report.flush();
+            if (report != System.out)
+                report.close();
+        }
+    }
+
+    /**
+     * Run every step of {@code script}.
+     * @return The network the script ended with, or null if it never opened one
+     */
+    public CyNetwork run(final Reader script) throws Exception {
+        final BufferedReader lines = new BufferedReader(script);
+        report.println(HEADER);
+        int step = 0;
+        int lineNumber = 0;
+        String line;
+        while ((line = lines.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.length() == 0 || line.startsWith("#"))
+                continue;
+            final String[] words = line.split("\\s+");
+            final String argument = (words.length > 1) ? words[1] : "";
+
+            final long start = System.nanoTime();
+            try {
+                run(words);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(String.format("line %d: %s", lineNumber, e.getMessage()), e);
+            }
+            final long millis = (System.nanoTime() - start) / 1000000L;
+
+            step++;
+            System.gc();
+            final Runtime runtime = Runtime.getRuntime();
+            final long heapKb = (runtime.totalMemory() - runtime.freeMemory()) / 1024L;
+            report.println(String.format("%d\t%s\t%s\t%d\t%d\t%s", step, words[0], argument, millis, heapKb, counts()));
+        }
+        return net;
+    }
+
+    private void run(final String[] words) throws Exception {
+        final String command = words[0];
+        if (command.equals("open")) {
+            if (words.length < 2)
+                throw new IllegalArgumentException("open needs a location");
+            net = engine.open(settings(words));
+            return;
+        } else if (command.equals("restore")) {
+            if (words.length != 2)
+                throw new IllegalArgumentException("restore needs a snapshot log file");
+            net = engine.restore(new File(words[1]));
+            return;
+        }
+
+        if (net == null)
+            throw new IllegalArgumentException(String.format("'%s' before the network is opened", command));
+        if (command.equals("expand-all")) {
+            final List<CyNode> expandable = new ArrayList<CyNode>();
+            for (final CyNode node : net.getNodeList())
+                if (engine.isExpandable(net, node))
+                    expandable.add(node);
+            for (final CyNode node : expandable)
+                if (net.containsNode(node) && engine.isExpandable(net, node))
+                    engine.expand(net, node);
+            return;
+        } else if (command.equals("refresh")) {
+            engine.refresh(net, null);
+            return;
+        }
+
+        if (words.length != 2)
+            throw new IllegalArgumentException(String.format("%s needs a node key", command));
+        final CyNode node = engine.nodeWithKey(net, words[1]);
+        if (command.equals("find")) {
+            engine.find(net, words[1]);
+        } else if (node == null || !net.containsNode(node)) {
+            throw new IllegalArgumentException(String.format("no visible node '%s'", words[1]));
+        } else if (command.equals("expand")) {
+            if (!engine.isExpandable(net, node))
+                throw new IllegalArgumentException(String.format("'%s' can't be expanded", words[1]));
+            engine.expand(net, node);
+            engine.autoCollapse(net, node, null);
+        } else if (command.equals("collapse") || command.equals("clear")) {
+            if (!engine.isCollapsable(net, node))
+                throw new IllegalArgumentException(String.format("'%s' can't be collapsed", words[1]));
+            engine.collapse(net, node, command.equals("clear"));
+        } else {
+            throw new IllegalArgumentException(String.format("unknown command '%s'", command));
+        }
+    }
+
+    static Engine.OpenSettings settings(final String[] words) {
+        final Engine.OpenSettings settings = new Engine.OpenSettings();
+        settings.location = words[1];
+        for (int i = 2; i < words.length; i++) {
+            final int eq = words[i].indexOf('=');
+            if (eq < 0)
+                throw new IllegalArgumentException(String.format("open option '%s' must be of the form name=value", words[i]));
+            final String name = words[i].substring(0, eq);
+            final String value = words[i].substring(eq + 1);
+            if (name.equals("maxNodes"))
+                settings.maxNodes = Integer.parseInt(value);
+            else if (name.equals("maxEdges"))
+                settings.maxEdges = Integer.parseInt(value);
+            else if (name.equals("aggregateEdges"))
+                settings.aggregateEdges = Boolean.parseBoolean(value);
+            else if (name.equals("aggregateColumn"))
+                settings.aggregateColumn = value;
+            else if (name.equals("snapshot"))
+                settings.snapshot = value;
+            else if (name.equals("shards"))
+                settings.shards = value.replace(',', ' ');
+            else if (name.equals("hedgePercentile"))
+                settings.hedgePercentile = Double.parseDouble(value);
+            else if (name.equals("columns"))
+                settings.columns = value;
+            else
+                throw new IllegalArgumentException(String.format("unknown open option '%s'", name));
+        }
+        return settings;
+    }
+
+    private String counts() {
+        if (net == null)
+            return "0\t0\t0\t0\t0";
+        final CyRootNetwork rootnet = ((CySubNetwork) net).getRootNetwork();
+        return String.format("%d\t%d\t%d\t%d\t%d",
+                net.getNodeCount(),
+                net.getEdgeCount(),
+                rootnet.getNodeCount(),
+                rootnet.getEdgeCount(),
+                HiddenEdges.store(net).size());
+    }
+}
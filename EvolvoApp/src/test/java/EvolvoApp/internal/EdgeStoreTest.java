@@ -0,0 +1,97 @@
+package EvolvoApp.internal;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class EdgeStoreTest
+{
+    private static final String[] HEADER = {"weight"};
+
+    private static Object[] row(long weight) {
+        return new Object[] {weight};
+    }
+
+    private static long[] others(final EdgeStore store, final long node) {
+        final int[] edges = store.adjacent(node);
+        final long[] others = new long[edges.length];
+        for (int i = 0; i < edges.length; i++)
+            others[i] = store.source(edges[i]) == node ? store.target(edges[i]) : store.source(edges[i]);
+        Arrays.sort(others);
+        return others;
+    }
+
+    @Test
+    public void testEmpty() {
+        final EdgeStore store = new EdgeStore();
+        assertEquals(0, store.size());
+        assertEquals(0, store.adjacent(1L).length);
+        assertFalse(store.contains(1L, 2L));
+    }
+
+    @Test
+    public void testAdjacency() {
+        final EdgeStore store = new EdgeStore();
+        store.add(1L, 2L, row(10), HEADER);
+        store.add(3L, 1L, row(20), HEADER);
+        store.add(2L, 3L, row(30), HEADER);
+        store.add(4L, 4L, row(40), HEADER);
+
+        assertEquals(4, store.size());
+        assertArrayEquals(new long[] {2L, 3L}, others(store, 1L));
+        assertArrayEquals(new long[] {1L, 3L}, others(store, 2L));
+        assertArrayEquals(new long[] {4L}, others(store, 4L));
+        assertTrue(store.contains(1L, 2L));
+        assertTrue(store.contains(2L, 1L));
+        assertFalse(store.contains(1L, 4L));
+
+        final int e = store.adjacent(4L)[0];
+        assertEquals(40L, store.value(e, "weight"));
+        assertNull(store.value(e, "color"));
+    }
+
+    @Test
+    public void testFind() {
+        final EdgeStore store = new EdgeStore();
+        store.add(1L, 2L, row(10), HEADER);
+        final int e = store.add(2L, 3L, row(20), HEADER);
+        assertEquals(e, store.find(3L, 2L));
+        assertEquals(-1, store.find(1L, 3L));
+        store.remove(e);
+        assertEquals(-1, store.find(2L, 3L));
+    }
+
+    @Test
+    public void testRemove() {
+        final EdgeStore store = new EdgeStore();
+        store.add(1L, 2L, row(10), HEADER);
+        store.add(1L, 3L, row(20), HEADER);
+        store.add(2L, 3L, row(30), HEADER);
+
+        store.remove(store.adjacent(2L)[0]);
+        assertEquals(2, store.size());
+
+        store.removeNode(1L);
+        assertEquals(0, store.adjacent(1L).length);
+        assertEquals(0, store.size());
+        assertEquals(0, store.adjacent(3L).length);
+    }
+
+    @Test
+    public void testCompaction() {
+        final EdgeStore store = new EdgeStore();
+        for (long i = 0; i < 1000; i++)
+            store.add(0L, i + 1, row(i), HEADER);
+        for (long i = 0; i < 900; i++)
+            store.removeNode(i + 1);
+        for (long i = 1000; i < 2000; i++)
+            store.add(0L, i + 1, row(i), HEADER);
+
+        assertEquals(1100, store.size());
+        final int[] edges = store.adjacent(0L);
+        assertEquals(1100, edges.length);
+        for (final int e : edges)
+            assertEquals(store.target(e) - 1, store.value(e, "weight"));
+    }
+}
@@ -0,0 +1,53 @@
+package EvolvoApp.internal;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.Before;
+
+import org.cytoscape.model.NetworkTestSupport;
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyTable;
+
+public class EvolvoColumnsTest
+{
+    CyNetwork network = null;
+    CyTable nodeTable = null;
+
+    @Before
+    public void setup() {
+        final NetworkTestSupport nts = new NetworkTestSupport();
+        network = nts.getNetwork();
+        nodeTable = network.getDefaultNodeTable();
+    }
+
+    @Test
+    public void testHandlesAreBoundOnce() {
+        final EvolvoColumns columns = EvolvoColumns.of(network);
+        assertSame(columns, EvolvoColumns.of(network));
+        assertNull(columns.parent());
+
+        // a missing column is looked up again until it exists
+        final TypedColumn<Long> parent = TypedColumn.bind(nodeTable, "Evolvo-parent", Long.class);
+        assertSame(parent, columns.parent());
+        assertSame(parent, columns.parent());
+        assertNull(columns.expanded());
+        assertNull(columns.meta());
+    }
+
+    @Test
+    public void testColumnDeleted() {
+        final EvolvoColumns columns = EvolvoColumns.of(network);
+        TypedColumn.bind(nodeTable, "Evolvo-expanded", Boolean.class);
+        TypedColumn.bind(nodeTable, "Evolvo-parent", Long.class);
+        assertNotNull(columns.expanded());
+
+        nodeTable.deleteColumn("Evolvo-expanded");
+        EvolvoColumns.columnDeleted(nodeTable, "Evolvo-expanded");
+        assertNull(columns.expanded());
+        assertNotNull(columns.parent());
+
+        // the column can come back with another handle
+        final TypedColumn<Boolean> expanded = TypedColumn.bind(nodeTable, "Evolvo-expanded", Boolean.class);
+        assertSame(expanded, columns.expanded());
+    }
+}
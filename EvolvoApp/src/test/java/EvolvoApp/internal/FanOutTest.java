@@ -0,0 +1,216 @@
+package EvolvoApp.internal;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class FanOutTest
+{
+    private static String tempFile(final String contents) throws Exception {
+        final File file = File.createTempFile("evolvo", ".json");
+        file.deleteOnExit();
+        final FileOutputStream output = new FileOutputStream(file);
+        output.write(contents.getBytes("UTF-8"));
+        output.close();
+        return file.toURI().toString();
+    }
+
+    private static String readAll(final InputStream input) throws Exception {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        int b;
+        while ((b = input.read()) != -1)
+            output.write(b);
+        input.close();
+        return output.toString("UTF-8");
+    }
+
+    private static final FanOut.Request GET = new FanOut.Request() {
+        public URLConnection open(final String url) throws IOException {
+            return (new URL(url)).openConnection();
+        }
+    };
+
+    @Test
+    public void testResponsesInOrder() throws Exception {
+        final List<String> urls = Arrays.asList(tempFile("first"), tempFile("second"), tempFile("third"));
+        final List<FanOut.Response> responses = FanOut.send(urls, 0.0, GET);
+        assertEquals(3, responses.size());
+        assertEquals(urls.get(0), responses.get(0).url());
+        assertEquals("first", readAll(responses.get(0).body()));
+        assertEquals("second", readAll(responses.get(1).body()));
+        assertEquals("third", readAll(responses.get(2).body()));
+    }
+
+    @Test
+    public void testOneServer() throws Exception {
+        final List<FanOut.Response> responses = FanOut.send(Collections.singletonList(tempFile("only")), 0.0, GET);
+        assertEquals("only", readAll(responses.get(0).body()));
+    }
+
+    @Test(expected=IOException.class)
+    public void testFailure() throws Exception {
+        final File missing = new File(new File(tempFile("x").substring("file:".length())).getParentFile(), "evolvo-missing-" + System.nanoTime());
+        FanOut.send(Arrays.asList(tempFile("ok"), missing.toURI().toString()), 0.0, GET);
+    }
+
+    /**
+     * Opens file urls, but takes {@code delay} milliseconds to answer from {@code slowUrl}.
+     */
+    private static FanOut.Request slow(final String slowUrl, final long delay) {
+        return new FanOut.Request() {
+            public URLConnection open(final String url) throws IOException {
+                if (url.equals(slowUrl)) {
+                    try {
+                        Thread.sleep(delay);
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                }
+                return (new URL(url)).openConnection();
+            }
+        };
+    }
+
+    @Test
+    public void testHedge() throws Exception {
+        Latency.reset();
+        final String slowUrl = tempFile("slow");
+        final String fastUrl = tempFile("fast");
+        // the slow replica looks faster until now, so it's asked first
+        for (int i = 0; i < Latency.MIN_SAMPLES; i++) {
+            Latency.record(slowUrl, 1000L * 1000L);
+            Latency.record(fastUrl, 2L * 1000L * 1000L);
+        }
+
+        final long start = System.nanoTime();
+        final List<FanOut.Response> responses = FanOut.send(Collections.singletonList(slowUrl + "|" + fastUrl), 90.0, slow(slowUrl, 5000));
+        assertTrue(System.nanoTime() - start < 2500L * 1000L * 1000L);
+        assertEquals(fastUrl, responses.get(0).url());
+        assertEquals("fast", readAll(responses.get(0).body()));
+    }
+
+    @Test
+    public void testNoHedge() throws Exception {
+        Latency.reset();
+        final String slowUrl = tempFile("slow");
+        final String fastUrl = tempFile("fast");
+        for (int i = 0; i < Latency.MIN_SAMPLES; i++) {
+            Latency.record(slowUrl, 1000L * 1000L);
+            Latency.record(fastUrl, 2L * 1000L * 1000L);
+        }
+
+        final List<FanOut.Response> responses = FanOut.send(Collections.singletonList(slowUrl + "|" + fastUrl), 0.0, slow(slowUrl, 200));
+        assertEquals(slowUrl, responses.get(0).url());
+        assertEquals("slow", readAll(responses.get(0).body()));
+    }
+
+    @Test
+    public void testFailoverBeforeDelay() throws Exception {
+        Latency.reset();
+        final File missing = new File(new File(tempFile("x").substring("file:".length())).getParentFile(), "evolvo-missing-" + System.nanoTime());
+        final String missingUrl = missing.toURI().toString();
+        final String okUrl = tempFile("ok");
+        for (int i = 0; i < Latency.MIN_SAMPLES; i++) {
+            Latency.record(missingUrl, 1000L * 1000L * 1000L);
+            Latency.record(okUrl, 2000L * 1000L * 1000L);
+        }
+
+        final long start = System.nanoTime();
+        final List<FanOut.Response> responses = FanOut.send(Collections.singletonList(missingUrl + "|" + okUrl), 50.0, GET);
+        assertTrue(System.nanoTime() - start < 500L * 1000L * 1000L);
+        assertEquals("ok", readAll(responses.get(0).body()));
+    }
+
+    @Test
+    public void testTimingAndConnectionReuse() throws Exception {
+        final Set<Integer> clientPorts = Collections.synchronizedSet(new HashSet<Integer>());
+        final HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(final HttpExchange exchange) throws IOException {
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+                final byte[] body = new byte[10000];
+                Arrays.fill(body, (byte) 'x');
+                exchange.sendResponseHeaders(200, body.length);
+                final OutputStream response = exchange.getResponseBody();
+                response.write(body);
+                response.close();
+            }
+        });
+        server.start();
+        try {
+            final String url = String.format("http://localhost:%d/", server.getAddress().getPort());
+            for (int i = 0; i < 3; i++) {
+                final FanOut.Response response = FanOut.send(Collections.singletonList(url), 0.0, GET).get(0);
+                // read to the end, as the parsers do
+                final InputStream body = response.body();
+                assertEquals('x', body.read());
+                assertEquals(-1L, response.totalNanos());
+                final byte[] buffer = new byte[4096];
+                while (body.read(buffer) != -1) {}
+                body.close();
+                assertEquals(10000L, response.bytes());
+                assertTrue(response.firstByteNanos() >= 0L);
+                assertTrue(response.totalNanos() >= response.firstByteNanos());
+            }
+            // each body was read to the end, so one connection served every request
+            assertEquals(1, clientPorts.size());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testCloseDrainsSmallBody() throws Exception {
+        final Set<Integer> clientPorts = Collections.synchronizedSet(new HashSet<Integer>());
+        final HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(final HttpExchange exchange) throws IOException {
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+                final byte[] body = new byte[FanOut.DRAIN_LIMIT / 2];
+                Arrays.fill(body, (byte) 'x');
+                exchange.sendResponseHeaders(200, body.length);
+                final OutputStream response = exchange.getResponseBody();
+                response.write(body);
+                response.close();
+            }
+        });
+        server.start();
+        try {
+            final String url = String.format("http://localhost:%d/", server.getAddress().getPort());
+            for (int i = 0; i < 3; i++) {
+                final FanOut.Response response = FanOut.send(Collections.singletonList(url), 0.0, GET).get(0);
+                // read only the start, as a parser that stops early would
+                assertEquals('x', response.body().read());
+                response.body().close();
+                assertEquals(FanOut.DRAIN_LIMIT / 2, response.bytes());
+            }
+            // the rest of each body was read on close, so one connection served every request
+            assertEquals(1, clientPorts.size());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test(expected=IOException.class)
+    public void testNoServers() throws Exception {
+        FanOut.send(Collections.<String>emptyList(), 0.0, GET);
+    }
+}
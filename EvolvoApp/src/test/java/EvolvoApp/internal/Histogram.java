@@ -0,0 +1,88 @@
+package EvolvoApp.internal;
+
+/**
+ * Counts non-negative values in buckets whose width grows with the value,
+ * so every recorded value is kept to within 1/64 of itself however large
+ * it is, in a fixed few thousand counters.
+ *
+ * <p>
+ * Values below 128 get a bucket each. Above that, each power of two is
+ * split into 64 buckets of equal width, as in HdrHistogram with two
+ * significant digits.
+ * </p>
+ */
+public class Histogram {
+    static final int SUB_BUCKETS = 128;
+    static final int HALF = SUB_BUCKETS / 2;
+    static final int BUCKETS = (64 - 6) * HALF; // the bucket of Long.MAX_VALUE, plus one
+
+    final long[] counts = new long[BUCKETS];
+    long count = 0;
+    long sum = 0;
+    long max = 0;
+
+    static int bucket(final long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+        final int shift = (63 - Long.numberOfLeadingZeros(value)) - 6;
+        return shift * HALF + (int) (value >>> shift);
+    }
+
+    /**
+     * Return the highest value that falls into {@code bucket}.
+     */
+    static long highest(final int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+        final int shift = bucket / HALF - 1;
+        final long lowest = (long) (bucket - shift * HALF) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    public synchronized void record(final long value) {
+        if (value < 0)
+            throw new IllegalArgumentException("negative value: " + value);
+        counts[bucket(value)]++;
+        count++;
+        sum += value;
+        max = Math.max(max, value);
+    }
+
+    public synchronized void add(final Histogram other) {
+        synchronized (other) {
+            for (int i = 0; i < BUCKETS; i++)
+                counts[i] += other.counts[i];
+            count += other.count;
+            sum += other.sum;
+            max = Math.max(max, other.max);
+        }
+    }
+
+    public synchronized long count() {
+        return count;
+    }
+
+    public synchronized long max() {
+        return max;
+    }
+
+    public synchronized double mean() {
+        return (count == 0) ? 0.0 : ((double) sum / count);
+    }
+
+    /**
+     * Return a value that {@code p} percent (0 to 100) of the recorded values are at or below, or 0 if there are none.
+     */
+    public synchronized long percentile(final double p) {
+        if (count == 0)
+            return 0;
+        final long rank = Math.max(1, (long) Math.ceil(p / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank)
+                return Math.min(highest(i), max);
+        }
+        return max;
+    }
+}
@@ -0,0 +1,57 @@
+package EvolvoApp.internal;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class HistogramTest
+{
+    @Test
+    public void testBuckets() {
+        long last = -1;
+        for (int bucket = 0; bucket < Histogram.BUCKETS; bucket++) {
+            final long highest = Histogram.highest(bucket);
+            assertTrue(highest > last);
+            assertEquals(bucket, Histogram.bucket(highest));
+            assertEquals(bucket, Histogram.bucket(last + 1));
+            last = highest;
+        }
+        assertEquals(Long.MAX_VALUE, last);
+    }
+
+    @Test
+    public void testPrecision() {
+        for (long value = 1; value > 0 && value < Long.MAX_VALUE / 3; value = value * 3 + 1) {
+            final long highest = Histogram.highest(Histogram.bucket(value));
+            assertTrue(highest >= value);
+            assertTrue(highest - value <= value / 64);
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        final Histogram histogram = new Histogram();
+        assertEquals(0, histogram.percentile(50));
+        for (long i = 1; i <= 1000; i++)
+            histogram.record(i);
+        assertEquals(1000, histogram.count());
+        assertEquals(1000, histogram.max());
+        assertEquals(500.5, histogram.mean(), 1e-9);
+        assertEquals(500, histogram.percentile(50), 500 / 64);
+        assertEquals(990, histogram.percentile(99), 990 / 64);
+        assertEquals(1000, histogram.percentile(100));
+        assertEquals(1, histogram.percentile(0));
+    }
+
+    @Test
+    public void testAdd() {
+        final Histogram a = new Histogram();
+        final Histogram b = new Histogram();
+        a.record(10);
+        b.record(20);
+        b.record(30000);
+        a.add(b);
+        assertEquals(3, a.count());
+        assertEquals(30000, a.max());
+        assertEquals(20, a.percentile(50));
+    }
+}
@@ -0,0 +1,54 @@
+package EvolvoApp.internal;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class LatencyTest
+{
+    @Before
+    public void reset() {
+        Latency.reset();
+    }
+
+    @Test
+    public void testPercentile() {
+        assertEquals(-1, Latency.percentile("a", 50));
+        for (long i = 1; i <= 100; i++)
+            Latency.record("a", i);
+        assertEquals(50, Latency.percentile("a", 50));
+        assertEquals(99, Latency.percentile("a", 99));
+        assertEquals(100, Latency.percentile("a", 100));
+        assertEquals(1, Latency.percentile("a", 0));
+    }
+
+    @Test
+    public void testOnlyRecentSamples() {
+        for (int i = 0; i < Latency.SAMPLES; i++)
+            Latency.record("a", 1000);
+        for (int i = 0; i < Latency.SAMPLES; i++)
+            Latency.record("a", 10);
+        assertEquals(10, Latency.percentile("a", 100));
+    }
+
+    @Test
+    public void testFastestFirst() {
+        Latency.record("a", 300);
+        Latency.record("b", 100);
+        Latency.record("c", 200);
+        assertEquals(Arrays.asList("b", "c", "a"), Latency.fastestFirst(Arrays.asList("a", "b", "c")));
+
+        // unheard-of replicas go first so they get measured
+        assertEquals(Arrays.asList("d", "b", "a"), Latency.fastestFirst(Arrays.asList("a", "b", "d")));
+    }
+
+    @Test
+    public void testFailure() {
+        Latency.record("a", 100);
+        Latency.record("b", 200);
+        Latency.failed("a");
+        assertEquals(Arrays.asList("b", "a"), Latency.fastestFirst(Arrays.asList("a", "b")));
+    }
+}
@@ -0,0 +1,72 @@
+package EvolvoApp.internal;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class LevelOfDetailTest
+{
+    // 1000x1000 pixels at scale 1, centered on the origin
+    final LevelOfDetail.Viewport viewport = new LevelOfDetail.Viewport(1.0, 0.0, 0.0, 1000.0, 1000.0);
+
+    static LevelOfDetail.NodeState node(final double x, final double y, final double half, final Long expansion, final int depth, final boolean expandable) {
+        return new LevelOfDetail.NodeState(null, x, y, half, expansion, depth, expandable);
+    }
+
+    @Test
+    public void testViewport() {
+        final LevelOfDetail.Viewport zoomed = new LevelOfDetail.Viewport(2.0, 100.0, 0.0, 1000.0, 1000.0);
+        assertTrue(zoomed.contains(340.0, 240.0));
+        assertFalse(zoomed.contains(360.0, 0.0));
+        assertTrue(zoomed.overlaps(new double[] {340.0, 0.0, 400.0, 10.0}));
+        assertFalse(zoomed.overlaps(new double[] {360.0, 0.0, 400.0, 10.0}));
+        assertEquals(20.0, zoomed.pixels(10.0), 0.0);
+    }
+
+    @Test
+    public void testNothingToCollapse() {
+        final List<LevelOfDetail.NodeState> nodes = Arrays.asList(
+            node(0.0, 0.0, 10.0, null, 0, true),
+            node(-50.0, 0.0, 10.0, 1L, 0, false),
+            node(50.0, 0.0, 10.0, 1L, 0, false));
+        // together the expansion is 120 pixels wide
+        assertNull(LevelOfDetail.toCollapse(nodes, viewport, 100.0));
+        assertNotNull(LevelOfDetail.toCollapse(nodes, viewport, 121.0));
+    }
+
+    @Test
+    public void testDeepestFirst() {
+        final LevelOfDetail.NodeState outer = node(2000.0, 0.0, 10.0, 1L, 0, false);
+        final LevelOfDetail.NodeState inner = node(2100.0, 0.0, 10.0, 2L, 1, false);
+        final LevelOfDetail.NodeState innermost = node(0.0, 0.0, 1.0, 3L, 2, false);
+        final List<LevelOfDetail.NodeState> nodes = new ArrayList<LevelOfDetail.NodeState>(Arrays.asList(outer, inner, innermost));
+
+        // off screen or too small, the deepest goes first
+        assertSame(innermost, LevelOfDetail.toCollapse(nodes, viewport, 20.0));
+        nodes.remove(innermost);
+        assertSame(inner, LevelOfDetail.toCollapse(nodes, viewport, 20.0));
+        nodes.remove(inner);
+        assertSame(outer, LevelOfDetail.toCollapse(nodes, viewport, 20.0));
+    }
+
+    @Test
+    public void testSmallestOfEquallyDeep() {
+        final LevelOfDetail.NodeState larger = node(-100.0, 0.0, 8.0, 1L, 1, false);
+        final LevelOfDetail.NodeState smaller = node(100.0, 0.0, 2.0, 2L, 1, false);
+        assertSame(smaller, LevelOfDetail.toCollapse(Arrays.asList(larger, smaller), viewport, 20.0));
+        assertSame(smaller, LevelOfDetail.toCollapse(Arrays.asList(smaller, larger), viewport, 20.0));
+    }
+
+    @Test
+    public void testToExpand() {
+        final LevelOfDetail.NodeState small = node(0.0, 0.0, 30.0, null, 0, true);
+        final LevelOfDetail.NodeState large = node(100.0, 0.0, 60.0, null, 0, true);
+        final LevelOfDetail.NodeState offscreen = node(2000.0, 0.0, 100.0, null, 0, true);
+        final LevelOfDetail.NodeState expanded = node(-100.0, 0.0, 100.0, 1L, 0, false);
+        assertSame(large, LevelOfDetail.toExpand(Arrays.asList(small, large, offscreen, expanded), viewport, 50.0));
+        assertNull(LevelOfDetail.toExpand(Arrays.asList(small, large, offscreen, expanded), viewport, 150.0));
+    }
+}
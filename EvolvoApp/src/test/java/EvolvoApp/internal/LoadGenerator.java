@@ -0,0 +1,250 @@
+package EvolvoApp.internal;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.cytoscape.model.NetworkTestSupport;
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyNode;
+
+import org.cytoscape.event.DummyCyEventHelper;
+
+/**
+ * Runs many sessions against a server at once, each expanding and collapsing
+ * nodes at random, and reports how the server keeps up.
+ *
+ * <p>
+ * Each session has its own network and {@link ModelEngine}, so requests are
+ * written and responses read just as in Cytoscape:
+ * <blockquote><pre>
+ * mvn -Pbatch test-compile exec:java -Dbatch.main=EvolvoApp.internal.LoadGenerator -Dexec.args="http://localhost:8000/replace sessions=32 seconds=120"
+ * </pre></blockquote>
+ * Options:
+ * <ul>
+ * <li>{@code sessions}: how many sessions run at once (8)</li>
+ * <li>{@code seconds}: how long to run (60)</li>
+ * <li>{@code expand}: the chance that a step is an expand rather than a collapse (0.7)</li>
+ * <li>{@code clear}: whether collapses clear the children, so expanding again goes back to the server (true)</li>
+ * <li>{@code think}: milliseconds a session waits between steps (0)</li>
+ * <li>{@code interval}: seconds between progress lines (5)</li>
+ * <li>{@code seed}: seed for the first session; the others count up from it (0)</li>
+ * </ul>
+ * Any other option is an option of {@code open}, as in {@link BatchRunner}.
+ * A session picks a random expandable node to expand, or a random
+ * collapsable node to collapse, and stops when there are neither.
+ * </p>
+ *
+ * <p>
+ * Every interval a line shows the steps taken, the bytes received and the
+ * mean and largest number of extant nodes a session sends with a request.
+ * At the end come the percentiles of each kind of step's time.
+ * </p>
+ */
+public class LoadGenerator {
+    final Engine.OpenSettings settings;
+    final int sessionCount;
+    final double expandChance;
+    final boolean clear;
+    final long thinkMillis;
+    final long seed;
+
+    final Map<String,Histogram> histograms = new LinkedHashMap<String,Histogram>();
+    final AtomicLong steps = new AtomicLong();
+    final AtomicLong errors = new AtomicLong();
+    volatile boolean stopped = false;
+
+    public LoadGenerator(final Engine.OpenSettings settings, final int sessionCount, final double expandChance, final boolean clear, final long thinkMillis, final long seed) {
+        this.settings = settings;
+        this.sessionCount = sessionCount;
+        this.expandChance = expandChance;
+        this.clear = clear;
+        this.thinkMillis = thinkMillis;
+        this.seed = seed;
+        for (final String step : new String[] {"open", "expand", "collapse"})
+            histograms.put(step, new Histogram());
+    }
+
+    /**
+     * One simulated user. Its network is only touched by its own thread.
+     */
+    class Session extends Thread {
+        final Random random;
+        final Map<String,Histogram> histograms = new LinkedHashMap<String,Histogram>();
+        volatile int extant = 0;
+
+        Session(final int number) {
+            super("Evolvo-session-" + number);
+            random = new Random(seed + number);
+            for (final String step : LoadGenerator.this.histograms.keySet())
+                histograms.put(step, new Histogram());
+        }
+
+        public void run() {
+            final NetworkTestSupport nts = new NetworkTestSupport();
+            final Engine engine = new ModelEngine(nts.getNetworkFactory(), new DummyCyEventHelper());
+            try {
+                long start = System.nanoTime();
+                final CyNetwork net = engine.open(settings);
+                record("open", start, net);
+
+                final List<CyNode> expandable = new ArrayList<CyNode>();
+                final List<CyNode> collapsable = new ArrayList<CyNode>();
+                while (!stopped) {
+                    expandable.clear();
+                    collapsable.clear();
+                    for (final CyNode node : net.getNodeList()) {
+                        if (engine.isExpandable(net, node))
+                            expandable.add(node);
+                        if (engine.isCollapsable(net, node))
+                            collapsable.add(node);
+                    }
+                    if (expandable.isEmpty() && collapsable.isEmpty())
+                        return;
+
+                    final boolean expand = collapsable.isEmpty() || (!expandable.isEmpty() && random.nextDouble() < expandChance);
+                    final List<CyNode> candidates = expand ? expandable : collapsable;
+                    final CyNode node = candidates.get(random.nextInt(candidates.size()));
+                    start = System.nanoTime();
+                    try {
+                        if (expand) {
+                            engine.expand(net, node);
+                            engine.autoCollapse(net, node, null);
+                        } else {
+                            engine.collapse(net, node, clear);
+                        }
+                        record(expand ? "expand" : "collapse", start, net);
+                    } catch (Exception e) {
+                        errors.incrementAndGet();
+                    }
+                    if (thinkMillis > 0)
+                        Thread.sleep(thinkMillis);
+                }
+            } catch (InterruptedException e) {
+                // stopped while thinking
+            } catch (Exception e) {
+                errors.incrementAndGet();
+                System.err.println(String.format("%s: %s", getName(), e));
+            }
+        }
+
+        private void record(final String step, final long start, final CyNetwork net) {
+            histograms.get(step).record((System.nanoTime() - start) / 1000L);
+            extant = net.getNodeCount() + HiddenParents.size(net);
+            steps.incrementAndGet();
+        }
+    }
+
+    /**
+     * Run the sessions for {@code seconds}, printing progress every {@code intervalSeconds} and the percentiles at the end.
+     */
+    public void run(final long seconds, final long intervalSeconds, final PrintStream report) throws InterruptedException {
+        final List<Session> sessions = new ArrayList<Session>(sessionCount);
+        for (int i = 0; i < sessionCount; i++)
+            sessions.add(new Session(i));
+
+        final long bytesBefore = FanOut.bytesReceived();
+        final long start = System.nanoTime();
+        final long end = start + seconds * 1000000000L;
+        for (final Session session : sessions)
+            session.start();
+
+        report.println("seconds\tsteps\tsteps/s\tkb-received\tmean-extant\tmax-extant\terrors");
+        long lastSteps = 0;
+        long lastTime = start;
+        while (true) {
+            final long now = System.nanoTime();
+            if (now >= end)
+                break;
+            Thread.sleep(Math.min(intervalSeconds * 1000L, (end - now) / 1000000L + 1));
+            final long time = System.nanoTime();
+            final long stepsSoFar = steps.get();
+            long extantSum = 0;
+            int extantMax = 0;
+            for (final Session session : sessions) {
+                extantSum += session.extant;
+                extantMax = Math.max(extantMax, session.extant);
+            }
+            report.println(String.format("%.1f\t%d\t%.1f\t%d\t%.1f\t%d\t%d",
+                        (time - start) / 1e9,
+                        stepsSoFar,
+                        (stepsSoFar - lastSteps) / ((time - lastTime) / 1e9),
+                        (FanOut.bytesReceived() - bytesBefore) / 1024L,
+                        (double) extantSum / sessionCount,
+                        extantMax,
+                        errors.get()));
+            lastSteps = stepsSoFar;
+            lastTime = time;
+        }
+
+        stopped = true;
+        for (final Session session : sessions) {
+            session.interrupt();
+            session.join();
+            for (final Map.Entry<String,Histogram> histogram : session.histograms.entrySet())
+                histograms.get(histogram.getKey()).add(histogram.getValue());
+        }
+        final double elapsed = (System.nanoTime() - start) / 1e9;
+
+        report.println();
+        report.println(String.format("%d steps in %.1f s: %.1f steps/s, %d kb received, %d errors",
+                    steps.get(), elapsed, steps.get() / elapsed, (FanOut.bytesReceived() - bytesBefore) / 1024L, errors.get()));
+        report.println("step\tcount\tmean-ms\tp50-ms\tp90-ms\tp99-ms\tp99.9-ms\tmax-ms");
+        for (final Map.Entry<String,Histogram> entry : histograms.entrySet()) {
+            final Histogram histogram = entry.getValue();
+            report.println(String.format("%s\t%d\t%.2f\t%.2f\t%.2f\t%.2f\t%.2f\t%.2f",
+                        entry.getKey(),
+                        histogram.count(),
+                        histogram.mean() / 1000.0,
+                        histogram.percentile(50) / 1000.0,
+                        histogram.percentile(90) / 1000.0,
+                        histogram.percentile(99) / 1000.0,
+                        histogram.percentile(99.9) / 1000.0,
+                        histogram.max() / 1000.0));
+        }
+    }
+
+    public static void main(final String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("usage: LoadGenerator url [name=value...]");
+            System.exit(2);
+        }
+        int sessions = 8;
+        long seconds = 60;
+        double expand = 0.7;
+        boolean clear = true;
+        long think = 0;
+        long interval = 5;
+        long seed = 0;
+        final List<String> open = new ArrayList<String>();
+        open.add("open");
+        open.add(args[0]);
+        for (int i = 1; i < args.length; i++) {
+            final int eq = args[i].indexOf('=');
+            final String name = (eq < 0) ? args[i] : args[i].substring(0, eq);
+            final String value = args[i].substring(eq + 1);
+            if (name.equals("sessions"))
+                sessions = Integer.parseInt(value);
+            else if (name.equals("seconds"))
+                seconds = Long.parseLong(value);
+            else if (name.equals("expand"))
+                expand = Double.parseDouble(value);
+            else if (name.equals("clear"))
+                clear = Boolean.parseBoolean(value);
+            else if (name.equals("think"))
+                think = Long.parseLong(value);
+            else if (name.equals("interval"))
+                interval = Long.parseLong(value);
+            else if (name.equals("seed"))
+                seed = Long.parseLong(value);
+            else
+                open.add(args[i]);
+        }
+        final Engine.OpenSettings settings = BatchRunner.settings(open.toArray(new String[open.size()]));
+        new LoadGenerator(settings, sessions, expand, clear, think, seed).run(seconds, Math.max(1, interval), System.out);
+    }
+}
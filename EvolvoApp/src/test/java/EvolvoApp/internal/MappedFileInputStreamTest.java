@@ -0,0 +1,67 @@
+package EvolvoApp.internal;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.Random;
+
+public class MappedFileInputStreamTest
+{
+    private static File tempFile(final byte[] contents) throws Exception {
+        final File file = File.createTempFile("evolvo", ".json");
+        file.deleteOnExit();
+        final FileOutputStream output = new FileOutputStream(file);
+        output.write(contents);
+        output.close();
+        return file;
+    }
+
+    private static byte[] readAll(final InputStream input, final int chunk) throws Exception {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[chunk];
+        int n;
+        while ((n = input.read(buffer, 0, buffer.length)) != -1)
+            output.write(buffer, 0, n);
+        return output.toByteArray();
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        final InputStream input = new MappedFileInputStream(tempFile(new byte[0]));
+        assertEquals(-1, input.read());
+        assertEquals(0, input.available());
+        input.close();
+    }
+
+    @Test
+    public void testAcrossWindows() throws Exception {
+        final byte[] contents = new byte[10000];
+        new Random(1).nextBytes(contents);
+        final File file = tempFile(contents);
+
+        // window and read sizes that don't line up with each other
+        final InputStream input = new MappedFileInputStream(file, 1000);
+        assertArrayEquals(contents, readAll(input, 333));
+        input.close();
+    }
+
+    @Test
+    public void testReadAndSkip() throws Exception {
+        final byte[] contents = new byte[100];
+        for (int i = 0; i < contents.length; i++)
+            contents[i] = (byte) i;
+        final InputStream input = new MappedFileInputStream(tempFile(contents), 16);
+        assertEquals(0, input.read());
+        assertEquals(10, input.skip(10));
+        assertEquals(11, input.read());
+        assertEquals(50, input.skip(50));
+        assertEquals(62, input.read());
+        assertEquals(37, input.skip(1000));
+        assertEquals(-1, input.read());
+        input.close();
+    }
+}
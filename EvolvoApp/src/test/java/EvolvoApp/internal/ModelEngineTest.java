@@ -0,0 +1,598 @@
+package EvolvoApp.internal;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.cytoscape.model.NetworkTestSupport;
+import org.cytoscape.model.CyEdge;
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyNode;
+import org.cytoscape.model.subnetwork.CySubNetwork;
+
+import org.cytoscape.event.DummyCyEventHelper;
+
+public class ModelEngineTest
+{
+    static final String TOP_TIER =
+        "[[[\"name\", \"size\"], [\"a\", 1], [\"b\", 2]], [[\"source\", \"target\"], [0, 1]], []]";
+    static final String CHILDREN =
+        "[[[\"name\", \"size\"], [\"%s1\", 10], [\"%s2\", 20]], [[\"source\", \"target\"], [0, 1]], []]";
+    static final Pattern TARGET = Pattern.compile("\"target\":\"([^\"]*)\"");
+    static final String CHANGES =
+        "[{\"parent\": null, \"network\": [[[\"name\", \"size\"], [\"b\", 5], [\"c\", 3]], [[\"source\", \"target\"], [0, 1]], []]}," +
+        " {\"parent\": \"a\", \"network\": [[[\"name\", \"size\"], [\"a3\", 30]], [[\"source\", \"target\"]], []], \"deleted-nodes\": [\"a2\"]}]";
+
+    HttpServer server = null;
+    String url = null;
+    Engine engine = null;
+    final AtomicInteger expandRequests = new AtomicInteger();
+    volatile String lastRequest = null;
+    volatile String lastTransferEncoding = null;
+    volatile String lastQuery = null;
+    /** Responses to expand requests by target, in place of the default children */
+    final Map<String,String> tiers = new ConcurrentHashMap<String,String>();
+    volatile String changes = CHANGES;
+
+    @Before
+    public void setup() throws Exception {
+        final NetworkTestSupport nts = new NetworkTestSupport();
+        engine = new ModelEngine(nts.getNetworkFactory(), new DummyCyEventHelper());
+
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/replace", new HttpHandler() {
+            public void handle(final HttpExchange exchange) throws java.io.IOException {
+                final InputStream request = exchange.getRequestBody();
+                final ByteArrayOutputStream requestBody = new ByteArrayOutputStream();
+                int b;
+                while ((b = request.read()) != -1)
+                    requestBody.write(b);
+                request.close();
+                lastRequest = requestBody.toString("UTF-8");
+                lastTransferEncoding = exchange.getRequestHeaders().getFirst("Transfer-Encoding");
+                lastQuery = exchange.getRequestURI().getRawQuery();
+
+                final boolean refresh = exchange.getRequestURI().getPath().endsWith("/refresh");
+                final boolean path = exchange.getRequestURI().getPath().endsWith("/path");
+                final boolean expand = !refresh && !path && exchange.getRequestMethod().equals("POST");
+                if (expand)
+                    expandRequests.incrementAndGet();
+                final byte[] body = (refresh ? changes : path ? pathTo(lastRequest) : expand ? childrenOf(lastRequest) : TOP_TIER).getBytes("UTF-8");
+                exchange.getResponseHeaders().set("Evolvo-version", refresh ? "2" : "1");
+                exchange.getResponseHeaders().set("Evolvo-action", "REPLACE");
+                exchange.getResponseHeaders().set("Evolvo-node-column", "name");
+                exchange.sendResponseHeaders(200, body.length);
+                final OutputStream response = exchange.getResponseBody();
+                response.write(body);
+                response.close();
+            }
+        });
+        server.start();
+        url = String.format("http://localhost:%d/replace", server.getAddress().getPort());
+    }
+
+    @After
+    public void teardown() {
+        server.stop(0);
+    }
+
+    /**
+     * Return the children of the target of {@code request}: the target's key followed by 1 and 2.
+     */
+    private String childrenOf(final String request) {
+        final Matcher matcher = TARGET.matcher(request);
+        matcher.find();
+        return childrenOfKey(matcher.group(1));
+    }
+
+    private String childrenOfKey(final String key) {
+        final String tier = tiers.get(key);
+        return (tier != null) ? tier : String.format(CHILDREN, key, key);
+    }
+
+    /**
+     * Return the path to the target of {@code request}, which expands every
+     * prefix of the target's key: the path to "a12" expands "a", then "a1".
+     */
+    private String pathTo(final String request) {
+        final Matcher matcher = TARGET.matcher(request);
+        matcher.find();
+        final String target = matcher.group(1);
+        final StringBuilder path = new StringBuilder("[");
+        for (int i = 1; i < target.length(); i++) {
+            if (i > 1)
+                path.append(", ");
+            final String key = target.substring(0, i);
+            path.append("[\"").append(key).append("\", ").append(childrenOfKey(key)).append(']');
+        }
+        return path.append(']').toString();
+    }
+
+    private CyNetwork open() throws Exception {
+        final Engine.OpenSettings settings = new Engine.OpenSettings();
+        settings.location = url;
+        return engine.open(settings);
+    }
+
+    private CyNetwork open(final int maxNodes) throws Exception {
+        final Engine.OpenSettings settings = new Engine.OpenSettings();
+        settings.location = url;
+        settings.maxNodes = maxNodes;
+        return engine.open(settings);
+    }
+
+    private static int rootNodeCount(final CyNetwork net) {
+        return ((CySubNetwork) net).getRootNetwork().getNodeCount();
+    }
+
+    @Test
+    public void testOpen() throws Exception {
+        final CyNetwork net = open();
+        assertEquals(2, net.getNodeCount());
+        assertEquals(1, net.getEdgeCount());
+        assertEquals(url, net.getRow(net).get("Evolvo-url", String.class));
+        assertTrue(engine.isExpandable(net, engine.nodeWithKey(net, "a")));
+        assertFalse(engine.isCollapsable(net, engine.nodeWithKey(net, "a")));
+    }
+
+    @Test
+    public void testExpandAndCollapse() throws Exception {
+        final CyNetwork net = open();
+        final CyNode a = engine.nodeWithKey(net, "a");
+        assertEquals(0, engine.expand(net, a));
+        assertFalse(net.containsNode(a));
+        assertEquals(3, net.getNodeCount());
+        assertEquals(1, net.getEdgeCount());
+        assertEquals(1, HiddenEdges.store(net).size());
+
+        final CyNode a1 = engine.nodeWithKey(net, "a1");
+        assertEquals(a.getSUID(), net.getRow(a1).get("Evolvo-parent", Long.class));
+        assertTrue(engine.isCollapsable(net, a1));
+        assertEquals(a.getSUID(), engine.expansionOf(net, a1));
+        assertNull(engine.expansionOf(net, engine.nodeWithKey(net, "b")));
+
+        engine.collapse(net, a1, false);
+        assertTrue(net.containsNode(a));
+        assertEquals(2, net.getNodeCount());
+        assertEquals(1, net.getEdgeCount());
+        assertEquals(4, rootNodeCount(net));
+
+        // the children are still in the root network, so the server isn't asked again
+        assertEquals(2, engine.expand(net, a));
+        assertEquals(1, expandRequests.get());
+    }
+
+    private long suid(final CyNetwork net, final String key) {
+        return engine.nodeWithKey(net, key).getSUID();
+    }
+
+    @Test
+    public void testExpansionOrder() throws Exception {
+        final CyNetwork net = open();
+        engine.expand(net, engine.nodeWithKey(net, "a"));
+        engine.expand(net, engine.nodeWithKey(net, "b"));
+        assertEquals(Arrays.asList(suid(net, "a"), suid(net, "b")), ExpansionOrder.suids(net));
+
+        // expanding a1 uses its parent as well
+        engine.expand(net, engine.nodeWithKey(net, "a1"));
+        assertEquals(Arrays.asList(suid(net, "b"), suid(net, "a1"), suid(net, "a")), ExpansionOrder.suids(net));
+
+        engine.collapse(net, engine.nodeWithKey(net, "a11"), false);
+        assertEquals(Arrays.asList(suid(net, "b"), suid(net, "a")), ExpansionOrder.suids(net));
+
+        ExpansionOrder.save(net);
+        assertEquals(Arrays.asList(suid(net, "b"), suid(net, "a")), net.getRow(net).getList("Evolvo-expansion-order", Long.class));
+    }
+
+    @Test
+    public void testAutoCollapse() throws Exception {
+        final CyNetwork net = open(3);
+        final CyNode a = engine.nodeWithKey(net, "a");
+        final CyNode b = engine.nodeWithKey(net, "b");
+        engine.expand(net, a);
+        assertEquals(0, engine.autoCollapse(net, a, null));
+        engine.expand(net, b);
+        assertEquals(4, net.getNodeCount());
+
+        // a is the least recently used expansion, and the expansion just made is exempt
+        final List<CyNode> told = new ArrayList<CyNode>();
+        assertEquals(1, engine.autoCollapse(net, b, new Engine.CollapseListener() {
+            public void aboutToCollapse(final CyNetwork net, final CyNode parent) {
+                // the children are still there to be looked at
+                assertTrue(net.containsNode(engine.nodeWithKey(net, "a1")));
+                told.add(parent);
+            }
+        }));
+        assertEquals(Arrays.asList(a), told);
+        assertTrue(net.containsNode(a));
+        assertTrue(net.containsNode(engine.nodeWithKey(net, "b1")));
+        assertFalse(net.containsNode(engine.nodeWithKey(net, "a1")));
+        assertEquals(3, net.getNodeCount());
+        assertEquals(Arrays.asList(b.getSUID()), ExpansionOrder.suids(net));
+
+        // the children are kept, so the server isn't asked again
+        engine.expand(net, a);
+        assertEquals(2, expandRequests.get());
+    }
+
+    @Test
+    public void testAutoCollapseKeepsExpandedDescendants() throws Exception {
+        final CyNetwork net = open(3);
+        final CyNode a = engine.nodeWithKey(net, "a");
+        engine.expand(net, a);
+        final CyNode a1 = engine.nodeWithKey(net, "a1");
+        engine.expand(net, a1);
+        assertEquals(4, net.getNodeCount());
+
+        // a's child a1 is expanded and out of the subnetwork, so collapsing a would strand a1's children
+        assertEquals(0, engine.autoCollapse(net, a1, null));
+        assertFalse(net.containsNode(a));
+        assertTrue(net.containsNode(engine.nodeWithKey(net, "a11")));
+        assertTrue(net.containsNode(engine.nodeWithKey(net, "a2")));
+    }
+
+    /**
+     * Return the meta-edge between {@code a} and {@code b}, or null if there isn't one.
+     */
+    private static CyEdge metaEdge(final CyNetwork net, final CyNode a, final CyNode b) {
+        CyEdge metaEdge = null;
+        for (final CyEdge edge : net.getConnectingEdgeList(a, b, CyEdge.Type.ANY)) {
+            if (!MetaEdges.isMeta(net, edge))
+                continue;
+            assertNull("more than one meta-edge", metaEdge);
+            metaEdge = edge;
+        }
+        return metaEdge;
+    }
+
+    private static void assertMetaEdge(final CyNetwork net, final CyEdge edge, final int count, final double min, final double max, final double mean) {
+        assertNotNull(edge);
+        assertEquals(Integer.valueOf(count), net.getRow(edge).get("Evolvo-meta-count", Integer.class));
+        assertEquals(min, net.getRow(edge).get("Evolvo-meta-min", Double.class), 1e-9);
+        assertEquals(max, net.getRow(edge).get("Evolvo-meta-max", Double.class), 1e-9);
+        assertEquals(mean, net.getRow(edge).get("Evolvo-meta-mean", Double.class), 1e-9);
+    }
+
+    @Test
+    public void testMetaEdges() throws Exception {
+        // b's children have edges to a's children
+        tiers.put("b",
+            "[[[\"name\"], [\"b1\"], [\"b2\"], [\"a1\"], [\"a2\"]]," +
+            " [[\"source\", \"target\", \"weight\"], [0, 1, 1], [0, 2, 2], [1, 2, 4], [0, 3, 5]], []]");
+        final Engine.OpenSettings settings = new Engine.OpenSettings();
+        settings.location = url;
+        settings.aggregateEdges = true;
+        settings.aggregateColumn = "weight";
+        final CyNetwork net = engine.open(settings);
+        final CyNode a = engine.nodeWithKey(net, "a");
+        final CyNode b = engine.nodeWithKey(net, "b");
+        engine.expand(net, a);
+        engine.expand(net, b);
+        final CyNode a1 = engine.nodeWithKey(net, "a1");
+        final CyNode a2 = engine.nodeWithKey(net, "a2");
+        final CyNode b1 = engine.nodeWithKey(net, "b1");
+        assertEquals(4, net.getNodeCount());
+        assertEquals(5, net.getEdgeCount());
+        assertNull(metaEdge(net, a1, b1));
+
+        // b1 and b2 are drawn as b, so their edges to a1 become one meta-edge
+        engine.collapse(net, b1, false);
+        assertMetaEdge(net, metaEdge(net, a1, b), 2, 2.0, 4.0, 3.0);
+        assertMetaEdge(net, metaEdge(net, a2, b), 1, 5.0, 5.0, 5.0);
+        assertEquals(3, net.getEdgeCount());
+
+        // collapsing a merges both meta-edges into one, next to the edge between a and b themselves
+        engine.collapse(net, a1, false);
+        assertMetaEdge(net, metaEdge(net, a, b), 3, 2.0, 5.0, 11.0 / 3.0);
+        assertEquals(2, net.getConnectingEdgeList(a, b, CyEdge.Type.ANY).size());
+        assertEquals(2, net.getEdgeCount());
+
+        // expanding a again splits them up
+        engine.expand(net, a);
+        assertNull(metaEdge(net, a, b));
+        assertMetaEdge(net, metaEdge(net, a1, b), 2, 2.0, 4.0, 3.0);
+        assertMetaEdge(net, metaEdge(net, a2, b), 1, 5.0, 5.0, 5.0);
+
+        // and with everything expanded, every edge is shown as is
+        engine.expand(net, b);
+        assertNull(metaEdge(net, a1, b1));
+        assertEquals(5, net.getEdgeCount());
+    }
+
+    @Test
+    public void testStoredEdgeTakesColumnType() throws Exception {
+        // a's children declare weight as 32-bit, but b's edge to the hidden a1 is read as 64-bit
+        tiers.put("a",
+            "[[[\"name\"], [\"a1\"], [\"a2\"]]," +
+            " [[\"source\", \"target\", {\"name\": \"weight\", \"type\": \"integer\"}], [0, 1, 1]], []]");
+        tiers.put("b",
+            "[[[\"name\"], [\"b1\"], [\"a1\"]]," +
+            " [[\"source\", \"target\", \"weight\"], [0, 1, 5]], []]");
+        final CyNetwork net = open();
+        final CyNode a = engine.nodeWithKey(net, "a");
+        engine.expand(net, a);
+        final CyNode a1 = engine.nodeWithKey(net, "a1");
+        engine.collapse(net, a1, false);
+        engine.expand(net, engine.nodeWithKey(net, "b"));
+        final CyNode b1 = engine.nodeWithKey(net, "b1");
+        assertTrue(net.getConnectingEdgeList(a, b1, CyEdge.Type.ANY).isEmpty());
+
+        engine.expand(net, a);
+        final List<CyEdge> edges = net.getConnectingEdgeList(a1, b1, CyEdge.Type.ANY);
+        assertEquals(1, edges.size());
+        assertEquals(Integer.valueOf(5), net.getRow(edges.get(0)).get("weight", Integer.class));
+    }
+
+    @Test
+    public void testFind() throws Exception {
+        final CyNetwork net = open();
+        assertEquals(2, engine.find(net, "a12"));
+        assertTrue(lastRequest.contains("\"target\":\"a12\""));
+
+        // a and a1 are replaced by their children, and the node that was found is selected
+        final CyNode a12 = engine.nodeWithKey(net, "a12");
+        assertTrue(net.containsNode(a12));
+        assertTrue(net.getRow(a12).get(CyNetwork.SELECTED, Boolean.class));
+        assertFalse(net.containsNode(engine.nodeWithKey(net, "a")));
+        assertFalse(net.containsNode(engine.nodeWithKey(net, "a1")));
+        assertTrue(net.containsNode(engine.nodeWithKey(net, "a2")));
+        assertTrue(net.containsNode(engine.nodeWithKey(net, "b")));
+        assertEquals(4, net.getNodeCount());
+        assertEquals(0, expandRequests.get());
+
+        // tiers that are already expanded are skipped
+        assertEquals(2, engine.find(net, "a21"));
+        assertTrue(net.containsNode(a12));
+        assertTrue(net.containsNode(engine.nodeWithKey(net, "a21")));
+        assertFalse(net.containsNode(engine.nodeWithKey(net, "a2")));
+        assertEquals(5, net.getNodeCount());
+    }
+
+    @Test
+    public void testSnapshotRoundTrip() throws Exception {
+        final File log = File.createTempFile("evolvo", ".log");
+        log.deleteOnExit();
+        final StringBuilder note = new StringBuilder();
+        while (note.length() < 100000)
+            note.append("0123456789");
+        tiers.put("b", "[[[\"name\", \"note\"], [\"b1\", \"" + note + "\"], [\"b2\", \"\"]], [[\"source\", \"target\"], [0, 1]], []]");
+        // a-b is stored away, a1-a2 is drawn, and b1-b2 goes
+        changes = "[{\"parent\": null, \"network\": [[[\"name\"], [\"a\"], [\"b\"]], [[\"source\", \"target\", \"weight\"], [0, 1, 9]], []]}," +
+                  " {\"parent\": \"a\", \"network\": [[[\"name\"], [\"a1\"], [\"a2\"]], [[\"source\", \"target\", \"weight\"], [0, 1, 7]], []], \"deleted-edges\": [[\"b1\", \"b2\"]]}]";
+
+        final Engine.OpenSettings settings = new Engine.OpenSettings();
+        settings.location = url;
+        settings.snapshot = log.getPath();
+        final CyNetwork net = engine.open(settings);
+        engine.expand(net, engine.nodeWithKey(net, "a"));
+        engine.expand(net, engine.nodeWithKey(net, "b"));
+        engine.refresh(net, null);
+        engine.collapse(net, engine.nodeWithKey(net, "b1"), false);
+        assertEquals(3, net.getNodeCount());
+        assertEquals(1, net.getEdgeCount());
+        final int requests = expandRequests.get();
+
+        final CyNetwork restored = engine.restore(log);
+        assertNotSame(net, restored);
+        assertEquals(3, restored.getNodeCount());
+        assertEquals(1, restored.getEdgeCount());
+        final CyNode a = engine.nodeWithKey(restored, "a");
+        final CyNode a1 = engine.nodeWithKey(restored, "a1");
+        final CyNode a2 = engine.nodeWithKey(restored, "a2");
+        final CyNode b = engine.nodeWithKey(restored, "b");
+        assertTrue(restored.containsNode(a1));
+        assertTrue(restored.containsNode(b));
+        assertEquals(Long.valueOf(7), restored.getRow(restored.getConnectingEdgeList(a1, a2, CyEdge.Type.ANY).get(0)).get("weight", Long.class));
+        assertEquals(note.toString(), restored.getRow(engine.nodeWithKey(restored, "b1")).get("note", String.class));
+        assertTrue(HiddenParents.contains(restored, a));
+        assertEquals(Arrays.asList(a.getSUID()), ExpansionOrder.suids(restored));
+
+        // b's children come back without their deleted edge, and a-b comes back once with its new weight
+        engine.expand(restored, b);
+        final CyNode b1 = engine.nodeWithKey(restored, "b1");
+        assertTrue(restored.containsNode(b1));
+        assertTrue(restored.getConnectingEdgeList(b1, engine.nodeWithKey(restored, "b2"), CyEdge.Type.ANY).isEmpty());
+        assertEquals(1, restored.getEdgeCount());
+        engine.collapse(restored, a1, false);
+        engine.collapse(restored, b1, false);
+        final List<CyEdge> edges = restored.getConnectingEdgeList(a, b, CyEdge.Type.ANY);
+        assertEquals(1, edges.size());
+        assertEquals(Long.valueOf(9), restored.getRow(edges.get(0)).get("weight", Long.class));
+        assertEquals(requests, expandRequests.get());
+    }
+
+    @Test
+    public void testExpandRequestIsStreamed() throws Exception {
+        final CyNetwork net = open();
+        engine.expand(net, engine.nodeWithKey(net, "a"));
+        assertEquals("chunked", lastTransferEncoding);
+        assertEquals("{\"target\":\"a\",\"extant-nodes\":[\"b\"]}", lastRequest);
+    }
+
+    @Test
+    public void testColumnProjection() throws Exception {
+        final Engine.OpenSettings settings = new Engine.OpenSettings();
+        settings.location = url;
+        settings.columns = "x, y";
+        final CyNetwork net = engine.open(settings);
+        assertEquals("columns=x%2Cy", lastQuery);
+        assertNull(net.getDefaultNodeTable().getColumn("size"));
+
+        engine.expand(net, engine.nodeWithKey(net, "a"));
+        assertEquals("{\"target\":\"a\",\"extant-nodes\":[\"b\"],\"columns\":[\"x\",\"y\",\"name\"]}", lastRequest);
+        assertNull(net.getDefaultNodeTable().getColumn("size"));
+
+        final CyNode a1 = engine.nodeWithKey(net, "a1");
+        assertEquals(1, engine.loadAttributes(net, Collections.singletonList(a1)));
+        assertEquals("{\"target\":\"a\"}", lastRequest);
+        assertEquals(Long.valueOf(10), net.getRow(a1).get("size", Long.class));
+        assertNull(net.getRow(engine.nodeWithKey(net, "a2")).get("size", Long.class));
+    }
+
+    @Test
+    public void testStoredEdgeColumnProjection() throws Exception {
+        tiers.put("b",
+            "[[[\"name\"], [\"b1\"], [\"a1\"]]," +
+            " [[\"source\", \"target\", \"weight\", \"extra\"], [0, 1, 5, \"x\"]], []]");
+        final Engine.OpenSettings settings = new Engine.OpenSettings();
+        settings.location = url;
+        settings.columns = "weight";
+        final CyNetwork net = engine.open(settings);
+        final CyNode a = engine.nodeWithKey(net, "a");
+        engine.expand(net, a);
+        final CyNode a1 = engine.nodeWithKey(net, "a1");
+        engine.collapse(net, a1, false);
+        engine.expand(net, engine.nodeWithKey(net, "b"));
+
+        // b1's edge to the hidden a1 is stored, then shown with only the projected columns
+        engine.expand(net, a);
+        final List<CyEdge> edges = net.getConnectingEdgeList(a1, engine.nodeWithKey(net, "b1"), CyEdge.Type.ANY);
+        assertEquals(1, edges.size());
+        assertEquals(Long.valueOf(5), net.getRow(edges.get(0)).get("weight", Long.class));
+        assertNull(net.getDefaultEdgeTable().getColumn("extra"));
+    }
+
+    @Test
+    public void testRefresh() throws Exception {
+        final CyNetwork net = open();
+        assertEquals("1", net.getRow(net).get("Evolvo-version", String.class));
+        final CyNode a = engine.nodeWithKey(net, "a");
+        engine.expand(net, a);
+        final CyNode a1 = engine.nodeWithKey(net, "a1");
+
+        final Set<CyNode> added = new HashSet<CyNode>();
+        assertEquals(4, engine.refresh(net, new Engine.AddListener() {
+            public void nodesAdded(final CyNetwork net, final Collection<CyNode> nodes) {
+                added.addAll(nodes);
+            }
+        }));
+        assertEquals("{\"version\":\"1\",\"expanded\":[\"a\"]}", lastRequest);
+        assertEquals("2", net.getRow(net).get("Evolvo-version", String.class));
+
+        // b changed, c and a3 are new, and a2 is gone
+        final CyNode b = engine.nodeWithKey(net, "b");
+        assertEquals(Long.valueOf(5), net.getRow(b).get("size", Long.class));
+        final CyNode c = engine.nodeWithKey(net, "c");
+        assertTrue(net.containsNode(c));
+        assertTrue(net.containsEdge(b, c));
+        final CyNode a3 = engine.nodeWithKey(net, "a3");
+        assertTrue(net.containsNode(a3));
+        assertEquals(a.getSUID(), net.getRow(a3).get("Evolvo-parent", Long.class));
+        assertNull(engine.nodeWithKey(net, "a2"));
+        assertEquals(new HashSet<CyNode>(Arrays.asList(c, a3)), added);
+
+        // nothing else was touched
+        assertSame(a1, engine.nodeWithKey(net, "a1"));
+        assertFalse(net.containsNode(a));
+        assertEquals(4, net.getNodeCount());
+        assertEquals(1, net.getEdgeCount());
+        assertEquals(1, expandRequests.get());
+    }
+
+    private Thread expandInBackground(final CyNetwork net, final String key) {
+        final Thread thread = new Thread() {
+            public void run() {
+                try {
+                    engine.expand(net, engine.nodeWithKey(net, key));
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        thread.start();
+        return thread;
+    }
+
+    @Test
+    public void testNetworksExpandIndependently() throws Exception {
+        final CyNetwork busy = open();
+        final CyNetwork idle = open();
+        final ReentrantLock lock = NetworkLocks.of(busy);
+        lock.lock();
+        final Thread waiting;
+        try {
+            assertNotSame(lock, NetworkLocks.of(idle));
+
+            // another network expands while this one is busy
+            final Thread other = expandInBackground(idle, "a");
+            other.join(10000);
+            assertFalse(other.isAlive());
+            assertEquals(3, idle.getNodeCount());
+
+            // an expand of the busy network waits its turn
+            waiting = expandInBackground(busy, "a");
+            waiting.join(200);
+            assertTrue(waiting.isAlive());
+            assertEquals(2, busy.getNodeCount());
+        } finally {
+            lock.unlock();
+        }
+        waiting.join(10000);
+        assertFalse(waiting.isAlive());
+        assertEquals(3, busy.getNodeCount());
+    }
+
+    @Test
+    public void testCollapseAndClear() throws Exception {
+        final CyNetwork net = open();
+        final CyNode a = engine.nodeWithKey(net, "a");
+        engine.expand(net, a);
+        engine.collapse(net, engine.nodeWithKey(net, "a1"), true);
+        assertEquals(2, rootNodeCount(net));
+        assertNull(engine.nodeWithKey(net, "a1"));
+        assertEquals(1, net.getEdgeCount());
+    }
+
+    @Test
+    public void testBatchRunner() throws Exception {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final PrintStream report = new PrintStream(output);
+        final String script =
+            "# open, expand and collapse\n" +
+            "open " + url + "\n" +
+            "expand a\n" +
+            "\n" +
+            "clear a1\n";
+        final CyNetwork net = new BatchRunner(engine, report).run(new StringReader(script));
+        report.close();
+
+        final String[] lines = output.toString("UTF-8").split("\n");
+        assertEquals(4, lines.length);
+        assertEquals(BatchRunner.HEADER, lines[0]);
+        assertTrue(lines[2].startsWith("2\texpand\ta\t"));
+        assertTrue(lines[2].endsWith("\t3\t1\t4\t1\t1"));
+        assertTrue(lines[3].endsWith("\t2\t1\t2\t1\t0"));
+        assertEquals(2, net.getNodeCount());
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testBatchRunnerUnknownNode() throws Exception {
+        new BatchRunner(engine, new PrintStream(new ByteArrayOutputStream())).run(new StringReader("open " + url + "\nexpand z\n"));
+    }
+}
@@ -0,0 +1,229 @@
+package EvolvoApp.internal;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.Before;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.cytoscape.event.CyEvent;
+import org.cytoscape.event.CyEventHelper;
+import org.cytoscape.event.CyPayloadEvent;
+import org.cytoscape.model.NetworkTestSupport;
+import org.cytoscape.model.CyEdge;
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyNode;
+import org.cytoscape.model.events.AboutToRemoveEdgesEvent;
+import org.cytoscape.model.events.AboutToRemoveNodesEvent;
+import org.cytoscape.model.events.AddedEdgesEvent;
+import org.cytoscape.model.events.AddedNodesEvent;
+import org.cytoscape.model.events.ColumnCreatedEvent;
+import org.cytoscape.model.events.RemovedEdgesEvent;
+import org.cytoscape.model.events.RemovedNodesEvent;
+import org.cytoscape.model.events.RowSetRecord;
+import org.cytoscape.model.events.RowsSetEvent;
+
+public class ModelTransactionTest
+{
+    /**
+     * Records what would reach listeners, dropping what silenced sources fire like Cytoscape's helper does.
+     */
+    static class RecordingEventHelper implements CyEventHelper {
+        final Set<Object> silenced = new HashSet<Object>();
+        final List<CyEvent<?>> fired = new ArrayList<CyEvent<?>>();
+        final List<Object> payloads = new ArrayList<Object>();
+        final List<Class<?>> payloadTypes = new ArrayList<Class<?>>();
+        // for each event fired, whether the nodes or edges it names were still in the network
+        final List<Boolean> stillThere = new ArrayList<Boolean>();
+
+        public <E extends CyEvent<?>> void fireEvent(final E event) {
+            if (silenced.contains(event.getSource()))
+                return;
+            fired.add(event);
+            if (event instanceof AboutToRemoveNodesEvent) {
+                final AboutToRemoveNodesEvent e = (AboutToRemoveNodesEvent) event;
+                boolean there = true;
+                for (final CyNode node : e.getNodes())
+                    there &= e.getSource().containsNode(node);
+                stillThere.add(there);
+            } else if (event instanceof AboutToRemoveEdgesEvent) {
+                final AboutToRemoveEdgesEvent e = (AboutToRemoveEdgesEvent) event;
+                boolean there = true;
+                for (final CyEdge edge : e.getEdges())
+                    there &= e.getSource().containsEdge(edge);
+                stillThere.add(there);
+            } else {
+                stillThere.add(null);
+            }
+        }
+
+        public <S,P,E extends CyPayloadEvent<S,P>> void addEventPayload(final S source, final P payload, final Class<E> type) {
+            if (silenced.contains(source))
+                return;
+            payloads.add(payload);
+            payloadTypes.add(type);
+        }
+
+        public void silenceEventSource(final Object source) {
+            silenced.add(source);
+        }
+
+        public void unsilenceEventSource(final Object source) {
+            silenced.remove(source);
+        }
+
+        public void flushPayloadEvents() {}
+
+        <E> List<E> firedOf(final Class<E> type) {
+            final List<E> events = new ArrayList<E>();
+            for (final CyEvent<?> event : fired)
+                if (type.isInstance(event))
+                    events.add(type.cast(event));
+            return events;
+        }
+
+        List<Object> payloadsOf(final Class<?> type) {
+            final List<Object> of = new ArrayList<Object>();
+            for (int i = 0; i < payloads.size(); i++)
+                if (payloadTypes.get(i).equals(type))
+                    of.add(payloads.get(i));
+            return of;
+        }
+    }
+
+    CyNetwork net = null;
+    RecordingEventHelper eventHelper = null;
+
+    @Before
+    public void setup() {
+        net = new NetworkTestSupport().getNetwork();
+        eventHelper = new RecordingEventHelper();
+    }
+
+    @Test
+    public void testAdditionsAreHeldUntilCommit() {
+        final ModelTransaction tx = new ModelTransaction(net, eventHelper);
+        final CyNode a = tx.addNode();
+        final CyNode b = tx.addNode();
+        final CyEdge e = tx.addEdge(a, b, false);
+        tx.set(a, "weight", 3);
+        tx.set(b, "weight", 4);
+
+        // the network is up to date, but no one has heard about it
+        assertEquals(2, net.getNodeCount());
+        assertEquals(Integer.valueOf(3), net.getRow(a).get("weight", Integer.class));
+        assertTrue(eventHelper.fired.isEmpty());
+        assertTrue(eventHelper.payloads.isEmpty());
+
+        tx.commit();
+        assertEquals(Arrays.<Object>asList(a, b), eventHelper.payloadsOf(AddedNodesEvent.class));
+        assertEquals(Arrays.<Object>asList(e), eventHelper.payloadsOf(AddedEdgesEvent.class));
+        final List<Object> records = eventHelper.payloadsOf(RowsSetEvent.class);
+        assertEquals(2, records.size());
+        assertEquals("weight", ((RowSetRecord) records.get(0)).getColumn());
+        assertEquals(3, ((RowSetRecord) records.get(0)).getValue());
+        assertEquals(4, ((RowSetRecord) records.get(1)).getValue());
+
+        final List<ColumnCreatedEvent> created = eventHelper.firedOf(ColumnCreatedEvent.class);
+        assertEquals(1, created.size());
+        assertEquals("weight", created.get(0).getColumnName());
+        assertTrue(eventHelper.firedOf(RemovedNodesEvent.class).isEmpty());
+        assertTrue(eventHelper.silenced.isEmpty());
+
+        // committing again does nothing
+        final int fired = eventHelper.fired.size();
+        tx.commit();
+        assertEquals(fired, eventHelper.fired.size());
+        assertEquals(5, eventHelper.payloads.size());
+    }
+
+    @Test
+    public void testRemovalsAreAnnouncedBeforehand() {
+        final CyNode a = net.addNode();
+        final CyNode b = net.addNode();
+        final CyNode c = net.addNode();
+        final CyEdge ab = net.addEdge(a, b, false);
+        final CyEdge bc = net.addEdge(b, c, false);
+
+        final ModelTransaction tx = new ModelTransaction(net, eventHelper);
+        tx.removeNodes(Collections.singletonList(a));
+        tx.removeEdges(Collections.singletonList(bc));
+        assertEquals(2, net.getNodeCount());
+        assertEquals(0, net.getEdgeCount());
+
+        // each removal was announced while what it removed was still there
+        final List<AboutToRemoveEdgesEvent> edgeEvents = eventHelper.firedOf(AboutToRemoveEdgesEvent.class);
+        assertEquals(2, edgeEvents.size());
+        assertEquals(Arrays.asList(ab), new ArrayList<CyEdge>(edgeEvents.get(0).getEdges()));
+        assertEquals(Arrays.asList(bc), new ArrayList<CyEdge>(edgeEvents.get(1).getEdges()));
+        final List<AboutToRemoveNodesEvent> nodeEvents = eventHelper.firedOf(AboutToRemoveNodesEvent.class);
+        assertEquals(1, nodeEvents.size());
+        assertEquals(Arrays.asList(a), new ArrayList<CyNode>(nodeEvents.get(0).getNodes()));
+        assertEquals(Arrays.<Boolean>asList(true, true, true), eventHelper.stillThere);
+        assertTrue(eventHelper.firedOf(RemovedNodesEvent.class).isEmpty());
+
+        tx.commit();
+        assertEquals(1, eventHelper.firedOf(RemovedNodesEvent.class).size());
+        assertEquals(1, eventHelper.firedOf(RemovedEdgesEvent.class).size());
+        assertTrue(eventHelper.payloads.isEmpty());
+    }
+
+    @Test
+    public void testAddedThenRemovedIsNotAnnounced() {
+        final ModelTransaction tx = new ModelTransaction(net, eventHelper);
+        final CyNode a = tx.addNode();
+        final CyNode b = tx.addNode();
+        tx.addEdge(a, b, false);
+        tx.removeNodes(Arrays.asList(a));
+        tx.commit();
+
+        assertTrue(eventHelper.firedOf(AboutToRemoveNodesEvent.class).isEmpty());
+        assertTrue(eventHelper.firedOf(AboutToRemoveEdgesEvent.class).isEmpty());
+        assertTrue(eventHelper.firedOf(RemovedNodesEvent.class).isEmpty());
+        assertEquals(Arrays.<Object>asList(b), eventHelper.payloadsOf(AddedNodesEvent.class));
+        assertTrue(eventHelper.payloadsOf(AddedEdgesEvent.class).isEmpty());
+    }
+
+    @Test
+    public void testRemovedThenAddedBackIsAnnouncedBothTimes() {
+        final CyNode a = net.addNode();
+
+        final ModelTransaction tx = new ModelTransaction(net, eventHelper);
+        tx.removeNodes(Arrays.asList(a));
+        tx.addNodes(Arrays.asList(a));
+        tx.commit();
+
+        assertTrue(net.containsNode(a));
+        assertEquals(1, eventHelper.firedOf(AboutToRemoveNodesEvent.class).size());
+        assertEquals(1, eventHelper.firedOf(RemovedNodesEvent.class).size());
+        assertEquals(Arrays.<Object>asList(a), eventHelper.payloadsOf(AddedNodesEvent.class));
+    }
+
+    @Test
+    public void testSetNullWithoutColumn() {
+        final CyNode a = net.addNode();
+        final ModelTransaction tx = new ModelTransaction(net, eventHelper);
+        tx.set(a, "missing", null);
+        tx.commit();
+
+        assertNull(net.getDefaultNodeTable().getColumn("missing"));
+        assertTrue(eventHelper.payloads.isEmpty());
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testSetWrongType() {
+        final CyNode a = net.addNode();
+        final ModelTransaction tx = new ModelTransaction(net, eventHelper);
+        try {
+            tx.set(a, "weight", 3);
+            tx.set(a, "weight", "heavy");
+        } finally {
+            tx.commit();
+        }
+    }
+}
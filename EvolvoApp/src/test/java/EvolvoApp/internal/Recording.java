@@ -0,0 +1,146 @@
+package EvolvoApp.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A file of HTTP request and response pairs, written by {@link RecordingProxy}
+ * and served back by {@link ReplayServer}.
+ *
+ * <p>
+ * The file starts with {@link #MAGIC} and {@link #VERSION}, followed by one
+ * record per exchange: the method, the path with its query, the request
+ * body, the response status, the response headers and the response body.
+ * Strings are written with {@code writeUTF} and bodies as a length followed
+ * by the bytes. A record cut short at the end of the file is ignored.
+ * </p>
+ */
+public class Recording {
+    public static final int MAGIC = 0x45565250; // "EVRP"
+    public static final int VERSION = 1;
+
+    public static class Exchange {
+        public final String method;
+        public final String path;
+        public final byte[] requestBody;
+        public final int status;
+        public final Map<String,String> headers;
+        public final byte[] responseBody;
+
+        public Exchange(final String method, final String path, final byte[] requestBody, final int status, final Map<String,String> headers, final byte[] responseBody) {
+            this.method = method;
+            this.path = path;
+            this.requestBody = requestBody;
+            this.status = status;
+            this.headers = headers;
+            this.responseBody = responseBody;
+        }
+
+        /**
+         * Return true if {@code method}, {@code path} and {@code requestBody} are the same as this exchange's.
+         */
+        public boolean matches(final String method, final String path, final byte[] requestBody) {
+            return this.method.equals(method) && this.path.equals(path) && Arrays.equals(this.requestBody, requestBody);
+        }
+    }
+
+    final DataOutputStream output;
+
+    /**
+     * Start a new recording in {@code file}, replacing whatever was there.
+     */
+    public Recording(final File file) throws IOException {
+        output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.flush();
+    }
+
+    public synchronized void append(final Exchange exchange) throws IOException {
+        output.writeUTF(exchange.method);
+        output.writeUTF(exchange.path);
+        writeBytes(output, exchange.requestBody);
+        output.writeInt(exchange.status);
+        output.writeInt(exchange.headers.size());
+        for (final Map.Entry<String,String> header : exchange.headers.entrySet()) {
+            output.writeUTF(header.getKey());
+            output.writeUTF(header.getValue());
+        }
+        writeBytes(output, exchange.responseBody);
+        output.flush();
+    }
+
+    public synchronized void close() throws IOException {
+        output.close();
+    }
+
+    /**
+     * Read every complete exchange in {@code file}, in the order they were recorded.
+     * @throws IOException if {@code file} isn't a recording
+     */
+    public static List<Exchange> read(final File file) throws IOException {
+        final DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (input.readInt() != MAGIC)
+                throw new IOException(String.format("%s is not a recording", file));
+            final int version = input.readInt();
+            if (version != VERSION)
+                throw new IOException(String.format("%s has version %d, expected %d", file, version, VERSION));
+
+            final List<Exchange> exchanges = new ArrayList<Exchange>();
+            try {
+                while (true) {
+                    final String method = input.readUTF();
+                    final String path = input.readUTF();
+                    final byte[] requestBody = readBytes(input);
+                    final int status = input.readInt();
+                    final int headerCount = input.readInt();
+                    final Map<String,String> headers = new LinkedHashMap<String,String>();
+                    for (int i = 0; i < headerCount; i++)
+                        headers.put(input.readUTF(), input.readUTF());
+                    final byte[] responseBody = readBytes(input);
+                    exchanges.add(new Exchange(method, path, requestBody, status, headers, responseBody));
+                }
+            } catch (EOFException e) {
+                // end of the recording, or a record cut short
+            }
+            return exchanges;
+        } finally {
+            input.close();
+        }
+    }
+
+    static byte[] readAll(final InputStream input) throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        int n;
+        while ((n = input.read(buffer)) != -1)
+            output.write(buffer, 0, n);
+        return output.toByteArray();
+    }
+
+    private static void writeBytes(final DataOutputStream output, final byte[] bytes) throws IOException {
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static byte[] readBytes(final DataInputStream input) throws IOException {
+        final byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,109 @@
+package EvolvoApp.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Passes requests on to an Evolvo server and records every request and
+ * response pair in a {@link Recording}.
+ *
+ * <p>
+ * Open the network through the proxy instead of the server, and every
+ * open, expand and find request that follows goes through it too:
+ * <blockquote><pre>
+ * mvn -Pbatch test-compile exec:java -Dbatch.main=EvolvoApp.internal.RecordingProxy -Dexec.args="8001 http://localhost:8000 session.rec"
+ * </pre></blockquote>
+ * Then open {@code http://localhost:8001/replace}. The "Content-Type" header
+ * and every "Evolvo-" header of a response are recorded.
+ * </p>
+ */
+public class RecordingProxy {
+    final HttpServer server;
+    final Recording recording;
+
+    /**
+     * Start a proxy on {@code port} (0 for any free port) in front of {@code upstream}, such as {@code http://localhost:8000}.
+     */
+    public RecordingProxy(final int port, final String upstream, final File file) throws IOException {
+        recording = new Recording(file);
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(final HttpExchange exchange) throws IOException {
+                try {
+                    forward(upstream, exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    public void stop() throws IOException {
+        server.stop(0);
+        recording.close();
+    }
+
+    private void forward(final String upstream, final HttpExchange exchange) throws IOException {
+        final String method = exchange.getRequestMethod();
+        final String path = exchange.getRequestURI().toString();
+        final InputStream requestInput = exchange.getRequestBody();
+        final byte[] requestBody = Recording.readAll(requestInput);
+        requestInput.close();
+
+        final HttpURLConnection connection = (HttpURLConnection) new URL(upstream + path).openConnection();
+        connection.setRequestMethod(method);
+        final String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        if (contentType != null)
+            connection.setRequestProperty("Content-Type", contentType);
+        if (requestBody.length > 0) {
+            connection.setDoOutput(true);
+            final OutputStream upstreamOutput = connection.getOutputStream();
+            upstreamOutput.write(requestBody);
+            upstreamOutput.close();
+        }
+
+        final int status = connection.getResponseCode();
+        final InputStream responseInput = (status >= 400) ? connection.getErrorStream() : connection.getInputStream();
+        final byte[] responseBody = (responseInput == null) ? new byte[0] : Recording.readAll(responseInput);
+        if (responseInput != null)
+            responseInput.close();
+
+        final Map<String,String> headers = new LinkedHashMap<String,String>();
+        for (final Map.Entry<String,List<String>> header : connection.getHeaderFields().entrySet()) {
+            final String name = header.getKey();
+            if (name == null || header.getValue().isEmpty())
+                continue;
+            if (name.equalsIgnoreCase("Content-Type") || name.startsWith("Evolvo-"))
+                headers.put(name, header.getValue().get(0));
+        }
+
+        recording.append(new Recording.Exchange(method, path, requestBody, status, headers, responseBody));
+        ReplayServer.respond(exchange, status, headers, responseBody, 0, 0);
+    }
+
+    public static void main(final String[] args) throws Exception {
+        if (args.length != 3) {
+            System.err.println("usage: RecordingProxy port upstream file");
+            System.exit(2);
+        }
+        final RecordingProxy proxy = new RecordingProxy(Integer.parseInt(args[0]), args[1], new File(args[2]));
+        System.out.println(String.format("Recording %s on port %d into %s", args[1], proxy.port(), args[2]));
+    }
+}
@@ -0,0 +1,174 @@
+package EvolvoApp.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves the exchanges of a {@link Recording} in place of an Evolvo server.
+ *
+ * <p>
+ * A request is answered with the first exchange not yet served that has
+ * the same method, path and body. Expand requests list the extant nodes,
+ * which can come in a different order on a replay, so failing that, an
+ * exchange with the same method, path and "target" will do. Once every
+ * matching exchange has been served, the last one is served again. A
+ * request that matches nothing gets a 404.
+ * </p>
+ *
+ * <p>
+ * Each response can be held back by a fixed latency before its headers
+ * are sent, and its body sent no faster than a given number of bytes per
+ * second:
+ * <blockquote><pre>
+ * mvn -Pbatch test-compile exec:java -Dbatch.main=EvolvoApp.internal.ReplayServer -Dexec.args="8000 session.rec 50 1000000"
+ * </pre></blockquote>
+ * </p>
+ */
+public class ReplayServer {
+    static final Pattern TARGET = Pattern.compile("\"target\"\\s*:\\s*\"((?:[^\"\\\\]|\\\\.)*)\"");
+    static final int CHUNK = 4096;
+
+    final HttpServer server;
+    final List<Recording.Exchange> exchanges;
+    final Set<Recording.Exchange> served = new HashSet<Recording.Exchange>();
+    final long latencyMillis;
+    final long bytesPerSecond;
+
+    /**
+     * Serve {@code exchanges} on {@code port} (0 for any free port).
+     * @param latencyMillis How long to wait before answering, or 0
+     * @param bytesPerSecond The most bytes of a response body to send each second, or 0 for no limit
+     */
+    public ReplayServer(final int port, final List<Recording.Exchange> exchanges, final long latencyMillis, final long bytesPerSecond) throws IOException {
+        this.exchanges = exchanges;
+        this.latencyMillis = latencyMillis;
+        this.bytesPerSecond = bytesPerSecond;
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(final HttpExchange exchange) throws IOException {
+                try {
+                    replay(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    private void replay(final HttpExchange exchange) throws IOException {
+        final InputStream input = exchange.getRequestBody();
+        final byte[] requestBody = Recording.readAll(input);
+        input.close();
+
+        final Recording.Exchange recorded = find(exchange.getRequestMethod(), exchange.getRequestURI().toString(), requestBody);
+        if (recorded == null) {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+        respond(exchange, recorded.status, recorded.headers, recorded.responseBody, latencyMillis, bytesPerSecond);
+    }
+
+    synchronized Recording.Exchange find(final String method, final String path, final byte[] requestBody) {
+        final List<Recording.Exchange> exact = new ArrayList<Recording.Exchange>();
+        final List<Recording.Exchange> sameTarget = new ArrayList<Recording.Exchange>();
+        final String target = target(requestBody);
+        for (final Recording.Exchange exchange : exchanges) {
+            if (exchange.matches(method, path, requestBody))
+                exact.add(exchange);
+            else if (target != null && exchange.method.equals(method) && exchange.path.equals(path) && target.equals(target(exchange.requestBody)))
+                sameTarget.add(exchange);
+        }
+        final List<Recording.Exchange> candidates = exact.isEmpty() ? sameTarget : exact;
+        if (candidates.isEmpty())
+            return null;
+        for (final Recording.Exchange candidate : candidates) {
+            if (!served.contains(candidate)) {
+                served.add(candidate);
+                return candidate;
+            }
+        }
+        return candidates.get(candidates.size() - 1);
+    }
+
+    static String target(final byte[] requestBody) {
+        try {
+            final Matcher matcher = TARGET.matcher(new String(requestBody, "UTF-8"));
+            return matcher.find() ? matcher.group(1) : null;
+        } catch (java.io.UnsupportedEncodingException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Send a response, waiting {@code latencyMillis} first and sending the body at {@code bytesPerSecond} if they aren't 0.
+     */
+    static void respond(final HttpExchange exchange, final int status, final Map<String,String> headers, final byte[] body, final long latencyMillis, final long bytesPerSecond) throws IOException {
+        sleep(latencyMillis);
+        for (final Map.Entry<String,String> header : headers.entrySet())
+            exchange.getResponseHeaders().set(header.getKey(), header.getValue());
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        if (body.length == 0)
+            return;
+
+        final OutputStream output = exchange.getResponseBody();
+        final long start = System.nanoTime();
+        for (int offset = 0; offset < body.length; offset += CHUNK) {
+            final int length = Math.min(CHUNK, body.length - offset);
+            if (bytesPerSecond > 0) {
+                // hold the chunk back until its last byte is due
+                final long dueMillis = (offset + length) * 1000L / bytesPerSecond;
+                final long elapsedMillis = (System.nanoTime() - start) / 1000000L;
+                sleep(dueMillis - elapsedMillis);
+            }
+            output.write(body, offset, length);
+            output.flush();
+        }
+        output.close();
+    }
+
+    private static void sleep(final long millis) throws IOException {
+        if (millis <= 0)
+            return;
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while holding back a response");
+        }
+    }
+
+    public static void main(final String[] args) throws Exception {
+        if (args.length < 2 || args.length > 4) {
+            System.err.println("usage: ReplayServer port file [latency-millis] [bytes-per-second]");
+            System.exit(2);
+        }
+        final List<Recording.Exchange> exchanges = Recording.read(new File(args[1]));
+        final long latencyMillis = (args.length > 2) ? Long.parseLong(args[2]) : 0;
+        final long bytesPerSecond = (args.length > 3) ? Long.parseLong(args[3]) : 0;
+        final ReplayServer server = new ReplayServer(Integer.parseInt(args[0]), exchanges, latencyMillis, bytesPerSecond);
+        System.out.println(String.format("Replaying %d exchanges from %s on port %d", exchanges.size(), args[1], server.port()));
+    }
+}
@@ -0,0 +1,133 @@
+package EvolvoApp.internal;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class ReplayServerTest
+{
+    HttpServer upstream = null;
+    File file = null;
+
+    @Before
+    public void setup() throws Exception {
+        file = File.createTempFile("evolvo", ".rec");
+        file.deleteOnExit();
+
+        // echoes the request body back after the method
+        upstream = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        upstream.createContext("/", new HttpHandler() {
+            public void handle(final HttpExchange exchange) throws java.io.IOException {
+                final InputStream input = exchange.getRequestBody();
+                final byte[] request = Recording.readAll(input);
+                input.close();
+                final byte[] body = (exchange.getRequestMethod() + " " + new String(request, "UTF-8")).getBytes("UTF-8");
+                exchange.getResponseHeaders().set("Evolvo-action", "REPLACE");
+                exchange.getResponseHeaders().set("X-Ignored", "yes");
+                exchange.sendResponseHeaders(200, body.length);
+                final OutputStream output = exchange.getResponseBody();
+                output.write(body);
+                output.close();
+            }
+        });
+        upstream.start();
+    }
+
+    @After
+    public void teardown() {
+        upstream.stop(0);
+    }
+
+    private static String send(final String url, final String body) throws Exception {
+        final HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        if (body != null) {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+            final OutputStream output = connection.getOutputStream();
+            output.write(body.getBytes("UTF-8"));
+            output.close();
+        }
+        if (connection.getResponseCode() != 200)
+            return Integer.toString(connection.getResponseCode());
+        final InputStream input = connection.getInputStream();
+        final String response = new String(Recording.readAll(input), "UTF-8");
+        input.close();
+        return response;
+    }
+
+    private void record() throws Exception {
+        final RecordingProxy proxy = new RecordingProxy(0, String.format("http://localhost:%d", upstream.getAddress().getPort()), file);
+        final String url = String.format("http://localhost:%d", proxy.port());
+        assertEquals("GET ", send(url + "/replace", null));
+        assertEquals("POST {\"target\":\"a\",\"extant-nodes\":[\"b\",\"c\"]}", send(url + "/replace", "{\"target\":\"a\",\"extant-nodes\":[\"b\",\"c\"]}"));
+        assertEquals("POST {\"target\":\"b\"}", send(url + "/replace/path", "{\"target\":\"b\"}"));
+        proxy.stop();
+    }
+
+    @Test
+    public void testRecord() throws Exception {
+        record();
+        final List<Recording.Exchange> exchanges = Recording.read(file);
+        assertEquals(3, exchanges.size());
+        assertEquals("GET", exchanges.get(0).method);
+        assertEquals("/replace", exchanges.get(0).path);
+        assertEquals("/replace/path", exchanges.get(2).path);
+        assertEquals(200, exchanges.get(1).status);
+        assertEquals("REPLACE", exchanges.get(1).headers.get("Evolvo-action"));
+        assertFalse(exchanges.get(1).headers.containsKey("X-Ignored"));
+    }
+
+    @Test
+    public void testReplay() throws Exception {
+        record();
+        upstream.stop(0);
+
+        final ReplayServer server = new ReplayServer(0, Recording.read(file), 0, 0);
+        final String url = String.format("http://localhost:%d", server.port());
+        try {
+            assertEquals("GET ", send(url + "/replace", null));
+            assertEquals("POST {\"target\":\"b\"}", send(url + "/replace/path", "{\"target\":\"b\"}"));
+            // the extant nodes are in another order, but the target is the same
+            assertEquals("POST {\"target\":\"a\",\"extant-nodes\":[\"b\",\"c\"]}", send(url + "/replace", "{\"target\":\"a\",\"extant-nodes\":[\"c\",\"b\"]}"));
+            assertEquals("404", send(url + "/replace", "{\"target\":\"z\"}"));
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testLatencyAndBandwidth() throws Exception {
+        final StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 20000; i++)
+            body.append('x');
+        final Map<String,String> headers = new LinkedHashMap<String,String>();
+        final Recording recording = new Recording(file);
+        recording.append(new Recording.Exchange("GET", "/big", new byte[0], 200, headers, body.toString().getBytes("UTF-8")));
+        recording.close();
+
+        final ReplayServer server = new ReplayServer(0, Recording.read(file), 100, 100000);
+        try {
+            final long start = System.nanoTime();
+            assertEquals(body.toString(), send(String.format("http://localhost:%d/big", server.port()), null));
+            // 100 ms of latency and 20000 bytes at 100000 bytes a second
+            assertTrue((System.nanoTime() - start) / 1000000L >= 280);
+        } finally {
+            server.stop();
+        }
+    }
+}
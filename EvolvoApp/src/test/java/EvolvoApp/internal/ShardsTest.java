@@ -0,0 +1,55 @@
+package EvolvoApp.internal;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class ShardsTest
+{
+    @Test
+    public void testHash() {
+        final Shards shards = Shards.parse("hash http://a/replace  http://b/replace http://c/replace");
+        assertEquals(Arrays.asList("http://a/replace", "http://b/replace", "http://c/replace"), shards.endpoints());
+        // "polygenelubricants" hashes to Integer.MIN_VALUE
+        for (final String key : new String[] {"1.10.8", "3.40.50", "", "polygenelubricants"}) {
+            final List<String> endpoints = shards.endpointsFor(key);
+            assertEquals(1, endpoints.size());
+            assertEquals(endpoints, shards.endpointsFor(key));
+        }
+    }
+
+    @Test
+    public void testPrefix() {
+        final Shards shards = Shards.parse("prefix 1.=http://a 3.=http://b 3.40.=http://a =http://c");
+        assertEquals(Arrays.asList("http://a", "http://b", "http://c"), shards.endpoints());
+        assertEquals(Arrays.asList("http://a", "http://c"), shards.endpointsFor("1.10.8"));
+        assertEquals(Arrays.asList("http://b", "http://a", "http://c"), shards.endpointsFor("3.40.50"));
+        assertEquals(Arrays.asList("http://c"), shards.endpointsFor("2.60"));
+    }
+
+    @Test
+    public void testReplicas() {
+        final Shards shards = Shards.parse("prefix 1.=http://a1|http://a2 =http://c");
+        assertEquals(Arrays.asList("http://a1|http://a2", "http://c"), shards.endpointsFor("1.10"));
+        assertEquals(Arrays.asList("http://a1", "http://a2"), Shards.replicas(shards.endpointsFor("1.10").get(0)));
+        assertEquals("http://a1/path|http://a2/path", Shards.withPath("http://a1|http://a2", "/path"));
+        assertEquals(Arrays.asList("http://c"), Shards.replicas("http://c"));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testUnknownRule() {
+        Shards.parse("random http://a http://b");
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testNoEndpoints() {
+        Shards.parse("hash");
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testPrefixWithoutUrl() {
+        Shards.parse("prefix http://a");
+    }
+}
@@ -0,0 +1,220 @@
+package EvolvoApp.internal;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.Map;
+
+public class SnapshotLogTest
+{
+    private static File tempFile() throws Exception {
+        final File file = File.createTempFile("evolvo", ".log");
+        file.deleteOnExit();
+        return file;
+    }
+
+    private static DataOutputStream open(final File file) throws Exception {
+        final DataOutputStream output = new DataOutputStream(new FileOutputStream(file));
+        output.writeInt(SnapshotLog.MAGIC);
+        output.writeInt(SnapshotLog.VERSION);
+        return output;
+    }
+
+    private static void string(final DataOutputStream output, final String value) throws Exception {
+        final byte[] bytes = value.getBytes("UTF-8");
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static void column(final DataOutputStream output, final int id, final String name) throws Exception {
+        output.writeByte(SnapshotLog.COLUMN);
+        output.writeInt(id);
+        string(output, name);
+    }
+
+    private static void node(final DataOutputStream output, final long suid, final String name) throws Exception {
+        output.writeByte(SnapshotLog.NODE);
+        output.writeLong(suid);
+        output.writeInt(1);
+        output.writeInt(0);
+        output.writeByte(SnapshotLog.STRING);
+        string(output, name);
+    }
+
+    /**
+     * Write an edge with one int attribute in column 1.
+     */
+    private static void edge(final DataOutputStream output, final long source, final long target, final int weight) throws Exception {
+        output.writeByte(SnapshotLog.EDGE);
+        output.writeLong(source);
+        output.writeLong(target);
+        output.writeInt(1);
+        output.writeInt(1);
+        output.writeByte(SnapshotLog.INTEGER);
+        output.writeInt(weight);
+    }
+
+    private static void suids(final DataOutputStream output, final byte type, final long... suids) throws Exception {
+        output.writeByte(type);
+        output.writeInt(suids.length);
+        for (final long suid : suids)
+            output.writeLong(suid);
+    }
+
+    @Test
+    public void testReadTransactions() throws Exception {
+        final File file = tempFile();
+        final DataOutputStream output = open(file);
+        column(output, 0, "name");
+        column(output, 1, "Evolvo-expansion-order");
+        node(output, 1L, "a");
+        node(output, 2L, "b");
+        node(output, 3L, "c");
+        suids(output, SnapshotLog.SHOW, 1L, 2L, 3L);
+        output.writeByte(SnapshotLog.EDGE);
+        output.writeLong(1L);
+        output.writeLong(3L);
+        output.writeInt(1);
+        output.writeInt(0);
+        output.writeByte(SnapshotLog.INTEGER);
+        output.writeInt(7);
+        output.writeByte(SnapshotLog.COMMIT);
+
+        // an expand that hides a node and changes an attribute
+        suids(output, SnapshotLog.HIDE, 1L);
+        output.writeByte(SnapshotLog.NODE_ATTR);
+        output.writeLong(2L);
+        output.writeInt(0);
+        output.writeByte(SnapshotLog.STRING);
+        string(output, "b2");
+        output.writeByte(SnapshotLog.NETWORK_ATTR);
+        output.writeInt(1);
+        output.writeByte(SnapshotLog.LIST);
+        output.writeByte(SnapshotLog.LONG);
+        output.writeInt(2);
+        output.writeLong(1L);
+        output.writeLong(2L);
+        output.writeByte(SnapshotLog.COMMIT);
+
+        // a collapse that was cut short
+        suids(output, SnapshotLog.DISCARD, 2L);
+        output.writeByte(SnapshotLog.HIDE);
+        output.writeInt(5);
+        output.close();
+
+        final SnapshotLog.Contents contents = SnapshotLog.read(file);
+        assertEquals(Arrays.asList(1L, 2L, 3L), Arrays.asList(contents.nodes.keySet().toArray()));
+        assertEquals(Arrays.asList(2L, 3L), Arrays.asList(contents.visible.toArray()));
+        assertEquals("a", contents.nodes.get(1L).get("name"));
+        assertEquals("b2", contents.nodes.get(2L).get("name"));
+        assertEquals(Arrays.asList(1L, 2L), contents.networkAttrs.get("Evolvo-expansion-order"));
+
+        assertEquals(1, contents.edges.size());
+        final Object[] edge = contents.edges.get(SnapshotLog.edgeKey(1L, 3L));
+        assertEquals(1L, edge[0]);
+        assertEquals(3L, edge[1]);
+        assertArrayEquals(new String[] {"name"}, (String[]) edge[2]);
+        assertArrayEquals(new Object[] {7}, (Object[]) edge[3]);
+    }
+
+    @Test
+    public void testDiscard() throws Exception {
+        final File file = tempFile();
+        final DataOutputStream output = open(file);
+        column(output, 0, "name");
+        node(output, 1L, "a");
+        node(output, 2L, "b");
+        suids(output, SnapshotLog.SHOW, 1L, 2L);
+        output.writeByte(SnapshotLog.COMMIT);
+        suids(output, SnapshotLog.DISCARD, 2L);
+        output.writeByte(SnapshotLog.COMMIT);
+        output.close();
+
+        final SnapshotLog.Contents contents = SnapshotLog.read(file);
+        final Map<Long,Map<String,Object>> nodes = contents.nodes;
+        assertEquals(1, nodes.size());
+        assertTrue(nodes.containsKey(1L));
+        assertFalse(contents.visible.contains(2L));
+    }
+
+    @Test
+    public void testEdgesByKey() throws Exception {
+        final File file = tempFile();
+        final DataOutputStream output = open(file);
+        column(output, 0, "name");
+        column(output, 1, "weight");
+        column(output, 2, "label");
+        node(output, 1L, "a");
+        node(output, 2L, "b");
+        node(output, 3L, "c");
+        edge(output, 1L, 2L, 1);
+        edge(output, 2L, 3L, 2);
+        output.writeByte(SnapshotLog.COMMIT);
+
+        // fetched again the other way around, then changed
+        edge(output, 2L, 1L, 3);
+        output.writeByte(SnapshotLog.EDGE_ATTR);
+        output.writeLong(1L);
+        output.writeLong(2L);
+        output.writeInt(2);
+        output.writeByte(SnapshotLog.STRING);
+        string(output, "ab");
+        output.writeByte(SnapshotLog.EDGE_DELETED);
+        output.writeLong(3L);
+        output.writeLong(2L);
+        output.writeByte(SnapshotLog.COMMIT);
+        output.close();
+
+        final SnapshotLog.Contents contents = SnapshotLog.read(file);
+        assertEquals(1, contents.edges.size());
+        final Object[] edge = contents.edges.get(SnapshotLog.edgeKey(1L, 2L));
+        assertArrayEquals(new String[] {"weight", "label"}, (String[]) edge[2]);
+        assertArrayEquals(new Object[] {3, "ab"}, (Object[]) edge[3]);
+    }
+
+    @Test
+    public void testHiddenParentsAndExpansionOrder() throws Exception {
+        final File file = tempFile();
+        final DataOutputStream output = open(file);
+        suids(output, SnapshotLog.PARENT_HIDDEN, 1L, 2L);
+        suids(output, SnapshotLog.EXPANSION_USED, 1L, 2L, 3L);
+        output.writeByte(SnapshotLog.COMMIT);
+        suids(output, SnapshotLog.EXPANSION_USED, 1L);
+        suids(output, SnapshotLog.EXPANSION_REMOVED, 2L);
+        suids(output, SnapshotLog.PARENT_SHOWN, 2L);
+        output.writeByte(SnapshotLog.COMMIT);
+        output.close();
+
+        final SnapshotLog.Contents contents = SnapshotLog.read(file);
+        assertEquals(Arrays.asList(1L), Arrays.asList(contents.hiddenParents.toArray()));
+        assertEquals(Arrays.asList(3L, 1L), Arrays.asList(contents.expansionOrder.toArray()));
+    }
+
+    @Test
+    public void testLongString() throws Exception {
+        final StringBuilder name = new StringBuilder();
+        while (name.length() < 70000)
+            name.append("\u00e9volvo ");
+        final File file = tempFile();
+        final DataOutputStream output = open(file);
+        column(output, 0, "name");
+        node(output, 1L, name.toString());
+        output.writeByte(SnapshotLog.COMMIT);
+        output.close();
+
+        assertEquals(name.toString(), SnapshotLog.read(file).nodes.get(1L).get("name"));
+    }
+
+    @Test(expected=java.io.IOException.class)
+    public void testNotALog() throws Exception {
+        final File file = tempFile();
+        final FileOutputStream output = new FileOutputStream(file);
+        output.write("[[], [], []]".getBytes("UTF-8"));
+        output.close();
+        SnapshotLog.read(file);
+    }
+}
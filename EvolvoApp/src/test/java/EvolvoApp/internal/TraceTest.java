@@ -0,0 +1,83 @@
+package EvolvoApp.internal;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import org.cytoscape.model.CyEdge;
+import org.cytoscape.model.CyNode;
+
+import EvolvoApp.internal.json.JsonNetworkReader;
+
+public class TraceTest
+{
+    @Before
+    public void setup() {
+        Trace.always = true;
+    }
+
+    @After
+    public void teardown() {
+        Trace.always = false;
+    }
+
+    private static final JsonNetworkReader.NodeFactory NO_NODES = new JsonNetworkReader.NodeFactory() {
+        public void header(String[] cols) {}
+        public CyNode create(Object[] row, Class[] types) {
+            return null;
+        }
+    };
+
+    private static final JsonNetworkReader.EdgeFactory NO_EDGES = new JsonNetworkReader.EdgeFactory() {
+        public void nodes(List<CyNode> nodes) {}
+        public void header(String[] cols) {}
+        public CyEdge create(Object[] row, Class[] types) {
+            return null;
+        }
+    };
+
+    @Test
+    public void testSummary() throws Exception {
+        final Trace trace = Trace.start("expand", "a");
+        assertSame(trace, Trace.current());
+        trace.phase("request");
+        final JsonNetworkReader.NodeFactory nodes = Trace.current().nodes(NO_NODES);
+        nodes.create(new Object[0], new Class[0]);
+        nodes.create(new Object[0], new Class[0]);
+        Trace.current().edges(NO_EDGES).create(new Object[0], new Class[0]);
+        trace.bytes(100L);
+        trace.phase("parse");
+
+        final String summary = trace.summary();
+        assertTrue(summary, summary.startsWith("expand a: 3 rows, +0 nodes (2 found), 0 edges created, 1 skipped, 100 bytes; request "));
+        assertTrue(summary, summary.contains(" ms, parse "));
+        assertTrue(summary, summary.contains(" ms, total "));
+        trace.end();
+        assertNotSame(trace, Trace.current());
+    }
+
+    @Test
+    public void testNested() {
+        final Trace outer = Trace.start("find", "a12");
+        final Trace inner = Trace.start("layout", (String) null);
+        assertSame(inner, Trace.current());
+        inner.end();
+        assertSame(outer, Trace.current());
+        outer.end();
+    }
+
+    @Test
+    public void testOff() {
+        Trace.always = false;
+        final Trace trace = Trace.start("expand", "a");
+        if (Trace.logger.isDebugEnabled())
+            return;
+        assertSame(NO_NODES, trace.nodes(NO_NODES));
+        assertSame(NO_EDGES, trace.edges(NO_EDGES));
+        trace.end();
+        assertSame(trace, Trace.current());
+    }
+}
@@ -0,0 +1,65 @@
+package EvolvoApp.internal;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.Before;
+
+import org.cytoscape.model.NetworkTestSupport;
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyTable;
+import org.cytoscape.model.CyNode;
+
+public class TypedColumnTest
+{
+    CyNetwork network = null;
+    CyTable nodeTable = null;
+
+    @Before
+    public void setup() {
+        final NetworkTestSupport nts = new NetworkTestSupport();
+        network = nts.getNetwork();
+        nodeTable = network.getDefaultNodeTable();
+    }
+
+    @Test
+    public void testBindCreatesColumn() {
+        assertNull(TypedColumn.lookup(nodeTable, "weight", Integer.class));
+        final TypedColumn<Integer> weight = TypedColumn.bind(nodeTable, "weight", Integer.class);
+        assertNotNull(nodeTable.getColumn("weight"));
+        assertEquals(Integer.class, nodeTable.getColumn("weight").getType());
+        assertSame(weight, TypedColumn.bind(nodeTable, "weight", Integer.class));
+        assertSame(weight, TypedColumn.lookup(nodeTable, "weight", Integer.class));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testTypeMismatch() {
+        TypedColumn.bind(nodeTable, "weight", Integer.class);
+        TypedColumn.bind(nodeTable, "weight", String.class);
+    }
+
+    @Test
+    public void testGetSet() {
+        final CyNode a = network.addNode();
+        final CyNode b = network.addNode();
+        final CyNode c = network.addNode();
+        final TypedColumn<Boolean> flag = TypedColumn.bind(nodeTable, "flag", Boolean.class);
+
+        assertNull(flag.get(a.getSUID()));
+        assertEquals(Boolean.FALSE, flag.get(a.getSUID(), false));
+
+        flag.set(a.getSUID(), true);
+        assertEquals(Boolean.TRUE, flag.get(a.getSUID()));
+        assertEquals(Boolean.TRUE, nodeTable.getRow(a.getSUID()).get("flag", Boolean.class));
+
+        flag.setAll(new long[] {b.getSUID(), c.getSUID()}, true);
+        assertEquals(Boolean.TRUE, flag.get(b.getSUID()));
+        assertEquals(Boolean.TRUE, flag.get(c.getSUID()));
+    }
+
+    @Test
+    public void testLookupAfterDelete() {
+        TypedColumn.bind(nodeTable, "weight", Integer.class);
+        nodeTable.deleteColumn("weight");
+        assertNull(TypedColumn.lookup(nodeTable, "weight", Integer.class));
+    }
+}
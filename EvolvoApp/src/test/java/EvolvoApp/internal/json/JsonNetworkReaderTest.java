@@ -184,4 +184,15 @@ public class JsonNetworkReaderTest
         assertEquals(networkTable.getColumn("roman").getValues(String.class), Arrays.asList("a"));
         assertEquals(networkTable.getColumn("greek").getValues(String.class), Arrays.asList("alpha"));
     }
+
+    @Test
+    public void testWidenedColumn() throws Exception {
+        JsonNetworkReader.read(json.createJsonParser("[[[\"name\", {\"name\": \"size\", \"type\": \"integer\"}], [\"A\", 20]], [], []]"), network);
+        assertEquals(nodeTable.getColumn("size").getType(), Integer.class);
+
+        JsonNetworkReader.read(json.createJsonParser("[[[\"name\", \"size\"], [\"B\", 5000000000]], [], []]"), network);
+        assertEquals(nodeTable.getColumn("size").getType(), Long.class);
+        assertNotNull(Utils.getNodeWithValue(network, nodeTable, "size", new Long(20)));
+        assertNotNull(Utils.getNodeWithValue(network, nodeTable, "size", new Long(5000000000L)));
+    }
 }
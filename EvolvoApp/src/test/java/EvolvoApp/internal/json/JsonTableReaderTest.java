@@ -1,5 +1,6 @@
 package EvolvoApp.internal.json;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.ArrayList;
 
@@ -94,6 +95,104 @@ public class JsonTableReaderTest
                     
     }
 
+    @Test
+    public void testStringsAreShared() throws Exception {
+        final List<Object> values = new ArrayList<Object>();
+        final ColumnDictionaries dictionaries = new ColumnDictionaries();
+        final JsonTableReader.Delegate delegate = new DumbDelegate() {
+            public void row(Object[] elems, Class[] types) {
+                values.add(elems[1]);
+            }
+        };
+        JsonTableReader.read(str("[[\"a\", \"b\"], [0, \"human\"], [1, \"mouse\"], [2, \"human\"]]"), delegate, dictionaries);
+        JsonTableReader.read(str("[[\"a\", \"b\"], [3, \"human\"]]"), delegate, dictionaries);
+        assertEquals(Arrays.asList("human", "mouse", "human", "human"), values);
+        assertSame(values.get(0), values.get(2));
+        assertSame(values.get(0), values.get(3));
+        assertEquals(2, dictionaries.column("b").size());
+    }
+
+    @Test
+    public void testDictionaryColumn() throws Exception {
+        JsonTableReader.read(str(
+                    "[\n" +
+                    " [\"a\", {\"name\": \"b\", \"dictionary\": [\"human\", \"mouse\"]}],\n" +
+                    " [0    , 1   ],\n" +
+                    " [1    , 0   ],\n" +
+                    " [2    , null]\n" +
+                    "]"),
+                (new SmartDelegate())
+                    .cols("a", "b")
+                    .types(Long.class, String.class)
+                    .row(0L, "mouse")
+                    .row(1L, "human")
+                    .row(2L, null));
+    }
+
+    @Test
+    public void testWideColumn() throws Exception {
+        JsonTableReader.read(str("[[\"a\", \"b\"], [1, 1], [2, 4294967296]]"),
+                (new SmartDelegate())
+                    .cols("a", "b")
+                    .types(Long.class, Long.class)
+                    .row(1L, 1L)
+                    .row(2L, 4294967296L));
+    }
+
+    @Test
+    public void testDeclaredTypes() throws Exception {
+        JsonTableReader.read(str("[[{\"name\": \"a\", \"type\": \"integer\"}, {\"name\": \"b\", \"type\": \"double\"}, \"c\"], [1, 2, 3]]"),
+                (new SmartDelegate())
+                    .cols("a", "b", "c")
+                    .types(Integer.class, Double.class, Long.class)
+                    .row(1, 2.0, 3L));
+    }
+
+    @Test(expected = InvalidJsonException.class)
+    public void testUnknownType() throws Exception {
+        JsonTableReader.read(str("[[{\"name\": \"a\", \"type\": \"float\"}], [1]]"), new DumbDelegate());
+    }
+
+    @Test
+    public void testDefaultTypes() throws Exception {
+        JsonTableReader.read(str("[[\"src\", \"trg\", \"weight\"], [0, 1, 5000000000]]"),
+                (new SmartDelegate())
+                    .cols("src", "trg", "weight")
+                    .types(Integer.class, Integer.class, Long.class)
+                    .row(0, 1, 5000000000L),
+                new ColumnDictionaries(),
+                new Class[] {Integer.class, Integer.class});
+    }
+
+    @Test(expected = InvalidJsonException.class)
+    public void testDeclaredColumnOverflow() throws Exception {
+        JsonTableReader.read(str("[[{\"name\": \"a\", \"type\": \"integer\"}], [1], [4294967296]]"), new DumbDelegate());
+    }
+
+    @Test(expected = InvalidJsonException.class)
+    public void testDictionaryIndexOutOfRange() throws Exception {
+        JsonTableReader.read(str("[[{\"name\": \"b\", \"dictionary\": [\"human\"]}], [1]]"), new DumbDelegate());
+    }
+
+    @Test(expected = InvalidJsonException.class)
+    public void testDictionaryColumnWithoutName() throws Exception {
+        JsonTableReader.read(str("[[{\"dictionary\": [\"human\"]}], [0]]"), new DumbDelegate());
+    }
+
+    @Test
+    public void testDictionaryOverflow() throws Exception {
+        final StringDictionary dictionary = new StringDictionary();
+        final String first = dictionary.intern("0");
+        for (int i = 0; i < StringDictionary.MAX_SIZE; i++)
+            dictionary.intern(Integer.toString(i));
+        assertFalse(dictionary.overflowed());
+        assertSame(first, dictionary.intern("0"));
+        assertEquals(StringDictionary.MAX_SIZE, dictionary.size());
+
+        assertEquals("new", dictionary.intern("new"));
+        assertTrue(dictionary.overflowed());
+        assertNotSame(dictionary.intern("1"), dictionary.intern("1"));
+    }
 
     private static JsonParser str(final String input) throws Exception {
         return (new JsonFactory()).createJsonParser(input);
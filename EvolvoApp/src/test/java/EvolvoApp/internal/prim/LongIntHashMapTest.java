@@ -0,0 +1,60 @@
+package EvolvoApp.internal.prim;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class LongIntHashMapTest
+{
+    @Test
+    public void testEmpty() {
+        final LongIntHashMap map = new LongIntHashMap();
+        assertEquals(0, map.size());
+        assertFalse(map.containsKey(0L));
+        assertEquals(-1, map.get(42L, -1));
+        assertEquals(-1, map.remove(42L, -1));
+    }
+
+    @Test
+    public void testPutGetRemove() {
+        final LongIntHashMap map = new LongIntHashMap();
+        map.put(0L, 10);
+        map.put(-5L, 20);
+        map.put(Long.MAX_VALUE, 30);
+        map.put(0L, 11);
+        assertEquals(3, map.size());
+        assertEquals(11, map.get(0L, -1));
+        assertEquals(20, map.get(-5L, -1));
+        assertEquals(30, map.get(Long.MAX_VALUE, -1));
+        assertEquals(20, map.remove(-5L, -1));
+        assertEquals(2, map.size());
+        assertFalse(map.containsKey(-5L));
+        long[] keys = map.keys();
+        Arrays.sort(keys);
+        assertArrayEquals(new long[] {0L, Long.MAX_VALUE}, keys);
+    }
+
+    @Test
+    public void testAgainstHashMap() {
+        final Random random = new Random(1);
+        final LongIntHashMap map = new LongIntHashMap();
+        final Map<Long,Integer> expected = new HashMap<Long,Integer>();
+        for (int i = 0; i < 100000; i++) {
+            final long key = random.nextInt(5000);
+            if (random.nextInt(3) == 0) {
+                final Integer value = expected.remove(key);
+                assertEquals(value == null ? -1 : value.intValue(), map.remove(key, -1));
+            } else {
+                expected.put(key, i);
+                map.put(key, i);
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        for (final Map.Entry<Long,Integer> entry : expected.entrySet())
+            assertEquals(entry.getValue().intValue(), map.get(entry.getKey(), -1));
+    }
+}
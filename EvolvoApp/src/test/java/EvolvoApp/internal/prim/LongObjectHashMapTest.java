@@ -0,0 +1,65 @@
+package EvolvoApp.internal.prim;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class LongObjectHashMapTest
+{
+    @Test
+    public void testEmpty() {
+        final LongObjectHashMap<String> map = new LongObjectHashMap<String>();
+        assertEquals(0, map.size());
+        assertFalse(map.containsKey(0L));
+        assertNull(map.get(42L));
+        assertFalse(map.remove(42L));
+        assertEquals(0, map.values().size());
+    }
+
+    @Test
+    public void testPutGetRemove() {
+        final LongObjectHashMap<String> map = new LongObjectHashMap<String>();
+        map.put(0L, "a");
+        map.put(-5L, "b");
+        map.put(Long.MAX_VALUE, "c");
+        map.put(0L, "d");
+        assertEquals(3, map.size());
+        assertEquals("d", map.get(0L));
+        assertEquals("b", map.get(-5L));
+        assertTrue(map.remove(-5L));
+        assertEquals(2, map.size());
+        assertFalse(map.containsKey(-5L));
+
+        final long[] keys = map.keys();
+        final List<String> values = map.values();
+        assertEquals(keys.length, values.size());
+        for (int i = 0; i < keys.length; i++)
+            assertEquals(map.get(keys[i]), values.get(i));
+        Arrays.sort(keys);
+        assertArrayEquals(new long[] {0L, Long.MAX_VALUE}, keys);
+    }
+
+    @Test
+    public void testAgainstHashMap() {
+        final Random random = new Random(1);
+        final LongObjectHashMap<Integer> map = new LongObjectHashMap<Integer>();
+        final Map<Long,Integer> expected = new HashMap<Long,Integer>();
+        for (int i = 0; i < 100000; i++) {
+            final long key = random.nextInt(5000);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key) != null, map.remove(key));
+            } else {
+                expected.put(key, i);
+                map.put(key, i);
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        for (final Map.Entry<Long,Integer> entry : expected.entrySet())
+            assertEquals(entry.getValue(), map.get(entry.getKey()));
+    }
+}
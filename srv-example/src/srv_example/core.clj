@@ -15,16 +15,21 @@
    "replace"      #'srv-example.replace/respond
    })
 
+(def path-services
+  {"replace"      #'srv-example.replace/respond-path
+   })
+
 (defn handler [request]
   (let [path (rest (split (:uri request) #"\/+"))]
     (if (empty? path)
       (not-found "no service specified")
       (let [service-name   (first path)
+            service-map    (if (= (second path) "path") path-services services)
             service-params (if (= (:request-method request) :post)
                              (parse-stream (reader (:body request)))
                              (:query-params request))]
-        (if (contains? services service-name)
-          (let [service (get services service-name)]
+        (if (contains? service-map service-name)
+          (let [service (get service-map service-name)]
             (service service-params))
           (not-found "invalid service name"))))))
 
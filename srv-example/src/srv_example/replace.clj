@@ -80,18 +80,53 @@
     (build-network root-net node-info node-cols)
     service-info))
 
+(defn child-edges [target extant-nodes]
+  "Returns the edges that make up the child network of target."
+  (let [edges (sub-nets target)
+        in-edges (:internal edges)
+        ex-edges (:external edges)
+        relevant-ex-edges (filter #(any-node-in-edge? extant-nodes %) ex-edges)] ; only external edges that hit any extant-nodes
+    (concat in-edges relevant-ex-edges))) ; internal edges + relevant external edges
+
 (defn child-network [target extant-nodes]
   (prn target extant-nodes)
-  (let [edges (sub-nets target)]
-    (if (nil? edges)
-      (bad-request-response "node is not expandable")
-      (let [in-edges (:internal edges)
-            ex-edges (:external edges)
-            relevant-ex-edges (filter #(any-node-in-edge? extant-nodes %) ex-edges) ; only external edges that hit any extant-nodes
-            all-edges (concat in-edges relevant-ex-edges)] ; internal edges + relevant external edges
-        (prn all-edges)
-        (json-response
-            (build-network all-edges node-info node-cols))))))
+  (if (expandable? target)
+    (let [all-edges (child-edges target extant-nodes)]
+      (prn all-edges)
+      (json-response
+          (build-network all-edges node-info node-cols)))
+    (bad-request-response "node is not expandable")))
+
+(def parents
+  "Maps each node to the node it is expanded from."
+  (into {} (for [[parent edges] sub-nets
+                 node (distinct (flatten (:internal edges)))]
+             [node parent])))
+
+(defn ancestors-of [node]
+  "Returns the ancestors of node, from the top tier down to node's parent."
+  (reverse (take-while identity (rest (iterate parents node)))))
+
+(defn path-network [target extant-nodes]
+  "Returns a tier for every ancestor of target that has to be expanded to reach target."
+  (let [chain (concat (ancestors-of target) [target])
+        to-expand (map first (drop-while #(contains? extant-nodes (second %)) (partition 2 1 chain)))]
+    (loop [remaining to-expand
+           extant extant-nodes
+           tiers []]
+      (if (empty? remaining)
+        (json-response tiers)
+        (let [parent (first remaining)
+              edges (child-edges parent extant)]
+          (recur (rest remaining)
+                 (into extant (flatten edges))
+                 (conj tiers [parent (build-network edges node-info node-cols)])))))))
+
+(defn respond-path [params]
+  (let [target (symbol (params "target"))
+        extant-nodes (params "extant-nodes")
+        extant-nodes-syms (if extant-nodes (set (map symbol extant-nodes)) #{})]
+    (path-network target extant-nodes-syms)))
 
 (defn respond [params]
   ;(prn params)
@@ -0,0 +1,265 @@
+package EvolvoServer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * A tiered network held in primitive arrays.
+ *
+ * <p>
+ * Every node has an {@code int} id, given in the order nodes are added. A
+ * node's parent is in {@link #parent}, and its children and the edges that
+ * touch it are slices of one shared array each, as in:
+ * <blockquote><pre>
+ * for (int i = index.childStart[n]; i &lt; index.childStart[n + 1]; i++)
+ *     child = index.children[i];
+ * </pre></blockquote>
+ * The only map is from node keys to ids, so looking up the nodes of a
+ * request is one hash lookup per key.
+ * </p>
+ */
+public class TierIndex {
+    public final String[] keys;
+    final Map<String,Integer> ids;
+
+    /** Parent of each node, or -1 for the top tier */
+    public final int[] parent;
+    public final int[] top;
+    public final int[] childStart;
+    public final int[] children;
+
+    public final int[] src;
+    public final int[] trg;
+    /** Edges touching each node, with self-loops listed once */
+    public final int[] edgeStart;
+    public final int[] incident;
+
+    TierIndex(final String[] keys, final Map<String,Integer> ids, final int[] parent, final int[] src, final int[] trg) {
+        this.keys = keys;
+        this.ids = ids;
+        this.parent = parent;
+        this.src = src;
+        this.trg = trg;
+
+        final int n = keys.length;
+        int topCount = 0;
+        childStart = new int[n + 1];
+        for (int node = 0; node < n; node++) {
+            if (parent[node] < 0)
+                topCount++;
+            else
+                childStart[parent[node] + 1]++;
+        }
+        prefixSum(childStart);
+        top = new int[topCount];
+        children = new int[n - topCount];
+        final int[] fill = Arrays.copyOf(childStart, n);
+        topCount = 0;
+        for (int node = 0; node < n; node++) {
+            if (parent[node] < 0)
+                top[topCount++] = node;
+            else
+                children[fill[parent[node]]++] = node;
+        }
+
+        edgeStart = new int[n + 1];
+        for (int e = 0; e < src.length; e++) {
+            edgeStart[src[e] + 1]++;
+            if (trg[e] != src[e])
+                edgeStart[trg[e] + 1]++;
+        }
+        prefixSum(edgeStart);
+        incident = new int[edgeStart[n]];
+        final int[] edgeFill = Arrays.copyOf(edgeStart, n);
+        for (int e = 0; e < src.length; e++) {
+            incident[edgeFill[src[e]]++] = e;
+            if (trg[e] != src[e])
+                incident[edgeFill[trg[e]]++] = e;
+        }
+    }
+
+    private static void prefixSum(final int[] counts) {
+        for (int i = 1; i < counts.length; i++)
+            counts[i] += counts[i - 1];
+    }
+
+    public int nodeCount() {
+        return keys.length;
+    }
+
+    public int edgeCount() {
+        return src.length;
+    }
+
+    /**
+     * Return the id of the node with {@code key}, or -1.
+     */
+    public int id(final String key) {
+        final Integer id = ids.get(key);
+        return (id == null) ? -1 : id.intValue();
+    }
+
+    public boolean hasChildren(final int node) {
+        return childStart[node + 1] > childStart[node];
+    }
+
+    /**
+     * Return the node at the other end of {@code edge} from {@code node}.
+     */
+    public int other(final int edge, final int node) {
+        return (src[edge] == node) ? trg[edge] : src[edge];
+    }
+
+    /**
+     * Collects nodes and edges, then builds a {@link TierIndex}. A node's
+     * parent and an edge's endpoints can be given before the nodes themselves.
+     */
+    public static class Builder {
+        final Map<String,Integer> ids = new HashMap<String,Integer>();
+        String[] keys = new String[16];
+        String[] parentKeys = new String[16];
+        int nodeCount = 0;
+        String[] edgeKeys = new String[32];
+        int edgeCount = 0;
+
+        /**
+         * Add a node.
+         * @param parentKey The key of the node's parent, or null for the top tier
+         * @throws IllegalArgumentException if there already is a node with {@code key}
+         */
+        public Builder node(final String key, final String parentKey) {
+            if (ids.containsKey(key))
+                throw new IllegalArgumentException(String.format("node '%s' is given twice", key));
+            if (nodeCount == keys.length) {
+                keys = Arrays.copyOf(keys, nodeCount * 2);
+                parentKeys = Arrays.copyOf(parentKeys, nodeCount * 2);
+            }
+            ids.put(key, nodeCount);
+            keys[nodeCount] = key;
+            parentKeys[nodeCount] = parentKey;
+            nodeCount++;
+            return this;
+        }
+
+        public Builder edge(final String srcKey, final String trgKey) {
+            if (edgeCount * 2 == edgeKeys.length)
+                edgeKeys = Arrays.copyOf(edgeKeys, edgeKeys.length * 2);
+            edgeKeys[edgeCount * 2] = srcKey;
+            edgeKeys[edgeCount * 2 + 1] = trgKey;
+            edgeCount++;
+            return this;
+        }
+
+        /**
+         * @throws IllegalArgumentException if a parent or an edge endpoint was never added as a node, or a node is its own ancestor
+         */
+        public TierIndex build() {
+            final int[] parent = new int[nodeCount];
+            for (int node = 0; node < nodeCount; node++)
+                parent[node] = (parentKeys[node] == null) ? -1 : lookup(parentKeys[node], "parent of '" + keys[node] + "'");
+            for (int node = 0; node < nodeCount; node++) {
+                int ancestor = parent[node];
+                for (int depth = 0; ancestor >= 0; depth++) {
+                    if (ancestor == node || depth > nodeCount)
+                        throw new IllegalArgumentException(String.format("node '%s' is its own ancestor", keys[node]));
+                    ancestor = parent[ancestor];
+                }
+            }
+
+            final int[] src = new int[edgeCount];
+            final int[] trg = new int[edgeCount];
+            for (int e = 0; e < edgeCount; e++) {
+                src[e] = lookup(edgeKeys[e * 2], "edge source");
+                trg[e] = lookup(edgeKeys[e * 2 + 1], "edge target");
+            }
+            return new TierIndex(Arrays.copyOf(keys, nodeCount), ids, parent, src, trg);
+        }
+
+        private int lookup(final String key, final String role) {
+            final Integer id = ids.get(key);
+            if (id == null)
+                throw new IllegalArgumentException(String.format("%s '%s' is not a node", role, key));
+            return id.intValue();
+        }
+    }
+
+    /**
+     * Read a network with one node or edge per line. Blank lines and lines
+     * starting with '#' are skipped:
+     * <blockquote><pre>
+     * node a
+     * node a.1 a
+     * node a.2 a
+     * edge a.1 a.2
+     * </pre></blockquote>
+     * A node without a parent is in the top tier.
+     * @throws IllegalArgumentException if a line isn't a node or an edge
+     */
+    public static TierIndex read(final Reader reader) throws IOException {
+        final BufferedReader lines = new BufferedReader(reader);
+        final Builder builder = new Builder();
+        int lineNumber = 0;
+        String line;
+        while ((line = lines.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.length() == 0 || line.startsWith("#"))
+                continue;
+            final String[] words = line.split("\\s+");
+            if (words[0].equals("node") && (words.length == 2 || words.length == 3))
+                builder.node(words[1], (words.length == 3) ? words[2] : null);
+            else if (words[0].equals("edge") && words.length == 3)
+                builder.edge(words[1], words[2]);
+            else
+                throw new IllegalArgumentException(String.format("line %d: expected 'node key [parent]' or 'edge source target'", lineNumber));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Make up a network of {@code tiers} tiers, where the top tier has
+     * {@code fanOut} nodes and every node above the bottom tier has
+     * {@code fanOut} children. Keys show the path from the top, as in
+     * {@code n3.14.15}. Each node gets {@code edgesPerNode} edges to nodes in
+     * its own tier: half of them to its siblings, the rest anywhere in the tier.
+     */
+    public static TierIndex generate(final int tiers, final int fanOut, final int edgesPerNode, final long seed) {
+        if (tiers < 1 || fanOut < 1 || edgesPerNode < 0)
+            throw new IllegalArgumentException("tiers and fan-out must be positive and edges per node can't be negative");
+        final Builder builder = new Builder();
+        final Random random = new Random(seed);
+        String[] tier = new String[fanOut];
+        for (int i = 0; i < fanOut; i++) {
+            tier[i] = "n" + (i + 1);
+            builder.node(tier[i], null);
+        }
+        addEdges(builder, tier, fanOut, edgesPerNode, random);
+        for (int t = 1; t < tiers; t++) {
+            final String[] next = new String[tier.length * fanOut];
+            for (int p = 0; p < tier.length; p++) {
+                for (int i = 0; i < fanOut; i++) {
+                    next[p * fanOut + i] = tier[p] + "." + (i + 1);
+                    builder.node(next[p * fanOut + i], tier[p]);
+                }
+            }
+            tier = next;
+            addEdges(builder, tier, fanOut, edgesPerNode, random);
+        }
+        return builder.build();
+    }
+
+    private static void addEdges(final Builder builder, final String[] tier, final int fanOut, final int edgesPerNode, final Random random) {
+        for (int i = 0; i < tier.length; i++) {
+            final int firstSibling = i - (i % fanOut);
+            for (int e = 0; e < edgesPerNode; e++) {
+                final int other = (e % 2 == 0) ? firstSibling + random.nextInt(fanOut) : random.nextInt(tier.length);
+                builder.edge(tier[i], tier[other]);
+            }
+        }
+    }
+}
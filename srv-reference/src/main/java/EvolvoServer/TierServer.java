@@ -0,0 +1,516 @@
+package EvolvoServer;
+
+import java.io.BufferedOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonParseException;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves a {@link TierIndex} over the same protocol as srv-example.
+ *
+ * <p>
+ * {@code /replace} and {@code /augment} answer a GET with the top tier, and
+ * a request with a "target" with the target's tier. The target and the
+ * "extant-nodes" come in a JSON body or as query parameters. For
+ * {@code /replace}, a tier is the target's children, the edges between them
+ * and the edges from them to extant nodes. For {@code /augment}, it's the
+ * target's neighbors, the target's edges and the edges from its neighbors to
+ * each other and to extant nodes. {@code /replace/path} answers with the tiers
+ * that reveal the target, as in srv-example.
+ * </p>
+ *
+ * <p>
+ * The index doesn't change while it's served, so its "Evolvo-version" is
+ * the time the server started. {@code /replace/refresh} and
+ * {@code /augment/refresh} answer a request with that version with no
+ * changes, and a request with any other version with 409 Conflict.
+ * </p>
+ *
+ * <p>
+ * A tier is gathered into {@code int} arrays and then streamed out as it is
+ * written, so a response is never held as text. Extant nodes are looked up
+ * once each and marked in an array that each server thread keeps.
+ * </p>
+ */
+public class TierServer {
+    public static final String NODE_COLUMN = "name";
+
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
+    final TierIndex index;
+    final String version = Long.toString(System.currentTimeMillis());
+    final HttpServer server;
+    final ExecutorService executor;
+    final ThreadLocal<Marks> marks = new ThreadLocal<Marks>() {
+        protected Marks initialValue() {
+            return new Marks(index.nodeCount());
+        }
+    };
+
+    /**
+     * Start serving {@code index} on {@code port} (0 for any free port).
+     */
+    public TierServer(final int port, final TierIndex index) throws IOException {
+        this.index = index;
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+            public void handle(final HttpExchange exchange) throws IOException {
+                try {
+                    respond(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    /**
+     * Per-thread node marks. A node is marked if its stamp is the current
+     * generation, so clearing all marks is just starting a new generation.
+     */
+    static class Marks {
+        final int[] extant;
+        final int[] inTier;
+        final int[] local;
+        int extantGeneration = 0;
+        int tierGeneration = 0;
+
+        Marks(final int nodeCount) {
+            extant = new int[nodeCount];
+            inTier = new int[nodeCount];
+            local = new int[nodeCount];
+        }
+
+        void clearExtant() {
+            if (++extantGeneration == Integer.MAX_VALUE) {
+                Arrays.fill(extant, 0);
+                extantGeneration = 1;
+            }
+        }
+
+        void markExtant(final int node) {
+            extant[node] = extantGeneration;
+        }
+
+        boolean isExtant(final int node) {
+            return extant[node] == extantGeneration;
+        }
+
+        void clearTier() {
+            if (++tierGeneration == Integer.MAX_VALUE) {
+                Arrays.fill(inTier, 0);
+                tierGeneration = 1;
+            }
+        }
+    }
+
+    /**
+     * The nodes and edges of one response, as ids into the index.
+     */
+    static class Tier {
+        final Marks marks;
+        int[] nodes = new int[64];
+        int nodeCount = 0;
+        int[] edges = new int[64];
+        int edgeCount = 0;
+
+        Tier(final Marks marks) {
+            this.marks = marks;
+            marks.clearTier();
+        }
+
+        boolean contains(final int node) {
+            return marks.inTier[node] == marks.tierGeneration;
+        }
+
+        /**
+         * Return the position of {@code node} in the response, adding it if it isn't there yet.
+         */
+        int add(final int node) {
+            if (contains(node))
+                return marks.local[node];
+            if (nodeCount == nodes.length)
+                nodes = Arrays.copyOf(nodes, nodeCount * 2);
+            marks.inTier[node] = marks.tierGeneration;
+            marks.local[node] = nodeCount;
+            nodes[nodeCount] = node;
+            return nodeCount++;
+        }
+
+        void addEdge(final int edge) {
+            if (edgeCount == edges.length)
+                edges = Arrays.copyOf(edges, edgeCount * 2);
+            edges[edgeCount++] = edge;
+        }
+    }
+
+    static class BadRequestException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        public BadRequestException(final String message) {
+            super(message);
+        }
+    }
+
+    private void respond(final HttpExchange exchange) throws IOException {
+        final String[] path = exchange.getRequestURI().getPath().replaceAll("^/+|/+$", "").split("/+");
+        final boolean replace = path[0].equals("replace");
+        final boolean refresh = path.length == 2 && path[1].equals("refresh");
+        if (!(replace || path[0].equals("augment")) || path.length > 2 || (path.length == 2 && !refresh && !(replace && path[1].equals("path")))) {
+            sendText(exchange, 404, "invalid service name");
+            return;
+        }
+        if (refresh) {
+            respondToRefresh(exchange);
+            return;
+        }
+
+        final Marks marks = this.marks.get();
+        marks.clearExtant();
+        final String target;
+        try {
+            target = readRequest(exchange, marks);
+        } catch (JsonParseException e) {
+            sendText(exchange, 400, "invalid request: " + e.getMessage());
+            return;
+        }
+
+        final JsonGenerator output;
+        try {
+            if (target == null) {
+                final Tier tier = topTier(marks);
+                exchange.getResponseHeaders().set("Evolvo-action", replace ? "replace" : "augment");
+                exchange.getResponseHeaders().set("Evolvo-node-column", NODE_COLUMN);
+                exchange.getResponseHeaders().set("Evolvo-version", version);
+                output = startJson(exchange);
+                writeNetwork(output, tier, replace);
+            } else if (path.length == 2) {
+                final int[] parents = pathToReveal(lookup(target), marks);
+                output = startJson(exchange);
+                output.writeStartArray();
+                for (final int parent : parents) {
+                    // extant marks grow with each tier, so tiers are built as they are written
+                    final Tier tier = replaceTier(parent, marks);
+                    for (int i = 0; i < tier.nodeCount; i++)
+                        marks.markExtant(tier.nodes[i]);
+                    output.writeStartArray();
+                    output.writeString(index.keys[parent]);
+                    writeNetwork(output, tier, true);
+                    output.writeEndArray();
+                }
+                output.writeEndArray();
+            } else {
+                final int node = lookup(target);
+                if (replace && !index.hasChildren(node))
+                    throw new BadRequestException("node is not expandable");
+                final Tier tier = replace ? replaceTier(node, marks) : augmentTier(node, marks);
+                output = startJson(exchange);
+                writeNetwork(output, tier, replace);
+            }
+        } catch (BadRequestException e) {
+            sendText(exchange, 400, e.getMessage());
+            return;
+        }
+        output.close();
+    }
+
+    /**
+     * Answer a refresh request. Nothing changes while the server runs, so the
+     * version the client saw is either this one, with no changes since, or one
+     * from before a restart, which it has to reopen the network to leave.
+     */
+    private void respondToRefresh(final HttpExchange exchange) throws IOException {
+        String seen = null;
+        final InputStream input = exchange.getRequestBody();
+        try {
+            final JsonParser parser = jsonFactory.createJsonParser(input);
+            if (parser.nextToken() == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    final String field = parser.getCurrentName();
+                    final JsonToken value = parser.nextToken();
+                    if (field.equals("version") && value == JsonToken.VALUE_STRING)
+                        seen = parser.getText();
+                    else
+                        parser.skipChildren();
+                }
+            }
+        } catch (JsonParseException e) {
+            sendText(exchange, 400, "invalid request: " + e.getMessage());
+            return;
+        } finally {
+            input.close();
+        }
+
+        if (!version.equals(seen)) {
+            sendText(exchange, 409, "unknown version; reopen the network");
+            return;
+        }
+        exchange.getResponseHeaders().set("Evolvo-version", version);
+        final JsonGenerator output = startJson(exchange);
+        output.writeStartArray();
+        output.writeEndArray();
+        output.close();
+    }
+
+    /**
+     * Read the target and mark the extant nodes, from the JSON body if there
+     * is one and from the query otherwise. Extant nodes that aren't in the
+     * index are ignored.
+     * @return The target key, or null for the top tier
+     */
+    private String readRequest(final HttpExchange exchange, final Marks marks) throws IOException {
+        final InputStream input = exchange.getRequestBody();
+        String target = null;
+        try {
+            final JsonParser parser = jsonFactory.createJsonParser(input);
+            if (parser.nextToken() == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    final String field = parser.getCurrentName();
+                    final JsonToken value = parser.nextToken();
+                    if (field.equals("target") && value == JsonToken.VALUE_STRING) {
+                        target = parser.getText();
+                    } else if (field.equals("extant-nodes") && value == JsonToken.START_ARRAY) {
+                        while (parser.nextToken() == JsonToken.VALUE_STRING)
+                            markExtant(parser.getText(), marks);
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+                return target;
+            }
+        } finally {
+            input.close();
+        }
+
+        final String query = exchange.getRequestURI().getRawQuery();
+        if (query == null)
+            return null;
+        for (final String param : query.split("&")) {
+            final int eq = param.indexOf('=');
+            if (eq < 0)
+                continue;
+            final String name = URLDecoder.decode(param.substring(0, eq), "UTF-8");
+            final String value = URLDecoder.decode(param.substring(eq + 1), "UTF-8");
+            if (name.equals("target"))
+                target = value;
+            else if (name.equals("extant-nodes"))
+                markExtant(value, marks);
+        }
+        return target;
+    }
+
+    private void markExtant(final String key, final Marks marks) {
+        final int node = index.id(key);
+        if (node >= 0)
+            marks.markExtant(node);
+    }
+
+    private int lookup(final String key) throws BadRequestException {
+        final int node = index.id(key);
+        if (node < 0)
+            throw new BadRequestException(String.format("no such node: %s", key));
+        return node;
+    }
+
+    /**
+     * The top tier and the edges between its nodes.
+     */
+    Tier topTier(final Marks marks) {
+        final Tier tier = new Tier(marks);
+        for (final int node : index.top)
+            tier.add(node);
+        for (final int node : index.top) {
+            for (int i = index.edgeStart[node]; i < index.edgeStart[node + 1]; i++) {
+                final int edge = index.incident[i];
+                final int other = index.other(edge, node);
+                if (index.parent[other] < 0 && index.src[edge] == node)
+                    tier.addEdge(edge);
+            }
+        }
+        return tier;
+    }
+
+    /**
+     * The children of {@code target}, the edges between them and the edges from them to extant nodes.
+     */
+    Tier replaceTier(final int target, final Marks marks) {
+        final Tier tier = new Tier(marks);
+        for (int i = index.childStart[target]; i < index.childStart[target + 1]; i++)
+            tier.add(index.children[i]);
+        for (int i = index.childStart[target]; i < index.childStart[target + 1]; i++) {
+            final int child = index.children[i];
+            for (int j = index.edgeStart[child]; j < index.edgeStart[child + 1]; j++) {
+                final int edge = index.incident[j];
+                final int other = index.other(edge, child);
+                if (index.parent[other] == target) {
+                    // an edge between two children is seen from both; take it from its source
+                    if (index.src[edge] == child)
+                        tier.addEdge(edge);
+                } else if (marks.isExtant(other)) {
+                    tier.add(other);
+                    tier.addEdge(edge);
+                }
+            }
+        }
+        return tier;
+    }
+
+    /**
+     * {@code target}, its neighbors and its edges, and the edges from its
+     * neighbors to each other and to extant nodes.
+     */
+    Tier augmentTier(final int target, final Marks marks) {
+        final Tier tier = new Tier(marks);
+        tier.add(target);
+        for (int i = index.edgeStart[target]; i < index.edgeStart[target + 1]; i++) {
+            final int edge = index.incident[i];
+            tier.add(index.other(edge, target));
+            tier.addEdge(edge);
+        }
+        final int neighbors = tier.nodeCount;
+        for (int n = 1; n < neighbors; n++) {
+            final int neighbor = tier.nodes[n];
+            for (int i = index.edgeStart[neighbor]; i < index.edgeStart[neighbor + 1]; i++) {
+                final int edge = index.incident[i];
+                final int other = index.other(edge, neighbor);
+                if (other == target)
+                    continue;
+                if (tier.contains(other) && marks.local[other] < neighbors) {
+                    if (index.src[edge] == neighbor)
+                        tier.addEdge(edge);
+                } else if (marks.isExtant(other)) {
+                    tier.add(other);
+                    tier.addEdge(edge);
+                }
+            }
+        }
+        return tier;
+    }
+
+    /**
+     * Return the ancestors of {@code target} that have to be expanded to
+     * reach it, from the top down: the lowest extant node on the way up from
+     * {@code target} and every ancestor below it.
+     */
+    int[] pathToReveal(final int target, final Marks marks) {
+        int depth = 0;
+        for (int node = target; index.parent[node] >= 0 && !marks.isExtant(node); node = index.parent[node])
+            depth++;
+        final int[] parents = new int[depth];
+        int node = target;
+        for (int i = depth - 1; i >= 0; i--) {
+            node = index.parent[node];
+            parents[i] = node;
+        }
+        return parents;
+    }
+
+    private static JsonGenerator startJson(final HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, 0);
+        return jsonFactory.createJsonGenerator(new BufferedOutputStream(exchange.getResponseBody(), 65536), JsonEncoding.UTF8);
+    }
+
+    /**
+     * Write {@code tier} in the JSON network format: a node table, an edge table and an empty network table.
+     * @param expandable Whether to add an "expandable" node column
+     */
+    private void writeNetwork(final JsonGenerator output, final Tier tier, final boolean expandable) throws IOException {
+        output.writeStartArray();
+
+        output.writeStartArray();
+        output.writeStartArray();
+        output.writeString(NODE_COLUMN);
+        if (expandable)
+            output.writeString("expandable");
+        output.writeEndArray();
+        for (int i = 0; i < tier.nodeCount; i++) {
+            output.writeStartArray();
+            output.writeString(index.keys[tier.nodes[i]]);
+            if (expandable)
+                output.writeBoolean(index.hasChildren(tier.nodes[i]));
+            output.writeEndArray();
+        }
+        output.writeEndArray();
+
+        output.writeStartArray();
+        output.writeStartArray();
+        output.writeString("src");
+        output.writeString("trg");
+        output.writeEndArray();
+        for (int i = 0; i < tier.edgeCount; i++) {
+            final int edge = tier.edges[i];
+            output.writeStartArray();
+            output.writeNumber(tier.marks.local[index.src[edge]]);
+            output.writeNumber(tier.marks.local[index.trg[edge]]);
+            output.writeEndArray();
+        }
+        output.writeEndArray();
+
+        output.writeStartArray();
+        output.writeEndArray();
+
+        output.writeEndArray();
+    }
+
+    private static void sendText(final HttpExchange exchange, final int status, final String text) throws IOException {
+        final byte[] body = text.getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        final OutputStream output = exchange.getResponseBody();
+        output.write(body);
+        output.close();
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final TierIndex index;
+        if (args.length == 2) {
+            final Reader reader = new FileReader(args[1]);
+            try {
+                index = TierIndex.read(reader);
+            } finally {
+                reader.close();
+            }
+        } else if ((args.length == 5 || args.length == 6) && args[1].equals("generate")) {
+            final long seed = (args.length == 6) ? Long.parseLong(args[5]) : 0L;
+            index = TierIndex.generate(Integer.parseInt(args[2]), Integer.parseInt(args[3]), Integer.parseInt(args[4]), seed);
+        } else {
+            System.err.println("usage: TierServer port file");
+            System.err.println("       TierServer port generate tiers fan-out edges-per-node [seed]");
+            System.exit(2);
+            return;
+        }
+        final TierServer server = new TierServer(Integer.parseInt(args[0]), index);
+        System.out.println(String.format("Serving %d nodes and %d edges on port %d", index.nodeCount(), index.edgeCount(), server.port()));
+    }
+}
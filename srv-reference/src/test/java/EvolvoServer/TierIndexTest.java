@@ -0,0 +1,82 @@
+package EvolvoServer;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.io.StringReader;
+
+public class TierIndexTest
+{
+    static final String NETWORK =
+        "# two tiers\n" +
+        "node a\n" +
+        "node b\n" +
+        "node a.1 a\n" +
+        "node a.2 a\n" +
+        "edge a b\n" +
+        "edge a.1 a.2\n" +
+        "edge a.2 b\n" +
+        "edge a.1 a.1\n";
+
+    @Test
+    public void testRead() throws Exception {
+        final TierIndex index = TierIndex.read(new StringReader(NETWORK));
+        assertEquals(4, index.nodeCount());
+        assertEquals(4, index.edgeCount());
+
+        final int a = index.id("a");
+        final int a1 = index.id("a.1");
+        final int a2 = index.id("a.2");
+        final int b = index.id("b");
+        assertEquals(-1, index.id("c"));
+        assertEquals(2, index.top.length);
+        assertEquals(-1, index.parent[a]);
+        assertEquals(a, index.parent[a1]);
+        assertTrue(index.hasChildren(a));
+        assertFalse(index.hasChildren(b));
+        assertEquals(a1, index.children[index.childStart[a]]);
+        assertEquals(a2, index.children[index.childStart[a] + 1]);
+
+        // a.1 has its edge to a.2 and its self-loop, listed once
+        assertEquals(2, index.edgeStart[a1 + 1] - index.edgeStart[a1]);
+        assertEquals(2, index.edgeStart[a2 + 1] - index.edgeStart[a2]);
+        assertEquals(2, index.edgeStart[b + 1] - index.edgeStart[b]);
+        final int edge = index.incident[index.edgeStart[a]];
+        assertEquals(b, index.other(edge, a));
+        assertEquals(a, index.other(edge, b));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testUnknownEndpoint() throws Exception {
+        TierIndex.read(new StringReader("node a\nedge a b\n"));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testCycle() throws Exception {
+        TierIndex.read(new StringReader("node a b\nnode b a\n"));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testDuplicateNode() throws Exception {
+        TierIndex.read(new StringReader("node a\nnode a\n"));
+    }
+
+    @Test
+    public void testGenerate() {
+        final TierIndex index = TierIndex.generate(3, 4, 2, 1L);
+        assertEquals(4 + 16 + 64, index.nodeCount());
+        assertEquals((4 + 16 + 64) * 2, index.edgeCount());
+        final int node = index.id("n2.3.4");
+        assertEquals(index.id("n2.3"), index.parent[node]);
+        assertFalse(index.hasChildren(node));
+        for (int e = 0; e < index.edgeCount(); e++)
+            assertEquals(depth(index, index.src[e]), depth(index, index.trg[e]));
+    }
+
+    private static int depth(final TierIndex index, int node) {
+        int depth = 0;
+        while ((node = index.parent[node]) >= 0)
+            depth++;
+        return depth;
+    }
+}
@@ -0,0 +1,143 @@
+package EvolvoServer;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+
+public class TierServerTest
+{
+    static final String NETWORK =
+        "node a\n" +
+        "node n1\n" +
+        "node n2\n" +
+        "node n11 n1\n" +
+        "node n12 n1\n" +
+        "node n21 n2\n" +
+        "edge a n1\n" +
+        "edge n1 n2\n" +
+        "edge n11 n12\n" +
+        "edge a n11\n" +
+        "edge n12 n2\n" +
+        "edge n12 n21\n";
+
+    TierServer server = null;
+
+    @Before
+    public void setup() throws Exception {
+        server = new TierServer(0, TierIndex.read(new StringReader(NETWORK)));
+    }
+
+    @After
+    public void teardown() {
+        server.stop();
+    }
+
+    private String send(final String path, final String body, final int expectedStatus) throws Exception {
+        final HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + server.port() + path).openConnection();
+        if (body != null) {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+            final OutputStream output = connection.getOutputStream();
+            output.write(body.getBytes("UTF-8"));
+            output.close();
+        }
+        assertEquals(expectedStatus, connection.getResponseCode());
+        final InputStream input = (expectedStatus >= 400) ? connection.getErrorStream() : connection.getInputStream();
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int b;
+        while ((b = input.read()) != -1)
+            bytes.write(b);
+        input.close();
+        return bytes.toString("UTF-8");
+    }
+
+    @Test
+    public void testTopTier() throws Exception {
+        final HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + server.port() + "/replace").openConnection();
+        assertEquals("replace", connection.getHeaderField("Evolvo-action"));
+        assertEquals("name", connection.getHeaderField("Evolvo-node-column"));
+        connection.getInputStream().close();
+
+        assertEquals(
+            "[[[\"name\",\"expandable\"],[\"a\",false],[\"n1\",true],[\"n2\",true]],[[\"src\",\"trg\"],[0,1],[1,2]],[]]",
+            send("/replace", null, 200));
+        assertEquals(
+            "[[[\"name\"],[\"a\"],[\"n1\"],[\"n2\"]],[[\"src\",\"trg\"],[0,1],[1,2]],[]]",
+            send("/augment", null, 200));
+    }
+
+    @Test
+    public void testReplace() throws Exception {
+        // n2 is extant, n21 isn't, and "zz" isn't in the network at all
+        assertEquals(
+            "[[[\"name\",\"expandable\"],[\"n11\",false],[\"n12\",false],[\"a\",false],[\"n2\",true]],[[\"src\",\"trg\"],[0,1],[2,0],[1,3]],[]]",
+            send("/replace", "{\"target\": \"n1\", \"extant-nodes\": [\"a\", \"n2\", \"zz\"]}", 200));
+        assertEquals(
+            "[[[\"name\",\"expandable\"],[\"n11\",false],[\"n12\",false]],[[\"src\",\"trg\"],[0,1]],[]]",
+            send("/replace?target=n1", null, 200));
+        assertEquals("node is not expandable", send("/replace", "{\"target\": \"a\"}", 400));
+        assertEquals("no such node: zz", send("/replace", "{\"target\": \"zz\"}", 400));
+        assertEquals("invalid service name", send("/other", null, 404));
+    }
+
+    @Test
+    public void testAugment() throws Exception {
+        // n1's neighbors are a and n2; n12 is extant and touches n2
+        assertEquals(
+            "[[[\"name\"],[\"n1\"],[\"a\"],[\"n2\"],[\"n12\"]],[[\"src\",\"trg\"],[1,0],[0,2],[3,2]],[]]",
+            send("/augment", "{\"target\": \"n1\", \"extant-nodes\": [\"n12\"]}", 200));
+    }
+
+    @Test
+    public void testPath() throws Exception {
+        final String tiers = send("/replace/path", "{\"target\": \"n21\", \"extant-nodes\": [\"a\", \"n1\"]}", 200);
+        assertEquals(
+            "[[\"n2\",[[[\"name\",\"expandable\"],[\"n21\",false]],[[\"src\",\"trg\"]],[]]]]",
+            tiers);
+        assertEquals("[]", send("/replace/path", "{\"target\": \"n2\", \"extant-nodes\": [\"n2\"]}", 200));
+    }
+
+    @Test
+    public void testRefresh() throws Exception {
+        final HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + server.port() + "/replace").openConnection();
+        final String version = connection.getHeaderField("Evolvo-version");
+        connection.getInputStream().close();
+        assertNotNull(version);
+
+        assertEquals("[]", send("/replace/refresh", "{\"version\":\"" + version + "\",\"expanded\":[\"n1\"]}", 200));
+        assertEquals("[]", send("/augment/refresh", "{\"version\":\"" + version + "\",\"expanded\":[]}", 200));
+        send("/replace/refresh", "{\"version\":\"0\",\"expanded\":[]}", 409);
+    }
+
+    @Test
+    public void testLargeTier() throws Exception {
+        server.stop();
+        server = new TierServer(0, TierIndex.generate(1, 20000, 10, 1L));
+        final String top = send("/replace", null, 200);
+        assertTrue(top.startsWith("[[[\"name\",\"expandable\"],[\"n1\",false],"));
+
+        // one row for each node and edge, plus a header row for each table
+        final JsonParser parser = new JsonFactory().createJsonParser(top);
+        int rows = 0;
+        int depth = 0;
+        for (JsonToken t = parser.nextToken(); t != null; t = parser.nextToken()) {
+            if (t == JsonToken.START_ARRAY && ++depth == 3)
+                rows++;
+            else if (t == JsonToken.END_ARRAY)
+                depth--;
+        }
+        assertEquals(1 + 20000 + 1 + 20000 * 10, rows);
+    }
+}